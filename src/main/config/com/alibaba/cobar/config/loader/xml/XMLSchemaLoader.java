@@ -172,6 +172,10 @@ public class XMLSchemaLoader implements SchemaLoader {
         for (int i = 0; i < nodeList.getLength(); i++) {
             Element tableElement = (Element) nodeList.item(i);
             String name = tableElement.getAttribute("name").toUpperCase();
+            if (tableElement.hasAttribute("parentTable")) {
+                loadChildTables(tables, tableElement, name);
+                continue;
+            }
             String dataNode = tableElement.getAttribute("dataNode");
             TableRuleConfig tableRule = null;
             if (tableElement.hasAttribute("rule")) {
@@ -185,10 +189,30 @@ public class XMLSchemaLoader implements SchemaLoader {
             if (tableElement.hasAttribute("ruleRequired")) {
                 ruleRequired = Boolean.parseBoolean(tableElement.getAttribute("ruleRequired"));
             }
+            boolean global = false;
+            if (tableElement.hasAttribute("type")) {
+                String type = tableElement.getAttribute("type").trim();
+                if (!"global".equalsIgnoreCase(type)) {
+                    throw new ConfigException("table " + name + " has unknown type: " + type);
+                }
+                if (tableRule != null) {
+                    throw new ConfigException("global table " + name + " must not have rule");
+                }
+                global = true;
+            }
+            String[] indexColumns = null;
+            if (tableElement.hasAttribute("globalIndex")) {
+                indexColumns = SplitUtil.split(tableElement.getAttribute("globalIndex"), ',', true);
+            }
+            String sequenceColumn = null;
+            if (tableElement.hasAttribute("sequenceColumn")) {
+                sequenceColumn = tableElement.getAttribute("sequenceColumn").trim();
+            }
 
             String[] tableNames = SplitUtil.split(name, ',', true);
             for (String tableName : tableNames) {
-                TableConfig table = new TableConfig(tableName, dataNode, tableRule, ruleRequired);
+                TableConfig table = new TableConfig(tableName, dataNode, tableRule, ruleRequired, global, indexColumns,
+                                                    sequenceColumn);
                 checkDataNodeExists(table.getDataNodes());
                 if (tables.containsKey(table.getName())) {
                     throw new ConfigException("table " + tableName + " duplicated!");
@@ -199,6 +223,32 @@ public class XMLSchemaLoader implements SchemaLoader {
         return tables;
     }
 
+    /**
+     * 子表使用父表的数据节点和拆分规则，父表必须先于子表定义
+     */
+    private void loadChildTables(Map<String, TableConfig> tables, Element tableElement, String name) {
+        if (tableElement.hasAttribute("dataNode") || tableElement.hasAttribute("rule")
+                || tableElement.hasAttribute("type") || tableElement.hasAttribute("globalIndex")
+                || tableElement.hasAttribute("sequenceColumn")) {
+            throw new ConfigException("child table " + name
+                    + " must not have dataNode, rule, type, globalIndex or sequenceColumn");
+        }
+        String parentName = tableElement.getAttribute("parentTable").toUpperCase();
+        TableConfig parent = tables.get(parentName);
+        if (parent == null) {
+            throw new ConfigException("parent table " + parentName + " of " + name + " is not found!");
+        }
+        String joinKey = tableElement.getAttribute("joinKey");
+        String parentKey = tableElement.getAttribute("parentKey");
+        for (String tableName : SplitUtil.split(name, ',', true)) {
+            TableConfig table = new TableConfig(tableName, parent, joinKey, parentKey);
+            if (tables.containsKey(table.getName())) {
+                throw new ConfigException("table " + tableName + " duplicated!");
+            }
+            tables.put(table.getName(), table);
+        }
+    }
+
     private void checkDataNodeExists(String... nodes) {
         if (nodes == null || nodes.length < 1) {
             return;
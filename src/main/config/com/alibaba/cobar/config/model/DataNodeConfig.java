@@ -24,6 +24,7 @@ public final class DataNodeConfig {
 
     private static final int DEFAULT_POOL_SIZE = 128;
     private static final long DEFAULT_WAIT_TIMEOUT = 10 * 1000L;
+    private static final int DEFAULT_WAIT_QUEUE_SIZE = 256;
     private static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000L;
     private static final long DEFAULT_HEARTBEAT_TIMEOUT = 30 * 1000L;
     private static final int DEFAULT_HEARTBEAT_RETRY = 10;
@@ -32,12 +33,14 @@ public final class DataNodeConfig {
     private String dataSource;
     private int poolSize = DEFAULT_POOL_SIZE;// 保持后端数据通道的默认最大值
     private long waitTimeout = DEFAULT_WAIT_TIMEOUT; // 取得新连接的等待超时时间
+    private int waitQueueSize = DEFAULT_WAIT_QUEUE_SIZE; // 连接池满时最多排队等待的请求数
     private long idleTimeout = DEFAULT_IDLE_TIMEOUT; // 连接池中连接空闲超时时间
 
     // heartbeat config
     private long heartbeatTimeout = DEFAULT_HEARTBEAT_TIMEOUT; // 心跳超时时间
     private int heartbeatRetry = DEFAULT_HEARTBEAT_RETRY; // 检查连接发生异常到切换，重试次数
     private String heartbeatSQL;// 静态心跳语句
+    private String readWeights;// 读写分离时各数据源分担读请求的权重，逗号分隔，为空时不分离
 
     public String getHeartbeatSQL() {
         return heartbeatSQL;
@@ -79,6 +82,14 @@ public final class DataNodeConfig {
         this.waitTimeout = waitTimeout;
     }
 
+    public int getWaitQueueSize() {
+        return waitQueueSize;
+    }
+
+    public void setWaitQueueSize(int waitQueueSize) {
+        this.waitQueueSize = waitQueueSize;
+    }
+
     public long getIdleTimeout() {
         return idleTimeout;
     }
@@ -103,6 +114,14 @@ public final class DataNodeConfig {
         this.heartbeatRetry = heartbeatRetry;
     }
 
+    public String getReadWeights() {
+        return readWeights;
+    }
+
+    public void setReadWeights(String readWeights) {
+        this.readWeights = readWeights;
+    }
+
     public boolean isNeedHeartbeat() {
         return heartbeatSQL != null;
     }
@@ -36,6 +36,7 @@ public class SchemaConfig {
     private final String[] metaDataNodes;
     private final boolean keepSqlSchema;
     private final Set<String> allDataNodes;
+    private final boolean sequenceRequired;
 
     public SchemaConfig(String name, String dataNode, String group, boolean keepSqlSchema,
                         Map<String, TableConfig> tables) {
@@ -46,6 +47,7 @@ public class SchemaConfig {
         this.noSharding = (tables == null || tables.isEmpty()) ? true : false;
         this.metaDataNodes = buildMetaDataNodes();
         this.allDataNodes = buildAllDataNodes();
+        this.sequenceRequired = buildSequenceRequired();
         this.keepSqlSchema = keepSqlSchema;
     }
 
@@ -81,6 +83,13 @@ public class SchemaConfig {
         return allDataNodes;
     }
 
+    /**
+     * @return true if any table has column filled by global sequence
+     */
+    public boolean isSequenceRequired() {
+        return sequenceRequired;
+    }
+
     public String getRandomDataNode() {
         if (allDataNodes == null || allDataNodes.isEmpty()) {
             return null;
@@ -120,6 +129,17 @@ public class SchemaConfig {
         return set;
     }
 
+    private boolean buildSequenceRequired() {
+        if (!noSharding) {
+            for (TableConfig tc : tables.values()) {
+                if (tc.getSequenceColumn() != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private static boolean isEmpty(String str) {
         return ((str == null) || (str.length() == 0));
     }
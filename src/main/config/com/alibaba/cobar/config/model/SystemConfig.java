@@ -39,6 +39,10 @@ public final class SystemConfig {
     private static final String DEFAULT_CLUSTER_HEARTBEAT_PASS = "_HEARTBEAT_PASS_";
     private static final int DEFAULT_PARSER_COMMENT_VERSION = 50148;
     private static final int DEFAULT_SQL_RECORD_COUNT = 10;
+    private static final long DEFAULT_GROUP_BY_MEMORY_LIMIT = 32 * 1024 * 1024L;
+    private static final int DEFAULT_ROUTE_CACHE_SIZE = 4096;
+    private static final int DEFAULT_GLOBAL_INDEX_SIZE = 1024 * 1024;
+    private static final int DEFAULT_SEQUENCE_BLOCK_SIZE = 1000;
 
     private int serverPort;
     private int managerPort;
@@ -61,6 +65,14 @@ public final class SystemConfig {
     private int txIsolation;
     private int parserCommentVersion;
     private int sqlRecordCount;
+    private long groupByMemoryLimit;
+    private String groupBySpillDir;
+    private int routeCacheSize;
+    private int globalIndexSize;
+    private String sequenceDataNode;
+    private int sequenceBlockSize;
+    private String directBufferProcessors;
+    private String xaLogDir;
 
     public SystemConfig() {
         this.serverPort = DEFAULT_PORT;
@@ -84,6 +96,10 @@ public final class SystemConfig {
         this.txIsolation = Isolations.REPEATED_READ;
         this.parserCommentVersion = DEFAULT_PARSER_COMMENT_VERSION;
         this.sqlRecordCount = DEFAULT_SQL_RECORD_COUNT;
+        this.groupByMemoryLimit = DEFAULT_GROUP_BY_MEMORY_LIMIT;
+        this.routeCacheSize = DEFAULT_ROUTE_CACHE_SIZE;
+        this.globalIndexSize = DEFAULT_GLOBAL_INDEX_SIZE;
+        this.sequenceBlockSize = DEFAULT_SEQUENCE_BLOCK_SIZE;
     }
 
     public String getCharset() {
@@ -254,4 +270,113 @@ public final class SystemConfig {
         this.sqlRecordCount = sqlRecordCount;
     }
 
+    /**
+     * @return bytes of groups kept in memory by one multi-node GROUP BY
+     *         query, groups beyond it are spilled to disk
+     */
+    public long getGroupByMemoryLimit() {
+        return groupByMemoryLimit;
+    }
+
+    public void setGroupByMemoryLimit(long groupByMemoryLimit) {
+        this.groupByMemoryLimit = groupByMemoryLimit;
+    }
+
+    /**
+     * @return null for <code>java.io.tmpdir</code>
+     */
+    public String getGroupBySpillDir() {
+        return groupBySpillDir;
+    }
+
+    public void setGroupBySpillDir(String groupBySpillDir) {
+        this.groupBySpillDir = groupBySpillDir;
+    }
+
+    /**
+     * @return max count of cached route plans, 0 to disable route cache
+     */
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    public void setRouteCacheSize(int routeCacheSize) {
+        this.routeCacheSize = routeCacheSize;
+    }
+
+    /**
+     * @return max count of global index entries, 0 to disable global index
+     */
+    public int getGlobalIndexSize() {
+        return globalIndexSize;
+    }
+
+    public void setGlobalIndexSize(int globalIndexSize) {
+        this.globalIndexSize = globalIndexSize;
+    }
+
+    /**
+     * @return data node holding table <code>cobar_sequence</code>, null if
+     *         global sequence is not used
+     */
+    public String getSequenceDataNode() {
+        return sequenceDataNode;
+    }
+
+    public void setSequenceDataNode(String sequenceDataNode) {
+        this.sequenceDataNode = sequenceDataNode;
+    }
+
+    /**
+     * @return count of sequence values fetched from data node at a time
+     */
+    public int getSequenceBlockSize() {
+        return sequenceBlockSize;
+    }
+
+    public void setSequenceBlockSize(int sequenceBlockSize) {
+        this.sequenceBlockSize = sequenceBlockSize;
+    }
+
+    /**
+     * @return comma separated indexes of processors using off-heap buffers,
+     *         e.g. <code>0,1</code>; <code>*</code> for all processors; null
+     *         for none
+     */
+    public String getDirectBufferProcessors() {
+        return directBufferProcessors;
+    }
+
+    public void setDirectBufferProcessors(String directBufferProcessors) {
+        this.directBufferProcessors = directBufferProcessors;
+    }
+
+    /**
+     * @return directory of XA decision log, null if transactions on multiple
+     *         data nodes are committed one by one without XA
+     */
+    public String getXaLogDir() {
+        return xaLogDir;
+    }
+
+    public void setXaLogDir(String xaLogDir) {
+        this.xaLogDir = xaLogDir;
+    }
+
+    /**
+     * @param processor index of processor
+     */
+    public boolean isDirectBuffer(int processor) {
+        if (directBufferProcessors == null) {
+            return false;
+        }
+        for (String index : directBufferProcessors.split(",")) {
+            index = index.trim();
+            if ("*".equals(index) || index.equals(String.valueOf(processor))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
@@ -18,9 +18,11 @@
  */
 package com.alibaba.cobar.config.model;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import com.alibaba.cobar.config.model.rule.RuleConfig;
@@ -31,13 +33,36 @@ import com.alibaba.cobar.util.SplitUtil;
  * @author <a href="mailto:shuo.qius@alibaba-inc.com">QIU Shuo</a>
  */
 public class TableConfig {
+    private static final Random RANDOM = new Random();
+
     private final String name;
     private final String[] dataNodes;
     private final TableRuleConfig rule;
     private final Set<String> columnIndex;
     private final boolean ruleRequired;
+    private final boolean global;
+    private final TableConfig parent;
+    private final String joinKey;
+    private final Set<String> indexColumns;
+    private final String sequenceColumn;
 
     public TableConfig(String name, String dataNode, TableRuleConfig rule, boolean ruleRequired) {
+        this(name, dataNode, rule, ruleRequired, false);
+    }
+
+    /**
+     * @param global 全局表在每个数据节点上都有完整的数据，不能有拆分规则
+     */
+    public TableConfig(String name, String dataNode, TableRuleConfig rule, boolean ruleRequired, boolean global) {
+        this(name, dataNode, rule, ruleRequired, global, null, null);
+    }
+
+    /**
+     * @param indexColumns 由全局索引记录取值所在分区的唯一列，可以为null
+     * @param sequenceColumn 插入时由cobar的全局序列生成值的列，可以为null
+     */
+    public TableConfig(String name, String dataNode, TableRuleConfig rule, boolean ruleRequired, boolean global,
+                       String[] indexColumns, String sequenceColumn) {
         if (name == null) {
             throw new IllegalArgumentException("table name is null");
         }
@@ -47,8 +72,47 @@ public class TableConfig {
             throw new IllegalArgumentException("invalid table dataNodes: " + dataNode);
         }
         this.rule = rule;
-        this.columnIndex = buildColumnIndex(rule);
+        this.indexColumns = buildIndexColumns(indexColumns);
+        this.columnIndex = buildColumnIndex(rule, this.indexColumns);
         this.ruleRequired = ruleRequired;
+        this.global = global;
+        this.parent = null;
+        this.joinKey = null;
+        this.sequenceColumn = sequenceColumn == null ? null : sequenceColumn.toUpperCase();
+        if (global && rule != null) {
+            throw new IllegalArgumentException("global table " + name + " must not have rule");
+        }
+        if (rule == null && !this.indexColumns.isEmpty()) {
+            throw new IllegalArgumentException("table " + name + " without rule must not have global index");
+        }
+    }
+
+    /**
+     * 子表和父表在同一组数据节点上，子表以<code>joinKey</code>按照父表拆分列<code>parentKey</code>的规则拆分，
+     * 因此子表的记录总是和它关联的父表记录在同一个节点上
+     * 
+     * @param parentKey partition column of parent table
+     */
+    public TableConfig(String name, TableConfig parent, String joinKey, String parentKey) {
+        if (name == null) {
+            throw new IllegalArgumentException("table name is null");
+        }
+        if (parent.isGlobal()) {
+            throw new IllegalArgumentException("parent table " + parent.getName() + " is global");
+        }
+        if (joinKey == null || parentKey == null) {
+            throw new IllegalArgumentException("joinKey and parentKey of child table " + name + " are required");
+        }
+        this.name = name.toUpperCase();
+        this.dataNodes = parent.getDataNodes();
+        this.rule = buildChildRule(this.name, parent.getRule(), joinKey.toUpperCase(), parentKey.toUpperCase());
+        this.indexColumns = Collections.emptySet();
+        this.columnIndex = buildColumnIndex(rule, indexColumns);
+        this.ruleRequired = parent.isRuleRequired();
+        this.global = false;
+        this.parent = parent;
+        this.joinKey = joinKey.toUpperCase();
+        this.sequenceColumn = null;
     }
 
     public boolean existsColumn(String columnNameUp) {
@@ -74,7 +138,93 @@ public class TableConfig {
         return rule;
     }
 
-    private static Set<String> buildColumnIndex(TableRuleConfig rule) {
+    public boolean isGlobal() {
+        return global;
+    }
+
+    /**
+     * @return upper-case columns routed by global index, never null
+     */
+    public Set<String> getIndexColumns() {
+        return indexColumns;
+    }
+
+    /**
+     * @return upper-case column filled by global sequence, null if not
+     *         configured
+     */
+    public String getSequenceColumn() {
+        return sequenceColumn;
+    }
+
+    /**
+     * @return null if not child table
+     */
+    public TableConfig getParent() {
+        return parent;
+    }
+
+    /**
+     * @return upper-case column referring to parent table, null if not child
+     *         table
+     */
+    public String getJoinKey() {
+        return joinKey;
+    }
+
+    public String getRandomDataNode() {
+        return dataNodes.length == 1 ? dataNodes[0] : dataNodes[RANDOM.nextInt(dataNodes.length)];
+    }
+
+    /**
+     * @return true if every one of <code>nodes</code> has this table
+     */
+    public boolean containsDataNodes(String... nodes) {
+        for (String node : nodes) {
+            boolean found = false;
+            for (String dn : dataNodes) {
+                if (dn.equals(node)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TableRuleConfig buildChildRule(String name, TableRuleConfig parentRule, String joinKey,
+                                                  String parentKey) {
+        List<RuleConfig> rules = new ArrayList<RuleConfig>(1);
+        if (parentRule != null) {
+            for (RuleConfig r : parentRule.getRules()) {
+                List<String> columns = r.getColumns();
+                if (columns.size() == 1 && columns.get(0).equals(parentKey)) {
+                    rules.add(new RuleConfig(new String[] { joinKey }, r));
+                }
+            }
+        }
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("parentKey " + parentKey + " of child table " + name
+                    + " is not partition column of parent table");
+        }
+        return new TableRuleConfig(parentRule.getName(), rules);
+    }
+
+    private static Set<String> buildIndexColumns(String[] indexColumns) {
+        if (indexColumns == null || indexColumns.length == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> set = new HashSet<String>();
+        for (String col : indexColumns) {
+            set.add(col.toUpperCase());
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    private static Set<String> buildColumnIndex(TableRuleConfig rule, Set<String> indexColumns) {
         if (rule == null) {
             return Collections.emptySet();
         }
@@ -82,7 +232,7 @@ public class TableConfig {
         if (rs == null || rs.isEmpty()) {
             return Collections.emptySet();
         }
-        Set<String> columnIndex = new HashSet<String>();
+        Set<String> columnIndex = new HashSet<String>(indexColumns);
         for (RuleConfig r : rs) {
             List<String> columns = r.getColumns();
             if (columns != null) {
@@ -0,0 +1,30 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.config.model.rule;
+
+/**
+ * 可以按分区列的取值范围计算分区的路由算法，未实现本接口的算法对范围条件路由到全部分区。
+ */
+public interface RangeRuleAlgorithm extends RuleAlgorithm {
+
+    /**
+     * @param column partition column in upper case
+     * @return partitions overlapping with <code>range</code>, null if they
+     *         can not be calculated (e.g. argument of algorithm is not the
+     *         column itself), which means all partitions
+     */
+    Integer[] calculateRange(String column, RangeValue range);
+}
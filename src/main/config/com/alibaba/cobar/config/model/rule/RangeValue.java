@@ -0,0 +1,65 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.config.model.rule;
+
+/**
+ * 分区列的取值范围，来自BETWEEN和比较运算，端点为null表示该侧无界。
+ * 按对象标识比较，同一条件中的相同范围也作为不同的值。
+ */
+public final class RangeValue {
+    private final Object lower;
+    private final boolean lowerInclusive;
+    private final Object upper;
+    private final boolean upperInclusive;
+
+    public RangeValue(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * @return null if unbounded
+     */
+    public Object getLower() {
+        return lower;
+    }
+
+    public boolean isLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    /**
+     * @return null if unbounded
+     */
+    public Object getUpper() {
+        return upper;
+    }
+
+    public boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(lowerInclusive ? '[' : '(').append(lower == null ? "-inf" : lower).append(", ");
+        s.append(upper == null ? "+inf" : upper).append(upperInclusive ? ']' : ')');
+        return s.toString();
+    }
+
+}
@@ -19,6 +19,7 @@
 package com.alibaba.cobar.config.model.rule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -28,13 +29,33 @@ import java.util.List;
 public class RuleConfig {
     private final List<String> columns;
     private final String algorithm;
+    private final RuleConfig parent;
     private RuleAlgorithm ruleAlgorithm;
 
     public RuleConfig(String[] columns, String algorithm) {
+        this(columns, algorithm, null);
+    }
+
+    /**
+     * 子表的规则：使用父表规则的算法，以子表的关联列代替父表的拆分列
+     * 
+     * @param columns join keys of child table, one for each column of
+     *            <code>parent</code>
+     */
+    public RuleConfig(String[] columns, RuleConfig parent) {
+        this(columns, parent.getAlgorithm(), parent);
+        if (columns.length != parent.getColumns().size()) {
+            throw new IllegalArgumentException("join keys " + Arrays.toString(columns)
+                    + " don't match parent rule columns " + parent.getColumns());
+        }
+    }
+
+    private RuleConfig(String[] columns, String algorithm, RuleConfig parent) {
         if (algorithm == null) {
             throw new IllegalArgumentException("algorithm is null");
         }
         this.algorithm = algorithm;
+        this.parent = parent;
         if (columns == null || columns.length <= 0) {
             throw new IllegalArgumentException("no rule column is found");
         }
@@ -49,7 +70,7 @@ public class RuleConfig {
     }
 
     public RuleAlgorithm getRuleAlgorithm() {
-        return ruleAlgorithm;
+        return parent == null ? ruleAlgorithm : parent.getRuleAlgorithm();
     }
 
     public void setRuleAlgorithm(RuleAlgorithm ruleAlgorithm) {
@@ -63,6 +84,21 @@ public class RuleConfig {
         return columns;
     }
 
+    /**
+     * @return unmodifiable, upper-case, parameter names of algorithm for each
+     *         of {@link #getColumns()}
+     */
+    public List<String> getAlgorithmColumns() {
+        return parent == null ? columns : parent.getAlgorithmColumns();
+    }
+
+    /**
+     * @return null if not rule of child table
+     */
+    public RuleConfig getParent() {
+        return parent;
+    }
+
     /**
      * @return never null
      */
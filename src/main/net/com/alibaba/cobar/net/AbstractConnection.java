@@ -37,6 +37,7 @@ import com.alibaba.cobar.util.TimeUtil;
 public abstract class AbstractConnection implements NIOConnection {
     private static final int OP_NOT_READ = ~SelectionKey.OP_READ;
     private static final int OP_NOT_WRITE = ~SelectionKey.OP_WRITE;
+    private static final int GATHER_SIZE = 16;
 
     protected final SocketChannel channel;
     protected NIOProcessor processor;
@@ -48,6 +49,9 @@ public abstract class AbstractConnection implements NIOConnection {
     protected ByteBuffer readBuffer;
     protected BufferQueue writeQueue;
     protected final ReentrantLock writeLock;
+    protected final AtomicBoolean writePending;
+    private final ByteBuffer[] gatherBuffers;
+    private int gatherCount;
     protected boolean isRegistered;
     protected final AtomicBoolean isClosed;
     protected boolean isSocketClosed;
@@ -62,6 +66,8 @@ public abstract class AbstractConnection implements NIOConnection {
         this.channel = channel;
         this.keyLock = new ReentrantLock();
         this.writeLock = new ReentrantLock();
+        this.writePending = new AtomicBoolean(false);
+        this.gatherBuffers = new ByteBuffer[GATHER_SIZE];
         this.isClosed = new AtomicBoolean(false);
         this.startupTime = TimeUtil.currentTimeMillis();
         this.lastReadTime = startupTime;
@@ -238,9 +244,11 @@ public abstract class AbstractConnection implements NIOConnection {
                 error(ErrorCode.ERR_PUT_WRITE_QUEUE, e);
                 return;
             }
-            //然后交给processor对象,进一步交给processor中的REACTOR_W处理
-            //注意参数是该对象的引用,通过该对象调用
-            processor.postWrite(this);
+            //然后交给processor中的reactor处理，已在待发送队列中的连接不重复提交，
+            //之后写入的缓存与之前的缓存合并写出
+            if (writePending.compareAndSet(false, true)) {
+                processor.postWrite(this);
+            }
         } else {
             processor.getBufferPool().recycle(buffer);
             close();
@@ -252,9 +260,15 @@ public abstract class AbstractConnection implements NIOConnection {
         if (isClosed.get()) {
             return;
         }
+        // 先清除标记，之后写入的缓存会重新提交
+        writePending.set(false);
         final ReentrantLock lock = this.writeLock;
         lock.lock();
         try {
+            // 持锁后再检查一次，cleanup()可能已经回收了发送缓存
+            if (isClosed.get()) {
+                return;
+            }
             // 满足以下两个条件时，切换到基于事件的写操作。
             // 1.当前key对写事件不该兴趣。
             // 2.write0()返回false。
@@ -274,6 +288,9 @@ public abstract class AbstractConnection implements NIOConnection {
         final ReentrantLock lock = this.writeLock;
         lock.lock();
         try {
+            if (isClosed.get()) {
+                return;
+            }
             // 满足以下两个条件时，切换到基于队列的写操作。
             // 1.write0()返回true。
             // 2.发送队列的buffer为空。
@@ -386,10 +403,24 @@ public abstract class AbstractConnection implements NIOConnection {
             pool.recycle(buffer);
         }
 
-        // 回收发送缓存
-        while ((buffer = writeQueue.poll()) != null) {
-            pool.recycle(buffer);
+        // 回收发送缓存，和write0()互斥，避免同一块缓存被回收两次
+        final ReentrantLock lock = this.writeLock;
+        lock.lock();
+        try {
+            while ((buffer = writeQueue.poll()) != null) {
+                pool.recycle(buffer);
+            }
+            for (int i = 0; i < gatherCount; i++) {
+                pool.recycle(gatherBuffers[i]);
+                gatherBuffers[i] = null;
+            }
+            gatherCount = 0;
+        } finally {
+            lock.unlock();
         }
+
+        // 检查直接内存缓存泄漏
+        pool.checkLeak();
     }
 
     /**
@@ -436,48 +467,53 @@ public abstract class AbstractConnection implements NIOConnection {
     //返回值:true  buffer中的数据已经全部写入channel
     //		false  buffer还有遗留的数据尚未写入channel
     private boolean write0() throws IOException {
-        // 检查是否有遗留数据未写出
-        ByteBuffer buffer = writeQueue.attachment();
-        if (buffer != null) {
-            int written = channel.write(buffer);
+        final ByteBuffer[] buffers = this.gatherBuffers;
+        for (;;) {
+            // 遗留的未写完数据在前，之后从发送队列中取出缓存一次写出
+            int count = gatherCount;
+            boolean closing = false;
+            ByteBuffer buffer = null;
+            while (count < buffers.length && (buffer = writeQueue.poll()) != null) {
+                // 如果是一块未使用过的buffer，则写出之前的数据后关闭连接,回收buffer。
+                if (buffer.position() == 0) {
+                    processor.getBufferPool().recycle(buffer);
+                    closing = true;
+                    break;
+                }
+                buffer.flip();//为buffer的写操作做准备
+                buffers[count++] = buffer;
+            }
+            if (count == 0) {
+                if (closing) {
+                    close();
+                }
+                return true;
+            }
+            //向该连接的channel聚集写数据
+            long written = channel.write(buffers, 0, count);
             if (written > 0) {
                 netOutBytes += written;
                 processor.addNetOutBytes(written);
             }
             lastWriteTime = TimeUtil.currentTimeMillis();
-            if (buffer.hasRemaining()) {
-                writeAttempts++;
-                return false;
-            } else {
-                writeQueue.attach(null);
-                processor.getBufferPool().recycle(buffer);
+            int done = 0;
+            while (done < count && !buffers[done].hasRemaining()) {
+                processor.getBufferPool().recycle(buffers[done++]);
             }
-        }
-        // 写出发送队列中的数据块
-        if ((buffer = writeQueue.poll()) != null) {
-            // 如果是一块未使用过的buffer，则执行关闭连接,回收buffer。
-            if (buffer.position() == 0) {
-                processor.getBufferPool().recycle(buffer);
+            System.arraycopy(buffers, done, buffers, 0, count - done);
+            for (int i = count - done; i < count; i++) {
+                buffers[i] = null;
+            }
+            gatherCount = count - done;
+            if (closing) {
                 close();
                 return true;
             }
-            buffer.flip();//为buffer的写操作做准备
-            //向该连接的channel写数据
-            int written = channel.write(buffer);
-            if (written > 0) {
-                netOutBytes += written;
-                processor.addNetOutBytes(written);
-            }
-            lastWriteTime = TimeUtil.currentTimeMillis();
-            if (buffer.hasRemaining()) {
-                writeQueue.attach(buffer);
+            if (gatherCount > 0) {
                 writeAttempts++;
                 return false;
-            } else {
-                processor.getBufferPool().recycle(buffer);
             }
         }
-        return true;
     }
 
     /**
@@ -37,6 +37,7 @@ public abstract class BackendConnection extends AbstractConnection {
     protected NIOConnector connector;
     protected NIOHandler handler;
     protected boolean isFinishConnect;
+    protected NIOProcessor preferredProcessor;
 
     public BackendConnection(SocketChannel channel) {
         super(channel);
@@ -86,6 +87,17 @@ public abstract class BackendConnection extends AbstractConnection {
         return TimeUtil.currentTimeMillis() > Math.max(lastWriteTime, lastReadTime) + idleTimeout;
     }
 
+    public NIOProcessor getPreferredProcessor() {
+        return preferredProcessor;
+    }
+
+    /**
+     * @param processor 连接建立后注册到该处理器，为空时由connector轮询分配
+     */
+    public void setPreferredProcessor(NIOProcessor processor) {
+        this.preferredProcessor = processor;
+    }
+
     public void setConnector(NIOConnector connector) {
         this.connector = connector;
     }
@@ -308,7 +308,7 @@ public abstract class FrontendConnection extends AbstractConnection {
 
     public void stmtClose(byte[] data) {
         if (prepareHandler != null) {
-            prepareHandler.close();
+            prepareHandler.close(data);
         } else {
             writeErrMessage(ErrorCode.ER_UNKNOWN_COM_ERROR, "Prepare unsupported!");
         }
@@ -104,7 +104,7 @@ public final class NIOConnector extends Thread {
             if (c.finishConnect()) {
                 clearSelectionKey(key);
                 c.setId(ID_GENERATOR.getId());
-                NIOProcessor processor = nextProcessor();
+                NIOProcessor processor = selectProcessor(c);
                 c.setProcessor(processor);
                 processor.postRegister(c);
             }
@@ -121,6 +121,14 @@ public final class NIOConnector extends Thread {
         }
     }
 
+    /**
+     * 优先注册到发起连接的前端所在的处理器，没有指定时轮流分配
+     */
+    NIOProcessor selectProcessor(BackendConnection c) {
+        NIOProcessor processor = c.getPreferredProcessor();
+        return processor != null ? processor : nextProcessor();
+    }
+
     private NIOProcessor nextProcessor() {
         if (++nextProcessor == processors.length) {
             nextProcessor = 0;
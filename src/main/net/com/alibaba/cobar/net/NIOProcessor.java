@@ -35,7 +35,9 @@ public final class NIOProcessor {
     private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
     private final String name;
-    //reactor中包含一个读反应器和写反应器，分别用于处理读写数据
+    //在处理器数组中的位置，后端连接池按此分组空闲连接
+    private int index;
+    //reactor在同一个选择器线程上处理读写数据
     private final NIOReactor reactor;
     //每个processor拥有自己的缓冲池
     private final BufferPool bufferPool;
@@ -59,12 +61,24 @@ public final class NIOProcessor {
         this(name, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_CHUNK_SIZE, handler, executor);
     }
 
+    public NIOProcessor(String name, int handler, int executor, boolean directBuffer) throws IOException {
+        this(name, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_CHUNK_SIZE, handler, executor, directBuffer);
+    }
+
     public NIOProcessor(String name, int buffer, int chunk, int handler, int executor) throws IOException {
+        this(name, buffer, chunk, handler, executor, false);
+    }
+
+    /**
+     * @param directBuffer true to use off-heap buffers
+     */
+    public NIOProcessor(String name, int buffer, int chunk, int handler, int executor, boolean directBuffer)
+            throws IOException {
         this.name = name;
         this.reactor = new NIOReactor(name);
         
         //每个processor有独立的数据缓冲区
-        this.bufferPool = new BufferPool(buffer, chunk);
+        this.bufferPool = new BufferPool(buffer, chunk, directBuffer);
         
         //根据设置的handler和excutor数量，生成指定大小的线程池（大小默认是处理器的核心数目）
         this.handler = (handler > 0) ? ExecutorUtil.create(name + "-H", handler) : null;
@@ -81,6 +95,14 @@ public final class NIOProcessor {
         return name;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public BufferPool getBufferPool() {
         return bufferPool;
     }
@@ -27,7 +27,8 @@ import org.apache.log4j.Logger;
 import com.alibaba.cobar.config.ErrorCode;
 
 /**
- * 网络事件反应器
+ * 网络事件反应器：读事件、写事件和待发送的连接都由同一个选择器线程处理。
+ * 其他线程提交的发送请求在本轮事件处理完后统一写出，同一连接积累的多个缓存合并为一次写操作。
  * 
  * @author xianmao.hexm
  */
@@ -36,18 +37,16 @@ public final class NIOReactor {
 
     private final String name;
     private final R reactorR;
-    private final W reactorW;
 
     public NIOReactor(String name) throws IOException {
         this.name = name;
         this.reactorR = new R();
-        this.reactorW = new W();
     }
 
     final void startup() {
-    	//启动两个线程
-        new Thread(reactorR, name + "-R").start();
-        new Thread(reactorW, name + "-W").start();
+        Thread thread = new Thread(reactorR, name + "-R");
+        reactorR.thread = thread;
+        thread.start();
     }
 
     final void postRegister(NIOConnection c) {
@@ -65,23 +64,28 @@ public final class NIOReactor {
     }
 
     final void postWrite(NIOConnection c) {
-    	//将要要发送的连接(内容在连接对象中的缓冲区队列中)加入队列
-    	//reactorW会按序查看队列,进行发送
-        reactorW.writeQueue.offer(c);
+    	//将要发送的连接(内容在连接对象中的缓冲区队列中)加入队列，由选择器线程在本轮事件处理完后写出
+        reactorR.writeQueue.offer(c);
+        if (Thread.currentThread() != reactorR.thread) {
+            reactorR.selector.wakeup();
+        }
     }
 
     final BlockingQueue<NIOConnection> getWriteQueue() {
-        return reactorW.writeQueue;
+        return reactorR.writeQueue;
     }
 
     private final class R implements Runnable {
         private final Selector selector;
         private final BlockingQueue<NIOConnection> registerQueue;
+        private final BlockingQueue<NIOConnection> writeQueue;
+        private volatile Thread thread;
         private long reactCount;
 
         private R() throws IOException {
             this.selector = Selector.open();
             this.registerQueue = new LinkedBlockingQueue<NIOConnection>();
+            this.writeQueue = new LinkedBlockingQueue<NIOConnection>();
         }
 
         @Override
@@ -116,6 +120,7 @@ public final class NIOReactor {
                     } finally {
                         keys.clear();
                     }
+                    flush();
                 } catch (Throwable e) {
                     LOGGER.warn(name, e);
                 }
@@ -154,39 +159,20 @@ public final class NIOReactor {
                 c.error(ErrorCode.ERR_WRITE_BY_EVENT, e);
             }
         }
-    }
-
-    private final class W implements Runnable {
-        private final BlockingQueue<NIOConnection> writeQueue;
-
-        private W() {
-            this.writeQueue = new LinkedBlockingQueue<NIOConnection>();
-        }
 
-        @Override
-        public void run() {
-        	//客户端发送认证信息,前端将包含回复信息的链接加入队列,按顺序发送
+        /**
+         * 写出待发送队列中的连接，写不完的连接转为基于事件的写操作
+         */
+        private void flush() {
             NIOConnection c = null;
-            for (;;) {
+            while ((c = writeQueue.poll()) != null) {
                 try {
-                    if ((c = writeQueue.take()) != null) {
-                        write(c);
-                    }
+                    c.writeByQueue();
                 } catch (Throwable e) {
-                    LOGGER.warn(name, e);
+                    c.error(ErrorCode.ERR_WRITE_BY_QUEUE, e);
                 }
             }
         }
-
-        private void write(NIOConnection c) {
-            try {
-            	//TODO 调用具体连接的writeByQueue函数进行数据的发送
-            	//具体发送过程待探究
-                c.writeByQueue();
-            } catch (Throwable e) {
-                c.error(ErrorCode.ERR_WRITE_BY_QUEUE, e);
-            }
-        }
     }
 
 }
@@ -15,108 +15,310 @@
  */
 package com.alibaba.cobar.net.buffer;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
 
 /**
+ * 缓冲池：每个线程持有两个弹匣(magazine)，分配和回收都只访问本线程的弹匣，不需要加锁。
+ * 弹匣取空或装满时才与全局仓库(depot)整体交换，仓库是无锁队列，其中只存放装满的弹匣。
+ * <p>
+ * 仓库中的缓冲总数不超过{@link #capacity()}，超出的部分直接丢弃；线程结束后其弹匣中的缓冲在统计时归还仓库。
+ * <p>
+ * 堆外模式下缓冲是预先分配的大块直接内存(arena)的切片，读写socket时不再经过JDK临时直接缓冲的复制。
+ * 池中只接受本模式的缓冲，耗尽时临时分配的堆内缓冲不会被回收。每个切片由弱引用跟踪，
+ * 未归还就被GC回收的切片视为泄漏，由{@link #checkLeak()}记录并在原位置重新切出。
+ *
  * @author xianmao.hexm
  */
 public final class BufferPool {
+    private static final Logger LOGGER = Logger.getLogger(BufferPool.class);
+    private static final int MAGAZINE_SIZE = 32;
+    private static final int ARENA_SIZE = 1024 * 1024 * 4;
 
     private final int chunkSize;
-    private final ByteBuffer[] items;
-    private final ReentrantLock lock;
-    private int putIndex;
-    private int takeIndex;
-    private int count;
-    private volatile int newCount;
+    private final int capacity;
+    private final boolean direct;
+    private final ByteBuffer[] arenas;
+    private final int arenaChunks;
+    private final ChunkReference[] chunks;
+    private final ReferenceQueue<ByteBuffer> leaked;
+    private final AtomicInteger leakCount;
+    private final int magazineSize;
+    private final ConcurrentLinkedQueue<ByteBuffer[]> depot;
+    private final AtomicInteger depotCount;
+    private final AtomicInteger newCount;
+    private final CopyOnWriteArrayList<Magazine> magazines;
+    private final ThreadLocal<Magazine> localMagazine;
 
     public BufferPool(int bufferSize, int chunkSize) {
+        this(bufferSize, chunkSize, false);
+    }
+
+    /**
+     * @param direct true to allocate chunks from direct memory arenas
+     */
+    public BufferPool(int bufferSize, int chunkSize, boolean direct) {
         this.chunkSize = chunkSize;
         int capacity = bufferSize / chunkSize;
         capacity = (bufferSize % chunkSize == 0) ? capacity : capacity + 1;
-        this.items = new ByteBuffer[capacity];
-        this.lock = new ReentrantLock();
-        //初始化缓冲池
-        for (int i = 0; i < capacity; i++) {
-            insert(create(chunkSize));
+        this.capacity = capacity;
+        this.direct = direct;
+        this.leakCount = new AtomicInteger();
+        if (direct) {
+            this.arenaChunks = Math.max(1, ARENA_SIZE / chunkSize);
+            this.arenas = new ByteBuffer[(capacity + arenaChunks - 1) / arenaChunks];
+            for (int i = 0; i < arenas.length; i++) {
+                int n = Math.min(arenaChunks, capacity - i * arenaChunks);
+                arenas[i] = ByteBuffer.allocateDirect(n * chunkSize);
+            }
+            this.chunks = new ChunkReference[capacity];
+            this.leaked = new ReferenceQueue<ByteBuffer>();
+        } else {
+            this.arenaChunks = 0;
+            this.arenas = null;
+            this.chunks = null;
+            this.leaked = null;
+        }
+        this.magazineSize = Math.max(1, Math.min(MAGAZINE_SIZE, capacity));
+        this.depot = new ConcurrentLinkedQueue<ByteBuffer[]>();
+        this.depotCount = new AtomicInteger();
+        this.newCount = new AtomicInteger();
+        this.magazines = new CopyOnWriteArrayList<Magazine>();
+        this.localMagazine = new ThreadLocal<Magazine>() {
+            @Override
+            protected Magazine initialValue() {
+                Magazine m = new Magazine(Thread.currentThread(), magazineSize);
+                magazines.add(m);
+                return m;
+            }
+        };
+        //初始化缓冲池，全部以装满的弹匣放入仓库
+        for (int remain = capacity; remain > 0; remain -= magazineSize) {
+            ByteBuffer[] items = new ByteBuffer[Math.min(remain, magazineSize)];
+            for (int i = 0; i < items.length; i++) {
+                items[i] = direct ? slice(capacity - remain + i) : create(chunkSize);
+            }
+            depot.offer(items);
+            depotCount.addAndGet(items.length);
         }
     }
 
     public int capacity() {
-        return items.length;
+        return capacity;
     }
 
+    /**
+     * @return approximate count of free buffers in depot and magazines
+     */
     public int size() {
-        return count;
+        int size = 0;
+        for (Magazine m : magazines) {
+            if (m.thread.isAlive()) {
+                size += m.size();
+            } else {
+                reclaim(m);
+            }
+        }
+        return size + depotCount.get();
     }
 
     public int getNewCount() {
-        return newCount;
+        return newCount.get();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @return count of direct chunks found leaked by {@link #checkLeak()}
+     */
+    public int getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return thread name -&gt; ratio of allocations served by its magazines
+     *         without touching the depot
+     */
+    public Map<String, Double> getHitRates() {
+        Map<String, Double> rates = new LinkedHashMap<String, Double>();
+        for (Magazine m : magazines) {
+            long hit = m.hitCount;
+            long total = hit + m.missCount;
+            if (total > 0) {
+                rates.put(m.thread.getName(), (double) hit / total);
+            }
+        }
+        return rates;
     }
 
     //从缓冲池中取出一块Buffer
     public ByteBuffer allocate() {
-        ByteBuffer node = null;
-        //可重入锁
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-        	//如果缓冲池剩余容量为0,则会重新分配一个Buffer
-        	//在回收的时候可以将该Buffer添加到缓冲区，
-        	//否则就在缓冲池中取出一块
-            node = (count == 0) ? null : extract();
-        } finally {
-        	//该语句必须放在finally中
-            lock.unlock();
-        }
-        
-        if (node == null) {
-            ++newCount;
-            return create(chunkSize);
-        } else {
-            return node;
+        Magazine m = localMagazine.get();
+        if (m.loadedSize == 0) {
+            if (m.previousSize > 0) {
+                m.swap();
+            } else {
+                ByteBuffer[] full = depot.poll();
+                if (full == null) {
+                    //仓库已空，重新分配一个Buffer，回收时可以放入缓冲池
+                    ++m.missCount;
+                    newCount.incrementAndGet();
+                    return create(chunkSize);
+                }
+                depotCount.addAndGet(-full.length);
+                ++m.missCount;
+                m.previous = m.loaded;
+                m.loaded = full;
+                m.loadedSize = full.length;
+                return m.pop();
+            }
         }
+        ++m.hitCount;
+        return m.pop();
     }
 
     public void recycle(ByteBuffer buffer) {
-        // 拒绝回收null和容量大于chunkSize的缓存
-        if (buffer == null || buffer.capacity() > chunkSize) {
+        // 拒绝回收null、容量大于chunkSize和与本池模式不同的缓存
+        if (buffer == null || buffer.capacity() > chunkSize || buffer.isDirect() != direct) {
             return;
         }
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            if (count != items.length) {
-                buffer.clear();
-                insert(buffer);
+        buffer.clear();
+        Magazine m = localMagazine.get();
+        if (m.loadedSize == m.loaded.length) {
+            if (m.previousSize == 0) {
+                m.swap();
+            } else {
+                offer(m.previous);
+                m.previous = m.loaded;
+                m.previousSize = m.loadedSize;
+                m.loaded = new ByteBuffer[magazineSize];
+                m.loadedSize = 0;
             }
-        } finally {
-            lock.unlock();
         }
+        m.loaded[m.loadedSize++] = buffer;
     }
 
-    private void insert(ByteBuffer buffer) {
-        items[putIndex] = buffer;
-        putIndex = inc(putIndex);
-        ++count;
+    /**
+     * @param full dropped if depot is full
+     */
+    private void offer(ByteBuffer[] full) {
+        if (depotCount.get() + full.length <= capacity) {
+            depotCount.addAndGet(full.length);
+            depot.offer(full);
+        }
     }
 
-    private ByteBuffer extract() {
-        final ByteBuffer[] items = this.items;
-        ByteBuffer item = items[takeIndex];
-        items[takeIndex] = null;
-        takeIndex = inc(takeIndex);
-        --count;
-        return item;
+    /**
+     * 归还已结束线程的弹匣，线程结束之前的写操作对isAlive()返回false之后的读操作可见
+     */
+    private void reclaim(Magazine m) {
+        if (!magazines.remove(m)) {
+            return;
+        }
+        ByteBuffer[] items = new ByteBuffer[m.size()];
+        int n = 0;
+        while (m.loadedSize > 0 || m.previousSize > 0) {
+            if (m.loadedSize == 0) {
+                m.swap();
+            }
+            items[n++] = m.pop();
+        }
+        if (n > 0) {
+            offer(items);
+        }
     }
 
-    private int inc(int i) {
-        return (++i == items.length) ? 0 : i;
+    /**
+     * 检查未归还就被GC回收的直接内存切片，在原位置重新切出并放回仓库
+     */
+    public void checkLeak() {
+        if (!direct) {
+            return;
+        }
+        ChunkReference ref;
+        while ((ref = (ChunkReference) leaked.poll()) != null) {
+            leakCount.incrementAndGet();
+            LOGGER.warn("direct buffer leaked: chunk " + ref.index + " of " + capacity + ", not recycled before gc");
+            ByteBuffer[] items = { slice(ref.index) };
+            offer(items);
+        }
     }
 
     private ByteBuffer create(int size) {
         return ByteBuffer.allocate(size);
     }
 
+    /**
+     * @param index chunk index in all arenas
+     */
+    private ByteBuffer slice(int index) {
+        ByteBuffer arena = arenas[index / arenaChunks].duplicate();
+        int offset = (index % arenaChunks) * chunkSize;
+        arena.limit(offset + chunkSize);
+        arena.position(offset);
+        ByteBuffer chunk = arena.slice();
+        chunks[index] = new ChunkReference(chunk, index, leaked);
+        return chunk;
+    }
+
+    /**
+     * 切片在池中或使用中时总是强可达，只有未归还又不再被引用(即泄漏)时才会进入引用队列
+     */
+    private static final class ChunkReference extends WeakReference<ByteBuffer> {
+        private final int index;
+
+        ChunkReference(ByteBuffer chunk, int index, ReferenceQueue<ByteBuffer> queue) {
+            super(chunk, queue);
+            this.index = index;
+        }
+    }
+
+    /**
+     * 只由所属线程修改，其他线程读取的统计值可能不是最新的
+     */
+    private static final class Magazine {
+        private final Thread thread;
+        private ByteBuffer[] loaded;
+        private int loadedSize;
+        private ByteBuffer[] previous;
+        private int previousSize;
+        private long hitCount;
+        private long missCount;
+
+        Magazine(Thread thread, int size) {
+            this.thread = thread;
+            this.loaded = new ByteBuffer[size];
+            this.previous = new ByteBuffer[size];
+        }
+
+        int size() {
+            return loadedSize + previousSize;
+        }
+
+        ByteBuffer pop() {
+            ByteBuffer buffer = loaded[--loadedSize];
+            loaded[loadedSize] = null;
+            return buffer;
+        }
+
+        void swap() {
+            ByteBuffer[] items = loaded;
+            int size = loadedSize;
+            loaded = previous;
+            loadedSize = previousSize;
+            previous = items;
+            previousSize = size;
+        }
+    }
+
 }
@@ -26,6 +26,6 @@ public interface FrontendPrepareHandler {
 
     void execute(byte[] data);
 
-    void close();
+    void close(byte[] data);
 
 }
@@ -95,7 +95,7 @@ public class DMLSelectStatement extends DMLQueryStatement {
     private final GroupBy group;
     private final Expression having;
     private final OrderBy order;
-    private final Limit limit;
+    private Limit limit;
 
     /**
      * @throws SQLSyntaxErrorException
@@ -168,6 +168,11 @@ public class DMLSelectStatement extends DMLQueryStatement {
         return limit;
     }
 
+    public DMLSelectStatement setLimit(Limit limit) {
+        this.limit = limit;
+        return this;
+    }
+
     @Override
     public void accept(SQLASTVisitor visitor) {
         visitor.visit(this);
@@ -25,6 +25,7 @@ import java.util.Map;
 import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
 import com.alibaba.cobar.parser.ast.stmt.ddl.DDLCreateIndexStatement;
 import com.alibaba.cobar.parser.ast.stmt.ddl.DDLStatement;
+import com.alibaba.cobar.parser.recognizer.mysql.MySQLFunctionManager;
 import com.alibaba.cobar.parser.recognizer.mysql.MySQLToken;
 import com.alibaba.cobar.parser.recognizer.mysql.lexer.MySQLLexer;
 import com.alibaba.cobar.parser.recognizer.mysql.syntax.MySQLDALParser;
@@ -80,10 +81,20 @@ public final class SQLParserDelegate {
     }
 
     public static SQLStatement parse(String sql, MySQLLexer lexer, String charset) throws SQLSyntaxErrorException {
+        return parse(sql, lexer, charset, true);
+    }
+
+    /**
+     * @param cacheEvalRst false if the statement will be evaluated with
+     *            different parameters, e.g. server side prepared statement
+     */
+    public static SQLStatement parse(String sql, MySQLLexer lexer, String charset, boolean cacheEvalRst)
+            throws SQLSyntaxErrorException {
         try {
             SQLStatement stmt = null;
             boolean isEOF = true;
-            MySQLExprParser exprParser = new MySQLExprParser(lexer, charset);
+            MySQLExprParser exprParser = new MySQLExprParser(lexer, MySQLFunctionManager.INSTANCE_MYSQL_DEFAULT,
+                                                             cacheEvalRst, charset);
             stmtSwitch: switch (lexer.token()) {
             case KW_DESC:
             case KW_DESCRIBE:
@@ -27,6 +27,7 @@ import static com.alibaba.cobar.parser.ast.expression.comparison.ComparisionIsEx
 import static com.alibaba.cobar.parser.ast.expression.comparison.ComparisionIsExpression.IS_TRUE;
 import static com.alibaba.cobar.parser.ast.expression.comparison.ComparisionIsExpression.IS_UNKNOWN;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 
@@ -168,10 +169,12 @@ import com.alibaba.cobar.parser.util.Pair;
 public final class MySQLOutputASTVisitor implements SQLASTVisitor {
     private static final Object[] EMPTY_OBJ_ARRAY = new Object[0];
     private static final int[] EMPTY_INT_ARRAY = new int[0];
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
     private final StringBuilder appendable;
     private final Object[] args;
     private int[] argsIndex;
     private Map<PlaceHolder, Object> placeHolderToString;
+    private Map<Integer, ? extends Object> parameters;
 
     public MySQLOutputASTVisitor(StringBuilder appendable) {
         this(appendable, null);
@@ -191,6 +194,15 @@ public final class MySQLOutputASTVisitor implements SQLASTVisitor {
         this.placeHolderToString = map;
     }
 
+    /**
+     * @param parameters parameter index (start from 1) -&gt; bound value.
+     *            {@link ParamMarker} is printed as literal of the bound value
+     *            instead of <code>?</code>
+     */
+    public void setParameters(Map<Integer, ? extends Object> parameters) {
+        this.parameters = parameters;
+    }
+
     public String getSql() {
         return appendable.toString();
     }
@@ -850,10 +862,60 @@ public final class MySQLOutputASTVisitor implements SQLASTVisitor {
 
     @Override
     public void visit(ParamMarker node) {
+        if (parameters != null) {
+            printParameter(parameters.get(node.getParamIndex()));
+            return;
+        }
         appendable.append('?');
         appendArgsIndex(node.getParamIndex() - 1);
     }
 
+    private void printParameter(Object value) {
+        if (value == null) {
+            appendable.append("NULL");
+        } else if (value instanceof BigDecimal) {
+            appendable.append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Number) {
+            appendable.append(value.toString());
+        } else if (value instanceof Boolean) {
+            appendable.append(((Boolean) value).booleanValue() ? "TRUE" : "FALSE");
+        } else if (value instanceof byte[]) {
+            appendable.append("x'");
+            for (byte b : (byte[]) value) {
+                appendable.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+            }
+            appendable.append('\'');
+        } else {
+            String str = value.toString();
+            appendable.append('\'');
+            for (int i = 0, len = str.length(); i < len; ++i) {
+                char c = str.charAt(i);
+                switch (c) {
+                case '\0':
+                    appendable.append("\\0");
+                    break;
+                case '\n':
+                    appendable.append("\\n");
+                    break;
+                case '\r':
+                    appendable.append("\\r");
+                    break;
+                case '\032':
+                    appendable.append("\\Z");
+                    break;
+                case '\'':
+                case '"':
+                case '\\':
+                    appendable.append('\\').append(c);
+                    break;
+                default:
+                    appendable.append(c);
+                }
+            }
+            appendable.append('\'');
+        }
+    }
+
     @Override
     public void visit(RowExpression node) {
         appendable.append("ROW(");
@@ -0,0 +1,227 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.cobar.config.model.TableConfig;
+
+/**
+ * 全局索引：记录唯一列的取值所在记录的拆分列取值，只按唯一列查询时据此计算分区，不再广播到所有节点。
+ * <p>
+ * 索引由经过cobar的写语句维护，INSERT/REPLACE以及给索引列赋值的UPDATE执行成功后记录新值；
+ * 赋值后无法确定所在分区的取值在路由时就移出索引，取值本身无法计算时移出整列，DELETE条件中的索引列取值同样移出。
+ * 索引只保存在内存中，未命中（例如cobar启动前写入的数据）时仍然广播。记录的是拆分列的值而不是数据节点，
+ * 桶迁移和配置重载之后依然有效。
+ */
+public final class GlobalIndex {
+    private static final int DEFAULT_CAPACITY = 1024 * 1024;
+    private static final GlobalIndex INSTANCE = new GlobalIndex();
+
+    public static GlobalIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private volatile int capacity = DEFAULT_CAPACITY;
+
+    private GlobalIndex() {
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity 0 to disable global index
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity < 0 ? 0 : capacity;
+        if (capacity <= 0) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @param columnValues column -&gt; values extracted for <code>table</code>
+     * @return entries of all values of an index column, null if any of them
+     *         is not indexed
+     */
+    public List<Entry> lookup(String schema, TableConfig table, Map<String, List<Object>> columnValues) {
+        if (capacity <= 0 || columnValues == null || columnValues.isEmpty()) {
+            return null;
+        }
+        boolean found = false;
+        for (String column : table.getIndexColumns()) {
+            List<Object> values = columnValues.get(column);
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            found = true;
+            List<Entry> list = new ArrayList<Entry>(values.size());
+            for (Object value : values) {
+                String key = key(schema, table, column, value);
+                Entry entry = key == null ? null : entries.get(key);
+                if (entry == null) {
+                    list = null;
+                    break;
+                }
+                list.add(entry);
+            }
+            if (list != null) {
+                hitCount.incrementAndGet();
+                return list;
+            }
+        }
+        if (found) {
+            missCount.incrementAndGet();
+        }
+        return null;
+    }
+
+    public void putAll(List<Entry> list) {
+        int cap = capacity;
+        if (cap <= 0) {
+            return;
+        }
+        if (entries.size() + list.size() > cap) {
+            Iterator<String> iter = entries.keySet().iterator();
+            while (entries.size() + list.size() > cap && iter.hasNext()) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        for (Entry entry : list) {
+            entries.put(entry.key, entry);
+        }
+    }
+
+    /**
+     * 取值所在的分区不再确定时移出索引
+     * 
+     * @param value {@link com.alibaba.cobar.parser.ast.expression.Expression#UNEVALUATABLE} to remove
+     *            all values of <code>column</code>
+     */
+    public void remove(String schema, TableConfig table, String column, Object value) {
+        if (value == null || entries.isEmpty()) {
+            // 等值条件匹配不到NULL，不会按它查索引
+            return;
+        }
+        String key = key(schema, table, column, value);
+        if (key != null) {
+            entries.remove(key);
+            return;
+        }
+        String prefix = new StringBuilder().append(schema).append('.').append(table.getName()).append('.')
+                                           .append(column).append('=').toString();
+        for (Iterator<String> iter = entries.keySet().iterator(); iter.hasNext();) {
+            if (iter.next().startsWith(prefix)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * @param ruleColumns partition columns of rule, upper-case
+     * @param ruleValues value of each of <code>ruleColumns</code>
+     * @return null if values can not be indexed
+     */
+    public static Entry createEntry(String schema, TableConfig table, String column, Object value,
+                                    List<String> ruleColumns, Object[] ruleValues) {
+        String key = key(schema, table, column, value);
+        if (key == null) {
+            return null;
+        }
+        for (Object v : ruleValues) {
+            if (!isIndexable(v)) {
+                return null;
+            }
+        }
+        return new Entry(key, ruleColumns, ruleValues);
+    }
+
+    private static boolean isIndexable(Object value) {
+        return value instanceof String || value instanceof Number;
+    }
+
+    /**
+     * 字符串和数字的比较语义不同，分别记录
+     */
+    private static String key(String schema, TableConfig table, String column, Object value) {
+        if (!isIndexable(value)) {
+            return null;
+        }
+        StringBuilder s = new StringBuilder();
+        s.append(schema).append('.').append(table.getName()).append('.').append(column);
+        s.append(value instanceof String ? "='" : "=").append(value);
+        return s.toString();
+    }
+
+    public static final class Entry {
+        private final String key;
+        private final List<String> columns;
+        private final Object[] values;
+
+        private Entry(String key, List<String> columns, Object[] values) {
+            this.key = key;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        /**
+         * @return partition columns of rule
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * @return value of each of {@link #getColumns()}
+         */
+        public Object[] getValues() {
+            return values;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.Identifier;
+import com.alibaba.cobar.parser.ast.expression.primary.Wildcard;
+import com.alibaba.cobar.parser.ast.expression.primary.function.groupby.Avg;
+import com.alibaba.cobar.parser.ast.expression.primary.function.groupby.Count;
+import com.alibaba.cobar.parser.ast.expression.primary.function.groupby.Max;
+import com.alibaba.cobar.parser.ast.expression.primary.function.groupby.Min;
+import com.alibaba.cobar.parser.ast.expression.primary.function.groupby.Sum;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.LiteralNumber;
+import com.alibaba.cobar.parser.ast.fragment.GroupBy;
+import com.alibaba.cobar.parser.ast.fragment.OrderBy;
+import com.alibaba.cobar.parser.ast.fragment.SortOrder;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLSelectStatement;
+import com.alibaba.cobar.parser.util.Pair;
+import com.alibaba.cobar.parser.visitor.MySQLOutputASTVisitor;
+
+/**
+ * 多节点GROUP BY结果的合并方式：各节点按分组返回部分聚合结果，由前端按分组列再聚合一次。
+ * AVG无法直接合并，下推的语句中改写为SUM，并在查询列末尾追加对应的COUNT。
+ */
+public final class GroupByMerge {
+    /** GROUP BY column */
+    public static final int KEY = 0;
+    /** column neither grouped nor aggregated, any value of the group */
+    public static final int ANY = 1;
+    public static final int COUNT = 2;
+    public static final int SUM = 3;
+    public static final int MIN = 4;
+    public static final int MAX = 5;
+    /** SUM of the rewritten AVG, see {@link #getCountColumn(int)} */
+    public static final int AVG = 6;
+
+    private final int columnCount;
+    private final int[] types;
+    private final int[] countColumns;
+    private final int[] keyColumns;
+    private final int[] orderColumns;
+    private final boolean[] orderDesc;
+
+    private GroupByMerge(int columnCount, int[] types, int[] countColumns, int[] keyColumns, int[] orderColumns,
+                         boolean[] orderDesc) {
+        this.columnCount = columnCount;
+        this.types = types;
+        this.countColumns = countColumns;
+        this.keyColumns = keyColumns;
+        this.orderColumns = orderColumns;
+        this.orderDesc = orderDesc;
+    }
+
+    /**
+     * 改写下推到各节点的语句：AVG(x)改为SUM(x)并追加COUNT(x)，未出现在查询列中的分组列追加到末尾，
+     * 去掉LIMIT(合并后截取)。语句不能合并时不做任何修改。
+     *
+     * @return null if result of <code>select</code> can not be merged by group
+     */
+    public static GroupByMerge rewrite(DMLSelectStatement select) {
+        GroupBy group = select.getGroup();
+        if (group == null || group.isWithRollup() || select.getHaving() != null) {
+            return null;
+        }
+        if (select.getOption().resultDup != DMLSelectStatement.SelectDuplicationStrategy.ALL) {
+            return null;
+        }
+        List<Pair<Expression, String>> selectList = select.getSelectExprList();
+        final int columnCount = selectList.size();
+        List<Integer> types = new ArrayList<Integer>(columnCount + 2);
+        for (int i = 0; i < columnCount; ++i) {
+            types.add(-1);
+        }
+
+        List<Pair<Expression, SortOrder>> groupItems = group.getOrderByList();
+        int[] keyColumns = new int[groupItems.size()];
+        boolean[] keyDesc = new boolean[keyColumns.length];
+        List<Expression> hiddenKeys = new ArrayList<Expression>(0);
+        for (int i = 0; i < keyColumns.length; ++i) {
+            Pair<Expression, SortOrder> item = groupItems.get(i);
+            int column = indexOfSelect(item.getKey(), selectList);
+            if (column < 0) {
+                if (!(item.getKey() instanceof Identifier) || item.getKey() instanceof Wildcard) {
+                    return null;
+                }
+                column = types.size();
+                types.add(KEY);
+                hiddenKeys.add(item.getKey());
+            }
+            types.set(column, KEY);
+            keyColumns[i] = column;
+            keyDesc[i] = item.getValue() == SortOrder.DESC;
+        }
+
+        for (int i = 0; i < columnCount; ++i) {
+            if (types.get(i) == KEY) {
+                continue;
+            }
+            Expression expr = selectList.get(i).getKey();
+            int type;
+            if (expr instanceof Count) {
+                type = ((Count) expr).isDistinct() ? -1 : COUNT;
+            } else if (expr instanceof Sum) {
+                type = ((Sum) expr).isDistinct() ? -1 : SUM;
+            } else if (expr instanceof Avg) {
+                type = ((Avg) expr).isDistinct() ? -1 : AVG;
+            } else if (expr instanceof Min) {
+                type = MIN;
+            } else if (expr instanceof Max) {
+                type = MAX;
+            } else if (expr instanceof Identifier && !(expr instanceof Wildcard)) {
+                type = ANY;
+            } else {
+                type = -1;
+            }
+            if (type < 0) {
+                return null;
+            }
+            types.set(i, type);
+        }
+
+        int[] orderColumns = keyColumns;
+        boolean[] orderDesc = keyDesc;
+        OrderBy order = select.getOrder();
+        if (order != null) {
+            List<Pair<Expression, SortOrder>> orderItems = order.getOrderByList();
+            orderColumns = new int[orderItems.size()];
+            orderDesc = new boolean[orderColumns.length];
+            for (int i = 0; i < orderColumns.length; ++i) {
+                Pair<Expression, SortOrder> item = orderItems.get(i);
+                orderColumns[i] = indexOfSelect(item.getKey(), selectList);
+                if (orderColumns[i] < 0) {
+                    return null;
+                }
+                orderDesc[i] = item.getValue() == SortOrder.DESC;
+            }
+        }
+
+        // 以下开始改写语句
+        for (Expression key : hiddenKeys) {
+            selectList.add(new Pair<Expression, String>(key, null));
+        }
+        int[] countColumns = new int[columnCount];
+        for (int i = 0; i < columnCount; ++i) {
+            countColumns[i] = -1;
+            if (types.get(i) != AVG) {
+                continue;
+            }
+            Pair<Expression, String> item = selectList.get(i);
+            Expression arg = ((Avg) item.getKey()).getArguments().get(0);
+            String alias = item.getValue();
+            if (alias == null) {
+                // 保持前端看到的列名不变
+                StringBuilder s = new StringBuilder();
+                item.getKey().accept(new MySQLOutputASTVisitor(s));
+                alias = new StringBuilder().append('`').append(s.toString().replace("`", "``")).append('`').toString();
+            }
+            selectList.set(i, new Pair<Expression, String>(new Sum(arg, false), alias));
+            countColumns[i] = selectList.size();
+            selectList.add(new Pair<Expression, String>(new Count(arg), null));
+            types.add(COUNT);
+        }
+        select.setLimit(null);
+
+        int[] typeArray = new int[types.size()];
+        for (int i = 0; i < typeArray.length; ++i) {
+            typeArray[i] = types.get(i);
+        }
+        return new GroupByMerge(columnCount, typeArray, countColumns, keyColumns, orderColumns, orderDesc);
+    }
+
+    /**
+     * @return -1 if <code>expr</code> can not be resolved to a select item
+     */
+    private static int indexOfSelect(Expression expr, List<Pair<Expression, String>> selectList) {
+        if (expr instanceof LiteralNumber) {
+            int index = ((LiteralNumber) expr).getNumber().intValue() - 1;
+            return index < 0 || index >= selectList.size() ? -1 : index;
+        }
+        if (!(expr instanceof Identifier) || expr instanceof Wildcard) {
+            return -1;
+        }
+        Identifier id = (Identifier) expr;
+        String name = id.getIdTextUpUnescape();
+        if (id.getParent() == null) {
+            for (int i = 0, size = selectList.size(); i < size; ++i) {
+                String alias = selectList.get(i).getValue();
+                if (alias != null && name.equals(Identifier.unescapeName(alias, true))) {
+                    return i;
+                }
+            }
+        }
+        for (int i = 0, size = selectList.size(); i < size; ++i) {
+            Expression item = selectList.get(i).getKey();
+            if (selectList.get(i).getValue() == null && item instanceof Identifier && !(item instanceof Wildcard)
+                    && name.equals(((Identifier) item).getIdTextUpUnescape())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return count of columns visible to client, columns after them are
+     *         appended by {@link #rewrite(DMLSelectStatement)}
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return {@link #KEY} etc. of each column returned by data nodes
+     */
+    public int[] getTypes() {
+        return types;
+    }
+
+    /**
+     * @param column column of type {@link #AVG}
+     * @return index of the COUNT column appended for the AVG column, -1 if
+     *         column is not AVG
+     */
+    public int getCountColumn(int column) {
+        return countColumns[column];
+    }
+
+    public int[] getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * @return columns to sort the merged result by, ORDER BY or GROUP BY
+     *         columns if ORDER BY is absent (as MySQL does)
+     */
+    public int[] getOrderColumns() {
+        return orderColumns;
+    }
+
+    public boolean[] getOrderDesc() {
+        return orderDesc;
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route;
+
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.cobar.config.model.SchemaConfig;
+import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.config.model.rule.RuleConfig;
+import com.alibaba.cobar.parser.ast.ASTNode;
+import com.alibaba.cobar.parser.ast.expression.BinaryOperatorExpression;
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionEqualsExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionNullSafeEqualsExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.InExpression;
+import com.alibaba.cobar.parser.ast.expression.misc.InExpressionList;
+import com.alibaba.cobar.parser.ast.expression.primary.Identifier;
+import com.alibaba.cobar.parser.ast.expression.primary.RowExpression;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.LiteralNumber;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.LiteralString;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLInsertReplaceStatement;
+import com.alibaba.cobar.parser.recognizer.mysql.MySQLToken;
+import com.alibaba.cobar.parser.recognizer.mysql.lexer.MySQLLexer;
+import com.alibaba.cobar.parser.util.Pair;
+import com.alibaba.cobar.route.function.PartitionByBucket;
+import com.alibaba.cobar.route.visitor.PartitionKeyVisitor;
+
+/**
+ * 路由计划缓存：以去掉字面量的SQL指纹为键，缓存单节点路由的匹配结果。
+ * 命中时只需一遍词法分析取出字面量，再按缓存的位置取分区列的值计算规则，不再做语法分析和AST遍历。
+ * <p>
+ * 只缓存结果与字面量取值无关的语句形态：语句原样下发，分区列在语句中只出现一次，
+ * 且其值来自 <code>col = 字面量</code>、<code>col IN (字面量)</code> 或单行INSERT中的字面量。
+ * <p>
+ * 缓存满时按CLOCK算法淘汰：命中时只设置访问标记，淘汰时指针依次扫过各计划，清除已访问的标记，移除未被访问的计划。
+ */
+public final class RoutePlanCache {
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final RoutePlanCache INSTANCE = new RoutePlanCache();
+
+    public static RoutePlanCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Plan> plans = new ConcurrentHashMap<String, Plan>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private final Object evictLock = new Object();
+    /** clock hand of eviction, guarded by {@link #evictLock} */
+    private Iterator<Map.Entry<String, Plan>> hand;
+
+    private RoutePlanCache() {
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param capacity 0 to disable cache
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity < 0 ? 0 : capacity;
+        if (capacity <= 0) {
+            plans.clear();
+        }
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public void clear() {
+        plans.clear();
+    }
+
+    /**
+     * @return null if cache is disabled or sql can not be fingerprinted
+     */
+    public Fingerprint fingerprint(SchemaConfig schema, String sql) {
+        if (capacity <= 0) {
+            return null;
+        }
+        try {
+            return Fingerprint.create(schema.getName(), sql);
+        } catch (SQLSyntaxErrorException e) {
+            // 交给解析器报告语法错误
+            return null;
+        }
+    }
+
+    /**
+     * @return data node of cached plan, null if missed
+     */
+    public String route(SchemaConfig schema, Fingerprint fp) {
+        Plan plan = plans.get(fp.key);
+        String dataNode = plan == null || plan.schema != schema ? null : plan.route(fp);
+        if (dataNode == null) {
+            missCount.incrementAndGet();
+        } else {
+            plan.referenced = true;
+            hitCount.incrementAndGet();
+        }
+        return dataNode;
+    }
+
+    /**
+     * cache plan of statement routed to a fixed data node
+     */
+    public void put(SchemaConfig schema, Fingerprint fp, String dataNode) {
+        put(fp.key, new Plan(schema, dataNode, null, null, null));
+    }
+
+    /**
+     * cache plan of statement routed to a single data node by rule, ignored
+     * if value of any rule column is not extracted from a unique literal
+     */
+    public void put(SchemaConfig schema, Fingerprint fp, TableConfig table, RuleConfig rule,
+                    Map<String, List<Object>> columnValues, PartitionKeyVisitor visitor) {
+        List<String> columns = rule.getColumns();
+        Map<String, Map<Object, Set<Pair<Expression, ASTNode>>>> index = visitor.getColumnIndex(table.getName());
+        int[] positions = new int[columns.size()];
+        for (int i = 0; i < positions.length; ++i) {
+            String column = columns.get(i);
+            List<Object> values = columnValues.get(column);
+            if (values == null || values.size() != 1 || fp.countIdentifier(column) != 1) {
+                return;
+            }
+            Object value = values.get(0);
+            Map<Object, Set<Pair<Expression, ASTNode>>> valMap = index.get(column);
+            Set<Pair<Expression, ASTNode>> sources = valMap == null ? null : valMap.get(value);
+            if (sources == null || sources.size() != 1 || !isLiteralSource(sources.iterator().next(), column)) {
+                return;
+            }
+            positions[i] = fp.indexOfLiteral(value);
+            if (positions[i] < 0) {
+                return;
+            }
+        }
+        put(fp.key, new Plan(schema, null, table, rule, positions));
+    }
+
+    private void put(String key, Plan plan) {
+        int cap = capacity;
+        if (cap <= 0) {
+            return;
+        }
+        if (plans.size() >= cap) {
+            evict(cap);
+        }
+        plans.put(key, plan);
+    }
+
+    private void evict(int cap) {
+        synchronized (evictLock) {
+            // 最多扫两圈：第一圈清除所有访问标记后，第二圈一定能移除
+            for (int i = plans.size() * 2; plans.size() >= cap && i >= 0; --i) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = plans.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<String, Plan> en = hand.next();
+                Plan plan = en.getValue();
+                if (plan.referenced) {
+                    plan.referenced = false;
+                } else {
+                    plans.remove(en.getKey(), plan);
+                }
+            }
+        }
+    }
+
+    private static boolean isLiteral(Expression expr) {
+        return expr instanceof LiteralNumber || expr instanceof LiteralString;
+    }
+
+    private static boolean isLiteralSource(Pair<Expression, ASTNode> source, String column) {
+        Expression expr = source.getKey();
+        if (expr instanceof ComparisionEqualsExpression || expr instanceof ComparisionNullSafeEqualsExpression) {
+            BinaryOperatorExpression comp = (BinaryOperatorExpression) expr;
+            Expression left = comp.getLeftOprand();
+            return left instanceof Identifier ? isLiteral(comp.getRightOprand()) : isLiteral(left);
+        }
+        if (source.getValue() instanceof InExpression) {
+            InExpressionList list = ((InExpression) source.getValue()).getInExpressionList();
+            return list != null && list.getList().size() == 1 && isLiteral(expr);
+        }
+        if (expr instanceof RowExpression && source.getValue() instanceof DMLInsertReplaceStatement) {
+            DMLInsertReplaceStatement insert = (DMLInsertReplaceStatement) source.getValue();
+            List<Identifier> columns = insert.getColumnNameList();
+            if (insert.getRowList() == null || insert.getRowList().size() != 1 || columns == null) {
+                return false;
+            }
+            for (int i = 0; i < columns.size(); ++i) {
+                if (column.equals(columns.get(i).getIdTextUpUnescape())) {
+                    return isLiteral(((RowExpression) expr).getRowExprList().get(i));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SQL指纹：字面量替换为其类型，其余token原样保留，同时按出现顺序记录字面量的值
+     */
+    public static final class Fingerprint {
+        private final String key;
+        /** value of number and string literals, null for other literals */
+        private final List<Object> literals;
+        private final List<String> identifiers;
+
+        private Fingerprint(String key, List<Object> literals, List<String> identifiers) {
+            this.key = key;
+            this.literals = literals;
+            this.identifiers = identifiers;
+        }
+
+        static Fingerprint create(String schema, String sql) throws SQLSyntaxErrorException {
+            StringBuilder key = new StringBuilder(sql.length() + 16);
+            key.append(schema).append('\0');
+            List<Object> literals = new ArrayList<Object>();
+            List<String> identifiers = new ArrayList<String>();
+            MySQLLexer lexer = new MySQLLexer(sql);
+            for (MySQLToken token = lexer.token(); token != MySQLToken.EOF;) {
+                key.append((char) token.ordinal());
+                switch (token) {
+                case LITERAL_NUM_PURE_DIGIT:
+                    literals.add(lexer.integerValue());
+                    break;
+                case LITERAL_NUM_MIX_DIGIT:
+                    literals.add(lexer.decimalValue());
+                    break;
+                case LITERAL_CHARS:
+                case LITERAL_NCHARS:
+                    // 相邻的字符串由解析器拼接为一个字面量
+                    StringBuilder s = new StringBuilder();
+                    do {
+                        lexer.appendStringContent(s);
+                    } while ((token = lexer.nextToken()) == MySQLToken.LITERAL_CHARS);
+                    literals.add(LiteralString.getUnescapedString(s.toString()));
+                    continue;
+                case LITERAL_HEX:
+                case LITERAL_BIT:
+                    literals.add(null);
+                    break;
+                case IDENTIFIER:
+                    identifiers.add(lexer.stringValueUppercase());
+                    appendText(key, lexer.stringValueUppercase());
+                    break;
+                case SYS_VAR:
+                case USR_VAR:
+                case PLACE_HOLDER:
+                    appendText(key, lexer.stringValue());
+                    break;
+                default:
+                }
+                token = lexer.nextToken();
+            }
+            return new Fingerprint(key.toString(), literals, identifiers);
+        }
+
+        private static void appendText(StringBuilder key, String text) {
+            key.append((char) text.length()).append(text);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        int literalCount() {
+            return literals.size();
+        }
+
+        Object getLiteral(int index) {
+            return literals.get(index);
+        }
+
+        /**
+         * @return -1 if <code>value</code> is not a literal or appears more
+         *         than once
+         */
+        int indexOfLiteral(Object value) {
+            int index = -1;
+            for (int i = 0; i < literals.size(); ++i) {
+                if (value != null && value.equals(literals.get(i))) {
+                    if (index >= 0) {
+                        return -1;
+                    }
+                    index = i;
+                }
+            }
+            return index;
+        }
+
+        int countIdentifier(String nameUp) {
+            int count = 0;
+            for (String id : identifiers) {
+                if (nameUp.equals(Identifier.unescapeName(id))) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static final class Plan {
+        private final SchemaConfig schema;
+        private final String dataNode;
+        private final TableConfig table;
+        private final RuleConfig rule;
+        /** literal index of each rule column */
+        private final int[] positions;
+        /** set on hit, cleared by clock hand */
+        private volatile boolean referenced;
+
+        Plan(SchemaConfig schema, String dataNode, TableConfig table, RuleConfig rule, int[] positions) {
+            this.schema = schema;
+            this.dataNode = dataNode;
+            this.table = table;
+            this.rule = rule;
+            this.positions = positions;
+        }
+
+        /**
+         * @return null if literals of <code>fp</code> route to more than one
+         *         data node
+         */
+        String route(Fingerprint fp) {
+            if (rule == null) {
+                return dataNode;
+            }
+            if (rule.getRuleAlgorithm() instanceof PartitionByBucket
+                    && ((PartitionByBucket) rule.getRuleAlgorithm()).isDualWriting()) {
+                // 写语句可能需要双写到迁移的目标分区
+                return null;
+            }
+            List<String> columns = rule.getAlgorithmColumns();
+            Map<String, Object> parameter = new HashMap<String, Object>(columns.size(), 1);
+            for (int i = 0; i < positions.length; ++i) {
+                if (positions[i] >= fp.literalCount()) {
+                    return null;
+                }
+                Object value = fp.getLiteral(positions[i]);
+                if (value == null) {
+                    return null;
+                }
+                parameter.put(columns.get(i), value);
+            }
+            Integer[] indexes = ServerRouter.calcDataNodeIndexesByFunction(rule.getRuleAlgorithm(), parameter);
+            return indexes.length == 1 ? table.getDataNodes()[indexes[0]] : null;
+        }
+    }
+
+}
@@ -15,6 +15,10 @@
  */
 package com.alibaba.cobar.route;
 
+import java.util.List;
+
+import com.alibaba.cobar.parser.ast.fragment.SortOrder;
+import com.alibaba.cobar.parser.util.Pair;
 import com.alibaba.cobar.util.FormatUtil;
 
 /**
@@ -30,10 +34,17 @@ public final class RouteResultset {
     private RouteResultsetNode[] nodes; // 路由结果节点
     private int flag; // 结果集的处理标识，比如：合并，相加等。
     private long limitSize;
+    private long limitOffset;
+    private List<Pair<String, SortOrder>> orderBy; // 多节点结果集的归并排序列
+    private GroupByMerge groupByMerge; // 多节点结果集的分组合并方式
+    private boolean globalTable; // 写全局表时各节点的影响行数相同，不做累加
+    private List<GlobalIndex.Entry> indexEntries; // 执行成功后记入全局索引
+    private long insertId; // 由全局序列生成的第一个值
 
     public RouteResultset(String stmt) {
         this.statement = stmt;
         this.limitSize = -1;
+        this.limitOffset = -1;
     }
 
     public String getStatement() {
@@ -67,6 +78,74 @@ public final class RouteResultset {
         this.limitSize = limitSize;
     }
 
+    /**
+     * @return -1 if no limit. rows before offset must be skipped after merged,
+     *         the statement of each node has been rewritten to
+     *         <code>LIMIT 0, offset+size</code>
+     */
+    public long getLimitOffset() {
+        return limitOffset;
+    }
+
+    public void setLimitOffset(long limitOffset) {
+        this.limitOffset = limitOffset;
+    }
+
+    /**
+     * @return null if rows of multi-node need not be merged in order
+     */
+    public List<Pair<String, SortOrder>> getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(List<Pair<String, SortOrder>> orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    /**
+     * @return null if rows of multi-node need not be merged by group
+     */
+    public GroupByMerge getGroupByMerge() {
+        return groupByMerge;
+    }
+
+    public void setGroupByMerge(GroupByMerge groupByMerge) {
+        this.groupByMerge = groupByMerge;
+    }
+
+    /**
+     * @return true if the same write is sent to every node of a global table
+     */
+    public boolean isGlobalTable() {
+        return globalTable;
+    }
+
+    public void setGlobalTable(boolean globalTable) {
+        this.globalTable = globalTable;
+    }
+
+    /**
+     * @return null if global index need not be updated
+     */
+    public List<GlobalIndex.Entry> getIndexEntries() {
+        return indexEntries;
+    }
+
+    public void setIndexEntries(List<GlobalIndex.Entry> indexEntries) {
+        this.indexEntries = indexEntries;
+    }
+
+    /**
+     * @return first value generated by global sequence, 0 if none
+     */
+    public long getInsertId() {
+        return insertId;
+    }
+
+    public void setInsertId(long insertId) {
+        this.insertId = insertId;
+    }
+
     @Override
     public String toString() {
         StringBuilder s = new StringBuilder();
@@ -34,6 +34,8 @@ import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.config.model.SchemaConfig;
 import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.config.model.rule.RangeRuleAlgorithm;
+import com.alibaba.cobar.config.model.rule.RangeValue;
 import com.alibaba.cobar.config.model.rule.RuleAlgorithm;
 import com.alibaba.cobar.config.model.rule.RuleConfig;
 import com.alibaba.cobar.config.model.rule.TableRuleConfig;
@@ -44,9 +46,14 @@ import com.alibaba.cobar.parser.ast.expression.comparison.InExpression;
 import com.alibaba.cobar.parser.ast.expression.misc.InExpressionList;
 import com.alibaba.cobar.parser.ast.expression.primary.Identifier;
 import com.alibaba.cobar.parser.ast.expression.primary.RowExpression;
+import com.alibaba.cobar.parser.ast.fragment.Limit;
+import com.alibaba.cobar.parser.ast.fragment.tableref.TableRefFactor;
+import com.alibaba.cobar.parser.ast.fragment.tableref.TableReferences;
 import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
 import com.alibaba.cobar.parser.ast.stmt.dal.DALShowStatement;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLDeleteStatement;
 import com.alibaba.cobar.parser.ast.stmt.dml.DMLInsertReplaceStatement;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLInsertStatement;
 import com.alibaba.cobar.parser.ast.stmt.dml.DMLSelectStatement;
 import com.alibaba.cobar.parser.ast.stmt.dml.DMLSelectUnionStatement;
 import com.alibaba.cobar.parser.ast.stmt.dml.DMLUpdateStatement;
@@ -55,6 +62,7 @@ import com.alibaba.cobar.parser.recognizer.mysql.syntax.MySQLParser;
 import com.alibaba.cobar.parser.util.ArrayUtil;
 import com.alibaba.cobar.parser.util.Pair;
 import com.alibaba.cobar.parser.visitor.MySQLOutputASTVisitor;
+import com.alibaba.cobar.route.function.PartitionByBucket;
 import com.alibaba.cobar.route.hint.CobarHint;
 import com.alibaba.cobar.route.visitor.PartitionKeyVisitor;
 import com.alibaba.cobar.util.CollectionUtil;
@@ -92,7 +100,7 @@ public final class ServerRouter {
                 visitor.setTrimSchema(schema.getName());
                 ast.accept(visitor);
                 if (visitor.isSchemaTrimmed()) {
-                    stmt = genSQL(ast, stmt);
+                    stmt = genSQL(ast, null);
                 }
             }
             RouteResultsetNode[] nodes = new RouteResultsetNode[1];
@@ -101,16 +109,67 @@ public final class ServerRouter {
             return rrs;
         }
 
+        // 查找路由计划缓存
+        RoutePlanCache cache = RoutePlanCache.getInstance();
+        RoutePlanCache.Fingerprint fp = cache.fingerprint(schema, stmt);
+        if (fp != null) {
+            String dataNode = cache.route(schema, fp);
+            if (dataNode != null) {
+                RouteResultsetNode[] nodes = new RouteResultsetNode[1];
+                nodes[0] = new RouteResultsetNode(dataNode, stmt);
+                rrs.setNodes(nodes);
+                return rrs;
+            }
+        }
+
         // 生成和展开AST
         SQLStatement ast = SQLParserDelegate.parse(stmt, charset == null ? MySQLParser.DEFAULT_CHARSET : charset);
-        PartitionKeyVisitor visitor = new PartitionKeyVisitor(schema.getTables());
+        return route(rrs, schema, ast, stmt, null, fp);
+    }
+
+    /**
+     * 预处理语句的路由：使用prepare时解析好的AST，执行时不再做词法和语法分析。
+     * 绑定的参数直接参与路由计算，并以字面量的形式写入下发到数据节点的语句。
+     * 
+     * @param ast parsed with <code>cacheEvalRst</code> false
+     * @param params parameter index (start from 1) -&gt; bound value
+     */
+    public static RouteResultset route(SchemaConfig schema, SQLStatement ast, String stmt, Map<Integer, Object> params)
+            throws SQLNonTransientException {
+        if (HintRouter.indexOfPrefix(stmt) >= 0) {
+            throw new SQLFeatureNotSupportedException("cobar hint is not supported in prepared statement");
+        }
+        RouteResultset rrs = new RouteResultset(stmt);
+        if (schema.isNoSharding()) {
+            if (schema.isKeepSqlSchema()) {
+                PartitionKeyVisitor visitor = new PartitionKeyVisitor(schema.getTables(), params);
+                visitor.setTrimSchema(schema.getName());
+                ast.accept(visitor);
+            }
+            RouteResultsetNode[] nodes = new RouteResultsetNode[1];
+            nodes[0] = new RouteResultsetNode(schema.getDataNode(), genSQL(ast, params));
+            rrs.setNodes(nodes);
+            return rrs;
+        }
+        return route(rrs, schema, ast, stmt, params, null);
+    }
+
+    /**
+     * @param fp not null if plan of <code>stmt</code> can be cached
+     */
+    private static RouteResultset route(RouteResultset rrs, SchemaConfig schema, SQLStatement ast, String stmt,
+                                        Map<Integer, Object> params, RoutePlanCache.Fingerprint fp)
+            throws SQLNonTransientException {
+        PartitionKeyVisitor visitor = new PartitionKeyVisitor(schema.getTables(), params);
         visitor.setTrimSchema(schema.isKeepSqlSchema() ? schema.getName() : null);
         ast.accept(visitor);
+        // 有绑定参数时总要重新生成语句
+        final boolean regenerate = params != null || visitor.isSchemaTrimmed();
 
         // 如果sql包含用户自定义的schema，则路由到default节点
         if (schema.isKeepSqlSchema() && visitor.isCustomedSchema()) {
-            if (visitor.isSchemaTrimmed()) {
-                stmt = genSQL(ast, stmt);
+            if (regenerate) {
+                stmt = genSQL(ast, params);
             }
             RouteResultsetNode[] nodes = new RouteResultsetNode[1];
             nodes[0] = new RouteResultsetNode(schema.getDataNode(), stmt);
@@ -120,7 +179,7 @@ public final class ServerRouter {
 
         // 元数据语句路由
         if (visitor.isTableMetaRead()) {
-            MetaRouter.routeForTableMeta(rrs, schema, ast, visitor, stmt);
+            MetaRouter.routeForTableMeta(rrs, schema, ast, visitor, stmt, regenerate, params);
             if (visitor.isNeedRewriteField()) {
                 rrs.setFlag(RouteResultset.REWRITE_FIELD);
             }
@@ -129,6 +188,8 @@ public final class ServerRouter {
 
         // 匹配规则
         TableConfig matchedTable = null;
+        TableConfig globalTable = null;
+        boolean defaultTable = false;
         RuleConfig rule = null;
         Map<String, List<Object>> columnValues = null;
         Map<String, Map<String, List<Object>>> astExt = visitor.getColumnValue();
@@ -137,6 +198,12 @@ public final class ServerRouter {
             Map<String, List<Object>> col2Val = e.getValue();
             TableConfig tc = tables.get(e.getKey());
             if (tc == null) {
+                defaultTable = true;
+                continue;
+            }
+            if (tc.isGlobal()) {
+                // 全局表跟随其他表的路由，可以和它们在同一节点上关联
+                globalTable = globalTable == null ? tc : narrowGlobalTable(globalTable, tc, ast, stmt);
                 continue;
             }
             if (matchedTable == null) {
@@ -162,14 +229,39 @@ public final class ServerRouter {
             }
         }
 
+        // 只涉及全局表：读任选一个节点，写到所有节点
+        if (matchedTable == null && globalTable != null && !defaultTable) {
+            String sql = regenerate ? genSQL(ast, params) : stmt;
+            if (isReadStatement(ast)) {
+                RouteResultsetNode[] rn = new RouteResultsetNode[1];
+                rn[0] = new RouteResultsetNode(globalTable.getRandomDataNode(), sql);
+                rrs.setNodes(rn);
+            } else {
+                String[] dataNodes = globalTable.getDataNodes();
+                RouteResultsetNode[] rn = new RouteResultsetNode[dataNodes.length];
+                for (int i = 0; i < dataNodes.length; ++i) {
+                    rn[i] = new RouteResultsetNode(dataNodes[i], sql);
+                }
+                rrs.setNodes(rn);
+                rrs.setGlobalTable(true);
+            }
+            return rrs;
+        }
+        if (globalTable != null) {
+            checkGlobalTableJoin(globalTable, matchedTable, schema, ast, stmt);
+        }
+
         // 规则匹配处理，表级别和列级别。
         if (matchedTable == null) {
-            String sql = visitor.isSchemaTrimmed() ? genSQL(ast, stmt) : stmt;
+            String sql = regenerate ? genSQL(ast, params) : stmt;
             RouteResultsetNode[] rn = new RouteResultsetNode[1];
             if ("".equals(schema.getDataNode()) && isSystemReadSQL(ast)) {
                 rn[0] = new RouteResultsetNode(schema.getRandomDataNode(), sql);
             } else {
                 rn[0] = new RouteResultsetNode(schema.getDataNode(), sql);
+                if (fp != null && !regenerate) {
+                    RoutePlanCache.getInstance().put(schema, fp, schema.getDataNode());
+                }
             }
             rrs.setNodes(rn);
             return rrs;
@@ -179,14 +271,25 @@ public final class ServerRouter {
                 throw new IllegalArgumentException("route rule for table " + matchedTable.getName() + " is required: "
                         + stmt);
             }
+            Map<String, List<Object>> whereValues = astExt.get(matchedTable.getName());
+            List<GlobalIndex.Entry> indexed = GlobalIndex.getInstance().lookup(schema.getName(), matchedTable,
+                                                                                whereValues);
+            if (indexed != null && routeByGlobalIndex(rrs, schema, matchedTable, indexed, whereValues, ast, stmt,
+                                                      visitor, regenerate, params)) {
+                return rrs;
+            }
+            if (!matchedTable.getIndexColumns().isEmpty() && isWriteStatement(ast)) {
+                createIndexEntries(schema, matchedTable, null, null, whereValues, ast, params);
+            }
             String[] dataNodes = matchedTable.getDataNodes();
-            String sql = visitor.isSchemaTrimmed() ? genSQL(ast, stmt) : stmt;
+            SQLStatement rewritten = dataNodes.length > 1 ? rewriteSelect(rrs, ast, visitor) : ast;
+            String sql = regenerate || rewritten != ast ? genSQL(rewritten, params) : stmt;
             RouteResultsetNode[] rn = new RouteResultsetNode[dataNodes.length];
             for (int i = 0; i < dataNodes.length; ++i) {
                 rn[i] = new RouteResultsetNode(dataNodes[i], sql);
             }
             rrs.setNodes(rn);
-            setGroupFlagAndLimit(rrs, visitor);
+            setGroupFlagAndLimit(rrs, ast, visitor);
             return rrs;
         }
 
@@ -196,29 +299,101 @@ public final class ServerRouter {
         if (dnMap == null || dnMap.isEmpty()) {
             throw new IllegalArgumentException("No target dataNode for rule " + rule);
         }
+        boolean indexed = !matchedTable.getIndexColumns().isEmpty() && isWriteStatement(ast);
+        if (isWriteStatement(ast)) {
+            addDualWrite(dnMap, rule);
+        }
+        if (indexed) {
+            rrs.setIndexEntries(createIndexEntries(schema, matchedTable, rule, columnValues, columnValues, ast,
+                                                   params));
+        }
 
         // 判断路由结果是单库还是多库
         if (dnMap.size() == 1) {
             String dataNode = matchedTable.getDataNodes()[dnMap.keySet().iterator().next()];
-            String sql = visitor.isSchemaTrimmed() ? genSQL(ast, stmt) : stmt;
+            String sql = regenerate ? genSQL(ast, params) : stmt;
             RouteResultsetNode[] rn = new RouteResultsetNode[1];
             rn[0] = new RouteResultsetNode(dataNode, sql);
             rrs.setNodes(rn);
+            if (fp != null && !regenerate && !indexed) {
+                RoutePlanCache.getInstance().put(schema, fp, matchedTable, rule, columnValues, visitor);
+            }
         } else {
             RouteResultsetNode[] rn = new RouteResultsetNode[dnMap.size()];
             if (ast instanceof DMLInsertReplaceStatement) {
                 DMLInsertReplaceStatement ir = (DMLInsertReplaceStatement) ast;
-                dispatchInsertReplace(rn, ir, rule.getColumns(), dnMap, matchedTable, stmt, visitor);
+                dispatchInsertReplace(rn, ir, rule.getColumns(), dnMap, matchedTable, stmt, visitor, params);
             } else {
-                dispatchWhereBasedStmt(rn, ast, rule.getColumns(), dnMap, matchedTable, stmt, visitor);
+                SQLStatement rewritten = rewriteSelect(rrs, ast, visitor);
+                dispatchWhereBasedStmt(rn, rewritten, rule.getColumns(), dnMap, matchedTable, stmt, visitor,
+                                       regenerate || rewritten != ast, params);
             }
             rrs.setNodes(rn);
-            setGroupFlagAndLimit(rrs, visitor);
+            setGroupFlagAndLimit(rrs, ast, visitor);
         }
 
         return rrs;
     }
 
+    /**
+     * 读语句中的多个全局表只能在数据节点最少的那个表所在的节点上执行，写语句要求它们在同一组数据节点上
+     * 
+     * @return global table whose dataNodes are covered by the other
+     */
+    private static TableConfig narrowGlobalTable(TableConfig t1, TableConfig t2, SQLStatement ast, String stmt) {
+        boolean covered1 = t2.containsDataNodes(t1.getDataNodes());
+        boolean covered2 = t1.containsDataNodes(t2.getDataNodes());
+        if (covered1 && covered2) {
+            return t1;
+        }
+        if ((covered1 || covered2) && isReadStatement(ast)) {
+            return covered1 ? t1 : t2;
+        }
+        throw new IllegalArgumentException("global table " + t1.getName() + " and " + t2.getName()
+                + " are not on the same dataNodes: " + stmt);
+    }
+
+    /**
+     * 全局表必须存在于其他表可能路由到的每个节点上，并且不能作为写入的目标
+     */
+    private static void checkGlobalTableJoin(TableConfig globalTable, TableConfig matchedTable, SchemaConfig schema,
+                                             SQLStatement ast, String stmt) throws SQLNonTransientException {
+        boolean covered = matchedTable == null ? globalTable.containsDataNodes(schema.getDataNode()) : globalTable
+                .containsDataNodes(matchedTable.getDataNodes());
+        if (!covered) {
+            throw new IllegalArgumentException("global table " + globalTable.getName()
+                    + " is not on all dataNodes of joined table: " + stmt);
+        }
+        Identifier target = null;
+        if (ast instanceof DMLInsertReplaceStatement) {
+            target = ((DMLInsertReplaceStatement) ast).getTable();
+        } else if (ast instanceof DMLUpdateStatement) {
+            TableReferences refs = ((DMLUpdateStatement) ast).getTableRefs();
+            if (refs.isSingleTable() && refs.getTableReferenceList().get(0) instanceof TableRefFactor) {
+                target = ((TableRefFactor) refs.getTableReferenceList().get(0)).getTable();
+            }
+        } else if (ast instanceof DMLDeleteStatement) {
+            for (Identifier tb : ((DMLDeleteStatement) ast).getTableNames()) {
+                if (isGlobalTable(schema, tb)) {
+                    target = tb;
+                }
+            }
+        }
+        if (target != null && isGlobalTable(schema, target)) {
+            throw new SQLFeatureNotSupportedException("write global table with sharding table is not supported: "
+                    + stmt);
+        }
+    }
+
+    private static boolean isGlobalTable(SchemaConfig schema, Identifier table) {
+        TableConfig tc = schema.getTables().get(table.getIdTextUpUnescape());
+        return tc != null && tc.isGlobal();
+    }
+
+    private static boolean isReadStatement(SQLStatement ast) {
+        return ast instanceof DMLSelectStatement || ast instanceof DMLSelectUnionStatement;
+    }
+
     private static class HintRouter {
         public static int indexOfPrefix(String sql) {
             int i = 0;
@@ -360,7 +535,8 @@ public final class ServerRouter {
             Map<String, Object> parameter = new HashMap<String, Object>(cols.length, 1);
             for (Object[] val : vals) {
                 for (int i = 0; i < cols.length; ++i) {
-                    parameter.put(cols[i], val[i]);
+                    int index = rule.getColumns().indexOf(cols[i]);
+                    parameter.put(index < 0 ? cols[i] : rule.getAlgorithmColumns().get(index), val[i]);
                 }
                 Integer[] dataNodeIndexes = calcDataNodeIndexesByFunction(rule.getRuleAlgorithm(), parameter);
                 for (Integer index : dataNodeIndexes) {
@@ -383,10 +559,11 @@ public final class ServerRouter {
     private static class MetaRouter {
 
         public static void routeForTableMeta(RouteResultset rrs, SchemaConfig schema, SQLStatement ast,
-                                             PartitionKeyVisitor visitor, String stmt) {
+                                             PartitionKeyVisitor visitor, String stmt, boolean regenerate,
+                                             Map<Integer, Object> params) {
             String sql = stmt;
-            if (visitor.isSchemaTrimmed()) {
-                sql = genSQL(ast, stmt);
+            if (regenerate) {
+                sql = genSQL(ast, params);
             }
             String[] tables = visitor.getMetaReadTable();
             if (tables == null) {
@@ -432,7 +609,7 @@ public final class ServerRouter {
         }
     }
 
-    private static Integer[] calcDataNodeIndexesByFunction(RuleAlgorithm algorithm, Map<String, Object> parameter) {
+    static Integer[] calcDataNodeIndexesByFunction(RuleAlgorithm algorithm, Map<String, Object> parameter) {
         Integer[] dataNodeIndexes;
         Object calRst = algorithm.calculate(parameter);
         if (calRst instanceof Number) {
@@ -509,8 +686,12 @@ public final class ServerRouter {
         return select.getTables() == null;
     }
 
-    private static void setGroupFlagAndLimit(RouteResultset rrs, PartitionKeyVisitor visitor) {
-        rrs.setLimitSize(visitor.getLimitSize());
+    private static void setGroupFlagAndLimit(RouteResultset rrs, SQLStatement ast, PartitionKeyVisitor visitor) {
+        if (isLimitMergeable(ast, visitor)) {
+            rrs.setLimitSize(visitor.getLimitSize());
+            rrs.setLimitOffset(visitor.getLimitOffset());
+        }
+        rrs.setOrderBy(visitor.getOrderBy());
         switch (visitor.getGroupFuncType()) {
         case PartitionKeyVisitor.GROUP_SUM:
             rrs.setFlag(RouteResultset.SUM_FLAG);
@@ -524,6 +705,86 @@ public final class ServerRouter {
         }
     }
 
+    /**
+     * 多节点结果集合并后才能正确地截取LIMIT，要求各节点的结果可以直接拼接或归并：
+     * 无分组、无DISTINCT、ORDER BY列能在结果集中定位。
+     */
+    private static boolean isLimitMergeable(SQLStatement ast, PartitionKeyVisitor visitor) {
+        if (!(ast instanceof DMLSelectStatement)) {
+            return false;
+        }
+        DMLSelectStatement select = (DMLSelectStatement) ast;
+        if (select.getGroup() != null || select.getHaving() != null) {
+            return false;
+        }
+        if (select.getOption().resultDup != DMLSelectStatement.SelectDuplicationStrategy.ALL) {
+            return false;
+        }
+        return select.getOrder() == null || visitor.getOrderBy() != null;
+    }
+
+    /**
+     * 改写下推到多个节点的查询语句。AST可能被缓存(预处理语句)，改写在副本上进行，原AST保持不变。
+     * 
+     * @return rewritten copy of ast, or ast itself if not rewritten
+     */
+    private static SQLStatement rewriteSelect(RouteResultset rrs, SQLStatement ast, PartitionKeyVisitor visitor) {
+        if (!(ast instanceof DMLSelectStatement)) {
+            return ast;
+        }
+        DMLSelectStatement select = (DMLSelectStatement) ast;
+        DMLSelectStatement copy = new DMLSelectStatement(select.getOption(),
+                                                         new ArrayList<Pair<Expression, String>>(
+                                                                 select.getSelectExprList()), select.getTables(),
+                                                         select.getWhere(), select.getGroup(), select.getHaving(),
+                                                         select.getOrder(), select.getLimit());
+        if (rewriteGroupBy(rrs, copy, visitor) || rewriteLimit(copy, visitor)) {
+            return copy;
+        }
+        return ast;
+    }
+
+    /**
+     * 各节点的OFFSET要在合并后统一跳过，所以下推到各节点的语句改写为
+     * <code>LIMIT 0, offset+size</code>
+     * 
+     * @return true if limit of ast is rewritten
+     */
+    private static boolean rewriteLimit(DMLSelectStatement select, PartitionKeyVisitor visitor) {
+        long offset = visitor.getLimitOffset();
+        long size = visitor.getLimitSize();
+        if (offset <= 0 || size < 0 || !isLimitMergeable(select, visitor)) {
+            return false;
+        }
+        long limit = offset + size;
+        if (limit < 0) {
+            limit = Long.MAX_VALUE;
+        }
+        select.setLimit(new Limit(0, limit));
+        return true;
+    }
+
+    /**
+     * 多节点的GROUP BY结果由前端按分组再聚合，见{@link GroupByMerge#rewrite(DMLSelectStatement)}。
+     * LIMIT在聚合之后截取。
+     * 
+     * @return true if ast is rewritten
+     */
+    private static boolean rewriteGroupBy(RouteResultset rrs, DMLSelectStatement select, PartitionKeyVisitor visitor) {
+        if (select.getLimit() != null && visitor.getLimitSize() < 0) {
+            // LIMIT的值无法确定，不能移到合并之后
+            return false;
+        }
+        GroupByMerge merge = GroupByMerge.rewrite(select);
+        if (merge == null) {
+            return false;
+        }
+        rrs.setGroupByMerge(merge);
+        rrs.setLimitOffset(visitor.getLimitOffset());
+        rrs.setLimitSize(visitor.getLimitSize());
+        return true;
+    }
+
     /**
      * @return dataNodeIndex -&gt; [partitionKeysValueTuple+]
      */
@@ -532,6 +793,16 @@ public final class ServerRouter {
         Map<Integer, List<Object[]>> map = new HashMap<Integer, List<Object[]>>(1, 1);
         RuleAlgorithm algorithm = rule.getRuleAlgorithm();
         List<String> cols = rule.getColumns();
+        List<String> algorithmCols = rule.getAlgorithmColumns();
+        if (cols.size() > 1) {
+            columnValues = removeRangeValues(columnValues, cols);
+            if (columnValues == null) {
+                for (int i = 0; i < matchedTable.getDataNodes().length; ++i) {
+                    map.put(i, new LinkedList<Object[]>());
+                }
+                return map;
+            }
+        }
 
         Map<String, Object> parameter = new HashMap<String, Object>(cols.size(), 1);
         ArrayList<Iterator<Object>> colsValIter = new ArrayList<Iterator<Object>>(columnValues.size());
@@ -550,10 +821,16 @@ public final class ServerRouter {
                 for (int i = 0, len = cols.size(); i < len; ++i) {
                     Object value = colsValIter.get(i).next();
                     tuple[i] = value;
-                    parameter.put(cols.get(i), value);
+                    parameter.put(algorithmCols.get(i), value);
                 }
 
-                Integer[] dataNodeIndexes = calcDataNodeIndexesByFunction(algorithm, parameter);
+                Integer[] dataNodeIndexes;
+                if (tuple[0] instanceof RangeValue) {
+                    dataNodeIndexes = calcDataNodeIndexesByRange(matchedTable, algorithm, algorithmCols.get(0),
+                                                                 (RangeValue) tuple[0]);
+                } else {
+                    dataNodeIndexes = calcDataNodeIndexesByFunction(algorithm, parameter);
+                }
 
                 for (int i = 0; i < dataNodeIndexes.length; ++i) {
                     Integer dataNodeIndex = dataNodeIndexes[i];
@@ -573,14 +850,312 @@ public final class ServerRouter {
         return map;
     }
 
+    /**
+     * 按全局索引中记录的拆分列取值路由，语句原样下发到计算出的节点
+     * 
+     * @return false if indexed values are not of the same rule
+     */
+    private static boolean routeByGlobalIndex(RouteResultset rrs, SchemaConfig schema, TableConfig table,
+                                              List<GlobalIndex.Entry> indexed,
+                                              Map<String, List<Object>> whereValues, SQLStatement ast,
+                                              String stmt, PartitionKeyVisitor visitor, boolean regenerate,
+                                              Map<Integer, Object> params) {
+        List<String> columns = indexed.get(0).getColumns();
+        RuleConfig rule = null;
+        for (RuleConfig rc : table.getRule().getRules()) {
+            if (rc.getColumns().equals(columns)) {
+                rule = rc;
+                break;
+            }
+        }
+        if (rule == null) {
+            return false;
+        }
+        Map<String, List<Object>> columnValues = new HashMap<String, List<Object>>(columns.size(), 1);
+        for (String column : columns) {
+            columnValues.put(column, new ArrayList<Object>(indexed.size()));
+        }
+        for (GlobalIndex.Entry entry : indexed) {
+            if (!columns.equals(entry.getColumns())) {
+                return false;
+            }
+            for (int i = 0; i < columns.size(); ++i) {
+                columnValues.get(columns.get(i)).add(entry.getValues()[i]);
+            }
+        }
+        Map<Integer, List<Object[]>> dnMap = ruleCalculate(table, rule, columnValues);
+        if (isWriteStatement(ast)) {
+            addDualWrite(dnMap, rule);
+            rrs.setIndexEntries(createIndexEntries(schema, table, rule, columnValues, whereValues, ast, params));
+        }
+        SQLStatement rewritten = dnMap.size() > 1 ? rewriteSelect(rrs, ast, visitor) : ast;
+        String sql = regenerate || rewritten != ast ? genSQL(rewritten, params) : stmt;
+        RouteResultsetNode[] rn = new RouteResultsetNode[dnMap.size()];
+        int i = 0;
+        for (Integer dataNodeIndex : dnMap.keySet()) {
+            rn[i++] = new RouteResultsetNode(table.getDataNodes()[dataNodeIndex], sql);
+        }
+        rrs.setNodes(rn);
+        if (rn.length > 1) {
+            setGroupFlagAndLimit(rrs, ast, visitor);
+        }
+        return true;
+    }
+
+    /**
+     * 写语句给索引列赋的新值，执行成功后记入全局索引。无法确定所在分区的新值（拆分列不唯一或无法计算）
+     * 以及DELETE条件中的取值立即移出索引，避免之后按索引路由到已经没有这条记录的分区。
+     * 
+     * @param rule null if rule is not matched
+     * @param columnValues values of rule columns, null if rule is not matched
+     * @param whereValues values of columns extracted from where condition
+     * @return null if no value of index column is assigned
+     */
+    private static List<GlobalIndex.Entry> createIndexEntries(SchemaConfig schema, TableConfig table,
+                                                              RuleConfig rule, Map<String, List<Object>> columnValues,
+                                                              Map<String, List<Object>> whereValues,
+                                                              SQLStatement ast, Map<Integer, Object> params) {
+        Map<? extends Object, ? extends Object> evaluation = params == null ? Collections.emptyMap() : params;
+        List<String> ruleColumns = rule == null ? null : rule.getColumns();
+        Set<String> indexColumns = table.getIndexColumns();
+        List<GlobalIndex.Entry> entries = new ArrayList<GlobalIndex.Entry>(1);
+        if (ast instanceof DMLInsertReplaceStatement) {
+            DMLInsertReplaceStatement ir = (DMLInsertReplaceStatement) ast;
+            List<Identifier> cols = ir.getColumnNameList();
+            List<RowExpression> rows = ir.getRowList();
+            if (cols == null || cols.isEmpty()) {
+                // 不知道哪个值赋给了索引列
+                for (String column : indexColumns) {
+                    removeIndexEntry(schema, table, column, Expression.UNEVALUATABLE);
+                }
+                return null;
+            }
+            int[] rulePos = null;
+            if (ruleColumns != null) {
+                rulePos = new int[ruleColumns.size()];
+                for (int i = 0; i < rulePos.length; ++i) {
+                    rulePos[i] = indexOfColumn(cols, ruleColumns.get(i));
+                    if (rulePos[i] < 0) {
+                        rulePos = null;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < cols.size(); ++i) {
+                String column = cols.get(i).getIdTextUpUnescape();
+                if (!indexColumns.contains(column)) {
+                    continue;
+                }
+                if (rows == null) {
+                    // INSERT ... SELECT
+                    removeIndexEntry(schema, table, column, Expression.UNEVALUATABLE);
+                    continue;
+                }
+                for (RowExpression row : rows) {
+                    List<Expression> exprs = row.getRowExprList();
+                    Object[] ruleValues = null;
+                    if (rulePos != null) {
+                        ruleValues = new Object[rulePos.length];
+                        for (int j = 0; j < rulePos.length; ++j) {
+                            ruleValues[j] = exprs.get(rulePos[j]).evaluation(evaluation);
+                        }
+                    }
+                    Object value = exprs.get(i).evaluation(evaluation);
+                    addIndexEntry(entries, schema, table, column, value, ruleColumns, ruleValues);
+                }
+            }
+            if (ast instanceof DMLInsertStatement && ((DMLInsertStatement) ast).getDuplicateUpdate() != null) {
+                // 冲突的记录可能不在插入的分区上
+                for (Pair<Identifier, Expression> pair : ((DMLInsertStatement) ast).getDuplicateUpdate()) {
+                    String column = pair.getKey().getIdTextUpUnescape();
+                    if (indexColumns.contains(column)) {
+                        removeIndexEntry(schema, table, column, pair.getValue().evaluation(evaluation));
+                    }
+                }
+            }
+        } else if (ast instanceof DMLUpdateStatement) {
+            Object[] ruleValues = null;
+            if (ruleColumns != null) {
+                ruleValues = new Object[ruleColumns.size()];
+                for (int i = 0; i < ruleValues.length; ++i) {
+                    List<Object> values = columnValues.get(ruleColumns.get(i));
+                    if (values == null || values.size() != 1) {
+                        ruleValues = null;
+                        break;
+                    }
+                    ruleValues[i] = values.get(0);
+                }
+            }
+            for (Pair<Identifier, Expression> pair : ((DMLUpdateStatement) ast).getValues()) {
+                String column = pair.getKey().getIdTextUpUnescape();
+                if (indexColumns.contains(column)) {
+                    Object value = pair.getValue().evaluation(evaluation);
+                    addIndexEntry(entries, schema, table, column, value, ruleColumns, ruleValues);
+                }
+            }
+        } else if (ast instanceof DMLDeleteStatement && whereValues != null) {
+            // 条件中没有索引列时留下的记录指向已经没有该取值的分区，查询结果仍然正确，之后的写入会覆盖它
+            for (String column : indexColumns) {
+                List<Object> values = whereValues.get(column);
+                if (values != null) {
+                    for (Object value : values) {
+                        removeIndexEntry(schema, table, column, value);
+                    }
+                }
+            }
+        }
+        return entries.isEmpty() ? null : entries;
+    }
+
+    /**
+     * @param ruleValues null if values of rule columns are unknown
+     */
+    private static void addIndexEntry(List<GlobalIndex.Entry> entries, SchemaConfig schema, TableConfig table,
+                                      String column, Object value, List<String> ruleColumns, Object[] ruleValues) {
+        GlobalIndex.Entry entry = ruleValues == null ? null : GlobalIndex.createEntry(schema.getName(), table,
+                                                                                      column, value, ruleColumns,
+                                                                                      ruleValues);
+        if (entry != null) {
+            entries.add(entry);
+        } else {
+            removeIndexEntry(schema, table, column, value);
+        }
+    }
+
+    private static void removeIndexEntry(SchemaConfig schema, TableConfig table, String column, Object value) {
+        GlobalIndex.getInstance().remove(schema.getName(), table, column, value);
+    }
+
+    private static int indexOfColumn(List<Identifier> columns, String column) {
+        for (int i = 0; i < columns.size(); ++i) {
+            if (column.equals(columns.get(i).getIdTextUpUnescape())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWriteStatement(SQLStatement ast) {
+        return ast instanceof DMLInsertReplaceStatement || ast instanceof DMLUpdateStatement
+                || ast instanceof DMLDeleteStatement;
+    }
+
+    /**
+     * 迁移中的桶需要双写：分区键落在这些桶的元组同时加入目标分区，由后续的分发生成目标节点的语句
+     */
+    private static void addDualWrite(Map<Integer, List<Object[]>> dnMap, RuleConfig rule) {
+        if (!(rule.getRuleAlgorithm() instanceof PartitionByBucket)) {
+            return;
+        }
+        PartitionByBucket algorithm = (PartitionByBucket) rule.getRuleAlgorithm();
+        if (!algorithm.isDualWriting()) {
+            return;
+        }
+        String column = rule.getAlgorithmColumns().get(0);
+        Map<String, Object> parameter = new HashMap<String, Object>(1, 1);
+        Map<Integer, List<Object[]>> dualMap = null;
+        for (List<Object[]> tuples : dnMap.values()) {
+            for (Object[] tuple : tuples) {
+                if (tuple[0] instanceof RangeValue) {
+                    continue;
+                }
+                parameter.put(column, tuple[0]);
+                int target = algorithm.calculateDualWrite(parameter);
+                if (target < 0) {
+                    continue;
+                }
+                if (dualMap == null) {
+                    dualMap = new HashMap<Integer, List<Object[]>>(1, 1);
+                }
+                List<Object[]> list = dualMap.get(target);
+                if (list == null) {
+                    list = new LinkedList<Object[]>();
+                    dualMap.put(target, list);
+                }
+                list.add(tuple);
+            }
+        }
+        if (dualMap == null) {
+            return;
+        }
+        for (Entry<Integer, List<Object[]>> en : dualMap.entrySet()) {
+            List<Object[]> list = dnMap.get(en.getKey());
+            if (list == null) {
+                dnMap.put(en.getKey(), en.getValue());
+            } else {
+                list.addAll(en.getValue());
+            }
+        }
+    }
+
+    /**
+     * 多列规则的各列取值按位置组成元组，范围无法参与组合，去掉后按原有方式计算
+     * 
+     * @return null if values of any rule column are all ranges
+     */
+    private static Map<String, List<Object>> removeRangeValues(Map<String, List<Object>> columnValues,
+                                                               List<String> cols) {
+        Map<String, List<Object>> rst = null;
+        for (String col : cols) {
+            List<Object> list = columnValues.get(col);
+            if (list == null) {
+                continue;
+            }
+            boolean hasRange = false;
+            for (Object value : list) {
+                if (value instanceof RangeValue) {
+                    hasRange = true;
+                    break;
+                }
+            }
+            if (!hasRange) {
+                continue;
+            }
+            List<Object> values = new ArrayList<Object>(list.size());
+            for (Object value : list) {
+                if (!(value instanceof RangeValue)) {
+                    values.add(value);
+                }
+            }
+            if (values.isEmpty()) {
+                return null;
+            }
+            if (rst == null) {
+                rst = new HashMap<String, List<Object>>(columnValues);
+            }
+            rst.put(col, values);
+        }
+        return rst == null ? columnValues : rst;
+    }
+
+    /**
+     * @return all data nodes if <code>algorithm</code> can not calculate
+     *         partitions of range
+     */
+    private static Integer[] calcDataNodeIndexesByRange(TableConfig matchedTable, RuleAlgorithm algorithm,
+                                                        String column, RangeValue range) {
+        Integer[] dataNodeIndexes = null;
+        if (algorithm instanceof RangeRuleAlgorithm) {
+            dataNodeIndexes = ((RangeRuleAlgorithm) algorithm).calculateRange(column, range);
+        }
+        if (dataNodeIndexes == null) {
+            dataNodeIndexes = new Integer[matchedTable.getDataNodes().length];
+            for (int i = 0; i < dataNodeIndexes.length; ++i) {
+                dataNodeIndexes[i] = i;
+            }
+        }
+        return dataNodeIndexes;
+    }
+
     private static void dispatchWhereBasedStmt(RouteResultsetNode[] rn, SQLStatement stmtAST, List<String> ruleColumns,
                                                Map<Integer, List<Object[]>> dataNodeMap, TableConfig matchedTable,
-                                               String originalSQL, PartitionKeyVisitor visitor) {
+                                               String originalSQL, PartitionKeyVisitor visitor, boolean astChanged,
+                                               Map<Integer, Object> params) {
         // [perf tag] 11.617 us: sharding multivalue
         if (ruleColumns.size() > 1) {
             String sql;
-            if (visitor.isSchemaTrimmed()) {
-                sql = genSQL(stmtAST, originalSQL);
+            if (astChanged) {
+                sql = genSQL(stmtAST, params);
             } else {
                 sql = originalSQL;
             }
@@ -644,7 +1219,7 @@ public final class ServerRouter {
             }
             // [perf tag] 16.506 us: sharding multivalue
 
-            String sql = genSQL(stmtAST, originalSQL);
+            String sql = genSQL(stmtAST, params);
             // [perf tag] 21.3425 us: sharding multivalue
 
             String dataNodeName = matchedTable.getDataNodes()[en.getKey()];
@@ -661,6 +1236,8 @@ public final class ServerRouter {
             }
             // [perf tag] 22.0965 us: sharding multivalue
         }
+        // 预处理语句会缓存AST，生成各节点的语句后还原
+        restorePartitionKeyOperand(columnIndex, ruleColumns);
     }
 
     private static void replacePartitionKeyOperand(Map<String, Map<Object, Set<Pair<Expression, ASTNode>>>> index,
@@ -690,12 +1267,38 @@ public final class ServerRouter {
         }
     }
 
+    private static void restorePartitionKeyOperand(Map<String, Map<Object, Set<Pair<Expression, ASTNode>>>> index,
+                                                   List<String> cols) {
+        for (String col : cols) {
+            Map<Object, Set<Pair<Expression, ASTNode>>> map = index.get(col);
+            if (map == null) {
+                continue;
+            }
+            for (Set<Pair<Expression, ASTNode>> set : map.values()) {
+                if (set == null) {
+                    continue;
+                }
+                for (Pair<Expression, ASTNode> p : set) {
+                    Expression expr = p.getKey();
+                    ASTNode parent = p.getValue();
+                    if (PartitionKeyVisitor.isPartitionKeyOperandSingle(expr, parent)) {
+                        ((ReplacableExpression) expr).clearReplaceExpr();
+                    } else if (PartitionKeyVisitor.isPartitionKeyOperandIn(expr, parent)) {
+                        ((ReplacableExpression) parent).clearReplaceExpr();
+                    }
+                }
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static void dispatchInsertReplace(RouteResultsetNode[] rn, DMLInsertReplaceStatement stmt,
                                               List<String> ruleColumns, Map<Integer, List<Object[]>> dataNodeMap,
-                                              TableConfig matchedTable, String originalSQL, PartitionKeyVisitor visitor) {
+                                              TableConfig matchedTable, String originalSQL, PartitionKeyVisitor visitor,
+                                              Map<Integer, Object> params) {
         if (stmt.getSelect() != null) {
-            dispatchWhereBasedStmt(rn, stmt, ruleColumns, dataNodeMap, matchedTable, originalSQL, visitor);
+            dispatchWhereBasedStmt(rn, stmt, ruleColumns, dataNodeMap, matchedTable, originalSQL, visitor,
+                                   params != null || visitor.isSchemaTrimmed(), params);
             return;
         }
         Map<String, Map<Object, Set<Pair<Expression, ASTNode>>>> colsIndex = visitor.getColumnIndex(stmt.getTable()
@@ -732,7 +1335,7 @@ public final class ServerRouter {
             }
 
             stmt.setReplaceRowList(new ArrayList<RowExpression>(replaceRowList));
-            String sql = genSQL(stmt, originalSQL);
+            String sql = genSQL(stmt, params);
             stmt.clearReplaceRowList();
             String dataNodeName = matchedTable.getDataNodes()[en.getKey()];
             rn[++dataNodeId] = new RouteResultsetNode(dataNodeName, sql);
@@ -751,9 +1354,15 @@ public final class ServerRouter {
         return set;
     }
 
-    private static String genSQL(SQLStatement ast, String orginalSql) {
+    /**
+     * @param params values bound to parameter markers, null if not a prepared
+     *            statement
+     */
+    private static String genSQL(SQLStatement ast, Map<Integer, Object> params) {
         StringBuilder s = new StringBuilder();
-        ast.accept(new MySQLOutputASTVisitor(s));
+        MySQLOutputASTVisitor visitor = new MySQLOutputASTVisitor(s);
+        visitor.setParameters(params);
+        ast.accept(visitor);
         return s.toString();
     }
 
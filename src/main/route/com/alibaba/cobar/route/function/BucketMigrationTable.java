@@ -0,0 +1,142 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route.function;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 运行时的桶迁移状态，以函数名为键，重新加载配置后仍然有效。
+ * <p>
+ * 迁移中的桶读操作仍落在原分区，写操作同时落在原分区和目标分区(双写)；
+ * 切换后读写都只落在目标分区。
+ */
+public final class BucketMigrationTable {
+    private static final BucketMigrationTable INSTANCE = new BucketMigrationTable();
+
+    public static BucketMigrationTable getInstance() {
+        return INSTANCE;
+    }
+
+    /** function name -&gt; bucket -&gt; state */
+    private final ConcurrentMap<String, ConcurrentMap<Integer, State>> functions;
+
+    private BucketMigrationTable() {
+        this.functions = new ConcurrentHashMap<String, ConcurrentMap<Integer, State>>();
+    }
+
+    /**
+     * @param source partition that <code>bucket</code> is read from
+     * @throws IllegalStateException if <code>bucket</code> is being migrated
+     */
+    public void startDualWrite(String function, int bucket, int source, int target) {
+        ConcurrentMap<Integer, State> buckets = functions.get(function);
+        if (buckets == null) {
+            ConcurrentMap<Integer, State> newBuckets = new ConcurrentHashMap<Integer, State>();
+            buckets = functions.putIfAbsent(function, newBuckets);
+            if (buckets == null) {
+                buckets = newBuckets;
+            }
+        }
+        State old = buckets.get(bucket);
+        if (old == null || old.cutover) {
+            State state = new State(source, target);
+            if (old == null ? buckets.putIfAbsent(bucket, state) == null : buckets.replace(bucket, old, state)) {
+                return;
+            }
+        }
+        throw new IllegalStateException("bucket " + bucket + " of " + function + " is being migrated");
+    }
+
+    /**
+     * 切换后桶的读写都落在目标分区
+     */
+    public void cutover(String function, int bucket) {
+        State state = getState(function, bucket);
+        if (state != null) {
+            state.cutover = true;
+        }
+    }
+
+    /**
+     * 取消未切换的迁移，读写都回到原分区
+     */
+    public void cancel(String function, int bucket) {
+        ConcurrentMap<Integer, State> buckets = functions.get(function);
+        State state = buckets == null ? null : buckets.get(bucket);
+        if (state != null && !state.cutover) {
+            State restored = new State(state.source, state.source);
+            restored.cutover = true;
+            buckets.replace(bucket, state, restored);
+        }
+    }
+
+    /**
+     * @param partition partition of <code>bucket</code> by configuration
+     * @return partition to read and write
+     */
+    public int partition(String function, int bucket, int partition) {
+        State state = getState(function, bucket);
+        if (state == null) {
+            return partition;
+        }
+        return state.cutover ? state.target : state.source;
+    }
+
+    /**
+     * @return partition that writes are copied to, -1 if
+     *         <code>bucket</code> is not in dual write
+     */
+    public int dualWriteTarget(String function, int bucket) {
+        State state = getState(function, bucket);
+        return state == null || state.cutover ? -1 : state.target;
+    }
+
+    /**
+     * @return true if any bucket of <code>function</code> is in dual write
+     */
+    public boolean isDualWriting(String function) {
+        ConcurrentMap<Integer, State> buckets = functions.get(function);
+        if (buckets != null) {
+            for (State state : buckets.values()) {
+                if (!state.cutover) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private State getState(String function, int bucket) {
+        if (functions.isEmpty()) {
+            return null;
+        }
+        ConcurrentMap<Integer, State> buckets = functions.get(function);
+        return buckets == null ? null : buckets.get(bucket);
+    }
+
+    private static final class State {
+        private final int source;
+        private final int target;
+        private volatile boolean cutover;
+
+        State(int source, int target) {
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+}
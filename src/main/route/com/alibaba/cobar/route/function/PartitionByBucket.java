@@ -0,0 +1,295 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route.function;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.cobar.config.model.rule.RuleAlgorithm;
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.function.FunctionExpression;
+import com.alibaba.cobar.parser.util.Pair;
+import com.alibaba.cobar.parser.util.PairUtil;
+import com.alibaba.cobar.util.StringUtil;
+
+/**
+ * 虚拟桶分区：分区键先散列到固定数量(bucketCount)的桶，再由桶映射到分区。
+ * <p>
+ * 桶的默认归属由跳跃一致性哈希(jump consistent hash)按partitionCount计算，
+ * 分区数从N增加到N+1时只有约1/(N+1)的桶迁移到新分区。
+ * bucketMapPath指定的文件可以覆盖部分桶的归属，每行为<code>桶[-桶]=分区</code>，
+ * 修改后执行reload @@config生效。
+ * <p>
+ * 在线迁移中的桶以{@link BucketMigrationTable}中的状态为准。
+ */
+public final class PartitionByBucket extends FunctionExpression implements RuleAlgorithm {
+    private static final int KEY_TYPE_LONG = 1;
+    private static final int KEY_TYPE_STRING = 2;
+
+    public PartitionByBucket(String functionName) {
+        this(functionName, null);
+    }
+
+    public PartitionByBucket(String functionName, List<Expression> arguments) {
+        super(functionName, arguments);
+    }
+
+    private int keyType = KEY_TYPE_LONG;
+    private int hashSliceStart = 0;
+    /** 0 means str.length(), -1 means str.length()-1 */
+    private int hashSliceEnd = 8;
+    private int bucketCount = 1024;
+    private int partitionCount;
+    private String bucketMapPath;
+    private int[] bucketToPartition;
+
+    public void setKeyType(String keyType) {
+        if ("long".equalsIgnoreCase(keyType)) {
+            this.keyType = KEY_TYPE_LONG;
+        } else if ("string".equalsIgnoreCase(keyType)) {
+            this.keyType = KEY_TYPE_STRING;
+        } else {
+            throw new IllegalArgumentException("unknown partition key type: " + keyType);
+        }
+    }
+
+    public void setHashSlice(String hashSlice) {
+        Pair<Integer, Integer> p = PairUtil.sequenceSlicing(hashSlice);
+        hashSliceStart = p.getKey();
+        hashSliceEnd = p.getValue();
+    }
+
+    public void setBucketCount(int bucketCount) {
+        this.bucketCount = bucketCount;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    public void setBucketMapPath(String bucketMapPath) {
+        this.bucketMapPath = bucketMapPath;
+    }
+
+    public String getBucketMapPath() {
+        return bucketMapPath;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @return partition of <code>bucket</code> by configuration
+     */
+    public int getPartition(int bucket) {
+        return bucketToPartition[bucket];
+    }
+
+    /**
+     * @return partition of <code>bucket</code> to read and write, including
+     *         migrated buckets
+     */
+    public int getRoutePartition(int bucket) {
+        return BucketMigrationTable.getInstance().partition(functionName, bucket, bucketToPartition[bucket]);
+    }
+
+    /**
+     * @return true if route plan of this function should not be cached
+     */
+    public boolean isDualWriting() {
+        return BucketMigrationTable.getInstance().isDualWriting(functionName);
+    }
+
+    /**
+     * @return partition that writes of the partition key are copied to, -1 if
+     *         its bucket is not being migrated
+     */
+    public int calculateDualWrite(Map<? extends Object, ? extends Object> parameters) {
+        return BucketMigrationTable.getInstance().dualWriteTarget(functionName, bucketOf(evaluateKey(parameters)));
+    }
+
+    @Override
+    public void init() {
+        if (bucketCount <= 0 || partitionCount <= 0) {
+            throw new IllegalArgumentException("function " + getFunctionName()
+                    + " must have positive bucketCount and partitionCount");
+        }
+        int[] map = new int[bucketCount];
+        for (int i = 0; i < bucketCount; ++i) {
+            map[i] = jumpHash(i, partitionCount);
+        }
+        if (bucketMapPath != null) {
+            loadBucketMap(map);
+        }
+        bucketToPartition = map;
+    }
+
+    private void loadBucketMap(int[] map) {
+        InputStream fin = null;
+        try {
+            fin = new FileInputStream(new File(bucketMapPath));
+            BufferedReader in = new BufferedReader(new InputStreamReader(fin));
+            for (String line = null; (line = in.readLine()) != null;) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#") || line.startsWith("//"))
+                    continue;
+                int ind = line.indexOf('=');
+                if (ind < 0) {
+                    throw new IllegalArgumentException("illegal bucket map line: " + line);
+                }
+                String buckets = line.substring(0, ind).trim();
+                int dash = buckets.indexOf('-');
+                int from = Integer.parseInt((dash < 0 ? buckets : buckets.substring(0, dash)).trim());
+                int to = dash < 0 ? from : Integer.parseInt(buckets.substring(dash + 1).trim());
+                int partition = Integer.parseInt(line.substring(ind + 1).trim());
+                if (from < 0 || to >= bucketCount || from > to || partition < 0 || partition >= partitionCount) {
+                    throw new IllegalArgumentException("bucket map line out of range: " + line);
+                }
+                for (int i = from; i <= to; ++i) {
+                    map[i] = partition;
+                }
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                fin.close();
+            } catch (Exception e2) {
+            }
+        }
+    }
+
+    @Override
+    public Object evaluationInternal(Map<? extends Object, ? extends Object> parameters) {
+        return calculate(parameters)[0];
+    }
+
+    @Override
+    public Integer[] calculate(Map<? extends Object, ? extends Object> parameters) {
+        return new Integer[] { getRoutePartition(bucketOf(evaluateKey(parameters))) };
+    }
+
+    private Object evaluateKey(Map<? extends Object, ? extends Object> parameters) {
+        Object arg = arguments.get(0).evaluation(parameters);
+        if (arg == null) {
+            throw new IllegalArgumentException("partition key is null ");
+        } else if (arg == UNEVALUATABLE) {
+            throw new IllegalArgumentException("argument is UNEVALUATABLE");
+        }
+        return arg;
+    }
+
+    /**
+     * @return bucket of partition key <code>arg</code>
+     */
+    public int bucketOf(Object arg) {
+        long hash;
+        switch (keyType) {
+        case KEY_TYPE_STRING:
+            String key = String.valueOf(arg);
+            int start = hashSliceStart >= 0 ? hashSliceStart : key.length() + hashSliceStart;
+            int end = hashSliceEnd > 0 ? hashSliceEnd : key.length() + hashSliceEnd;
+            hash = StringUtil.hash(key, start, end);
+            break;
+        default:
+            if (arg instanceof Number) {
+                hash = ((Number) arg).longValue();
+            } else if (arg instanceof String) {
+                hash = Long.parseLong((String) arg);
+            } else {
+                throw new IllegalArgumentException("unsupported data type for partition key: " + arg.getClass());
+            }
+        }
+        return (int) ((mix(hash) >>> 1) % bucketCount);
+    }
+
+    /**
+     * murmur3的64位混合函数，使连续或等间隔的键均匀分布到各个桶
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * John Lamping, Eric Veach: A Fast, Minimal Memory, Consistent Hash
+     * Algorithm
+     *
+     * @return partition in [0, partitions)
+     */
+    static int jumpHash(long key, int partitions) {
+        long b = -1;
+        long j = 0;
+        while (j < partitions) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    @Override
+    public FunctionExpression constructFunction(List<Expression> arguments) {
+        if (arguments == null || arguments.size() != 1)
+            throw new IllegalArgumentException("function " + getFunctionName() + " must have 1 argument but is "
+                    + arguments);
+        Object[] args = new Object[arguments.size()];
+        int i = -1;
+        for (Expression arg : arguments) {
+            args[++i] = arg;
+        }
+        return (FunctionExpression) constructMe(args);
+    }
+
+    @Override
+    public RuleAlgorithm constructMe(Object... objects) {
+        List<Expression> args = new ArrayList<Expression>(objects.length);
+        for (Object obj : objects) {
+            args.add((Expression) obj);
+        }
+        PartitionByBucket rst = new PartitionByBucket(functionName, args);
+        rst.keyType = keyType;
+        rst.hashSliceStart = hashSliceStart;
+        rst.hashSliceEnd = hashSliceEnd;
+        rst.bucketCount = bucketCount;
+        rst.partitionCount = partitionCount;
+        rst.bucketMapPath = bucketMapPath;
+        return rst;
+    }
+
+    @Override
+    public void initialize() {
+        init();
+    }
+
+}
@@ -18,18 +18,22 @@
  */
 package com.alibaba.cobar.route.function;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.alibaba.cobar.config.model.rule.RangeRuleAlgorithm;
+import com.alibaba.cobar.config.model.rule.RangeValue;
 import com.alibaba.cobar.config.model.rule.RuleAlgorithm;
 import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.PlaceHolder;
 import com.alibaba.cobar.parser.ast.expression.primary.function.FunctionExpression;
 
 /**
  * @author <a href="mailto:shuo.qius@alibaba-inc.com">QIU Shuo</a>
  */
-public final class PartitionByLong extends PartitionFunction implements RuleAlgorithm {
+public final class PartitionByLong extends PartitionFunction implements RangeRuleAlgorithm {
     public PartitionByLong(String functionName) {
         this(functionName, null);
     }
@@ -64,6 +68,61 @@ public final class PartitionByLong extends PartitionFunction implements RuleAlgo
         return rst;
     }
 
+    /**
+     * 只有参数是分区列本身且两端都是整数时才能计算，单侧无界的范围覆盖全部分区
+     */
+    @Override
+    public Integer[] calculateRange(String column, RangeValue range) {
+        Expression arg = arguments.get(0);
+        if (!(arg instanceof PlaceHolder) || !((PlaceHolder) arg).getNameUp().equals(column)) {
+            return null;
+        }
+        Long lower = toLong(range.getLower());
+        Long upper = toLong(range.getUpper());
+        if (lower == null || upper == null) {
+            return null;
+        }
+        long low = lower;
+        long high = upper;
+        if (!range.isLowerInclusive() && low < Long.MAX_VALUE) {
+            ++low;
+        }
+        if (!range.isUpperInclusive() && high > Long.MIN_VALUE) {
+            --high;
+        }
+        int[] partitions = partitionUtil.partition(low, high);
+        if (partitions.length == 0) {
+            // 空范围没有匹配的行，仍由一个分区返回空结果
+            partitions = new int[] { partitionIndex(low) };
+        }
+        Integer[] rst = new Integer[partitions.length];
+        for (int i = 0; i < partitions.length; ++i) {
+            rst[i] = partitions[i];
+        }
+        return rst;
+    }
+
+    /**
+     * @return null if <code>value</code> is not an integer in range of long
+     */
+    static Long toLong(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger) {
+            BigInteger bi = (BigInteger) value;
+            return bi.bitLength() < 64 ? bi.longValue() : null;
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
     @Override
     public FunctionExpression constructFunction(List<Expression> arguments) {
         if (arguments == null || arguments.size() != 1)
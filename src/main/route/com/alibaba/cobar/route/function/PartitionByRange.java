@@ -0,0 +1,284 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route.function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.alibaba.cobar.config.model.rule.RangeRuleAlgorithm;
+import com.alibaba.cobar.config.model.rule.RangeValue;
+import com.alibaba.cobar.config.model.rule.RuleAlgorithm;
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.PlaceHolder;
+import com.alibaba.cobar.parser.ast.expression.primary.function.FunctionExpression;
+import com.alibaba.cobar.util.SplitUtil;
+
+/**
+ * 按区间分区：boundaries为升序的各分区下界，第i个分区包含[boundaries[i], boundaries[i+1])，
+ * 最后一个分区没有上界。小于第一个下界的值落在defaultNode，未配置时报错。
+ * <p>
+ * keyType为date时下界和分区键都是<code>yyyy-MM-dd[ HH:mm:ss]</code>格式的时间，
+ * 转换为yyyyMMddHHmmss形式的整数后比较，不涉及时区，秒以下的部分忽略。
+ */
+public final class PartitionByRange extends FunctionExpression implements RangeRuleAlgorithm {
+    private static final int KEY_TYPE_LONG = 1;
+    private static final int KEY_TYPE_DATE = 2;
+
+    public PartitionByRange(String functionName) {
+        this(functionName, null);
+    }
+
+    public PartitionByRange(String functionName, List<Expression> arguments) {
+        super(functionName, arguments);
+    }
+
+    private int keyType = KEY_TYPE_LONG;
+    private String boundaryString;
+    private Integer defaultNode;
+    private long[] boundaries;
+
+    public void setKeyType(String keyType) {
+        if ("long".equalsIgnoreCase(keyType)) {
+            this.keyType = KEY_TYPE_LONG;
+        } else if ("date".equalsIgnoreCase(keyType)) {
+            this.keyType = KEY_TYPE_DATE;
+        } else {
+            throw new IllegalArgumentException("unknown partition key type: " + keyType);
+        }
+    }
+
+    public void setBoundaries(String boundaries) {
+        this.boundaryString = boundaries;
+    }
+
+    public void setDefaultNode(Integer defaultNode) {
+        this.defaultNode = defaultNode;
+    }
+
+    @Override
+    public void init() {
+        String[] strs = SplitUtil.split(boundaryString, ',', true);
+        if (strs.length == 0) {
+            throw new IllegalArgumentException("function " + getFunctionName() + " has no boundaries");
+        }
+        long[] bounds = new long[strs.length];
+        for (int i = 0; i < strs.length; ++i) {
+            Long key = toKey(strs[i]);
+            if (key == null) {
+                throw new IllegalArgumentException("illegal boundary of function " + getFunctionName() + ": "
+                        + strs[i]);
+            }
+            bounds[i] = key;
+            if (i > 0 && bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("boundaries of function " + getFunctionName()
+                        + " must be ascending: " + boundaryString);
+            }
+        }
+        boundaries = bounds;
+    }
+
+    @Override
+    public Object evaluationInternal(Map<? extends Object, ? extends Object> parameters) {
+        return calculate(parameters)[0];
+    }
+
+    @Override
+    public Integer[] calculate(Map<? extends Object, ? extends Object> parameters) {
+        Object arg = arguments.get(0).evaluation(parameters);
+        if (arg == null) {
+            throw new IllegalArgumentException("partition key is null ");
+        } else if (arg == UNEVALUATABLE) {
+            throw new IllegalArgumentException("argument is UNEVALUATABLE");
+        }
+        Long key = toKey(arg);
+        if (key == null) {
+            throw new IllegalArgumentException("unsupported partition key: " + arg);
+        }
+        int index = search(key);
+        if (index < 0) {
+            if (defaultNode == null) {
+                throw new IllegalArgumentException("partition key " + arg + " is less than the first boundary");
+            }
+            return new Integer[] { defaultNode };
+        }
+        return new Integer[] { index };
+    }
+
+    /**
+     * 只有参数是分区列本身时才能计算，单侧无界时取到第一个或最后一个分区
+     */
+    @Override
+    public Integer[] calculateRange(String column, RangeValue range) {
+        Expression arg = arguments.get(0);
+        if (!(arg instanceof PlaceHolder) || !((PlaceHolder) arg).getNameUp().equals(column)) {
+            return null;
+        }
+        int low = -1;
+        if (range.getLower() != null) {
+            Long lower = toKey(range.getLower());
+            if (lower == null) {
+                return null;
+            }
+            // 下界不包含时仍按包含处理，最多多出一个分区
+            low = search(lower);
+        }
+        int high = boundaries.length - 1;
+        if (range.getUpper() != null) {
+            Long upper = toKey(range.getUpper());
+            if (upper == null) {
+                return null;
+            }
+            // 时间的秒以下部分被截掉，小于upper的值转换后不大于upper - 1
+            long key = range.isUpperInclusive() || upper == Long.MIN_VALUE ? upper : upper - 1;
+            high = search(key);
+        }
+        if (high < low) {
+            // 空范围没有匹配的行，仍由一个分区返回空结果
+            high = low;
+        }
+        // defaultNode也可能是某个区间的分区，去重而不能跳过
+        Set<Integer> rst = new LinkedHashSet<Integer>();
+        if (low < 0) {
+            if (defaultNode == null) {
+                if (high < 0) {
+                    return null;
+                }
+            } else {
+                rst.add(defaultNode);
+            }
+            low = 0;
+        }
+        for (int i = low; i <= high; ++i) {
+            rst.add(i);
+        }
+        return rst.toArray(new Integer[rst.size()]);
+    }
+
+    /**
+     * @return index of the last boundary not greater than <code>key</code>,
+     *         -1 if <code>key</code> is less than the first boundary
+     */
+    private int search(long key) {
+        int index = Arrays.binarySearch(boundaries, key);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return null if <code>value</code> can not be converted to key
+     */
+    private Long toKey(Object value) {
+        switch (keyType) {
+        case KEY_TYPE_DATE:
+            return value instanceof String || value instanceof Number ? parseDate(value.toString()) : null;
+        default:
+            return PartitionByLong.toLong(value instanceof String ? ((String) value).trim() : value);
+        }
+    }
+
+    /**
+     * <code>yyyy-MM-dd[ HH:mm:ss[.ffffff]]</code>、<code>yyyy/MM/dd</code>
+     * 或yyyyMMdd[HHmmss]
+     *
+     * @return yyyyMMddHHmmss, null if <code>date</code> is illegal
+     */
+    static Long parseDate(String date) {
+        date = date.trim();
+        int[] fields = new int[6];
+        int count = 0;
+        int i = 0;
+        if (isDigits(date) && (date.length() == 8 || date.length() == 14)) {
+            for (; i < date.length(); i += i == 0 ? 4 : 2) {
+                fields[count++] = Integer.parseInt(date.substring(i, i == 0 ? 4 : i + 2));
+            }
+        } else {
+            for (int len = date.length(); i < len && count < fields.length;) {
+                int start = i;
+                while (i < len && date.charAt(i) >= '0' && date.charAt(i) <= '9') {
+                    ++i;
+                }
+                if (i == start || i - start > (count == 0 ? 4 : 2)) {
+                    return null;
+                }
+                fields[count++] = Integer.parseInt(date.substring(start, i));
+                if (i == len) {
+                    break;
+                }
+                char c = date.charAt(i++);
+                if (count < 3 ? c != '-' && c != '/' : count == 3 ? c != ' ' && c != 'T' : c != ':') {
+                    // 秒之后的小数部分忽略
+                    if (count == 6 && c == '.') {
+                        break;
+                    }
+                    return null;
+                }
+            }
+        }
+        if (count != 3 && count != 6 || fields[1] < 1 || fields[1] > 12 || fields[2] < 1 || fields[2] > 31
+                || fields[3] > 23 || fields[4] > 59 || fields[5] > 59) {
+            return null;
+        }
+        long key = 0;
+        for (int field : fields) {
+            key = key * 100 + field;
+        }
+        return key;
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return s.length() > 0;
+    }
+
+    @Override
+    public FunctionExpression constructFunction(List<Expression> arguments) {
+        if (arguments == null || arguments.size() != 1)
+            throw new IllegalArgumentException("function " + getFunctionName() + " must have 1 argument but is "
+                    + arguments);
+        Object[] args = new Object[arguments.size()];
+        int i = -1;
+        for (Expression arg : arguments) {
+            args[++i] = arg;
+        }
+        return (FunctionExpression) constructMe(args);
+    }
+
+    @Override
+    public RuleAlgorithm constructMe(Object... objects) {
+        List<Expression> args = new ArrayList<Expression>(objects.length);
+        for (Object obj : objects) {
+            args.add((Expression) obj);
+        }
+        PartitionByRange rst = new PartitionByRange(functionName, args);
+        rst.keyType = keyType;
+        rst.boundaryString = boundaryString;
+        rst.defaultNode = defaultNode;
+        return rst;
+    }
+
+    @Override
+    public void initialize() {
+        init();
+    }
+
+}
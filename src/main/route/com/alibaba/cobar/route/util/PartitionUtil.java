@@ -15,6 +15,8 @@
  */
 package com.alibaba.cobar.route.util;
 
+import java.util.Arrays;
+
 import com.alibaba.cobar.util.StringUtil;
 
 /**
@@ -73,6 +75,43 @@ public final class PartitionUtil {
         return segment[(int) (hash & AND_VALUE)];
     }
 
+    /**
+     * 沿分区线段取出范围内所有值所在的分区，范围跨越整个线段时即为全部分区
+     * 
+     * @return partitions of values in [lower, upper] in ascending order, empty
+     *         if upper &lt; lower
+     */
+    public int[] partition(long lower, long upper) {
+        if (upper < lower) {
+            return new int[0];
+        }
+        int count = segment[PARTITION_LENGTH - 1] + 1;
+        boolean[] hit = new boolean[count];
+        int hitCount = 0;
+        long span = upper - lower;
+        if (span < 0 || span >= AND_VALUE) {
+            // 溢出或覆盖整个线段
+            hitCount = count;
+            Arrays.fill(hit, true);
+        } else {
+            int start = (int) (lower & AND_VALUE);
+            for (int i = 0; i <= span; i++) {
+                int p = segment[(int) ((start + i) & AND_VALUE)];
+                if (!hit[p]) {
+                    hit[p] = true;
+                    ++hitCount;
+                }
+            }
+        }
+        int[] partitions = new int[hitCount];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (hit[i]) {
+                partitions[j++] = i;
+            }
+        }
+        return partitions;
+    }
+
     public int partition(String key, int start, int end) {
         return partition(StringUtil.hash(key, start, end));
     }
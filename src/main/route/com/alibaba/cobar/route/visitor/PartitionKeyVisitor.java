@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.config.model.rule.RangeValue;
 import com.alibaba.cobar.parser.ast.ASTNode;
 import com.alibaba.cobar.parser.ast.expression.BinaryOperatorExpression;
 import com.alibaba.cobar.parser.ast.expression.Expression;
@@ -37,7 +38,11 @@ import com.alibaba.cobar.parser.ast.expression.ReplacableExpression;
 import com.alibaba.cobar.parser.ast.expression.UnaryOperatorExpression;
 import com.alibaba.cobar.parser.ast.expression.comparison.BetweenAndExpression;
 import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionEqualsExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionGreaterThanExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionGreaterThanOrEqualsExpression;
 import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionIsExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionLessThanExpression;
+import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionLessThanOrEqualsExpression;
 import com.alibaba.cobar.parser.ast.expression.comparison.ComparisionNullSafeEqualsExpression;
 import com.alibaba.cobar.parser.ast.expression.comparison.InExpression;
 import com.alibaba.cobar.parser.ast.expression.logical.LogicalAndExpression;
@@ -170,7 +175,7 @@ import com.alibaba.cobar.util.SmallSet;
 public final class PartitionKeyVisitor implements SQLASTVisitor {
 
     private static final Set<Class<? extends Expression>> VERDICT_PASS_THROUGH_WHERE = new HashSet<Class<? extends Expression>>(
-            6);
+            10);
     private static final Set<Class<? extends Expression>> GROUP_FUNC_PASS_THROUGH_SELECT = new HashSet<Class<? extends Expression>>(
             5);
     private static final Set<Class<? extends Expression>> PARTITION_OPERAND_SINGLE = new HashSet<Class<? extends Expression>>(
@@ -182,6 +187,10 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
         VERDICT_PASS_THROUGH_WHERE.add(InExpression.class);
         VERDICT_PASS_THROUGH_WHERE.add(ComparisionNullSafeEqualsExpression.class);
         VERDICT_PASS_THROUGH_WHERE.add(ComparisionEqualsExpression.class);
+        VERDICT_PASS_THROUGH_WHERE.add(ComparisionGreaterThanExpression.class);
+        VERDICT_PASS_THROUGH_WHERE.add(ComparisionGreaterThanOrEqualsExpression.class);
+        VERDICT_PASS_THROUGH_WHERE.add(ComparisionLessThanExpression.class);
+        VERDICT_PASS_THROUGH_WHERE.add(ComparisionLessThanOrEqualsExpression.class);
         GROUP_FUNC_PASS_THROUGH_SELECT.add(Count.class);
         GROUP_FUNC_PASS_THROUGH_SELECT.add(Sum.class);
         GROUP_FUNC_PASS_THROUGH_SELECT.add(Min.class);
@@ -223,6 +232,8 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
     private int groupFuncType = GROUP_NON;
     private long limitSize = -1L;
     private long limitOffset = -1L;
+    private List<Pair<String, SortOrder>> orderBy;
+    private boolean selectVisited = false;
     private boolean tableMetaRead;
     private boolean rewriteField = false;
     private boolean schemaTrimmed = false;
@@ -288,6 +299,15 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
         return limitSize;
     }
 
+    /**
+     * @return ORDER BY columns of top level select, column name is alias or
+     *         column name in upper case. null if absent or any item can not be
+     *         resolved to a column of the result set
+     */
+    public List<Pair<String, SortOrder>> getOrderBy() {
+        return orderBy;
+    }
+
     /**
      * @return {@link #GROUP_NON} or {@link #GROUP_SUM}or {@link #GROUP_MIN}or
      *         {@link #GROUP_MAX}
@@ -402,7 +422,7 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
 
     // ---temp
     // state------------------------------------------------------------------
-    private final Map<Object, Object> evaluationParameter = Collections.emptyMap();
+    private final Map<? extends Object, ? extends Object> evaluationParameter;
     private final Map<String, TableConfig> tablesRuleConfig;
     private boolean verdictColumn = true;
     private int idLevel = 2;
@@ -410,10 +430,23 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
     private String trimSchema;
 
     public PartitionKeyVisitor(Map<String, TableConfig> tables) {
+        this(tables, null);
+    }
+
+    /**
+     * @param parameters values bound to {@link ParamMarker}, key is parameter
+     *            index (start from 1)
+     */
+    public PartitionKeyVisitor(Map<String, TableConfig> tables, Map<Integer, ? extends Object> parameters) {
         if (tables == null || tables.isEmpty()) {
             tables = Collections.emptyMap();
         }
         this.tablesRuleConfig = tables;
+        if (parameters == null) {
+            this.evaluationParameter = Collections.emptyMap();
+        } else {
+            this.evaluationParameter = parameters;
+        }
     }
 
     public PartitionKeyVisitor setTrimSchema(String trimSchema) {
@@ -498,14 +531,27 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
 
         List<Expression> exprList = node.getSelectExprListWithoutAlias();
         if (verdictGroupFunc) {
+            if (node.getGroup() != null || node.getHaving() != null) {
+                // 分组结果每个节点可能返回多行，不能合并成一行
+                groupFuncType = GROUP_CANCEL;
+                verdictGroup = false;
+            }
             for (Expression expr : exprList) {
+                if (!verdictGroup) {
+                    break;
+                }
                 if (!isGroupFuncPassthroughSelect(expr)) {
                     groupFuncType = GROUP_CANCEL;
                     verdictGroup = false;
                     break;
                 }
             }
+        }
+        if (!selectVisited) {
+            // 只有最外层的LIMIT和ORDER BY决定合并后的结果集
+            selectVisited = true;
             limit(node.getLimit());
+            orderBy(node);
         }
         visitChild(2, false, verdictGroupFunc && verdictGroup, exprList);
 
@@ -525,8 +571,67 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
         visitChild(2, false, false, order);
     }
 
+    private void orderBy(DMLSelectStatement node) {
+        OrderBy order = node.getOrder();
+        if (order == null) {
+            return;
+        }
+        List<Pair<Expression, SortOrder>> items = order.getOrderByList();
+        List<Pair<String, SortOrder>> list = new ArrayList<Pair<String, SortOrder>>(items.size());
+        for (Pair<Expression, SortOrder> item : items) {
+            String column = orderByColumn(item.getKey(), node.getSelectExprList());
+            if (column == null) {
+                return;
+            }
+            list.add(new Pair<String, SortOrder>(column, item.getValue()));
+        }
+        orderBy = list;
+    }
+
+    /**
+     * @return null if <code>expr</code> can not be resolved to a column of
+     *         result set
+     */
+    private static String orderByColumn(Expression expr, List<Pair<Expression, String>> selectList) {
+        if (expr instanceof LiteralNumber) {
+            int index = ((LiteralNumber) expr).getNumber().intValue() - 1;
+            if (index < 0 || selectList == null || index >= selectList.size()) {
+                return null;
+            }
+            Pair<Expression, String> item = selectList.get(index);
+            if (item.getValue() != null) {
+                return Identifier.unescapeName(item.getValue(), true);
+            }
+            expr = item.getKey();
+        }
+        if (!(expr instanceof Identifier) || expr instanceof Wildcard) {
+            return null;
+        }
+        String column = ((Identifier) expr).getIdTextUpUnescape();
+        if (selectList == null) {
+            return null;
+        }
+        // 和MySQL一样先匹配别名，再匹配选出的列，结果集中的列名是别名
+        boolean wildcard = false;
+        for (Pair<Expression, String> item : selectList) {
+            if (item.getValue() != null && column.equals(Identifier.unescapeName(item.getValue(), true))) {
+                return column;
+            }
+        }
+        for (Pair<Expression, String> item : selectList) {
+            Expression e = item.getKey();
+            if (e instanceof Wildcard) {
+                wildcard = true;
+            } else if (e instanceof Identifier && column.equals(((Identifier) e).getIdTextUpUnescape())) {
+                return item.getValue() == null ? column : Identifier.unescapeName(item.getValue(), true);
+            }
+        }
+        return wildcard ? column : null;
+    }
+
     @Override
     public void visit(DMLSelectUnionStatement node) {
+        selectVisited = true;
         visitChild(2, false, false, node.getOrderBy());
         visitChild(2, false, false, node.getSelectStmtList());
     }
@@ -743,6 +848,9 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
                 if (e1 != Expression.UNEVALUATABLE && e2 != Expression.UNEVALUATABLE && e1 != null && e2 != null) {
                     if (compareEvaluatedValue(e1, e2)) {
                         addColumnValue(table, col.getIdTextUpUnescape(), e1, node, null);
+                    } else {
+                        addColumnValue(table, col.getIdTextUpUnescape(), new RangeValue(e1, true, e2, true), node,
+                                       null);
                     }
                 }
             }
@@ -798,6 +906,151 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
         Expression left = node.getLeftOprand();
         Expression right = node.getRightOprand();
         visitChild(2, false, false, left, right);
+
+        if (verdictColumn) {
+            RangeValue range = comparisionRange(node);
+            if (range != null) {
+                Identifier col = comparedColumn(node);
+                String table = tableAlias.get(col.getLevelUnescapeUpName(2));
+                addColumnValue(table, col.getIdTextUpUnescape(), range, node, null);
+            }
+        }
+    }
+
+    private static Identifier comparedColumn(BinaryOperatorExpression node) {
+        if (node.getLeftOprand() instanceof Identifier) {
+            return (Identifier) node.getLeftOprand();
+        } else if (node.getRightOprand() instanceof Identifier) {
+            return (Identifier) node.getRightOprand();
+        }
+        return null;
+    }
+
+    /**
+     * @return range of partition column compared by <code>&gt;, &gt;=, &lt;,
+     *         &lt;=</code>, null if <code>node</code> is not such comparision
+     */
+    private RangeValue comparisionRange(BinaryOperatorExpression node) {
+        boolean greater;
+        boolean inclusive;
+        if (node instanceof ComparisionGreaterThanExpression) {
+            greater = true;
+            inclusive = false;
+        } else if (node instanceof ComparisionGreaterThanOrEqualsExpression) {
+            greater = true;
+            inclusive = true;
+        } else if (node instanceof ComparisionLessThanExpression) {
+            greater = false;
+            inclusive = false;
+        } else if (node instanceof ComparisionLessThanOrEqualsExpression) {
+            greater = false;
+            inclusive = true;
+        } else {
+            return null;
+        }
+        Identifier col = comparedColumn(node);
+        if (col == null || !isRuledColumn(tableAlias.get(col.getLevelUnescapeUpName(2)), col.getIdTextUpUnescape())) {
+            return null;
+        }
+        boolean reversed = col != node.getLeftOprand();
+        Object value = (reversed ? node.getLeftOprand() : node.getRightOprand()).evaluation(evaluationParameter);
+        if (value == Expression.UNEVALUATABLE || value == null) {
+            return null;
+        }
+        if (greater != reversed) {
+            return new RangeValue(value, inclusive, null, false);
+        }
+        return new RangeValue(null, false, value, inclusive);
+    }
+
+    /**
+     * AND连接的同一分区列上的比较合并为一个范围，如<code>id &gt;= 1000 AND id &lt; 2000</code>。
+     * 端点取不到更紧的值时保留已有端点，合并结果总是包含真实范围。
+     * 
+     * @return comparisions merged into a range
+     */
+    private Set<Expression> andRange(LogicalAndExpression node) {
+        Map<String, List<Pair<BinaryOperatorExpression, RangeValue>>> columns = null;
+        for (int i = 0, len = node.getArity(); i < len; ++i) {
+            Expression oprand = node.getOperand(i);
+            if (!(oprand instanceof BinaryOperatorExpression)) {
+                continue;
+            }
+            BinaryOperatorExpression comp = (BinaryOperatorExpression) oprand;
+            RangeValue range = comparisionRange(comp);
+            if (range == null) {
+                continue;
+            }
+            Identifier col = comparedColumn(comp);
+            String key = tableAlias.get(col.getLevelUnescapeUpName(2)) + '.' + col.getIdTextUpUnescape();
+            if (columns == null) {
+                columns = new HashMap<String, List<Pair<BinaryOperatorExpression, RangeValue>>>(2, 1);
+            }
+            List<Pair<BinaryOperatorExpression, RangeValue>> list = columns.get(key);
+            if (list == null) {
+                list = new ArrayList<Pair<BinaryOperatorExpression, RangeValue>>(2);
+                columns.put(key, list);
+            }
+            list.add(new Pair<BinaryOperatorExpression, RangeValue>(comp, range));
+        }
+        if (columns == null) {
+            return Collections.emptySet();
+        }
+        Set<Expression> merged = new HashSet<Expression>();
+        for (List<Pair<BinaryOperatorExpression, RangeValue>> list : columns.values()) {
+            if (list.size() < 2) {
+                continue;
+            }
+            Object lower = null;
+            boolean lowerInclusive = false;
+            Object upper = null;
+            boolean upperInclusive = false;
+            for (Pair<BinaryOperatorExpression, RangeValue> pair : list) {
+                RangeValue r = pair.getValue();
+                if (r.getLower() != null) {
+                    int cmp = lower == null ? 1 : compareValue(r.getLower(), lower);
+                    if (cmp > 0 || cmp == 0 && !r.isLowerInclusive()) {
+                        lower = r.getLower();
+                        lowerInclusive = r.isLowerInclusive();
+                    }
+                }
+                if (r.getUpper() != null) {
+                    int cmp = upper == null ? -1 : compareValue(r.getUpper(), upper);
+                    if (cmp < 0 || cmp == 0 && !r.isUpperInclusive()) {
+                        upper = r.getUpper();
+                        upperInclusive = r.isUpperInclusive();
+                    }
+                }
+            }
+            RangeValue range = new RangeValue(lower, lowerInclusive, upper, upperInclusive);
+            Identifier col = comparedColumn(list.get(0).getKey());
+            String table = tableAlias.get(col.getLevelUnescapeUpName(2));
+            String column = col.getIdTextUpUnescape();
+            addColumnValue(table, column, range, list.get(0).getKey(), null);
+            for (Pair<BinaryOperatorExpression, RangeValue> pair : list) {
+                if (pair != list.get(0)) {
+                    addColumnValueIndex(table, column, range, pair.getKey(), null);
+                }
+                merged.add(pair.getKey());
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return 0 if not comparable
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValue(Object obj1, Object obj2) {
+        if (obj1 instanceof String && obj2 instanceof String) {
+            return ((String) obj1).compareTo((String) obj2);
+        }
+        try {
+            Pair<Number, Number> pair = ExprEvalUtils.convertNum2SameLevel(obj1, obj2);
+            return ((Comparable) pair.getKey()).compareTo(pair.getValue());
+        } catch (Exception e) {
+            return 0;
+        }
     }
 
     @Override
@@ -874,9 +1127,11 @@ public final class PartitionKeyVisitor implements SQLASTVisitor {
 
     @Override
     public void visit(LogicalAndExpression node) {
+        Set<Expression> merged = verdictColumn ? andRange(node) : Collections.<Expression> emptySet();
         for (int i = 0, len = node.getArity(); i < len; ++i) {
             Expression oprand = node.getOperand(i);
-            visitChild(2, verdictColumn && isVerdictPassthroughWhere(oprand), false, oprand);
+            visitChild(2, verdictColumn && isVerdictPassthroughWhere(oprand) && !merged.contains(oprand), false,
+                       oprand);
         }
     }
 
@@ -16,6 +16,7 @@
 package com.alibaba.cobar;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
@@ -33,11 +34,17 @@ import com.alibaba.cobar.net.NIOAcceptor;
 import com.alibaba.cobar.net.NIOConnector;
 import com.alibaba.cobar.net.NIOProcessor;
 import com.alibaba.cobar.parser.recognizer.mysql.lexer.MySQLLexer;
+import com.alibaba.cobar.route.GlobalIndex;
+import com.alibaba.cobar.route.RoutePlanCache;
+import com.alibaba.cobar.sequence.MySQLSequenceStore;
+import com.alibaba.cobar.sequence.SequenceManager;
 import com.alibaba.cobar.server.ServerConnectionFactory;
 import com.alibaba.cobar.statistic.SQLRecorder;
 import com.alibaba.cobar.util.ExecutorUtil;
 import com.alibaba.cobar.util.NameableExecutor;
 import com.alibaba.cobar.util.TimeUtil;
+import com.alibaba.cobar.xa.XALog;
+import com.alibaba.cobar.xa.XARecovery;
 
 /**
  * @author xianmao.hexm 2011-4-19 下午02:58:59
@@ -48,6 +55,7 @@ public class CobarServer {
     public static final String NAME = "Cobar";
     private static final long LOG_WATCH_DELAY = 60000L;
     private static final long TIME_UPDATE_PERIOD = 20L;
+    private static final long XA_RECOVERY_PERIOD = 60 * 1000L;
     
     //static变量只初始化一次,单例模式
     private static final CobarServer INSTANCE = new CobarServer();
@@ -80,6 +88,12 @@ public class CobarServer {
         this.config = new CobarConfig();
         SystemConfig system = config.getSystem();
         MySQLLexer.setCStyleCommentVersion(system.getParserCommentVersion());
+        RoutePlanCache.getInstance().setCapacity(system.getRouteCacheSize());
+        GlobalIndex.getInstance().setCapacity(system.getGlobalIndexSize());
+        String sequenceDataNode = system.getSequenceDataNode();
+        SequenceManager.getInstance().init(
+                sequenceDataNode == null ? null : new MySQLSequenceStore(sequenceDataNode),
+                system.getSequenceBlockSize());
         this.timer = new Timer(NAME + "Timer", true);
         
         //创建命名线程池，可以daemon运行，实现接口ThreadPoolExecutor
@@ -128,7 +142,8 @@ public class CobarServer {
         //每个processor的handler和executer是继承自ThreadPoolExecutor的
         processors = new NIOProcessor[system.getProcessors()];
         for (int i = 0; i < processors.length; i++) {
-            processors[i] = new NIOProcessor("Processor" + i, handler, executor);
+            processors[i] = new NIOProcessor("Processor" + i, handler, executor, system.isDirectBuffer(i));
+            processors[i].setIndex(i);
             //每个processor都启动该processor的读和写reactor线程
             processors[i].startup();
         }
@@ -151,6 +166,14 @@ public class CobarServer {
         for (MySQLDataNode node : dataNodes.values()) {
             node.init(1, 0);
         }
+        // recover XA transactions before accepting any connection
+        if (system.getXaLogDir() != null) {
+            LOGGER.info("Recover XA transactions ...");
+            XALog.getInstance().init(system.getXaLogDir(), getXaPrefix(system.getServerPort()));
+            XARecovery.recover();
+            timer.schedule(xaRecovery(), XA_RECOVERY_PERIOD, XA_RECOVERY_PERIOD);
+        }
+
         //数据节点定时连接空闲超时检查任务
         timer.schedule(dataNodeIdleCheck(), 0L, system.getDataNodeIdleCheckPeriod());
         //数据节点心跳发送任务
@@ -281,6 +304,32 @@ public class CobarServer {
         };
     }
 
+    // 同一组数据节点上的各cobar实例以主机和端口区分自己的XA事务
+    private static String getXaPrefix(int port) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return "cobar-" + Integer.toHexString(host.hashCode()) + '-' + port + '-';
+    }
+
+    // XA事务定时重试提交任务
+    private TimerTask xaRecovery() {
+        return new TimerTask() {
+            @Override
+            public void run() {
+                timerExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        XARecovery.retry();
+                    }
+                });
+            }
+        };
+    }
+
     // 数据节点定时心跳任务
     private TimerTask dataNodeHeartbeat() {
         return new TimerTask() {
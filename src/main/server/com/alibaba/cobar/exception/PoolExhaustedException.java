@@ -0,0 +1,40 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.exception;
+
+/**
+ * 后端连接池已满，等待队列已满或者等待超时
+ */
+public class PoolExhaustedException extends RuntimeException {
+    private static final long serialVersionUID = 4613702373459380186L;
+
+    public PoolExhaustedException() {
+        super();
+    }
+
+    public PoolExhaustedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public PoolExhaustedException(String message) {
+        super(message);
+    }
+
+    public PoolExhaustedException(Throwable cause) {
+        super(cause);
+    }
+
+}
@@ -248,8 +248,9 @@ public class MySQLHeartbeat {
      * switch data source
      */
     private void switchSource(String reason) {
-        if (!isStop.get()) {
-            MySQLDataNode node = source.getNode();
+        MySQLDataNode node = source.getNode();
+        // 读写分离的备库心跳异常时只是不再分配读请求
+        if (!isStop.get() && node.getSource() == source) {
             int i = node.next(source.getIndex());
             node.switchSource(i, true, reason);
         }
@@ -19,6 +19,7 @@ import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.config.ErrorCode;
 import com.alibaba.cobar.manager.handler.ClearHandler;
+import com.alibaba.cobar.manager.handler.MigrateHandler;
 import com.alibaba.cobar.manager.handler.ReloadHandler;
 import com.alibaba.cobar.manager.handler.RollbackHandler;
 import com.alibaba.cobar.manager.handler.SelectHandler;
@@ -85,6 +86,9 @@ public class ManagerQueryHandler implements FrontendQueryHandler {
         case ManagerParse.CLEAR:
             ClearHandler.handle(sql, c, rs >>> 8);
             break;
+        case ManagerParse.MIGRATE:
+            MigrateHandler.handle(sql, c, rs >>> 8);
+            break;
         default:
             c.writeErrMessage(ErrorCode.ER_YES, "Unsupported statement");
         }
@@ -28,13 +28,16 @@ import com.alibaba.cobar.manager.response.ShowDataSource;
 import com.alibaba.cobar.manager.response.ShowDatabase;
 import com.alibaba.cobar.manager.response.ShowHeartbeat;
 import com.alibaba.cobar.manager.response.ShowHelp;
+import com.alibaba.cobar.manager.response.ShowMigration;
 import com.alibaba.cobar.manager.response.ShowParser;
 import com.alibaba.cobar.manager.response.ShowProcessor;
+import com.alibaba.cobar.manager.response.ShowRouteCache;
 import com.alibaba.cobar.manager.response.ShowRouter;
 import com.alibaba.cobar.manager.response.ShowSQL;
 import com.alibaba.cobar.manager.response.ShowSQLDetail;
 import com.alibaba.cobar.manager.response.ShowSQLExecute;
 import com.alibaba.cobar.manager.response.ShowSQLSlow;
+import com.alibaba.cobar.manager.response.ShowSequence;
 import com.alibaba.cobar.manager.response.ShowServer;
 import com.alibaba.cobar.manager.response.ShowSlow;
 import com.alibaba.cobar.manager.response.ShowThreadPool;
@@ -109,6 +112,15 @@ public final class ShowHandler {
         case ManagerParseShow.ROUTER:
             ShowRouter.execute(c);
             break;
+        case ManagerParseShow.ROUTE_CACHE:
+            ShowRouteCache.execute(c);
+            break;
+        case ManagerParseShow.MIGRATION:
+            ShowMigration.execute(c);
+            break;
+        case ManagerParseShow.SEQUENCE:
+            ShowSequence.execute(c);
+            break;
         case ManagerParseShow.SERVER:
             ShowServer.execute(c);
             break;
@@ -19,6 +19,7 @@ import com.alibaba.cobar.config.ErrorCode;
 import com.alibaba.cobar.manager.ManagerConnection;
 import com.alibaba.cobar.manager.parser.ManagerParseStop;
 import com.alibaba.cobar.manager.response.StopHeartbeat;
+import com.alibaba.cobar.manager.response.StopMigration;
 
 /**
  * @author xianmao.hexm
@@ -30,6 +31,9 @@ public final class StopHandler {
         case ManagerParseStop.HEARTBEAT:
             StopHeartbeat.execute(stmt, c);
             break;
+        case ManagerParseStop.MIGRATION:
+            StopMigration.execute(stmt, c);
+            break;
         default:
             c.writeErrMessage(ErrorCode.ER_YES, "Unsupported statement");
         }
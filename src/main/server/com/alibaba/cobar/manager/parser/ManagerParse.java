@@ -35,6 +35,7 @@ public final class ManagerParse {
     public static final int OFFLINE = 9;
     public static final int ONLINE = 10;
     public static final int CLEAR = 11;
+    public static final int MIGRATE = 12;
 
     public static int parse(String stmt) {
         for (int i = 0; i < stmt.length(); i++) {
@@ -54,6 +55,9 @@ public final class ManagerParse {
             case 'K':
             case 'k':
                 return kill(stmt, i);
+            case 'M':
+            case 'm':
+                return migrate(stmt, i);
             case 'O':
             case 'o':
                 return oCheck(stmt, i);
@@ -83,6 +87,25 @@ public final class ManagerParse {
         return OTHER;
     }
 
+    // MIGRATE' '
+    private static int migrate(String stmt, int offset) {
+        if (stmt.length() > offset + "IGRATE ".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            char c7 = stmt.charAt(++offset);
+            if ((c1 == 'I' || c1 == 'i') && (c2 == 'G' || c2 == 'g') && (c3 == 'R' || c3 == 'r')
+                    && (c4 == 'A' || c4 == 'a') && (c5 == 'T' || c5 == 't') && (c6 == 'E' || c6 == 'e')
+                    && (c7 == ' ' || c7 == '\t' || c7 == '\r' || c7 == '\n')) {
+                return (offset << 8) | MIGRATE;
+            }
+        }
+        return OTHER;
+    }
+
     private static int oCheck(String stmt, int offset) {
         if (stmt.length() > ++offset) {
             switch (stmt.charAt(offset)) {
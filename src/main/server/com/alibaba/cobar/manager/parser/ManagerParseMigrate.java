@@ -0,0 +1,108 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.manager.parser;
+
+import com.alibaba.cobar.parser.util.ParseUtil;
+import com.alibaba.cobar.util.SplitUtil;
+
+/**
+ * MIGRATE @@BUCKET function:bucket:partition<br/>
+ * MIGRATE @@RATE rowsPerSecond
+ */
+public final class ManagerParseMigrate {
+
+    public static final int OTHER = -1;
+    public static final int BUCKET = 1;
+    public static final int RATE = 2;
+
+    public static int parse(String stmt, int offset) {
+        int i = offset;
+        for (; i < stmt.length(); i++) {
+            switch (stmt.charAt(i)) {
+            case ' ':
+                continue;
+            case '/':
+            case '#':
+                i = ParseUtil.comment(stmt, i);
+                continue;
+            case '@':
+                return migrate2Check(stmt, i);
+            default:
+                return OTHER;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return arguments after the keyword split by ':'
+     */
+    public static String[] getArgs(String stmt) {
+        int offset = stmt.indexOf("@@") + 2;
+        while (offset < stmt.length() && Character.isLetter(stmt.charAt(offset))) {
+            ++offset;
+        }
+        return SplitUtil.split(stmt.substring(offset).trim(), ':', true);
+    }
+
+    static int migrate2Check(String stmt, int offset) {
+        if (stmt.length() > ++offset && stmt.charAt(offset) == '@' && stmt.length() > ++offset) {
+            switch (stmt.charAt(offset)) {
+            case 'B':
+            case 'b':
+                return migrate2BCheck(stmt, offset);
+            case 'R':
+            case 'r':
+                return migrate2RCheck(stmt, offset);
+            default:
+                return OTHER;
+            }
+        }
+        return OTHER;
+    }
+
+    // BUCKET
+    static int migrate2BCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "UCKET ".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            if ((c1 == 'U' || c1 == 'u') && (c2 == 'C' || c2 == 'c') && (c3 == 'K' || c3 == 'k')
+                    && (c4 == 'E' || c4 == 'e') && (c5 == 'T' || c5 == 't') && c6 == ' ') {
+                return BUCKET;
+            }
+        }
+        return OTHER;
+    }
+
+    // RATE
+    static int migrate2RCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "ATE ".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            if ((c1 == 'A' || c1 == 'a') && (c2 == 'T' || c2 == 't') && (c3 == 'E' || c3 == 'e') && c4 == ' ') {
+                return RATE;
+            }
+        }
+        return OTHER;
+    }
+
+}
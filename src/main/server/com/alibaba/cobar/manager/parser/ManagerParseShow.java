@@ -50,6 +50,9 @@ public final class ManagerParseShow {
     public static final int SLOW_DATANODE = 25;
     public static final int SLOW_SCHEMA = 26;
     public static final int BACKEND = 27;
+    public static final int ROUTE_CACHE = 28;
+    public static final int MIGRATION = 29;
+    public static final int SEQUENCE = 30;
 
     public static int parse(String stmt, int offset) {
         int i = offset;
@@ -93,6 +96,9 @@ public final class ManagerParseShow {
                 case 'H':
                 case 'h':
                     return show2HCheck(stmt, offset);
+                case 'M':
+                case 'm':
+                    return show2MCheck(stmt, offset);
                 case 'P':
                 case 'p':
                     return show2PCheck(stmt, offset);
@@ -303,20 +309,70 @@ public final class ManagerParseShow {
         return OTHER;
     }
 
+    // SHOW @@MIGRATION
+    static int show2MCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "IGRATION".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            char c7 = stmt.charAt(++offset);
+            char c8 = stmt.charAt(++offset);
+            if ((c1 == 'I' || c1 == 'i') && (c2 == 'G' || c2 == 'g') && (c3 == 'R' || c3 == 'r')
+                    && (c4 == 'A' || c4 == 'a') && (c5 == 'T' || c5 == 't') && (c6 == 'I' || c6 == 'i')
+                    && (c7 == 'O' || c7 == 'o') && (c8 == 'N' || c8 == 'n')) {
+                if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                    return OTHER;
+                }
+                return MIGRATION;
+            }
+        }
+        return OTHER;
+    }
+
     // SHOW @@ROUTER
+    // SHOW @@ROUTE_CACHE
     static int show2RCheck(String stmt, int offset) {
-        if (stmt.length() > offset + "OUTER".length()) {
+        if (stmt.length() > offset + "OUTE".length()) {
             char c1 = stmt.charAt(++offset);
             char c2 = stmt.charAt(++offset);
             char c3 = stmt.charAt(++offset);
             char c4 = stmt.charAt(++offset);
-            char c5 = stmt.charAt(++offset);
             if ((c1 == 'O' || c1 == 'o') && (c2 == 'U' || c2 == 'u') && (c3 == 'T' || c3 == 't')
-                    && (c4 == 'E' || c4 == 'e') && (c5 == 'R' || c5 == 'r')) {
+                    && (c4 == 'E' || c4 == 'e') && stmt.length() > ++offset) {
+                switch (stmt.charAt(offset)) {
+                case 'R':
+                case 'r':
+                    if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                        return OTHER;
+                    }
+                    return ROUTER;
+                case '_':
+                    return show2RouteCacheCheck(stmt, offset);
+                default:
+                    return OTHER;
+                }
+            }
+        }
+        return OTHER;
+    }
+
+    // SHOW @@ROUTE_CACHE
+    static int show2RouteCacheCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "CACHE".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            if ((c1 == 'C' || c1 == 'c') && (c2 == 'A' || c2 == 'a') && (c3 == 'C' || c3 == 'c')
+                    && (c4 == 'H' || c4 == 'h') && (c5 == 'E' || c5 == 'e')) {
                 if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
                     return OTHER;
                 }
-                return ROUTER;
+                return ROUTE_CACHE;
             }
         }
         return OTHER;
@@ -743,15 +799,29 @@ public final class ManagerParseShow {
         return OTHER;
     }
 
-    // SHOW @@SERVER
     static int show2SeCheck(String stmt, int offset) {
-        if (stmt.length() > offset + "RVER".length()) {
+        if (stmt.length() > ++offset) {
+            switch (stmt.charAt(offset)) {
+            case 'R':
+            case 'r':
+                return show2SerCheck(stmt, offset);
+            case 'Q':
+            case 'q':
+                return show2SeqCheck(stmt, offset);
+            default:
+                return OTHER;
+            }
+        }
+        return OTHER;
+    }
+
+    // SHOW @@SERVER
+    static int show2SerCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "VER".length()) {
             char c1 = stmt.charAt(++offset);
             char c2 = stmt.charAt(++offset);
             char c3 = stmt.charAt(++offset);
-            char c4 = stmt.charAt(++offset);
-            if ((c1 == 'R' || c1 == 'r') && (c2 == 'V' || c2 == 'v') && (c3 == 'E' || c3 == 'e')
-                    && (c4 == 'R' || c4 == 'r')) {
+            if ((c1 == 'V' || c1 == 'v') && (c2 == 'E' || c2 == 'e') && (c3 == 'R' || c3 == 'r')) {
                 if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
                     return OTHER;
                 }
@@ -761,6 +831,25 @@ public final class ManagerParseShow {
         return OTHER;
     }
 
+    // SHOW @@SEQUENCE
+    static int show2SeqCheck(String stmt, int offset) {
+        if (stmt.length() > offset + "UENCE".length()) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            if ((c1 == 'U' || c1 == 'u') && (c2 == 'E' || c2 == 'e') && (c3 == 'N' || c3 == 'n')
+                    && (c4 == 'C' || c4 == 'c') && (c5 == 'E' || c5 == 'e')) {
+                if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                    return OTHER;
+                }
+                return SEQUENCE;
+            }
+        }
+        return OTHER;
+    }
+
     // SHOW @@THREADPOOL
     static int show2ThCheck(String stmt, int offset) {
         if (stmt.length() > offset + "READPOOL".length()) {
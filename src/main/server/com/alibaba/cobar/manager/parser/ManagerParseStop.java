@@ -26,6 +26,7 @@ public final class ManagerParseStop {
 
     public static final int OTHER = -1;
     public static final int HEARTBEAT = 1;
+    public static final int MIGRATION = 2;
 
     public static int parse(String stmt, int offset) {
         int i = offset;
@@ -60,27 +61,65 @@ public final class ManagerParseStop {
         }
     }
 
-    // HEARTBEAT
     static int stop2Check(String stmt, int offset) {
-        if (stmt.length() > ++offset && stmt.charAt(offset) == '@') {
-            if (stmt.length() > offset + 9) {
-                char c1 = stmt.charAt(++offset);
-                char c2 = stmt.charAt(++offset);
-                char c3 = stmt.charAt(++offset);
-                char c4 = stmt.charAt(++offset);
-                char c5 = stmt.charAt(++offset);
-                char c6 = stmt.charAt(++offset);
-                char c7 = stmt.charAt(++offset);
-                char c8 = stmt.charAt(++offset);
-                char c9 = stmt.charAt(++offset);
-                if ((c1 == 'H' || c1 == 'h') && (c2 == 'E' || c2 == 'e') && (c3 == 'A' || c3 == 'a')
-                        && (c4 == 'R' || c4 == 'r') && (c5 == 'T' || c5 == 't') && (c6 == 'B' || c6 == 'b')
-                        && (c7 == 'E' || c7 == 'e') && (c8 == 'A' || c8 == 'a') && (c9 == 'T' || c9 == 't')) {
-                    if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
-                        return OTHER;
-                    }
-                    return HEARTBEAT;
+        if (stmt.length() > ++offset && stmt.charAt(offset) == '@' && stmt.length() > offset + 1) {
+            switch (stmt.charAt(offset + 1)) {
+            case 'H':
+            case 'h':
+                return stop2HCheck(stmt, offset);
+            case 'M':
+            case 'm':
+                return stop2MCheck(stmt, offset);
+            default:
+                return OTHER;
+            }
+        }
+        return OTHER;
+    }
+
+    // HEARTBEAT
+    static int stop2HCheck(String stmt, int offset) {
+        if (stmt.length() > offset + 9) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            char c7 = stmt.charAt(++offset);
+            char c8 = stmt.charAt(++offset);
+            char c9 = stmt.charAt(++offset);
+            if ((c1 == 'H' || c1 == 'h') && (c2 == 'E' || c2 == 'e') && (c3 == 'A' || c3 == 'a')
+                    && (c4 == 'R' || c4 == 'r') && (c5 == 'T' || c5 == 't') && (c6 == 'B' || c6 == 'b')
+                    && (c7 == 'E' || c7 == 'e') && (c8 == 'A' || c8 == 'a') && (c9 == 'T' || c9 == 't')) {
+                if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                    return OTHER;
+                }
+                return HEARTBEAT;
+            }
+        }
+        return OTHER;
+    }
+
+    // MIGRATION
+    static int stop2MCheck(String stmt, int offset) {
+        if (stmt.length() > offset + 9) {
+            char c1 = stmt.charAt(++offset);
+            char c2 = stmt.charAt(++offset);
+            char c3 = stmt.charAt(++offset);
+            char c4 = stmt.charAt(++offset);
+            char c5 = stmt.charAt(++offset);
+            char c6 = stmt.charAt(++offset);
+            char c7 = stmt.charAt(++offset);
+            char c8 = stmt.charAt(++offset);
+            char c9 = stmt.charAt(++offset);
+            if ((c1 == 'M' || c1 == 'm') && (c2 == 'I' || c2 == 'i') && (c3 == 'G' || c3 == 'g')
+                    && (c4 == 'R' || c4 == 'r') && (c5 == 'A' || c5 == 'a') && (c6 == 'T' || c6 == 't')
+                    && (c7 == 'I' || c7 == 'i') && (c8 == 'O' || c8 == 'o') && (c9 == 'N' || c9 == 'n')) {
+                if (stmt.length() > ++offset && stmt.charAt(offset) != ' ') {
+                    return OTHER;
                 }
+                return MIGRATION;
             }
         }
         return OTHER;
@@ -0,0 +1,65 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.manager.response;
+
+import com.alibaba.cobar.config.ErrorCode;
+import com.alibaba.cobar.manager.ManagerConnection;
+import com.alibaba.cobar.manager.parser.ManagerParseMigrate;
+import com.alibaba.cobar.migrate.BucketMigrator;
+import com.alibaba.cobar.net.mysql.OkPacket;
+
+/**
+ * 在线迁移虚拟桶，进度见show @@migration
+ */
+public final class MigrateBucket {
+
+    public static void execute(String stmt, ManagerConnection c) {
+        String[] args = ManagerParseMigrate.getArgs(stmt);
+        if (args.length != 3) {
+            c.writeErrMessage(ErrorCode.ER_YES, "Usage: migrate @@bucket function:bucket:partition");
+            return;
+        }
+        try {
+            BucketMigrator.getInstance().migrate(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        } catch (RuntimeException e) {
+            c.writeErrMessage(ErrorCode.ER_YES, e.getMessage());
+            return;
+        }
+        writeOk(c, 1);
+    }
+
+    public static void setRate(String stmt, ManagerConnection c) {
+        String[] args = ManagerParseMigrate.getArgs(stmt);
+        int rate;
+        try {
+            rate = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            c.writeErrMessage(ErrorCode.ER_YES, "Usage: migrate @@rate rowsPerSecond");
+            return;
+        }
+        BucketMigrator.getInstance().setRate(rate);
+        writeOk(c, 0);
+    }
+
+    private static void writeOk(ManagerConnection c, int affectedRows) {
+        OkPacket packet = new OkPacket();
+        packet.packetId = 1;
+        packet.affectedRows = affectedRows;
+        packet.serverStatus = 2;
+        packet.write(c);
+    }
+
+}
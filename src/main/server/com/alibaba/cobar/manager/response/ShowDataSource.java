@@ -19,6 +19,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +38,7 @@ import com.alibaba.cobar.net.mysql.RowDataPacket;
 import com.alibaba.cobar.parser.util.Pair;
 import com.alibaba.cobar.parser.util.PairUtil;
 import com.alibaba.cobar.util.IntegerUtil;
+import com.alibaba.cobar.util.LongUtil;
 import com.alibaba.cobar.util.StringUtil;
 
 /**
@@ -47,7 +49,7 @@ import com.alibaba.cobar.util.StringUtil;
  */
 public final class ShowDataSource {
 
-    private static final int FIELD_COUNT = 5;
+    private static final int FIELD_COUNT = 10;
     private static final ResultSetHeaderPacket header = PacketUtil.getHeader(FIELD_COUNT);
     private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
     private static final EOFPacket eof = new EOFPacket();
@@ -71,6 +73,21 @@ public final class ShowDataSource {
         fields[i] = PacketUtil.getField("SCHEMA", Fields.FIELD_TYPE_VAR_STRING);
         fields[i++].packetId = ++packetId;
 
+        fields[i] = PacketUtil.getField("WAITING", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("WAIT_COUNT", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("WAIT_MILLIS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("TIMEOUT_COUNT", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("REJECT_COUNT", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
         eof.packetId = ++packetId;
     }
 
@@ -105,8 +122,31 @@ public final class ShowDataSource {
             keys.addAll(dataSources.keySet());
         }
         Collections.sort(keys, new Comparators<String>());
+
+        // 同一个数据源可能被多个数据节点引用，等待统计按名称累加
+        Map<String, long[]> stats = new HashMap<String, long[]>();
+        for (MySQLDataNode dn : conf.getDataNodes().values()) {
+            MySQLDataSource[] sources = dn.getSources();
+            if (sources == null) {
+                continue;
+            }
+            for (MySQLDataSource ds : sources) {
+                if (ds == null) {
+                    continue;
+                }
+                long[] stat = stats.get(ds.getName());
+                if (stat == null) {
+                    stats.put(ds.getName(), stat = new long[5]);
+                }
+                stat[0] += ds.getWaitingCount();
+                stat[1] += ds.getWaitCount();
+                stat[2] += ds.getWaitMillis();
+                stat[3] += ds.getTimeoutCount();
+                stat[4] += ds.getRejectCount();
+            }
+        }
         for (String key : keys) {
-            RowDataPacket row = getRow(dataSources.get(key), c.getCharset());
+            RowDataPacket row = getRow(dataSources.get(key), stats.get(key), c.getCharset());
             row.packetId = ++packetId;
             buffer = row.write(buffer, c);
         }
@@ -120,13 +160,21 @@ public final class ShowDataSource {
         c.write(buffer);
     }
 
-    private static RowDataPacket getRow(DataSourceConfig dsc, String charset) {
+    private static RowDataPacket getRow(DataSourceConfig dsc, long[] stat, String charset) {
         RowDataPacket row = new RowDataPacket(FIELD_COUNT);
         row.add(StringUtil.encode(dsc.getName(), charset));
         row.add(StringUtil.encode(dsc.getType(), charset));
         row.add(StringUtil.encode(dsc.getHost(), charset));
         row.add(IntegerUtil.toBytes(dsc.getPort()));
         row.add(StringUtil.encode(dsc.getDatabase(), charset));
+        if (stat == null) {
+            stat = new long[5];
+        }
+        row.add(IntegerUtil.toBytes((int) stat[0]));
+        row.add(LongUtil.toBytes(stat[1]));
+        row.add(LongUtil.toBytes(stat[2]));
+        row.add(LongUtil.toBytes(stat[3]));
+        row.add(LongUtil.toBytes(stat[4]));
         return row;
     }
 
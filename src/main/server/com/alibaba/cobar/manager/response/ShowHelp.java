@@ -120,6 +120,9 @@ public final class ShowHelp {
         helps.put("show @@sql.slow", "Report slow SQL");
         helps.put("show @@parser", "Report parser status");
         helps.put("show @@router", "Report router status");
+        helps.put("show @@route_cache", "Report route plan cache status");
+        helps.put("show @@migration", "Report bucket migration progress");
+        helps.put("show @@sequence", "Report global sequence status");
         helps.put("show @@heartbeat", "Report heartbeat status");
         helps.put("show @@slow where schema = ?", "Report schema slow sql");
         helps.put("show @@slow where datanode = ?", "Report datanode slow sql");
@@ -132,6 +135,11 @@ public final class ShowHelp {
 
         // stop
         helps.put("stop @@heartbeat name:time", "Pause dataNode heartbeat");
+        helps.put("stop @@migration function:bucket", "Cancel bucket migration before cut over");
+
+        // migrate
+        helps.put("migrate @@bucket function:bucket:partition", "Migrate bucket to partition online");
+        helps.put("migrate @@rate rowsPerSecond", "Limit rows scanned by migration, 0 for unlimited");
 
         // reload
         helps.put("reload @@config", "Reload all config from file");
@@ -0,0 +1,142 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.manager.response;
+
+import java.nio.ByteBuffer;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.manager.ManagerConnection;
+import com.alibaba.cobar.migrate.BucketMigration;
+import com.alibaba.cobar.migrate.BucketMigrator;
+import com.alibaba.cobar.mysql.PacketUtil;
+import com.alibaba.cobar.net.mysql.EOFPacket;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.ResultSetHeaderPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.util.IntegerUtil;
+import com.alibaba.cobar.util.LongUtil;
+import com.alibaba.cobar.util.StringUtil;
+import com.alibaba.cobar.util.TimeUtil;
+
+/**
+ * 桶迁移的状态和进度
+ */
+public final class ShowMigration {
+
+    private static final int FIELD_COUNT = 13;
+    private static final ResultSetHeaderPacket header = PacketUtil.getHeader(FIELD_COUNT);
+    private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
+    private static final EOFPacket eof = new EOFPacket();
+    static {
+        int i = 0;
+        byte packetId = 0;
+        header.packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("FUNCTION", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("BUCKET", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("SOURCE", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("TARGET", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("STATUS", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("PASS", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("TABLE", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("SCANNED_ROWS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("COPIED_ROWS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("PURGED_ROWS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("RATE_LIMIT", Fields.FIELD_TYPE_LONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("ELAPSED_MILLIS", Fields.FIELD_TYPE_LONGLONG);
+        fields[i++].packetId = ++packetId;
+
+        fields[i] = PacketUtil.getField("ERROR", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
+        eof.packetId = ++packetId;
+    }
+
+    public static void execute(ManagerConnection c) {
+        ByteBuffer buffer = c.allocate();
+
+        // write header
+        buffer = header.write(buffer, c);
+
+        // write fields
+        for (FieldPacket field : fields) {
+            buffer = field.write(buffer, c);
+        }
+
+        // write eof
+        buffer = eof.write(buffer, c);
+
+        // write rows
+        byte packetId = eof.packetId;
+        BucketMigrator migrator = BucketMigrator.getInstance();
+        for (BucketMigration m : migrator.getMigrations()) {
+            RowDataPacket row = getRow(m, migrator.getRate(), c.getCharset());
+            row.packetId = ++packetId;
+            buffer = row.write(buffer, c);
+        }
+
+        // write last eof
+        EOFPacket lastEof = new EOFPacket();
+        lastEof.packetId = ++packetId;
+        buffer = lastEof.write(buffer, c);
+
+        // write buffer
+        c.write(buffer);
+    }
+
+    private static RowDataPacket getRow(BucketMigration m, int rate, String charset) {
+        RowDataPacket row = new RowDataPacket(FIELD_COUNT);
+        row.add(StringUtil.encode(m.getFunction(), charset));
+        row.add(IntegerUtil.toBytes(m.getBucket()));
+        row.add(IntegerUtil.toBytes(m.getSource()));
+        row.add(IntegerUtil.toBytes(m.getTarget()));
+        row.add(StringUtil.encode(m.getStatus(), charset));
+        row.add(IntegerUtil.toBytes(m.getPass()));
+        row.add(StringUtil.encode(m.getCurrentTable(), charset));
+        row.add(LongUtil.toBytes(m.getScannedRows()));
+        row.add(LongUtil.toBytes(m.getCopiedRows()));
+        row.add(LongUtil.toBytes(m.getPurgedRows()));
+        row.add(IntegerUtil.toBytes(rate));
+        long start = m.getStartTime();
+        long end = m.isFinished() ? m.getEndTime() : TimeUtil.currentTimeMillis();
+        row.add(LongUtil.toBytes(start > 0 ? end - start : 0));
+        row.add(StringUtil.encode(m.getError(), charset));
+        return row;
+    }
+
+}
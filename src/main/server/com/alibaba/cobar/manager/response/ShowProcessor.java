@@ -16,18 +16,23 @@
 package com.alibaba.cobar.manager.response;
 
 import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Map;
 
 import com.alibaba.cobar.CobarServer;
 import com.alibaba.cobar.config.Fields;
 import com.alibaba.cobar.manager.ManagerConnection;
 import com.alibaba.cobar.mysql.PacketUtil;
 import com.alibaba.cobar.net.NIOProcessor;
+import com.alibaba.cobar.net.buffer.BufferPool;
 import com.alibaba.cobar.net.mysql.EOFPacket;
 import com.alibaba.cobar.net.mysql.FieldPacket;
 import com.alibaba.cobar.net.mysql.ResultSetHeaderPacket;
 import com.alibaba.cobar.net.mysql.RowDataPacket;
 import com.alibaba.cobar.util.IntegerUtil;
 import com.alibaba.cobar.util.LongUtil;
+import com.alibaba.cobar.util.StringUtil;
 
 /**
  * 查看处理器状态
@@ -37,7 +42,7 @@ import com.alibaba.cobar.util.LongUtil;
  */
 public final class ShowProcessor {
 
-    private static final int FIELD_COUNT = 10;
+    private static final int FIELD_COUNT = 11;
     private static final ResultSetHeaderPacket header = PacketUtil.getHeader(FIELD_COUNT);
     private static final FieldPacket[] fields = new FieldPacket[FIELD_COUNT];
     private static final EOFPacket eof = new EOFPacket();
@@ -76,6 +81,9 @@ public final class ShowProcessor {
         fields[i] = PacketUtil.getField("BC_COUNT", Fields.FIELD_TYPE_LONG);
         fields[i++].packetId = ++packetId;
 
+        fields[i] = PacketUtil.getField("BUFFER_HIT_RATE", Fields.FIELD_TYPE_VAR_STRING);
+        fields[i++].packetId = ++packetId;
+
         eof.packetId = ++packetId;
     }
 
@@ -122,7 +130,26 @@ public final class ShowProcessor {
         row.add(IntegerUtil.toBytes(processor.getBufferPool().capacity()));
         row.add(IntegerUtil.toBytes(processor.getFrontends().size()));
         row.add(IntegerUtil.toBytes(processor.getBackends().size()));
+        row.add(StringUtil.encode(getHitRates(processor.getBufferPool()), charset));
         return row;
     }
 
+    /**
+     * @return e.g. <code>Processor0-H1:99.20%,Processor0-R:100.00%</code>
+     */
+    private static String getHitRates(BufferPool pool) {
+        // NumberFormat不是线程安全的，每次调用单独创建
+        NumberFormat nf = DecimalFormat.getPercentInstance();
+        nf.setMinimumFractionDigits(2);
+        nf.setMaximumFractionDigits(2);
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, Double> e : pool.getHitRates().entrySet()) {
+            if (s.length() > 0) {
+                s.append(',');
+            }
+            s.append(e.getKey()).append(':').append(nf.format(e.getValue()));
+        }
+        return s.toString();
+    }
+
 }
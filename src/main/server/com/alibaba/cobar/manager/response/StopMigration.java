@@ -0,0 +1,45 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.manager.response;
+
+import com.alibaba.cobar.config.ErrorCode;
+import com.alibaba.cobar.manager.ManagerConnection;
+import com.alibaba.cobar.manager.parser.ManagerParseMigrate;
+import com.alibaba.cobar.migrate.BucketMigrator;
+import com.alibaba.cobar.net.mysql.OkPacket;
+
+/**
+ * 取消未切换的桶迁移，读写回到原分区
+ */
+public final class StopMigration {
+
+    public static void execute(String stmt, ManagerConnection c) {
+        String[] args = ManagerParseMigrate.getArgs(stmt);
+        int bucket;
+        try {
+            bucket = Integer.parseInt(args[1]);
+        } catch (RuntimeException e) {
+            c.writeErrMessage(ErrorCode.ER_YES, "Usage: stop @@migration function:bucket");
+            return;
+        }
+        OkPacket packet = new OkPacket();
+        packet.packetId = 1;
+        packet.affectedRows = BucketMigrator.getInstance().cancel(args[0], bucket) ? 1 : 0;
+        packet.serverStatus = 2;
+        packet.write(c);
+    }
+
+}
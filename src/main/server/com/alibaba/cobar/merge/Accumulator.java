@@ -0,0 +1,259 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import java.math.BigDecimal;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.util.LongUtil;
+
+/**
+ * 单列聚合累加器，直接消费行数据包中的文本值。SUM使用long/double原始类型累加，
+ * 只有在long溢出时才退化为{@link BigDecimal}。
+ */
+public abstract class Accumulator {
+
+    /**
+     * @param row row data
+     * @param offset offset of the length coded column value in row
+     */
+    public abstract void add(byte[] row, int offset);
+
+    /**
+     * @return null for SQL NULL
+     */
+    public abstract byte[] getValue();
+
+    /**
+     * @param type type of {@link com.alibaba.cobar.net.mysql.FieldPacket}
+     * @param decimals decimals of {@link com.alibaba.cobar.net.mysql.FieldPacket}
+     */
+    public static Accumulator sum(int type, int decimals) {
+        switch (type) {
+        case Fields.FIELD_TYPE_DECIMAL:
+        case Fields.FIELD_TYPE_NEW_DECIMAL:
+            return new DecimalSum(decimals);
+        case Fields.FIELD_TYPE_TINY:
+        case Fields.FIELD_TYPE_SHORT:
+        case Fields.FIELD_TYPE_LONG:
+        case Fields.FIELD_TYPE_INT24:
+        case Fields.FIELD_TYPE_LONGLONG:
+        case Fields.FIELD_TYPE_YEAR:
+            return new DecimalSum(0);
+        default:
+            return new DoubleSum();
+        }
+    }
+
+    /**
+     * @param compareType {@link RowDataComparator#TYPE_DECIMAL} etc.
+     */
+    public static Accumulator min(int compareType) {
+        return new Extremum(compareType, false);
+    }
+
+    /**
+     * @param compareType {@link RowDataComparator#TYPE_DECIMAL} etc.
+     */
+    public static Accumulator max(int compareType) {
+        return new Extremum(compareType, true);
+    }
+
+    /**
+     * @return accumulator keeping value of the first row
+     */
+    public static Accumulator first() {
+        return new First();
+    }
+
+    /**
+     * exact sum of integer and fixed-point values: unscaled long with the
+     * scale of result column
+     */
+    static final class DecimalSum extends Accumulator {
+        private final int scale;
+        private long unscaled;
+        private BigDecimal overflow;
+        private boolean notNull;
+
+        DecimalSum(int scale) {
+            this.scale = scale < 0 ? 0 : scale;
+        }
+
+        @Override
+        public void add(byte[] row, int offset) {
+            int len = RowDataUtil.valueLength(row, offset);
+            if (len < 0) {
+                return;
+            }
+            int start = RowDataUtil.valueStart(row, offset);
+            notNull = true;
+            if (overflow == null) {
+                long v = parseUnscaled(row, start, len, scale);
+                if (v != Long.MIN_VALUE) {
+                    long r = unscaled + v;
+                    if (((unscaled ^ r) & (v ^ r)) >= 0) {
+                        unscaled = r;
+                        return;
+                    }
+                }
+                overflow = BigDecimal.valueOf(unscaled, scale);
+            }
+            overflow = overflow.add(new BigDecimal(new String(row, start, len)));
+        }
+
+        @Override
+        public byte[] getValue() {
+            if (!notNull) {
+                return null;
+            }
+            if (overflow != null) {
+                return overflow.toPlainString().getBytes();
+            }
+            if (scale == 0) {
+                return LongUtil.toBytes(unscaled);
+            }
+            return BigDecimal.valueOf(unscaled, scale).toPlainString().getBytes();
+        }
+
+        /**
+         * @return {@link Long#MIN_VALUE} if value can not be represented as
+         *         unscaled long of <code>scale</code>
+         */
+        static long parseUnscaled(byte[] b, int start, int len, int scale) {
+            int end = start + len;
+            int i = start;
+            boolean neg = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                neg = b[i] == '-';
+                ++i;
+            }
+            long v = 0;
+            int fraction = -1;
+            for (; i < end; ++i) {
+                byte c = b[i];
+                if (c == '.') {
+                    if (fraction >= 0) {
+                        return Long.MIN_VALUE;
+                    }
+                    fraction = 0;
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    return Long.MIN_VALUE;
+                }
+                if (fraction >= 0 && ++fraction > scale) {
+                    return Long.MIN_VALUE;
+                }
+                if (v > (Long.MAX_VALUE - 9) / 10) {
+                    return Long.MIN_VALUE;
+                }
+                v = v * 10 + (c - '0');
+            }
+            for (int f = fraction < 0 ? 0 : fraction; f < scale; ++f) {
+                if (v > Long.MAX_VALUE / 10) {
+                    return Long.MIN_VALUE;
+                }
+                v *= 10;
+            }
+            return neg ? -v : v;
+        }
+    }
+
+    static final class DoubleSum extends Accumulator {
+        private double sum;
+        private boolean notNull;
+
+        @Override
+        public void add(byte[] row, int offset) {
+            int len = RowDataUtil.valueLength(row, offset);
+            if (len < 0) {
+                return;
+            }
+            notNull = true;
+            sum += RowDataComparator.parseDouble(row, RowDataUtil.valueStart(row, offset), len);
+        }
+
+        @Override
+        public byte[] getValue() {
+            if (!notNull) {
+                return null;
+            }
+            // Double.toString在数值较大或较小时使用科学计数法
+            if (Double.isNaN(sum) || Double.isInfinite(sum)) {
+                return String.valueOf(sum).getBytes();
+            }
+            return BigDecimal.valueOf(sum).toPlainString().getBytes();
+        }
+    }
+
+    /**
+     * MIN or MAX, copies the length coded column only when a better value
+     * comes, so that rows need not be retained
+     */
+    static final class Extremum extends Accumulator {
+        private final int compareType;
+        private final boolean max;
+        private byte[] best;
+
+        Extremum(int compareType, boolean max) {
+            this.compareType = compareType;
+            this.max = max;
+        }
+
+        @Override
+        public void add(byte[] row, int offset) {
+            if (RowDataUtil.valueLength(row, offset) < 0) {
+                return;
+            }
+            if (best != null) {
+                int c = RowDataComparator.compareValue(row, offset, best, 0, compareType);
+                if (max ? c <= 0 : c >= 0) {
+                    return;
+                }
+            }
+            best = RowDataUtil.copyColumn(row, offset);
+        }
+
+        @Override
+        public byte[] getValue() {
+            return best == null ? null : RowDataUtil.getValue(best, 0);
+        }
+    }
+
+    /**
+     * value of the first row, including NULL. used for GROUP BY columns and
+     * non-aggregate columns of a group
+     */
+    static final class First extends Accumulator {
+        private boolean set;
+        private byte[] value;
+
+        @Override
+        public void add(byte[] row, int offset) {
+            if (!set) {
+                set = true;
+                value = RowDataUtil.getValue(row, offset);
+            }
+        }
+
+        @Override
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+}
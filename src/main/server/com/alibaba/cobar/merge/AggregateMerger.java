@@ -0,0 +1,95 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.route.RouteResultset;
+
+/**
+ * 合并各数据节点返回的聚合结果行(COUNT/SUM/MIN/MAX)，输出一行。
+ * 查询列全部为同类聚合函数时才会由路由设置对应的标志，见
+ * {@link RouteResultset#getFlag()}。
+ * <p>
+ * NOT thread safe, caller must hold the lock of the result handler.
+ */
+public class AggregateMerger {
+    private final Accumulator[] accumulators;
+
+    public AggregateMerger(Accumulator[] accumulators) {
+        this.accumulators = accumulators;
+    }
+
+    public static boolean isAggregate(int flag) {
+        switch (flag) {
+        case RouteResultset.SUM_FLAG:
+        case RouteResultset.MIN_FLAG:
+        case RouteResultset.MAX_FLAG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @param flag {@link RouteResultset#SUM_FLAG} etc.
+     * @return null if flag is not an aggregate flag
+     */
+    public static AggregateMerger create(int flag, FieldPacket[] fields) {
+        Accumulator[] accumulators = new Accumulator[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            FieldPacket field = fields[i];
+            switch (flag) {
+            case RouteResultset.SUM_FLAG:
+                accumulators[i] = Accumulator.sum(field.type, field.decimals);
+                break;
+            case RouteResultset.MIN_FLAG:
+                accumulators[i] = Accumulator.min(RowDataComparator.getCompareType(field.type, field.flags));
+                break;
+            case RouteResultset.MAX_FLAG:
+                accumulators[i] = Accumulator.max(RowDataComparator.getCompareType(field.type, field.flags));
+                break;
+            default:
+                return null;
+            }
+        }
+        return new AggregateMerger(accumulators);
+    }
+
+    /**
+     * @param start offset of the first column, see
+     *            {@link RowDataUtil#columnOffset(byte[], int, int)}
+     */
+    public void addRow(byte[] row, int start) {
+        int offset = start;
+        for (int i = 0; i < accumulators.length; ++i) {
+            accumulators[i].add(row, offset);
+            offset = RowDataUtil.nextOffset(row, offset);
+        }
+    }
+
+    /**
+     * @return merged row, packetId not set
+     */
+    public RowDataPacket getResult() {
+        RowDataPacket row = new RowDataPacket(accumulators.length);
+        for (Accumulator acc : accumulators) {
+            row.add(acc.getValue());
+        }
+        return row;
+    }
+
+}
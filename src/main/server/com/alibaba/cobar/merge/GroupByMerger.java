@@ -0,0 +1,535 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.config.model.SystemConfig;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.route.GroupByMerge;
+
+/**
+ * 多节点GROUP BY结果的哈希聚合：以分组列的编码字节为键，各节点返回的部分聚合结果在前端再聚合一次，
+ * 所有节点结束后按ORDER BY(缺省为GROUP BY列)排序输出。
+ * <p>
+ * 分组占用的内存超过上限后，新出现的分组对应的行按哈希值写入磁盘上的分区文件，内存中已有的分组继续聚合；
+ * 结束时逐个分区重新聚合，各分区的有序结果写成顺串文件后多路归并输出。
+ * <p>
+ * NOT thread safe, caller must hold the lock of the result handler.
+ */
+public class GroupByMerger {
+    private static final int PARTITION_BITS = 4;
+    private static final int PARTITIONS = 1 << PARTITION_BITS;
+    /** partitions deeper than it are aggregated in memory regardless of limit */
+    private static final int MAX_SPILL_LEVEL = 3;
+    /** estimated bytes of HashMap entry, key and accumulators of a group */
+    private static final int GROUP_OVERHEAD = 96;
+    private static final int ACCUMULATOR_OVERHEAD = 32;
+
+    private final GroupByMerge merge;
+    private final FieldPacket[] fields;
+    private final int start;
+    private final long memoryLimit;
+    private final File spillDir;
+    private final int[] types;
+    private final int[] compareTypes;
+    private final int[] avgScales;
+    private final Comparator<byte[]> comparator;
+    private final List<Closeable> openStreams = new ArrayList<Closeable>();
+    private final List<File> spillFiles = new ArrayList<File>();
+    private HashTable table;
+    private boolean spilled;
+
+    /** output of the in-memory groups if never spilled */
+    private List<byte[]> sorted;
+    private int sortedIndex;
+    /** output merged from sorted runs if spilled */
+    private PriorityQueue<Run> runs;
+
+    /**
+     * @param fields fields returned by data nodes, including columns appended
+     *            by {@link GroupByMerge#rewrite}. fields of AVG columns are
+     *            modified for client
+     * @param start offset of the first column in row, see
+     *            {@link RowDataUtil#columnOffset(byte[], int, int)}
+     * @param memoryLimit bytes
+     * @param spillDir null for default temporary-file directory
+     */
+    public GroupByMerger(GroupByMerge merge, FieldPacket[] fields, int start, long memoryLimit, File spillDir) {
+        this.types = merge.getTypes();
+        if (fields.length != types.length) {
+            throw new IllegalArgumentException("field count " + fields.length + " of group by result, expect "
+                    + types.length);
+        }
+        this.merge = merge;
+        this.fields = fields;
+        this.start = start;
+        this.memoryLimit = memoryLimit;
+        this.spillDir = spillDir;
+        this.compareTypes = new int[fields.length];
+        this.avgScales = new int[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            FieldPacket field = fields[i];
+            if (types[i] == GroupByMerge.AVG && isExact(field.type)) {
+                // AVG比SUM多4位小数，与MySQL的div_precision_increment缺省值一致
+                avgScales[i] = field.decimals + 4;
+                field.type = Fields.FIELD_TYPE_NEW_DECIMAL;
+                field.decimals = (byte) Math.min(avgScales[i], 30);
+                field.length += 4;
+            } else {
+                avgScales[i] = -1;
+            }
+            compareTypes[i] = RowDataComparator.getCompareType(field.type, field.flags);
+        }
+        int[] orderColumns = merge.getOrderColumns();
+        int[] orderTypes = new int[orderColumns.length];
+        for (int i = 0; i < orderColumns.length; ++i) {
+            orderTypes[i] = compareTypes[orderColumns[i]];
+        }
+        this.comparator = new RowDataComparator(orderColumns, orderTypes, merge.getOrderDesc(), 0);
+        this.table = new HashTable(0);
+    }
+
+    /**
+     * memory limit and spill directory are read from {@link SystemConfig}
+     */
+    public static GroupByMerger create(GroupByMerge merge, FieldPacket[] fields, int start) {
+        SystemConfig system = CobarServer.getInstance().getConfig().getSystem();
+        String dir = system.getGroupBySpillDir();
+        return new GroupByMerger(merge, fields, start, system.getGroupByMemoryLimit(), dir == null ? null : new File(dir));
+    }
+
+    private static boolean isExact(int type) {
+        return RowDataComparator.getCompareType(type, 0) == RowDataComparator.TYPE_DECIMAL;
+    }
+
+    /**
+     * @return fields visible to client
+     */
+    public FieldPacket[] getFields() {
+        return Arrays.copyOf(fields, merge.getColumnCount());
+    }
+
+    public boolean isSpilled() {
+        return spilled;
+    }
+
+    public void addRow(byte[] row) throws IOException {
+        table.add(row);
+    }
+
+    /**
+     * MUST be called after all rows are added
+     *
+     * @return null if no more row, packetId not set
+     */
+    public RowDataPacket nextRow() throws IOException {
+        if (sorted == null && runs == null) {
+            if (table == null) {
+                // closed
+                return null;
+            }
+            finish();
+        }
+        byte[] row;
+        if (sorted != null) {
+            if (sortedIndex >= sorted.size()) {
+                return null;
+            }
+            row = sorted.set(sortedIndex++, null);
+        } else {
+            Run run = runs.poll();
+            if (run == null) {
+                return null;
+            }
+            row = run.row;
+            if (run.next()) {
+                runs.add(run);
+            } else {
+                run.close();
+            }
+        }
+        int count = merge.getColumnCount();
+        RowDataPacket packet = new RowDataPacket(count);
+        int offset = 0;
+        for (int i = 0; i < count; ++i) {
+            packet.add(RowDataUtil.getValue(row, offset));
+            offset = RowDataUtil.nextOffset(row, offset);
+        }
+        return packet;
+    }
+
+    /**
+     * release memory and delete spill files, can be called more than once
+     */
+    public void close() {
+        table = null;
+        sorted = null;
+        runs = null;
+        for (Closeable stream : openStreams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+            }
+        }
+        openStreams.clear();
+        for (File file : spillFiles) {
+            file.delete();
+        }
+        spillFiles.clear();
+    }
+
+    private void finish() throws IOException {
+        HashTable t = table;
+        table = null;
+        if (!spilled) {
+            sorted = t.sortedRows();
+            return;
+        }
+        List<Run> list = new ArrayList<Run>();
+        t.finish(list);
+        runs = new PriorityQueue<Run>(Math.max(list.size(), 1), new Comparator<Run>() {
+            @Override
+            public int compare(Run r1, Run r2) {
+                int c = comparator.compare(r1.row, r2.row);
+                return c != 0 ? c : r1.id - r2.id;
+            }
+        });
+        for (Run run : list) {
+            run.open();
+            if (run.next()) {
+                runs.add(run);
+            } else {
+                run.close();
+            }
+        }
+    }
+
+    private Accumulator[] newAccumulators() {
+        Accumulator[] accs = new Accumulator[types.length];
+        for (int i = 0; i < accs.length; ++i) {
+            FieldPacket field = fields[i];
+            switch (types[i]) {
+            case GroupByMerge.COUNT:
+                accs[i] = Accumulator.sum(Fields.FIELD_TYPE_LONGLONG, 0);
+                break;
+            case GroupByMerge.SUM:
+            case GroupByMerge.AVG:
+                accs[i] = Accumulator.sum(field.type, avgScales[i] < 0 ? field.decimals : avgScales[i] - 4);
+                break;
+            case GroupByMerge.MIN:
+                accs[i] = Accumulator.min(compareTypes[i]);
+                break;
+            case GroupByMerge.MAX:
+                accs[i] = Accumulator.max(compareTypes[i]);
+                break;
+            default:
+                accs[i] = Accumulator.first();
+            }
+        }
+        return accs;
+    }
+
+    /**
+     * @return all columns with AVG computed, first column starts at 0
+     */
+    private byte[] toRow(Accumulator[] accs) {
+        byte[][] values = new byte[accs.length][];
+        for (int i = 0; i < accs.length; ++i) {
+            values[i] = accs[i].getValue();
+        }
+        for (int i = 0; i < accs.length; ++i) {
+            if (types[i] == GroupByMerge.AVG) {
+                values[i] = average(values[i], values[merge.getCountColumn(i)], avgScales[i]);
+            }
+        }
+        return RowDataUtil.encode(values);
+    }
+
+    /**
+     * @param scale -1 for approximate value
+     */
+    static byte[] average(byte[] sum, byte[] count, int scale) {
+        if (sum == null || count == null) {
+            return null;
+        }
+        String c = new String(count);
+        if (scale < 0) {
+            long n = Long.parseLong(c);
+            return n == 0 ? null : String.valueOf(Double.parseDouble(new String(sum)) / n).getBytes();
+        }
+        BigDecimal n = new BigDecimal(c);
+        if (n.signum() == 0) {
+            return null;
+        }
+        return new BigDecimal(new String(sum)).divide(n, scale, RoundingMode.HALF_UP).toPlainString().getBytes();
+    }
+
+    private File createSpillFile() throws IOException {
+        File file = File.createTempFile("cobar-groupby-", ".tmp", spillDir);
+        spillFiles.add(file);
+        return file;
+    }
+
+    private DataOutputStream openOutput(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        openStreams.add(out);
+        return out;
+    }
+
+    private DataInputStream openInput(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        openStreams.add(in);
+        return in;
+    }
+
+    private void closeStream(Closeable stream) throws IOException {
+        openStreams.remove(stream);
+        stream.close();
+    }
+
+    private void deleteFile(File file) {
+        spillFiles.remove(file);
+        file.delete();
+    }
+
+    private static byte[] readRow(DataInputStream in) throws IOException {
+        byte[] row = new byte[in.readInt()];
+        in.readFully(row);
+        return row;
+    }
+
+    private static void writeRow(DataOutputStream out, byte[] row) throws IOException {
+        out.writeInt(row.length);
+        out.write(row);
+    }
+
+    /**
+     * 分组列的编码字节，文本列按大小写不敏感处理
+     */
+    private static final class GroupKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        GroupKey(byte[] bytes) {
+            this.bytes = bytes;
+            int h = Arrays.hashCode(bytes);
+            // murmur3 fmix32，分区号取自高位
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof GroupKey && Arrays.equals(bytes, ((GroupKey) obj).bytes);
+        }
+    }
+
+    private GroupKey groupKey(byte[] row) {
+        int[] keys = merge.getKeyColumns();
+        int[] offsets = new int[types.length + 1];
+        offsets[0] = start;
+        for (int i = 0; i < types.length; ++i) {
+            offsets[i + 1] = RowDataUtil.nextOffset(row, offsets[i]);
+        }
+        int size = 0;
+        for (int key : keys) {
+            size += offsets[key + 1] - offsets[key];
+        }
+        byte[] bytes = new byte[size];
+        int pos = 0;
+        for (int key : keys) {
+            int len = offsets[key + 1] - offsets[key];
+            System.arraycopy(row, offsets[key], bytes, pos, len);
+            if (compareTypes[key] == RowDataComparator.TYPE_TEXT) {
+                int valueStart = pos + RowDataUtil.valueStart(row, offsets[key]) - offsets[key];
+                for (int i = valueStart, end = pos + len; i < end; ++i) {
+                    if (bytes[i] >= 'a' && bytes[i] <= 'z') {
+                        bytes[i] -= 32;
+                    }
+                }
+            }
+            pos += len;
+        }
+        return new GroupKey(bytes);
+    }
+
+    /**
+     * 一层哈希表，超过内存上限时把新分组的行按哈希值高位分区写入磁盘，分区再由下一层哈希表聚合
+     */
+    private final class HashTable {
+        private final int level;
+        private final Map<GroupKey, Accumulator[]> groups = new HashMap<GroupKey, Accumulator[]>();
+        private long memory;
+        private File[] partitions;
+        private DataOutputStream[] outputs;
+        private int[] counts;
+
+        HashTable(int level) {
+            this.level = level;
+        }
+
+        void add(byte[] row) throws IOException {
+            GroupKey key = groupKey(row);
+            Accumulator[] accs = groups.get(key);
+            if (accs == null) {
+                if (memory >= memoryLimit && level < MAX_SPILL_LEVEL) {
+                    spill(key, row);
+                    return;
+                }
+                accs = newAccumulators();
+                groups.put(key, accs);
+                memory += key.bytes.length + row.length - start + GROUP_OVERHEAD + ACCUMULATOR_OVERHEAD
+                        * accs.length;
+            }
+            int offset = start;
+            for (int i = 0; i < accs.length; ++i) {
+                accs[i].add(row, offset);
+                offset = RowDataUtil.nextOffset(row, offset);
+            }
+        }
+
+        private void spill(GroupKey key, byte[] row) throws IOException {
+            if (partitions == null) {
+                spilled = true;
+                partitions = new File[PARTITIONS];
+                outputs = new DataOutputStream[PARTITIONS];
+                counts = new int[PARTITIONS];
+            }
+            int p = (key.hash >>> (32 - PARTITION_BITS * (level + 1))) & (PARTITIONS - 1);
+            if (outputs[p] == null) {
+                partitions[p] = createSpillFile();
+                outputs[p] = openOutput(partitions[p]);
+            }
+            writeRow(outputs[p], row);
+            ++counts[p];
+        }
+
+        List<byte[]> sortedRows() {
+            List<byte[]> rows = new ArrayList<byte[]>(groups.size());
+            for (Accumulator[] accs : groups.values()) {
+                rows.add(toRow(accs));
+            }
+            groups.clear();
+            Collections.sort(rows, comparator);
+            return rows;
+        }
+
+        /**
+         * @param runs sorted runs of this table and its partitions are
+         *            appended to
+         */
+        void finish(List<Run> runs) throws IOException {
+            if (!groups.isEmpty()) {
+                Run run = new Run(runs.size(), createSpillFile());
+                DataOutputStream out = openOutput(run.file);
+                for (byte[] row : sortedRows()) {
+                    writeRow(out, row);
+                    ++run.remain;
+                }
+                closeStream(out);
+                runs.add(run);
+            }
+            if (partitions == null) {
+                return;
+            }
+            for (int p = 0; p < PARTITIONS; ++p) {
+                if (outputs[p] == null) {
+                    continue;
+                }
+                closeStream(outputs[p]);
+                outputs[p] = null;
+                HashTable sub = new HashTable(level + 1);
+                DataInputStream in = openInput(partitions[p]);
+                for (int i = counts[p]; i > 0; --i) {
+                    sub.add(readRow(in));
+                }
+                closeStream(in);
+                deleteFile(partitions[p]);
+                sub.finish(runs);
+            }
+        }
+    }
+
+    /**
+     * sorted run file of merged rows
+     */
+    private final class Run {
+        private final int id;
+        private final File file;
+        private int remain;
+        private DataInputStream in;
+        private byte[] row;
+
+        Run(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        void open() throws IOException {
+            in = openInput(file);
+        }
+
+        /**
+         * @return false if no more row
+         */
+        boolean next() throws IOException {
+            if (remain <= 0) {
+                row = null;
+                return false;
+            }
+            --remain;
+            row = readRow(in);
+            return true;
+        }
+
+        void close() throws IOException {
+            closeStream(in);
+            deleteFile(file);
+        }
+    }
+
+}
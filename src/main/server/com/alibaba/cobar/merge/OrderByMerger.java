@@ -0,0 +1,215 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.parser.ast.fragment.SortOrder;
+import com.alibaba.cobar.parser.util.Pair;
+
+/**
+ * 多路归并：各数据节点返回的行已经按ORDER BY有序，每个节点只保留一个小的行游标，
+ * 只有当所有未结束的节点都有待比较的行时才输出当前最小行，不缓存整个结果集。
+ * <p>
+ * 慢节点会让其他节点的行在游标中堆积，调用方在{@link #isFull(int)}时应暂停读取该节点，
+ * 并在{@link #isFull(int)}不再成立后恢复。
+ * <p>
+ * NOT thread safe, caller must hold the lock of the result handler.
+ */
+public class OrderByMerger {
+    /** rows buffered per node before reading of it should be paused */
+    public static final int DEFAULT_CURSOR_CAPACITY = 512;
+
+    private final Comparator<byte[]> comparator;
+    private final List<LinkedList<byte[]>> cursors;
+    private final int cursorCapacity;
+    private final boolean[] finished;
+    /** binary min-heap of node index, ordered by the head row of cursor */
+    private final int[] heap;
+    private int heapSize;
+    /** count of nodes neither finished nor having a buffered row */
+    private int waiting;
+
+    public OrderByMerger(int nodeCount, Comparator<byte[]> comparator) {
+        this(nodeCount, comparator, DEFAULT_CURSOR_CAPACITY);
+    }
+
+    public OrderByMerger(int nodeCount, Comparator<byte[]> comparator, int cursorCapacity) {
+        this.comparator = comparator;
+        this.cursors = new ArrayList<LinkedList<byte[]>>(nodeCount);
+        for (int i = 0; i < nodeCount; ++i) {
+            cursors.add(new LinkedList<byte[]>());
+        }
+        this.cursorCapacity = cursorCapacity;
+        this.finished = new boolean[nodeCount];
+        this.heap = new int[nodeCount];
+        this.heapSize = 0;
+        this.waiting = nodeCount;
+    }
+
+    /**
+     * @param orderBy see {@link com.alibaba.cobar.route.RouteResultset#getOrderBy()}
+     * @param start offset of the first column in row, see
+     *            {@link RowDataUtil#columnOffset(byte[], int, int)}
+     * @return null if rows need not or can not be merged in order
+     */
+    public static OrderByMerger create(List<Pair<String, SortOrder>> orderBy, FieldPacket[] fields, int nodeCount,
+                                       int start) {
+        if (orderBy == null || orderBy.isEmpty()) {
+            return null;
+        }
+        int size = orderBy.size();
+        int[] columns = new int[size];
+        int[] types = new int[size];
+        boolean[] desc = new boolean[size];
+        for (int i = 0; i < size; ++i) {
+            Pair<String, SortOrder> item = orderBy.get(i);
+            int column = indexOfField(fields, item.getKey());
+            if (column < 0) {
+                return null;
+            }
+            columns[i] = column;
+            types[i] = RowDataComparator.getCompareType(fields[column].type, fields[column].flags);
+            desc[i] = item.getValue() == SortOrder.DESC;
+        }
+        return new OrderByMerger(nodeCount, new RowDataComparator(columns, types, desc, start));
+    }
+
+    /**
+     * 先按结果集中的列名（别名）匹配，再按原始列名匹配
+     */
+    private static int indexOfField(FieldPacket[] fields, String nameUp) {
+        for (int i = 0; i < fields.length; ++i) {
+            byte[] name = fields[i].name;
+            if (name != null && nameUp.equalsIgnoreCase(new String(name))) {
+                return i;
+            }
+        }
+        for (int i = 0; i < fields.length; ++i) {
+            byte[] orgName = fields[i].orgName;
+            if (orgName != null && nameUp.equalsIgnoreCase(new String(orgName))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param out rows become ready for output are appended to
+     */
+    public void addRow(int node, byte[] row, List<byte[]> out) {
+        LinkedList<byte[]> cursor = cursors.get(node);
+        cursor.add(row);
+        if (cursor.size() == 1) {
+            --waiting;
+            push(node);
+        }
+        drain(out);
+    }
+
+    /**
+     * @param out rows become ready for output are appended to
+     */
+    public void nodeFinished(int node, List<byte[]> out) {
+        if (finished[node]) {
+            return;
+        }
+        finished[node] = true;
+        if (cursors.get(node).isEmpty()) {
+            --waiting;
+        }
+        drain(out);
+    }
+
+    /**
+     * @return true if rows of the node are buffered up to capacity, reading of
+     *         it should be paused until some of them are merged out
+     */
+    public boolean isFull(int node) {
+        return cursors.get(node).size() >= cursorCapacity;
+    }
+
+    /**
+     * @return count of rows buffered in all cursors
+     */
+    public int getBufferedCount() {
+        int count = 0;
+        for (LinkedList<byte[]> cursor : cursors) {
+            count += cursor.size();
+        }
+        return count;
+    }
+
+    private void drain(List<byte[]> out) {
+        while (waiting == 0 && heapSize > 0) {
+            int node = pop();
+            LinkedList<byte[]> cursor = cursors.get(node);
+            out.add(cursor.removeFirst());
+            if (!cursor.isEmpty()) {
+                push(node);
+            } else if (!finished[node]) {
+                ++waiting;
+            }
+        }
+    }
+
+    private int compareNode(int n1, int n2) {
+        int c = comparator.compare(cursors.get(n1).getFirst(), cursors.get(n2).getFirst());
+        // 相等时按节点顺序输出，保证结果稳定
+        return c != 0 ? c : n1 - n2;
+    }
+
+    private void push(int node) {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (compareNode(heap[parent], node) <= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            int right = child + 1;
+            if (right < heapSize && compareNode(heap[right], heap[child]) < 0) {
+                child = right;
+            }
+            if (compareNode(last, heap[child]) <= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+}
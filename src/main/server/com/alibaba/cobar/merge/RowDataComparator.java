@@ -0,0 +1,233 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import java.util.Comparator;
+
+import com.alibaba.cobar.config.Fields;
+
+/**
+ * 按排序列比较两个行数据包，直接比较文本协议中的字节，不产生中间对象(浮点列除外)。
+ */
+public class RowDataComparator implements Comparator<byte[]> {
+    public static final int TYPE_DECIMAL = 1;
+    public static final int TYPE_FLOAT = 2;
+    public static final int TYPE_TEXT = 3;
+    public static final int TYPE_BINARY = 4;
+
+    private final int[] columns;
+    private final int[] types;
+    private final boolean[] desc;
+    private final int start;
+
+    /**
+     * @param columns 0-based column index of each sort key
+     * @param types {@link #TYPE_DECIMAL} etc.
+     * @param desc true for descending key
+     */
+    public RowDataComparator(int[] columns, int[] types, boolean[] desc) {
+        this(columns, types, desc, 4);
+    }
+
+    /**
+     * @param start offset of the first column in row, see
+     *            {@link RowDataUtil#columnOffset(byte[], int, int)}
+     */
+    public RowDataComparator(int[] columns, int[] types, boolean[] desc, int start) {
+        if (columns.length != types.length || columns.length != desc.length) {
+            throw new IllegalArgumentException("sort key arrays must have same length");
+        }
+        this.columns = columns;
+        this.types = types;
+        this.desc = desc;
+        this.start = start;
+    }
+
+    /**
+     * @param fieldType type of {@link com.alibaba.cobar.net.mysql.FieldPacket}
+     * @param fieldFlags flags of {@link com.alibaba.cobar.net.mysql.FieldPacket}
+     */
+    public static int getCompareType(int fieldType, int fieldFlags) {
+        switch (fieldType) {
+        case Fields.FIELD_TYPE_DECIMAL:
+        case Fields.FIELD_TYPE_NEW_DECIMAL:
+        case Fields.FIELD_TYPE_TINY:
+        case Fields.FIELD_TYPE_SHORT:
+        case Fields.FIELD_TYPE_LONG:
+        case Fields.FIELD_TYPE_INT24:
+        case Fields.FIELD_TYPE_LONGLONG:
+        case Fields.FIELD_TYPE_YEAR:
+            return TYPE_DECIMAL;
+        case Fields.FIELD_TYPE_FLOAT:
+        case Fields.FIELD_TYPE_DOUBLE:
+            return TYPE_FLOAT;
+        case Fields.FIELD_TYPE_TIMESTAMP:
+        case Fields.FIELD_TYPE_DATE:
+        case Fields.FIELD_TYPE_TIME:
+        case Fields.FIELD_TYPE_DATETIME:
+        case Fields.FIELD_TYPE_NEWDATE:
+        case Fields.FIELD_TYPE_BIT:
+            return TYPE_BINARY;
+        default:
+            return (fieldFlags & Fields.BINARY_FLAG) != 0 ? TYPE_BINARY : TYPE_TEXT;
+        }
+    }
+
+    @Override
+    public int compare(byte[] row1, byte[] row2) {
+        for (int i = 0; i < columns.length; ++i) {
+            int off1 = RowDataUtil.columnOffset(row1, start, columns[i]);
+            int off2 = RowDataUtil.columnOffset(row2, start, columns[i]);
+            int c = compareValue(row1, off1, row2, off2, types[i]);
+            if (c != 0) {
+                return desc[i] ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * NULL is less than any other value, as MySQL does
+     */
+    public static int compareValue(byte[] b1, int off1, byte[] b2, int off2, int type) {
+        int len1 = RowDataUtil.valueLength(b1, off1);
+        int len2 = RowDataUtil.valueLength(b2, off2);
+        if (len1 < 0 || len2 < 0) {
+            return len1 < 0 ? (len2 < 0 ? 0 : -1) : 1;
+        }
+        int s1 = RowDataUtil.valueStart(b1, off1);
+        int s2 = RowDataUtil.valueStart(b2, off2);
+        switch (type) {
+        case TYPE_DECIMAL:
+            return compareDecimal(b1, s1, len1, b2, s2, len2);
+        case TYPE_FLOAT:
+            return Double.compare(parseDouble(b1, s1, len1), parseDouble(b2, s2, len2));
+        case TYPE_TEXT:
+            return compareIgnoreCase(b1, s1, len1, b2, s2, len2);
+        default:
+            return compareBytes(b1, s1, len1, b2, s2, len2);
+        }
+    }
+
+    static double parseDouble(byte[] b, int start, int len) {
+        return Double.parseDouble(new String(b, start, len));
+    }
+
+    /**
+     * compare two decimal literals such as <code>-0012.50</code> without
+     * decoding
+     */
+    static int compareDecimal(byte[] b1, int s1, int len1, byte[] b2, int s2, int len2) {
+        int e1 = s1 + len1;
+        int e2 = s2 + len2;
+        boolean neg1 = len1 > 0 && b1[s1] == '-';
+        boolean neg2 = len2 > 0 && b2[s2] == '-';
+        if (neg1) {
+            ++s1;
+        }
+        if (neg2) {
+            ++s2;
+        }
+        int c = compareAbsDecimal(b1, s1, e1, b2, s2, e2);
+        if (neg1 != neg2) {
+            return c == 0 && isZero(b1, s1, e1) ? 0 : (neg1 ? -1 : 1);
+        }
+        return neg1 ? -c : c;
+    }
+
+    private static boolean isZero(byte[] b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (b[i] != '0' && b[i] != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compareAbsDecimal(byte[] b1, int s1, int e1, byte[] b2, int s2, int e2) {
+        while (s1 < e1 && b1[s1] == '0') {
+            ++s1;
+        }
+        while (s2 < e2 && b2[s2] == '0') {
+            ++s2;
+        }
+        int p1 = indexOfPoint(b1, s1, e1);
+        int p2 = indexOfPoint(b2, s2, e2);
+        int intLen1 = p1 - s1;
+        int intLen2 = p2 - s2;
+        if (intLen1 != intLen2) {
+            return intLen1 < intLen2 ? -1 : 1;
+        }
+        for (int i = 0; i < intLen1; ++i) {
+            int c = b1[s1 + i] - b2[s2 + i];
+            if (c != 0) {
+                return c;
+            }
+        }
+        int i1 = p1 + 1;
+        int i2 = p2 + 1;
+        while (i1 < e1 || i2 < e2) {
+            byte d1 = i1 < e1 ? b1[i1++] : (byte) '0';
+            byte d2 = i2 < e2 ? b2[i2++] : (byte) '0';
+            if (d1 != d2) {
+                return d1 - d2;
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOfPoint(byte[] b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (b[i] == '.') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    static int compareIgnoreCase(byte[] b1, int s1, int len1, byte[] b2, int s2, int len2) {
+        int len = Math.min(len1, len2);
+        for (int i = 0; i < len; ++i) {
+            int c1 = b1[s1 + i] & 0xff;
+            int c2 = b2[s2 + i] & 0xff;
+            if (c1 == c2) {
+                continue;
+            }
+            if (c1 >= 'a' && c1 <= 'z') {
+                c1 -= 32;
+            }
+            if (c2 >= 'a' && c2 <= 'z') {
+                c2 -= 32;
+            }
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return len1 - len2;
+    }
+
+    static int compareBytes(byte[] b1, int s1, int len1, byte[] b2, int s2, int len2) {
+        int len = Math.min(len1, len2);
+        for (int i = 0; i < len; ++i) {
+            int c = (b1[s1 + i] & 0xff) - (b2[s2 + i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return len1 - len2;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import com.alibaba.cobar.mysql.ByteUtil;
+
+/**
+ * 直接在行数据包(含4字节包头)上定位列值，不做对象解码。
+ */
+public final class RowDataUtil {
+    private static final int NULL_MARK = 251;
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * @return offset of the length coded value of column, 0-based
+     */
+    public static int columnOffset(byte[] row, int column) {
+        return columnOffset(row, HEADER_SIZE, column);
+    }
+
+    /**
+     * @param start offset of the first column, 0 if packet header is absent
+     *            (e.g. {@link com.alibaba.cobar.net.mysql.BinaryPacket#data})
+     * @return offset of the length coded value of column, 0-based
+     */
+    public static int columnOffset(byte[] row, int start, int column) {
+        int offset = start;
+        for (int i = 0; i < column; ++i) {
+            offset = nextOffset(row, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * @return offset of the column next to the one at <code>offset</code>
+     */
+    public static int nextOffset(byte[] row, int offset) {
+        int len = valueLength(row, offset);
+        return valueStart(row, offset) + (len < 0 ? 0 : len);
+    }
+
+    /**
+     * @return -1 for NULL
+     */
+    public static int valueLength(byte[] row, int offset) {
+        if ((row[offset] & 0xff) == NULL_MARK) {
+            return -1;
+        }
+        return (int) ByteUtil.readLength(row, offset);
+    }
+
+    /**
+     * @return offset of the first byte of value
+     */
+    public static int valueStart(byte[] row, int offset) {
+        switch (row[offset] & 0xff) {
+        case 252:
+            return offset + 3;
+        case 253:
+            return offset + 4;
+        case 254:
+            return offset + 9;
+        default:
+            return offset + 1;
+        }
+    }
+
+    /**
+     * @return copy of the value of column at <code>offset</code>, null for NULL
+     */
+    public static byte[] getValue(byte[] row, int offset) {
+        int len = valueLength(row, offset);
+        if (len < 0) {
+            return null;
+        }
+        byte[] value = new byte[len];
+        System.arraycopy(row, valueStart(row, offset), value, 0, len);
+        return value;
+    }
+
+    /**
+     * @return copy of the length coded column at <code>offset</code>, can be
+     *         located by offset 0
+     */
+    public static byte[] copyColumn(byte[] row, int offset) {
+        int end = nextOffset(row, offset);
+        byte[] column = new byte[end - offset];
+        System.arraycopy(row, offset, column, 0, column.length);
+        return column;
+    }
+
+    /**
+     * @param values null element for NULL
+     * @return length coded values without packet header, first column starts
+     *         at 0
+     */
+    public static byte[] encode(byte[][] values) {
+        int size = 0;
+        for (byte[] v : values) {
+            size += v == null ? 1 : lengthSize(v.length) + v.length;
+        }
+        byte[] row = new byte[size];
+        int offset = 0;
+        for (byte[] v : values) {
+            if (v == null) {
+                row[offset++] = (byte) NULL_MARK;
+                continue;
+            }
+            offset = writeLength(row, offset, v.length);
+            System.arraycopy(v, 0, row, offset, v.length);
+            offset += v.length;
+        }
+        return row;
+    }
+
+    private static int lengthSize(int len) {
+        if (len < 251) {
+            return 1;
+        } else if (len < 0x10000) {
+            return 3;
+        } else if (len < 0x1000000) {
+            return 4;
+        } else {
+            return 9;
+        }
+    }
+
+    private static int writeLength(byte[] b, int offset, int len) {
+        int bytes;
+        if (len < 251) {
+            b[offset++] = (byte) len;
+            return offset;
+        } else if (len < 0x10000) {
+            b[offset++] = (byte) 252;
+            bytes = 2;
+        } else if (len < 0x1000000) {
+            b[offset++] = (byte) 253;
+            bytes = 3;
+        } else {
+            b[offset++] = (byte) 254;
+            bytes = 8;
+        }
+        long l = len;
+        for (int i = 0; i < bytes; ++i) {
+            b[offset++] = (byte) (l >>> (i << 3));
+        }
+        return offset;
+    }
+
+}
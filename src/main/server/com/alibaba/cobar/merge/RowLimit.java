@@ -0,0 +1,62 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+/**
+ * 对合并后输出给前端的行计数，实现全局的LIMIT offset, size。
+ * <p>
+ * NOT thread safe, caller must hold the lock of the result handler.
+ */
+public class RowLimit {
+    private long skip;
+    /** -1 for no limit */
+    private long remain;
+
+    /**
+     * @param offset -1 or 0 for no offset
+     * @param size -1 for no limit
+     */
+    public RowLimit(long offset, long size) {
+        this.skip = offset < 0 ? 0 : offset;
+        this.remain = size < 0 ? -1 : size;
+    }
+
+    /**
+     * @return true if the next row should be sent to client
+     */
+    public boolean accept() {
+        if (skip > 0) {
+            --skip;
+            return false;
+        }
+        if (remain < 0) {
+            return true;
+        }
+        if (remain == 0) {
+            return false;
+        }
+        --remain;
+        return true;
+    }
+
+    /**
+     * @return true if no more row will be accepted
+     */
+    public boolean isReached() {
+        return remain == 0;
+    }
+
+}
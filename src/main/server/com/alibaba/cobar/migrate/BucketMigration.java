@@ -0,0 +1,585 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.migrate;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.mysql.MySQLDataNode;
+import com.alibaba.cobar.mysql.bio.Channel;
+import com.alibaba.cobar.mysql.bio.MySQLChannel;
+import com.alibaba.cobar.net.mysql.BinaryPacket;
+import com.alibaba.cobar.net.mysql.EOFPacket;
+import com.alibaba.cobar.net.mysql.ErrorPacket;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.OkPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.route.function.BucketMigrationTable;
+import com.alibaba.cobar.route.function.PartitionByBucket;
+import com.alibaba.cobar.util.TimeUtil;
+
+/**
+ * 一个桶的在线迁移。
+ * <p>
+ * 开始时桶进入双写，之后按分区键分批扫描原分区，把属于该桶的行与目标分区逐键比对，
+ * 不一致的键在目标分区先删除再插入原分区的行。一轮比对不再发现差异即视为追平，
+ * 切换桶的归属，等待在途语句完成后清除原分区上该桶的行。
+ * <p>
+ * 后端的表名取逻辑表名的小写形式。迁移期间不带分区键的全表查询会同时读到两个分区上的该桶数据。
+ */
+public final class BucketMigration implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(BucketMigration.class);
+    private static final int SCAN_SIZE = 1000;
+    private static final int MAX_SYNC_PASS = 8;
+    private static final long CUTOVER_WAIT = 5000L;
+    private static final int BINARY_CHARSET_INDEX = 63;
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    public static final String WAITING = "WAITING";
+    public static final String COPYING = "COPYING";
+    public static final String SYNCING = "SYNCING";
+    public static final String PURGING = "PURGING";
+    public static final String DONE = "DONE";
+    public static final String CANCELLED = "CANCELLED";
+    public static final String FAILED = "FAILED";
+
+    private final String function;
+    private final int bucket;
+    private final int source;
+    private final int target;
+    private final PartitionByBucket algorithm;
+    /** table -&gt; partition column */
+    private final Map<TableConfig, String> tables;
+    private final long createTime;
+    private volatile String status;
+    private volatile boolean cancelled;
+    private volatile boolean cutover;
+    private volatile String error;
+    private volatile int pass;
+    private volatile String currentTable;
+    private volatile long scannedRows;
+    private volatile long copiedRows;
+    private volatile long purgedRows;
+    private volatile long startTime;
+    private volatile long endTime;
+
+    BucketMigration(String function, int bucket, int source, int target, PartitionByBucket algorithm,
+                    Map<TableConfig, String> tables) {
+        this.function = function;
+        this.bucket = bucket;
+        this.source = source;
+        this.target = target;
+        this.algorithm = algorithm;
+        this.tables = tables;
+        this.createTime = TimeUtil.currentTimeMillis();
+        this.status = WAITING;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public int getBucket() {
+        return bucket;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getPass() {
+        return pass;
+    }
+
+    public String getCurrentTable() {
+        return currentTable;
+    }
+
+    public long getScannedRows() {
+        return scannedRows;
+    }
+
+    public long getCopiedRows() {
+        return copiedRows;
+    }
+
+    public long getPurgedRows() {
+        return purgedRows;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public boolean isFinished() {
+        return endTime > 0;
+    }
+
+    /**
+     * @return false if the bucket has been cut over
+     */
+    synchronized boolean cancel() {
+        if (cutover) {
+            return false;
+        }
+        cancelled = true;
+        return true;
+    }
+
+    @Override
+    public void run() {
+        startTime = TimeUtil.currentTimeMillis();
+        try {
+            status = COPYING;
+            for (pass = 1;; ++pass) {
+                long changed = 0;
+                for (Entry<TableConfig, String> en : tables.entrySet()) {
+                    changed += sync(en.getKey(), en.getValue());
+                }
+                if (changed == 0) {
+                    break;
+                }
+                if (pass >= MAX_SYNC_PASS) {
+                    throw new IllegalStateException("bucket not caught up after " + pass + " passes");
+                }
+                status = SYNCING;
+            }
+            synchronized (this) {
+                checkCancelled();
+                cutover = true;
+                BucketMigrationTable.getInstance().cutover(function, bucket);
+            }
+            LOGGER.warn(toString() + " cut over");
+            saveBucketMap();
+
+            // 切换前路由的语句可能仍在执行
+            status = PURGING;
+            Thread.sleep(CUTOVER_WAIT);
+            for (Entry<TableConfig, String> en : tables.entrySet()) {
+                purge(en.getKey(), en.getValue(), source);
+            }
+            status = DONE;
+        } catch (Throwable e) {
+            if (cutover) {
+                // 归属已经切换，原分区上残留的行不影响按分区键的读写
+                error = e.toString();
+                status = FAILED;
+                LOGGER.error(toString() + " purge failed", e);
+            } else {
+                BucketMigrationTable.getInstance().cancel(function, bucket);
+                if (cancelled) {
+                    status = CANCELLED;
+                    LOGGER.warn(toString() + " cancelled");
+                } else {
+                    error = e.toString();
+                    status = FAILED;
+                    LOGGER.error(toString() + " failed", e);
+                }
+                try {
+                    Thread.sleep(CUTOVER_WAIT);
+                    for (Entry<TableConfig, String> en : tables.entrySet()) {
+                        purge(en.getKey(), en.getValue(), target);
+                    }
+                } catch (Throwable e1) {
+                    LOGGER.error(toString() + " purge of target failed", e1);
+                }
+            }
+        } finally {
+            currentTable = null;
+            endTime = TimeUtil.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 切换后的归属追加到桶映射文件，重新加载配置或重启后仍然有效
+     */
+    private void saveBucketMap() {
+        String path = algorithm.getBucketMapPath();
+        if (path == null) {
+            LOGGER.warn(toString() + " bucketMapPath of " + function + " is not set, add '" + bucket + "=" + target
+                    + "' to bucket map before restart");
+            return;
+        }
+        Writer out = null;
+        try {
+            out = new FileWriter(path, true);
+            out.write(LINE_SEPARATOR + bucket + "=" + target + LINE_SEPARATOR);
+        } catch (IOException e) {
+            LOGGER.error(toString() + " failed to save bucket map " + path, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 比对并修正该桶在一张表上的数据
+     *
+     * @return number of keys changed on target
+     */
+    private long sync(TableConfig table, String column) throws Exception {
+        String name = table.getName().toLowerCase();
+        currentTable = name;
+        Channel sc = getChannel(table, source);
+        try {
+            Channel tc = getChannel(table, target);
+            try {
+                MySQLChannel src = (MySQLChannel) sc;
+                MySQLChannel dst = (MySQLChannel) tc;
+                long changed = 0;
+                String last = null;
+                for (;;) {
+                    checkCancelled();
+                    List<String> keys = new ArrayList<String>();
+                    last = scanKeys(src, name, column, last, keys);
+                    if (last == null) {
+                        return changed;
+                    }
+                    if (keys.isEmpty()) {
+                        continue;
+                    }
+                    Map<String, List<String>> srcRows = selectRows(src, name, column, keys);
+                    Map<String, List<String>> dstRows = selectRows(dst, name, column, keys);
+                    List<String> diff = new ArrayList<String>();
+                    for (String key : keys) {
+                        if (!srcRows.get(key).equals(dstRows.get(key))) {
+                            diff.add(key);
+                        }
+                    }
+                    if (diff.isEmpty()) {
+                        continue;
+                    }
+                    StringBuilder s = new StringBuilder();
+                    s.append("DELETE FROM ").append(name).append(" WHERE ").append(column).append(" IN (");
+                    appendList(s, diff).append(')');
+                    update(dst, s.toString());
+                    s.setLength(0);
+                    s.append("INSERT INTO ").append(name).append(" VALUES ");
+                    int rows = 0;
+                    for (String key : diff) {
+                        for (String row : srcRows.get(key)) {
+                            if (rows++ > 0) {
+                                s.append(',');
+                            }
+                            s.append(row);
+                        }
+                    }
+                    if (rows > 0) {
+                        update(dst, s.toString());
+                    }
+                    changed += diff.size();
+                    copiedRows += rows;
+                }
+            } finally {
+                tc.release();
+            }
+        } finally {
+            sc.release();
+        }
+    }
+
+    /**
+     * 删除一个分区上属于该桶的行
+     */
+    private void purge(TableConfig table, String column, int partition) throws Exception {
+        String name = table.getName().toLowerCase();
+        currentTable = name;
+        Channel channel = getChannel(table, partition);
+        try {
+            MySQLChannel c = (MySQLChannel) channel;
+            String last = null;
+            for (;;) {
+                List<String> keys = new ArrayList<String>();
+                last = scanKeys(c, name, column, last, keys);
+                if (last == null) {
+                    return;
+                }
+                if (keys.isEmpty()) {
+                    continue;
+                }
+                StringBuilder s = new StringBuilder();
+                s.append("DELETE FROM ").append(name).append(" WHERE ").append(column).append(" IN (");
+                appendList(s, keys).append(')');
+                purgedRows += update(c, s.toString());
+            }
+        } finally {
+            channel.release();
+        }
+    }
+
+    /**
+     * 扫描下一批分区键，并按速率限制等待
+     *
+     * @param keys literals of keys in the bucket
+     * @return literal of last key scanned, null if no more key
+     */
+    private String scanKeys(MySQLChannel c, String table, String column, String last, List<String> keys)
+            throws IOException, InterruptedException {
+        StringBuilder s = new StringBuilder();
+        s.append("SELECT DISTINCT ").append(column).append(" FROM ").append(table);
+        if (last != null) {
+            s.append(" WHERE ").append(column).append(" > ").append(last);
+        }
+        s.append(" ORDER BY ").append(column).append(" LIMIT ").append(SCAN_SIZE);
+        List<RowDataPacket> rows = new ArrayList<RowDataPacket>();
+        FieldPacket[] fields = query(c, s.toString(), rows);
+        String literal = null;
+        for (RowDataPacket row : rows) {
+            byte[] value = row.fieldValues.get(0);
+            if (value == null) {
+                continue;
+            }
+            literal = toLiteral(value, fields[0], c.getCharset());
+            if (algorithm.bucketOf(new String(value, c.getCharset())) == bucket) {
+                keys.add(literal);
+            }
+        }
+        scannedRows += rows.size();
+        BucketMigrator.getInstance().throttle(rows.size());
+        return literal;
+    }
+
+    /**
+     * @return literal of key -&gt; sorted literals of rows, every key is
+     *         present
+     */
+    private static Map<String, List<String>> selectRows(MySQLChannel c, String table, String column,
+                                                        List<String> keys) throws IOException {
+        StringBuilder s = new StringBuilder();
+        s.append("SELECT * FROM ").append(table).append(" WHERE ").append(column).append(" IN (");
+        appendList(s, keys).append(')');
+        List<RowDataPacket> rows = new ArrayList<RowDataPacket>();
+        FieldPacket[] fields = query(c, s.toString(), rows);
+        int keyIndex = -1;
+        for (int i = 0; i < fields.length; ++i) {
+            if (column.equalsIgnoreCase(new String(fields[i].orgName == null ? fields[i].name : fields[i].orgName))) {
+                keyIndex = i;
+                break;
+            }
+        }
+        if (keyIndex < 0) {
+            throw new IllegalStateException("partition column " + column + " not found in " + table);
+        }
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>(keys.size(), 1);
+        for (String key : keys) {
+            map.put(key, new ArrayList<String>(1));
+        }
+        for (RowDataPacket row : rows) {
+            String key = toLiteral(row.fieldValues.get(keyIndex), fields[keyIndex], c.getCharset());
+            List<String> list = map.get(key);
+            if (list == null) {
+                continue;
+            }
+            s.setLength(0);
+            s.append('(');
+            for (int i = 0; i < fields.length; ++i) {
+                if (i > 0) {
+                    s.append(',');
+                }
+                s.append(toLiteral(row.fieldValues.get(i), fields[i], c.getCharset()));
+            }
+            list.add(s.append(')').toString());
+        }
+        for (List<String> list : map.values()) {
+            Collections.sort(list);
+        }
+        return map;
+    }
+
+    private static StringBuilder appendList(StringBuilder s, List<String> literals) {
+        for (int i = 0; i < literals.size(); ++i) {
+            if (i > 0) {
+                s.append(',');
+            }
+            s.append(literals.get(i));
+        }
+        return s;
+    }
+
+    /**
+     * @return fields of result set
+     */
+    private static FieldPacket[] query(MySQLChannel c, String sql, List<RowDataPacket> rows) throws IOException {
+        BinaryPacket bin = c.execute(sql);
+        if (bin.data[0] == ErrorPacket.FIELD_COUNT) {
+            throw new IOException(c.getErrMessage(bin) + ": " + sql);
+        }
+        List<FieldPacket> fields = new ArrayList<FieldPacket>();
+        for (;;) {
+            bin = c.receive();
+            if (bin.data[0] == EOFPacket.FIELD_COUNT) {
+                break;
+            }
+            FieldPacket field = new FieldPacket();
+            field.read(bin);
+            fields.add(field);
+        }
+        for (;;) {
+            bin = c.receive();
+            if (bin.data[0] == ErrorPacket.FIELD_COUNT) {
+                throw new IOException(c.getErrMessage(bin) + ": " + sql);
+            }
+            if (bin.data[0] == EOFPacket.FIELD_COUNT && bin.packetLength < 9) {
+                break;
+            }
+            RowDataPacket row = new RowDataPacket(fields.size());
+            row.read(bin.data);
+            rows.add(row);
+        }
+        return fields.toArray(new FieldPacket[fields.size()]);
+    }
+
+    /**
+     * @return affected rows
+     */
+    private static long update(MySQLChannel c, String sql) throws IOException {
+        BinaryPacket bin = c.execute(sql);
+        switch (bin.data[0]) {
+        case OkPacket.FIELD_COUNT:
+            OkPacket ok = new OkPacket();
+            ok.read(bin);
+            return ok.affectedRows;
+        case ErrorPacket.FIELD_COUNT:
+            throw new IOException(c.getErrMessage(bin) + ": " + sql);
+        default:
+            throw new IOException("unexpected response of " + sql);
+        }
+    }
+
+    static String toLiteral(byte[] value, FieldPacket field, String charset) throws IOException {
+        if (value == null) {
+            return "NULL";
+        }
+        switch (field.type) {
+        case Fields.FIELD_TYPE_DECIMAL:
+        case Fields.FIELD_TYPE_NEW_DECIMAL:
+        case Fields.FIELD_TYPE_TINY:
+        case Fields.FIELD_TYPE_SHORT:
+        case Fields.FIELD_TYPE_INT24:
+        case Fields.FIELD_TYPE_LONG:
+        case Fields.FIELD_TYPE_LONGLONG:
+        case Fields.FIELD_TYPE_FLOAT:
+        case Fields.FIELD_TYPE_DOUBLE:
+        case Fields.FIELD_TYPE_YEAR:
+            return new String(value, charset);
+        case Fields.FIELD_TYPE_BIT:
+        case Fields.FIELD_TYPE_TINY_BLOB:
+        case Fields.FIELD_TYPE_MEDIUM_BLOB:
+        case Fields.FIELD_TYPE_LONG_BLOB:
+        case Fields.FIELD_TYPE_BLOB:
+        case Fields.FIELD_TYPE_VAR_STRING:
+        case Fields.FIELD_TYPE_STRING:
+        case Fields.FIELD_TYPE_GEOMETRY:
+            if (field.charsetIndex == BINARY_CHARSET_INDEX) {
+                StringBuilder s = new StringBuilder(value.length * 2 + 3);
+                s.append("X'");
+                for (byte b : value) {
+                    s.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+                }
+                return s.append('\'').toString();
+            }
+        }
+        String str = new String(value, charset);
+        StringBuilder s = new StringBuilder(str.length() + 2);
+        s.append('\'');
+        for (int i = 0, len = str.length(); i < len; ++i) {
+            char c = str.charAt(i);
+            switch (c) {
+            case '\0':
+                s.append("\\0");
+                break;
+            case '\n':
+                s.append("\\n");
+                break;
+            case '\r':
+                s.append("\\r");
+                break;
+            case '\032':
+                s.append("\\Z");
+                break;
+            case '\\':
+            case '\'':
+            case '"':
+                s.append('\\').append(c);
+                break;
+            default:
+                s.append(c);
+            }
+        }
+        return s.append('\'').toString();
+    }
+
+    private void checkCancelled() throws InterruptedException {
+        if (cancelled) {
+            throw new InterruptedException("cancelled");
+        }
+    }
+
+    private static Channel getChannel(TableConfig table, int partition) throws Exception {
+        String name = table.getDataNodes()[partition];
+        MySQLDataNode node = CobarServer.getInstance().getConfig().getDataNodes().get(name);
+        if (node == null) {
+            throw new IllegalStateException("dataNode " + name + " not found");
+        }
+        return node.getChannel();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("[migration ").append(function).append(':').append(bucket);
+        s.append(' ').append(source).append("->").append(target).append(']');
+        return s.toString();
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.migrate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.config.model.SchemaConfig;
+import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.config.model.rule.RuleConfig;
+import com.alibaba.cobar.config.model.rule.TableRuleConfig;
+import com.alibaba.cobar.route.function.BucketMigrationTable;
+import com.alibaba.cobar.route.function.PartitionByBucket;
+import com.alibaba.cobar.util.ExecutorUtil;
+import com.alibaba.cobar.util.NameableExecutor;
+import com.alibaba.cobar.util.TimeUtil;
+
+/**
+ * 桶迁移的提交、取消和限速。迁移任务在单独的线程中依次执行，所有任务共享扫描速率的限制。
+ */
+public final class BucketMigrator {
+    private static final Logger LOGGER = Logger.getLogger(BucketMigrator.class);
+    private static final int MAX_FINISHED = 64;
+    private static final BucketMigrator INSTANCE = new BucketMigrator();
+
+    public static BucketMigrator getInstance() {
+        return INSTANCE;
+    }
+
+    /** function:bucket -&gt; migration */
+    private final Map<String, BucketMigration> migrations;
+    private final NameableExecutor executor;
+    /** rows scanned per second, 0 means unlimited */
+    private volatile int rate;
+    private long windowStart;
+    private long windowRows;
+
+    private BucketMigrator() {
+        this.migrations = new LinkedHashMap<String, BucketMigration>();
+        this.executor = ExecutorUtil.create("MigrateExecutor", 1);
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public void setRate(int rate) {
+        this.rate = rate < 0 ? 0 : rate;
+    }
+
+    public synchronized List<BucketMigration> getMigrations() {
+        return new ArrayList<BucketMigration>(migrations.values());
+    }
+
+    /**
+     * 桶立即进入双写，数据复制排队执行
+     *
+     * @throws IllegalArgumentException if function or partition is invalid
+     * @throws IllegalStateException if bucket is being migrated
+     */
+    public synchronized BucketMigration migrate(String function, int bucket, int target) {
+        PartitionByBucket algorithm = null;
+        Map<TableConfig, String> tables = new LinkedHashMap<TableConfig, String>();
+        for (SchemaConfig schema : CobarServer.getInstance().getConfig().getSchemas().values()) {
+            for (TableConfig table : schema.getTables().values()) {
+                TableRuleConfig tr = table.getRule();
+                if (tr == null) {
+                    continue;
+                }
+                for (RuleConfig rule : tr.getRules()) {
+                    if (rule.getRuleAlgorithm() instanceof PartitionByBucket) {
+                        PartitionByBucket pb = (PartitionByBucket) rule.getRuleAlgorithm();
+                        if (function.equals(pb.getFunctionName())) {
+                            algorithm = pb;
+                            tables.put(table, rule.getColumns().get(0));
+                        }
+                    }
+                }
+            }
+        }
+        if (algorithm == null) {
+            throw new IllegalArgumentException("no table is partitioned by bucket function " + function);
+        }
+        if (bucket < 0 || bucket >= algorithm.getBucketCount()) {
+            throw new IllegalArgumentException("bucket " + bucket + " out of range");
+        }
+        for (TableConfig table : tables.keySet()) {
+            if (target < 0 || target >= table.getDataNodes().length) {
+                throw new IllegalArgumentException("partition " + target + " out of range of " + table.getName());
+            }
+        }
+        int source = algorithm.getRoutePartition(bucket);
+        if (source == target) {
+            throw new IllegalArgumentException("bucket " + bucket + " is already in partition " + target);
+        }
+
+        String key = function + ':' + bucket;
+        BucketMigration old = migrations.get(key);
+        if (old != null && !old.isFinished()) {
+            throw new IllegalStateException("bucket " + key + " is being migrated");
+        }
+        BucketMigrationTable.getInstance().startDualWrite(function, bucket, source, target);
+        BucketMigration migration = new BucketMigration(function, bucket, source, target, algorithm, tables);
+        migrations.remove(key);
+        migrations.put(key, migration);
+        removeFinished();
+        executor.execute(migration);
+        LOGGER.warn(migration + " submitted by manager");
+        return migration;
+    }
+
+    /**
+     * @return false if no migration of bucket can be cancelled
+     */
+    public synchronized boolean cancel(String function, int bucket) {
+        BucketMigration migration = migrations.get(function + ':' + bucket);
+        if (migration == null || migration.isFinished()) {
+            return false;
+        }
+        return migration.cancel();
+    }
+
+    private void removeFinished() {
+        int finished = 0;
+        for (BucketMigration m : migrations.values()) {
+            if (m.isFinished()) {
+                ++finished;
+            }
+        }
+        for (Iterator<BucketMigration> it = migrations.values().iterator(); finished > MAX_FINISHED && it.hasNext();) {
+            if (it.next().isFinished()) {
+                it.remove();
+                --finished;
+            }
+        }
+    }
+
+    /**
+     * 扫描<code>rows</code>行之后调用，超过速率时等待
+     */
+    void throttle(int rows) throws InterruptedException {
+        int limit = rate;
+        if (limit <= 0) {
+            return;
+        }
+        long sleep;
+        synchronized (this) {
+            long now = TimeUtil.currentTimeMillis();
+            if (now - windowStart >= 1000L) {
+                windowStart = now;
+                windowRows = 0;
+            }
+            windowRows += rows;
+            sleep = windowRows * 1000L / limit - (now - windowStart);
+        }
+        if (sleep > 0) {
+            Thread.sleep(sleep);
+        }
+    }
+
+}
@@ -26,7 +26,14 @@ public class BindValueUtil {
 
     public static final void read(MySQLMessage mm, BindValue bv, String charset) throws UnsupportedEncodingException {
         switch (bv.type & 0xff) {
+        case Fields.FIELD_TYPE_NULL:
+            bv.isNull = true;
+            break;
         case Fields.FIELD_TYPE_BIT:
+        case Fields.FIELD_TYPE_TINY_BLOB:
+        case Fields.FIELD_TYPE_MEDIUM_BLOB:
+        case Fields.FIELD_TYPE_LONG_BLOB:
+        case Fields.FIELD_TYPE_BLOB:
             bv.value = mm.readBytesWithLength();
             break;
         case Fields.FIELD_TYPE_TINY:
@@ -60,7 +67,8 @@ public class BindValueUtil {
         case Fields.FIELD_TYPE_VARCHAR:
             bv.value = mm.readStringWithLength(charset);
             if (bv.value == null) {
-                bv.isNull = true;
+                // NULL由null_bit_map标识，这里是空串
+                bv.value = "";
             }
             break;
         case Fields.FIELD_TYPE_DECIMAL:
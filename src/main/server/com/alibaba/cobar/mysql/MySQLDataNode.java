@@ -21,6 +21,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
@@ -32,6 +33,7 @@ import com.alibaba.cobar.heartbeat.MySQLHeartbeat;
 import com.alibaba.cobar.mysql.bio.Channel;
 import com.alibaba.cobar.mysql.nio.MySQLConnectionPool;
 import com.alibaba.cobar.mysql.nio.handler.ResponseHandler;
+import com.alibaba.cobar.net.NIOProcessor;
 import com.alibaba.cobar.parser.ast.expression.primary.PlaceHolder;
 import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
 import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
@@ -55,6 +57,8 @@ public final class MySQLDataNode {
     private long heartbeatRecoveryTime;
     private volatile boolean initSuccess;
     private final ReentrantLock switchLock;
+    private final int[] readWeights;// 为空时不做读写分离
+    private final AtomicLong readCount;
 
     private SQLStatement heartbeatAST;// 动态心跳语句AST
     private Map<PlaceHolder, Object> placeHolderToStringer;
@@ -66,6 +70,32 @@ public final class MySQLDataNode {
         this.activedIndex = 0;
         this.heartbeatRecoveryTime = -1L;
         this.switchLock = new ReentrantLock();
+        this.readWeights = parseReadWeights(config.getReadWeights());
+        this.readCount = new AtomicLong();
+    }
+
+    /**
+     * @return null if no data source takes read requests
+     */
+    private static int[] parseReadWeights(String weights) {
+        if (weights == null || weights.trim().length() == 0) {
+            return null;
+        }
+        String[] list = weights.split(",");
+        int[] result = new int[list.length];
+        boolean readable = false;
+        for (int i = 0; i < list.length; i++) {
+            try {
+                result[i] = Integer.parseInt(list[i].trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigException("readWeights format error: " + weights, e);
+            }
+            if (result[i] < 0) {
+                throw new ConfigException("readWeights must not be negative: " + weights);
+            }
+            readable = readable || result[i] > 0;
+        }
+        return readable ? result : null;
     }
 
     public void init(int size, int index) {
@@ -193,14 +223,94 @@ public final class MySQLDataNode {
         }
     }
 
+    public boolean isReadSplit() {
+        return readWeights != null;
+    }
+
+    /**
+     * 读写分离：按权重在可读的数据源之间轮流分配读请求，没有可读的数据源或取备库通道失败时使用当前数据源
+     */
+    public Channel getReadChannel() throws Exception {
+        int active = activedIndex;
+        int i = nextReadIndex();
+        if (i < 0 || i == active) {
+            return getChannel(active);
+        }
+        try {
+            return getChannel(i);
+        } catch (Exception e) {
+            LOGGER.warn(getMessage(i, " read channel error, use " + active), e);
+            return getChannel(active);
+        }
+    }
+
+    /**
+     * @return -1 if no data source is readable
+     */
+    int nextReadIndex() {
+        final int[] weights = this.readWeights;
+        final MySQLDataSource[] sources = this.sources;
+        int active = activedIndex;
+        int len = Math.min(weights.length, sources.length);
+        int total = 0;
+        for (int i = 0; i < len; i++) {
+            if (isReadable(i, active)) {
+                total += weights[i];
+            }
+        }
+        if (total <= 0) {
+            return -1;
+        }
+        long n = (readCount.getAndIncrement() & Long.MAX_VALUE) % total;
+        for (int i = 0; i < len; i++) {
+            if (isReadable(i, active)) {
+                n -= weights[i];
+                if (n < 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 当前数据源总是可读；备库需要心跳正常，未配置心跳时视为正常
+     */
+    private boolean isReadable(int i, int active) {
+        if (readWeights[i] <= 0 || sources[i] == null) {
+            return false;
+        }
+        if (i == active || !config.isNeedHeartbeat()) {
+            return true;
+        }
+        return sources[i].getHeartbeat().getStatus() == MySQLHeartbeat.OK_STATUS;
+    }
+
+    private boolean isReadReplica(int i, int active) {
+        return readWeights != null && i != active && i < readWeights.length && readWeights[i] > 0
+                && sources[i] != null;
+    }
+
     public void getConnection(ResponseHandler handler, Object attachment) throws Exception {
-        getConnection(handler, attachment, activedIndex);
+        getConnection(null, handler, attachment);
+    }
+
+    /**
+     * @param processor processor of front-end connection, null if none
+     */
+    public void getConnection(NIOProcessor processor, ResponseHandler handler, Object attachment) throws Exception {
+        getConnection(processor, handler, attachment, activedIndex);
     }
 
     public void getConnection(ResponseHandler handler, Object attachment, int i) throws Exception {
+        getConnection(null, handler, attachment, i);
+    }
+
+    public void getConnection(NIOProcessor processor, ResponseHandler handler, Object attachment, int i)
+            throws Exception {
         if (initSuccess) {
             MySQLConnectionPool pool = dataSources[i];
-            pool.getConnection(handler, attachment);
+            pool.getConnection(processor, handler, attachment);
         } else {
             throw new IllegalArgumentException("Invalid DataSource:" + activedIndex);
         }
@@ -291,6 +401,11 @@ public final class MySQLDataNode {
         MySQLDataSource source = this.getSource();
         if (source != null) {
             source.startHeartbeat();
+            for (int i = 0; i < sources.length; i++) {
+                if (isReadReplica(i, source.getIndex())) {
+                    sources[i].startHeartbeat();
+                }
+            }
         } else {
             StringBuilder s = new StringBuilder();
             s.append(Alarms.DEFAULT).append(name).append(" current dataSource is null!");
@@ -302,6 +417,11 @@ public final class MySQLDataNode {
         MySQLDataSource source = this.getSource();
         if (source != null) {
             source.stopHeartbeat();
+            for (int i = 0; i < sources.length; i++) {
+                if (isReadReplica(i, source.getIndex())) {
+                    sources[i].stopHeartbeat();
+                }
+            }
         } else {
             StringBuilder s = new StringBuilder();
             s.append(Alarms.DEFAULT).append(name).append(" current dataSource is null!");
@@ -329,6 +449,16 @@ public final class MySQLDataNode {
         MySQLDataSource source = this.getSource();
         if (source != null) {
             source.doHeartbeat();
+            // 备库的心跳只决定是否分配读请求，不引起切换；切换后停掉的原数据源在此重新开始心跳
+            for (int i = 0; i < sources.length; i++) {
+                if (isReadReplica(i, source.getIndex())) {
+                    MySQLDataSource replica = sources[i];
+                    if (replica.getHeartbeat().isStop()) {
+                        replica.startHeartbeat();
+                    }
+                    replica.doHeartbeat();
+                }
+            }
         } else {
             StringBuilder s = new StringBuilder();
             s.append(Alarms.DEFAULT).append(name).append(" current dataSource is null!");
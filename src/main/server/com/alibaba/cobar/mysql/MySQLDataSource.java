@@ -15,17 +15,24 @@
  */
 package com.alibaba.cobar.mysql;
 
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.config.Alarms;
+import com.alibaba.cobar.config.model.DataNodeConfig;
 import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.exception.PoolExhaustedException;
 import com.alibaba.cobar.heartbeat.MySQLHeartbeat;
 import com.alibaba.cobar.mysql.bio.Channel;
 import com.alibaba.cobar.mysql.bio.ChannelFactory;
 import com.alibaba.cobar.mysql.bio.MySQLChannelFactory;
 import com.alibaba.cobar.statistic.SQLRecorder;
+import com.alibaba.cobar.util.IdleStack;
 import com.alibaba.cobar.util.TimeUtil;
 
 /**
@@ -39,26 +46,37 @@ public final class MySQLDataSource {
     private final int index;
     private final String name;
     private final DataSourceConfig config;
-    private int activeCount;
-    private int idleCount;
+    private final AtomicInteger activeCount;
     private final int size;
-    private final Channel[] items;
+    private final IdleStack<Channel> idle;
     private final ReentrantLock lock;
     private final ChannelFactory factory;
     private final MySQLHeartbeat heartbeat;
     private final SQLRecorder sqlRecorder;
+    private final LinkedList<Waiter> waiters;
+    private volatile int waitingCount;
+    private long waitCount;
+    private long waitMillis;
+    private long timeoutCount;
+    private long rejectCount;
 
     public MySQLDataSource(MySQLDataNode node, int index, DataSourceConfig config, int size) {
+        this(node, index, config, size, new MySQLChannelFactory());
+    }
+
+    MySQLDataSource(MySQLDataNode node, int index, DataSourceConfig config, int size, ChannelFactory factory) {
         this.node = node;
         this.index = index;
         this.name = config.getName();
         this.config = config;
         this.size = size;
-        this.items = new Channel[size];
+        this.activeCount = new AtomicInteger();
+        this.idle = new IdleStack<Channel>();
         this.lock = new ReentrantLock();
-        this.factory = new MySQLChannelFactory();
+        this.factory = factory;
         this.heartbeat = new MySQLHeartbeat(this);
         this.sqlRecorder = new SQLRecorder(config.getSqlRecordCount());
+        this.waiters = new LinkedList<Waiter>();
     }
 
     public MySQLDataNode getNode() {
@@ -82,11 +100,43 @@ public final class MySQLDataSource {
     }
 
     public int getActiveCount() {
-        return activeCount;
+        return activeCount.get();
     }
 
     public int getIdleCount() {
-        return idleCount;
+        return idle.size();
+    }
+
+    /**
+     * @return count of requests waiting for channel
+     */
+    public int getWaitingCount() {
+        return waitingCount;
+    }
+
+    /**
+     * @return count of requests which have waited for channel
+     */
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * @return total time in milliseconds spent on waiting for channel
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    /**
+     * @return count of requests rejected for full wait queue
+     */
+    public long getRejectCount() {
+        return rejectCount;
     }
 
     public MySQLHeartbeat getHeartbeat() {
@@ -116,132 +166,232 @@ public final class MySQLDataSource {
     }
 
     /**
+     * 空闲通道保存在无锁栈中，借出和归还不加锁；池中没有空闲通道且活跃通道已达上限时排队等待，由释放的通道直接交给队首的等待者；
+     * 等待超时或队列已满时立即失败。
+     * 
      * @return never null
+     * @throws PoolExhaustedException if wait queue is full or wait timeout
      */
     public Channel getChannel() throws Exception {
         // 尝试从池中取得可用资源
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            // 当活跃资源大于等于池大小时，记录告警信息。
-            if (activeCount >= size) {
-                StringBuilder s = new StringBuilder();
-                s.append(Alarms.DEFAULT).append("[name=").append(name).append(",active=");
-                s.append(activeCount).append(",size=").append(size).append(']');
-                ALARM.error(s.toString());
-            }
-
-            // 检查池中是否有可用资源
-            final Channel[] items = this.items;
-            for (int i = 0; idleCount > 0 && i < items.length; i++) {
-                if (items[i] != null) {
-                    Channel c = items[i];
-                    items[i] = null;
-                    --idleCount;
-                    if (c.isClosed()) {
-                        continue;
-                    } else {
-                        ++activeCount;
-                        return c;
-                    }
+        Channel c = pollIdle();
+        if (c != null) {
+            return c;
+        }
+        if (!reserve()) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                c = await();
+                if (c != null) {
+                    return c;
                 }
+                // 等到了创建新连接的名额
+            } finally {
+                lock.unlock();
             }
-
-            // 将创建新连接，在此先假设创建成功。
-            ++activeCount;
-        } finally {
-            lock.unlock();
         }
 
         // 创建新的资源
-        Channel c = factory.make(this);
+        c = factory.make(this);
         try {
             c.connect(node.getConfig().getWaitTimeout());
         } catch (Exception e) {
-            lock.lock();
-            try {
-                --activeCount;
-            } finally {
-                lock.unlock();
-            }
+            deActive();
             c.closeNoActive();
             throw e;
         }
         return c;
     }
 
+    /**
+     * @return null if no idle channel
+     */
+    private Channel pollIdle() {
+        for (Channel c = idle.pop(); c != null; c = idle.pop()) {
+            if (!c.isClosed()) {
+                activeCount.incrementAndGet();
+                return c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 将创建新连接，在此先假设创建成功。
+     * 
+     * @return false if active count reaches pool size
+     */
+    private boolean reserve() {
+        for (;;) {
+            int active = activeCount.get();
+            if (active >= size) {
+                return false;
+            }
+            if (activeCount.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * MUST be called with lock held
+     * 
+     * @return null if a new channel can be created
+     */
+    private Channel await() throws InterruptedException {
+        DataNodeConfig dnc = node.getConfig();
+        if (waiters.size() >= dnc.getWaitQueueSize()) {
+            ++rejectCount;
+            StringBuilder s = new StringBuilder();
+            s.append(Alarms.DEFAULT).append("[name=").append(name).append(",active=");
+            s.append(activeCount.get()).append(",size=").append(size).append(",waiting=").append(waiters.size());
+            s.append(']');
+            ALARM.error(s.toString());
+            throw new PoolExhaustedException("too many requests waiting for connection of " + name);
+        }
+        Waiter waiter = new Waiter(lock.newCondition());
+        waiters.addLast(waiter);
+        waitingCount = waiters.size();
+        ++waitCount;
+
+        // 入队后再检查一次，避免与不加锁的归还错过
+        grantWaiters();
+
+        long start = System.nanoTime();
+        long nanos = TimeUnit.MILLISECONDS.toNanos(dnc.getWaitTimeout());
+        try {
+            while (!waiter.granted && nanos > 0L) {
+                nanos = waiter.condition.awaitNanos(nanos);
+            }
+        } catch (InterruptedException e) {
+            if (!waiter.granted) {
+                removeWaiter(waiter);
+                throw e;
+            }
+            Thread.currentThread().interrupt();
+        } finally {
+            waitMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        if (!waiter.granted) {
+            removeWaiter(waiter);
+            ++timeoutCount;
+            throw new PoolExhaustedException("wait for connection of " + name + " timeout");
+        }
+        return waiter.channel;
+    }
+
+    /**
+     * MUST be called with lock held
+     */
+    private Waiter pollWaiter() {
+        Waiter waiter = waiters.poll();
+        waitingCount = waiters.size();
+        return waiter;
+    }
+
+    /**
+     * MUST be called with lock held
+     */
+    private void removeWaiter(Waiter waiter) {
+        waiters.remove(waiter);
+        waitingCount = waiters.size();
+    }
+
+    /**
+     * 把空闲通道或创建新连接的名额交给等待者，MUST be called with lock held
+     */
+    private void grantWaiters() {
+        while (!waiters.isEmpty()) {
+            Channel c = pollIdle();
+            if (c != null) {
+                pollWaiter().grant(c);
+            } else if (reserve()) {
+                pollWaiter().grant(null);
+            } else {
+                return;
+            }
+        }
+    }
+
     public void releaseChannel(Channel c) {
         // 状态检查
         if (c == null || c.isClosed()) {
             return;
         }
 
-        // 释放资源
+        // 有等待者时直接交给等待者，活跃数不变
         final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            final Channel[] items = this.items;
-            for (int i = 0; i < items.length; i++) {
-                if (items[i] == null) {
-                    ++idleCount;
-                    --activeCount;
-                    c.setLastActiveTime(TimeUtil.currentTimeMillis());
-                    items[i] = c;
+        if (waitingCount > 0) {
+            lock.lock();
+            try {
+                Waiter waiter = pollWaiter();
+                if (waiter != null) {
+                    waiter.grant(c);
                     return;
                 }
+            } finally {
+                lock.unlock();
             }
-        } finally {
-            lock.unlock();
         }
 
-        // 关闭多余的资源
-        c.close();
+        // 释放资源
+        activeCount.decrementAndGet();
+        long now = TimeUtil.currentTimeMillis();
+        c.setLastActiveTime(now);
+        idle.push(c, now);
+
+        // 归还时恰好有请求开始等待
+        signalWaiters();
     }
 
     public void deActive() {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            --activeCount;
-        } finally {
-            lock.unlock();
+        activeCount.decrementAndGet();
+        // 把名额交给等待者创建新连接
+        signalWaiters();
+    }
+
+    private void signalWaiters() {
+        if (waitingCount > 0) {
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                grantWaiters();
+            } finally {
+                lock.unlock();
+            }
         }
     }
 
     public void clear() {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            final Channel[] items = this.items;
-            for (int i = 0; i < items.length; i++) {
-                Channel c = items[i];
-                if (c != null) {
-                    c.closeNoActive();
-                    --idleCount;
-                    items[i] = null;
-                }
-            }
-        } finally {
-            lock.unlock();
+        for (Channel c : idle.removeAll()) {
+            c.closeNoActive();
         }
     }
 
     public void idleCheck(long timeout) {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            final Channel[] items = this.items;
-            long time = TimeUtil.currentTimeMillis() - timeout;
-            for (int i = 0; i < items.length; i++) {
-                Channel c = items[i];
-                if (c != null && time > c.getLastAcitveTime()) {
-                    c.closeNoActive();
-                    --idleCount;
-                    items[i] = null;
-                }
-            }
-        } finally {
-            lock.unlock();
+        long time = TimeUtil.currentTimeMillis() - timeout;
+        for (Channel c : idle.removeIdle(time)) {
+            c.closeNoActive();
+        }
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private boolean granted;
+        private Channel channel;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+
+        /**
+         * @param c null if a new channel can be created
+         */
+        private void grant(Channel c) {
+            this.channel = c;
+            this.granted = true;
+            condition.signal();
         }
     }
 
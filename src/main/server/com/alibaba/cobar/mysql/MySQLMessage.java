@@ -291,35 +291,56 @@ public class MySQLMessage {
     }
 
     public java.sql.Time readTime() {
-        move(6);
-        int hour = read();
-        int minute = read();
-        int second = read();
+        byte length = read();
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        if (length > 0) {
+            move(5);// is_negative, days
+            hour = read();
+            minute = read();
+            second = read();
+            if (length > 8) {
+                move(4);// micro_seconds
+            }
+        }
         Calendar cal = getLocalCalendar();
+        cal.clear();
         cal.set(0, 0, 0, hour, minute, second);
         return new Time(cal.getTimeInMillis());
     }
 
     public java.util.Date readDate() {
         byte length = read();
-        int year = readUB2();
-        byte month = read();
-        byte date = read();
-        int hour = read();
-        int minute = read();
-        int second = read();
-        if (length == 11) {
-            long nanos = readUB4();
-            Calendar cal = getLocalCalendar();
-            cal.set(year, --month, date, hour, minute, second);
-            Timestamp time = new Timestamp(cal.getTimeInMillis());
-            time.setNanos((int) nanos);
-            return time;
-        } else {
-            Calendar cal = getLocalCalendar();
-            cal.set(year, --month, date, hour, minute, second);
+        int year = 0;
+        int month = 0;
+        int date = 0;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        long micros = 0;
+        if (length >= 4) {
+            year = readUB2();
+            month = read();
+            date = read();
+        }
+        if (length >= 7) {
+            hour = read();
+            minute = read();
+            second = read();
+        }
+        if (length >= 11) {
+            micros = readUB4();
+        }
+        Calendar cal = getLocalCalendar();
+        cal.clear();
+        cal.set(year, month - 1, date, hour, minute, second);
+        if (length <= 4) {
             return new java.sql.Date(cal.getTimeInMillis());
         }
+        Timestamp time = new Timestamp(cal.getTimeInMillis());
+        time.setNanos((int) micros * 1000);
+        return time;
     }
 
     public BigDecimal readBigDecimal() {
@@ -15,6 +15,8 @@
  */
 package com.alibaba.cobar.mysql;
 
+import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
+
 /**
  * @author xianmao.hexm 2012-8-28
  */
@@ -25,6 +27,8 @@ public class PreparedStatement {
     private int columnsNumber;
     private int parametersNumber;
     private int[] parametersType;
+    private int type;
+    private SQLStatement ast;
 
     public PreparedStatement(long id, String statement, int columnsNumber, int parametersNumber) {
         this.id = id;
@@ -34,6 +38,17 @@ public class PreparedStatement {
         this.parametersType = new int[parametersNumber];
     }
 
+    /**
+     * @param type statement type of {@link com.alibaba.cobar.server.parser.ServerParse}
+     * @param ast parsed once when preparing, reused by every execution
+     */
+    public PreparedStatement(long id, String statement, int columnsNumber, int parametersNumber, int type,
+                             SQLStatement ast) {
+        this(id, statement, columnsNumber, parametersNumber);
+        this.type = type;
+        this.ast = ast;
+    }
+
     public long getId() {
         return id;
     }
@@ -54,4 +69,12 @@ public class PreparedStatement {
         return parametersType;
     }
 
+    public int getType() {
+        return type;
+    }
+
+    public SQLStatement getAst() {
+        return ast;
+    }
+
 }
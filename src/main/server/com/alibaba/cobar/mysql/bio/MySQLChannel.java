@@ -22,7 +22,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -40,9 +43,12 @@ import com.alibaba.cobar.exception.ErrorPacketException;
 import com.alibaba.cobar.exception.UnknownCharsetException;
 import com.alibaba.cobar.exception.UnknownPacketException;
 import com.alibaba.cobar.exception.UnknownTxIsolationException;
+import com.alibaba.cobar.mysql.BufferUtil;
 import com.alibaba.cobar.mysql.CharsetUtil;
 import com.alibaba.cobar.mysql.MySQLDataSource;
 import com.alibaba.cobar.mysql.SecurityUtil;
+import com.alibaba.cobar.mysql.StreamUtil;
+import com.alibaba.cobar.net.FrontendConnection;
 import com.alibaba.cobar.net.mysql.AuthPacket;
 import com.alibaba.cobar.net.mysql.BinaryPacket;
 import com.alibaba.cobar.net.mysql.CommandPacket;
@@ -55,6 +61,7 @@ import com.alibaba.cobar.net.mysql.QuitPacket;
 import com.alibaba.cobar.net.mysql.Reply323Packet;
 import com.alibaba.cobar.route.RouteResultsetNode;
 import com.alibaba.cobar.server.ServerConnection;
+import com.alibaba.cobar.server.session.SessionVariables;
 import com.alibaba.cobar.statistic.SQLRecord;
 import com.alibaba.cobar.statistic.SQLRecorder;
 import com.alibaba.cobar.util.StringUtil;
@@ -70,8 +77,10 @@ public final class MySQLChannel implements Channel {
     private static final int INPUT_STREAM_BUFFER = 16 * 1024;
     private static final int OUTPUT_STREAM_BUFFER = 8 * 1024;
     private static final int SOCKET_CONNECT_TIMEOUT = 10 * 1000;
+    private static final int RELAY_BUFFER_SIZE = 4 * 1024;
     private static final long CLIENT_FLAGS = getClientFlags();
     private static final long MAX_PACKET_SIZE = 1024 * 1024 * 16;
+    private static final int MAX_PACKET_LENGTH = 0xffffff;
     private static final CommandPacket _READ_UNCOMMITTED = new CommandPacket();
     private static final CommandPacket _READ_COMMITTED = new CommandPacket();
     private static final CommandPacket _REPEATED_READ = new CommandPacket();
@@ -118,8 +127,15 @@ public final class MySQLChannel implements Channel {
     private volatile int txIsolation;
     private volatile boolean autocommit;
     private volatile boolean isRunning;
+    private volatile String xid;
+    private Map<String, String> variables = Collections.emptyMap();
     private final AtomicBoolean isClosed;
     private long lastActiveTime;
+    private int pendingLength;
+    private byte pendingId;
+    private byte pendingFirst;
+    private boolean continuation;
+    private byte[] relayBuffer;
 
     public MySQLChannel(MySQLDataSource dataSource) {
         this.dataSource = dataSource;
@@ -134,6 +150,24 @@ public final class MySQLChannel implements Channel {
         return charset;
     }
 
+    public int getCharsetIndex() {
+        return charsetIndex;
+    }
+
+    public int getTxIsolation() {
+        return txIsolation;
+    }
+
+    /**
+     * 不经过连接握手，直接在给定的流上收发数据包
+     */
+    void attach(InputStream in, OutputStream out, int charsetIndex) {
+        this.in = in;
+        this.out = out;
+        this.charsetIndex = charsetIndex;
+        this.charset = CharsetUtil.getCharset(charsetIndex);
+    }
+
     @Override
     public long getLastAcitveTime() {
         return lastActiveTime;
@@ -197,23 +231,45 @@ public final class MySQLChannel implements Channel {
         }
     }
 
+    /**
+     * 字符集、事务级别和事务递交模式的设置命令与语句一起发出，按顺序读取设置命令的响应，状态不一致时也只需一次往返。
+     * 取值来自客户端的变量和XA分支可能执行失败，需要时先完成状态设置，再单独同步，保证XA分支在新的事务级别下开始。
+     */
     public BinaryPacket execute(RouteResultsetNode rrn, ServerConnection sc, boolean autocommit) throws IOException {
         // 状态一致性检查
-        if (this.charsetIndex != sc.getCharsetIndex()) {
-            sendCharset(sc.getCharsetIndex());
+        int ci = sc.getCharsetIndex();
+        int txIsolation = sc.getTxIsolation();
+        boolean charsetSync = this.charsetIndex != ci;
+        boolean txIsolationSync = this.txIsolation != txIsolation;
+        boolean autocommitSync = this.autocommit != autocommit;
+        if (charsetSync) {
+            getCharsetCommand(ci).write(out);
         }
-        if (this.txIsolation != sc.getTxIsolation()) {
-            sendTxIsolation(sc.getTxIsolation());
+        if (txIsolationSync) {
+            getTxIsolationCommand(txIsolation).write(out);
         }
-        if (this.autocommit != autocommit) {
-            sendAutocommit(autocommit);
+        if (autocommitSync) {
+            getAutocommitCommand(autocommit).write(out);
+        }
+        boolean variablesSync = this.variables != sc.getVariables();
+        String gtrid = (!autocommit && xid == null) ? sc.getSession().startXid() : null;
+        if (variablesSync || gtrid != null) {
+            out.flush();
+            receiveStatus(ci, txIsolation, autocommit, charsetSync, txIsolationSync, autocommitSync);
+            charsetSync = txIsolationSync = autocommitSync = false;
+            if (variablesSync) {
+                sendVariables(sc.getVariables());
+            }
+            if (gtrid != null) {
+                sendXaStart(gtrid, rrn.getName());
+            }
         }
 
         // 生成执行数据包
         CommandPacket packet = new CommandPacket();
         packet.packetId = 0;
         packet.command = MySQLPacket.COM_QUERY;
-        packet.arg = rrn.getStatement().getBytes(charset);
+        packet.arg = rrn.getStatement().getBytes(CharsetUtil.getCharset(ci));
 
         // 记录执行开始时间
         lastActiveTime = TimeUtil.currentTimeMillis();
@@ -221,6 +277,7 @@ public final class MySQLChannel implements Channel {
         // 递交执行数据包并等待执行返回
         packet.write(out);
         out.flush();
+        receiveStatus(ci, txIsolation, autocommit, charsetSync, txIsolationSync, autocommitSync);
         //返回的数据包
         BinaryPacket bin = receive();
 
@@ -235,24 +292,213 @@ public final class MySQLChannel implements Channel {
         return bin;
     }
 
+    /**
+     * 以自动提交方式执行不属于任何前端会话的语句，如数据迁移
+     *
+     * @return first packet of response
+     */
+    public BinaryPacket execute(String stmt) throws IOException {
+        if (!this.autocommit) {
+            sendAutocommit(true);
+        }
+        if (!variables.isEmpty()) {
+            sendVariables(Collections.<String, String> emptyMap());
+        }
+        CommandPacket packet = new CommandPacket();
+        packet.packetId = 0;
+        packet.command = MySQLPacket.COM_QUERY;
+        packet.arg = stmt.getBytes(charset);
+        lastActiveTime = TimeUtil.currentTimeMillis();
+        packet.write(out);
+        out.flush();
+        BinaryPacket bin = receive();
+        lastActiveTime = TimeUtil.currentTimeMillis();
+        return bin;
+    }
+
     public BinaryPacket receive() throws IOException {
         BinaryPacket bin = new BinaryPacket();
         bin.read(in);
+        pendingLength = 0;
         return bin;
     }
 
+    /**
+     * 只读取下一个包的包头和第一个字节，其余部分由{@link #relay(ByteBuffer, FrontendConnection, byte)}
+     * 或{@link #receiveRest()}读取。
+     *
+     * @return true if it is a row data packet, which can be relayed without
+     *         inspection
+     */
+    public boolean receiveHeader() throws IOException {
+        // 上一个包满16M时本包是同一个逻辑包的后续部分，首字节不是包类型，长度恰好是16M整数倍时后续部分是空包
+        continuation = pendingLength == MAX_PACKET_LENGTH;
+        pendingLength = StreamUtil.readUB3(in);
+        pendingId = StreamUtil.read(in);
+        if (pendingLength == 0) {
+            return true;
+        }
+        pendingFirst = StreamUtil.read(in);
+        if (continuation) {
+            return true;
+        }
+        int first = pendingFirst & 0xff;
+        return first != 0xff && !(first == 0xfe && pendingLength < 9);
+    }
+
+    /**
+     * @return true if packet read by {@link #receiveHeader()} is the rest of
+     *         a relayed packet of 16M
+     */
+    public boolean isContinuation() {
+        return continuation;
+    }
+
+    /**
+     * @return length of packet read by {@link #receiveHeader()}
+     */
+    public int getPacketLength() {
+        return pendingLength;
+    }
+
+    /**
+     * 把{@link #receiveHeader()}读到的包直接从输入流写入前端缓存，只改写包序号，不生成中间的byte[]。
+     */
+    public ByteBuffer relay(ByteBuffer buffer, FrontendConnection c, byte packetId) throws IOException {
+        buffer = c.checkWriteBuffer(buffer, c.getPacketHeaderSize() + 1);
+        BufferUtil.writeUB3(buffer, pendingLength);
+        buffer.put(packetId);
+        if (pendingLength > 0) {
+            buffer.put(pendingFirst);
+        }
+        for (int remain = pendingLength - 1; remain > 0;) {
+            if (!buffer.hasRemaining()) {
+                c.write(buffer);
+                buffer = c.allocate();
+            }
+            int size = Math.min(remain, buffer.remaining());
+            if (buffer.hasArray()) {
+                int position = buffer.position();
+                StreamUtil.read(in, buffer.array(), buffer.arrayOffset() + position, size);
+                buffer.position(position + size);
+            } else {
+                // 堆外缓存经由本通道的复用数组写入
+                if (relayBuffer == null) {
+                    relayBuffer = new byte[RELAY_BUFFER_SIZE];
+                }
+                size = Math.min(size, relayBuffer.length);
+                StreamUtil.read(in, relayBuffer, 0, size);
+                buffer.put(relayBuffer, 0, size);
+            }
+            remain -= size;
+        }
+        return buffer;
+    }
+
+    /**
+     * 读取{@link #receiveHeader()}之后的剩余部分，用于需要检查内容的包。满16M的包连同后续部分合成一个逻辑包。
+     */
+    public BinaryPacket receiveRest() throws IOException {
+        BinaryPacket bin = new BinaryPacket();
+        bin.packetId = pendingId;
+        byte[] ab = new byte[pendingLength];
+        if (pendingLength > 0) {
+            ab[0] = pendingFirst;
+            StreamUtil.read(in, ab, 1, pendingLength - 1);
+        }
+        while (pendingLength == MAX_PACKET_LENGTH) {
+            pendingLength = StreamUtil.readUB3(in);
+            pendingId = StreamUtil.read(in);
+            byte[] data = new byte[ab.length + pendingLength];
+            System.arraycopy(ab, 0, data, 0, ab.length);
+            StreamUtil.read(in, data, ab.length, pendingLength);
+            ab = data;
+        }
+        bin.packetLength = ab.length;
+        bin.data = ab;
+        return bin;
+    }
+
+    /**
+     * @return xid of XA transaction branch, null if not in XA transaction
+     */
+    public String getXid() {
+        return xid;
+    }
+
+    /**
+     * XA事务分支以一阶段方式提交
+     */
     public BinaryPacket commit() throws IOException {
+        if (xid != null) {
+            BinaryPacket bin = sendQuery("XA END " + xid);
+            if (bin.data[0] != OkPacket.FIELD_COUNT) {
+                return bin;
+            }
+            bin = sendQuery("XA COMMIT " + xid + " ONE PHASE");
+            if (bin.data[0] == OkPacket.FIELD_COUNT) {
+                xid = null;
+            }
+            return bin;
+        }
         _COMMIT.write(out);
         out.flush();
         return receive();
     }
 
     public BinaryPacket rollback() throws IOException {
+        if (xid != null) {
+            // 分支可能已经结束或已经prepare，忽略XA END的错误
+            sendQuery("XA END " + xid);
+            BinaryPacket bin = sendQuery("XA ROLLBACK " + xid);
+            if (bin.data[0] == OkPacket.FIELD_COUNT) {
+                xid = null;
+            }
+            return bin;
+        }
         _ROLLBACK.write(out);
         out.flush();
         return receive();
     }
 
+    /**
+     * 两阶段提交的第一阶段
+     */
+    public BinaryPacket xaPrepare() throws IOException {
+        if (xid == null) {
+            throw new IllegalStateException("not in XA transaction: " + this);
+        }
+        BinaryPacket bin = sendQuery("XA END " + xid);
+        if (bin.data[0] != OkPacket.FIELD_COUNT) {
+            return bin;
+        }
+        return sendQuery("XA PREPARE " + xid);
+    }
+
+    /**
+     * 两阶段提交的第二阶段
+     */
+    public BinaryPacket xaCommit() throws IOException {
+        if (xid == null) {
+            throw new IllegalStateException("not in XA transaction: " + this);
+        }
+        BinaryPacket bin = sendQuery("XA COMMIT " + xid);
+        if (bin.data[0] == OkPacket.FIELD_COUNT) {
+            xid = null;
+        }
+        return bin;
+    }
+
+    /**
+     * @return xid literal used in XA statements
+     */
+    public static String toXid(String gtrid, String bqual) {
+        StringBuilder s = new StringBuilder();
+        s.append('\'').append(gtrid.replace("'", "''")).append("','");
+        s.append(bqual.replace("'", "''")).append('\'');
+        return s.toString();
+    }
+
     @Override
     public boolean isClosed() {
         return isClosed.get();
@@ -466,16 +712,16 @@ public final class MySQLChannel implements Channel {
     }
 
     /**
-     * 发送事务级别设置
+     * 发送事务递交模式设置
      */
-    private void sendTxIsolation(int txIsolation) throws IOException {
-        CommandPacket cmd = getTxIsolationCommand(txIsolation);
+    private void sendAutocommit(boolean autocommit) throws IOException {
+        CommandPacket cmd = getAutocommitCommand(autocommit);
         cmd.write(out);
         out.flush();
         BinaryPacket bin = receive();
         switch (bin.data[0]) {
         case OkPacket.FIELD_COUNT:
-            this.txIsolation = txIsolation;
+            this.autocommit = autocommit;
             break;
         case ErrorPacket.FIELD_COUNT:
             ErrorPacket err = new ErrorPacket();
@@ -487,16 +733,32 @@ public final class MySQLChannel implements Channel {
     }
 
     /**
-     * 发送事务递交模式设置
+     * 按发出顺序读取设置命令的响应并更新通道状态
      */
-    private void sendAutocommit(boolean autocommit) throws IOException {
-        CommandPacket cmd = getAutocommitCommand(autocommit);
-        cmd.write(out);
-        out.flush();
+    private void receiveStatus(int ci, int txIsolation, boolean autocommit, boolean charsetSync,
+                               boolean txIsolationSync, boolean autocommitSync) throws IOException {
+        if (charsetSync) {
+            receiveSync();
+            this.charsetIndex = ci;
+            this.charset = CharsetUtil.getCharset(ci);
+        }
+        if (txIsolationSync) {
+            receiveSync();
+            this.txIsolation = txIsolation;
+        }
+        if (autocommitSync) {
+            receiveSync();
+            this.autocommit = autocommit;
+        }
+    }
+
+    /**
+     * 读取与语句一起发出的设置命令的响应。出错时语句已经发出，通道状态不可知，调用者应关闭通道。
+     */
+    private void receiveSync() throws IOException {
         BinaryPacket bin = receive();
         switch (bin.data[0]) {
         case OkPacket.FIELD_COUNT:
-            this.autocommit = autocommit;
             break;
         case ErrorPacket.FIELD_COUNT:
             ErrorPacket err = new ErrorPacket();
@@ -507,6 +769,59 @@ public final class MySQLChannel implements Channel {
         }
     }
 
+    /**
+     * 同步前端会话设置的变量
+     */
+    private void sendVariables(Map<String, String> vars) throws IOException {
+        String stmt = SessionVariables.getSyncStatement(variables, vars, dsc.getSqlMode());
+        if (stmt != null) {
+            BinaryPacket bin = sendQuery(stmt);
+            switch (bin.data[0]) {
+            case OkPacket.FIELD_COUNT:
+                break;
+            case ErrorPacket.FIELD_COUNT:
+                ErrorPacket err = new ErrorPacket();
+                err.read(bin);
+                throw new ErrorPacketException(new String(err.message, charset) + ": " + stmt);
+            default:
+                throw new UnknownPacketException(bin.toString());
+            }
+        }
+        this.variables = vars;
+    }
+
+    /**
+     * 开始XA事务分支
+     */
+    private void sendXaStart(String gtrid, String bqual) throws IOException {
+        String xid = toXid(gtrid, bqual);
+        BinaryPacket bin = sendQuery("XA START " + xid);
+        switch (bin.data[0]) {
+        case OkPacket.FIELD_COUNT:
+            this.xid = xid;
+            break;
+        case ErrorPacket.FIELD_COUNT:
+            ErrorPacket err = new ErrorPacket();
+            err.read(bin);
+            throw new ErrorPacketException(new String(err.message, charset));
+        default:
+            throw new UnknownPacketException(bin.toString());
+        }
+    }
+
+    /**
+     * 不改变事务递交模式，执行事务控制语句
+     */
+    private BinaryPacket sendQuery(String stmt) throws IOException {
+        CommandPacket cmd = new CommandPacket();
+        cmd.packetId = 0;
+        cmd.command = MySQLPacket.COM_QUERY;
+        cmd.arg = stmt.getBytes(charset);
+        cmd.write(out);
+        out.flush();
+        return receive();
+    }
+
     private CommandPacket getSqlModeCommand() {
         StringBuilder s = new StringBuilder();
         s.append("SET sql_mode=\"").append(dsc.getSqlMode()).append('"');
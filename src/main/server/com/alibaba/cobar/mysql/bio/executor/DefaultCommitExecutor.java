@@ -20,6 +20,8 @@ package com.alibaba.cobar.mysql.bio.executor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,6 +40,8 @@ import com.alibaba.cobar.net.mysql.OkPacket;
 import com.alibaba.cobar.route.RouteResultsetNode;
 import com.alibaba.cobar.server.ServerConnection;
 import com.alibaba.cobar.server.session.BlockingSession;
+import com.alibaba.cobar.xa.XALog;
+import com.alibaba.cobar.xa.XARecovery;
 
 /**
  * @author <a href="mailto:shuo.qius@alibaba-inc.com">QIU Shuo</a>
@@ -50,6 +54,12 @@ public class DefaultCommitExecutor extends NodeExecutor {
     private final ReentrantLock lock = new ReentrantLock();
     private final Condition taskFinished = lock.newCondition();
     private volatile OkPacket indicatedOK;
+    /** gtrid of XA transaction committed in two phases, null for one phase */
+    private volatile String xid;
+    private volatile boolean prepared;
+    private final List<MySQLChannel> channels = new ArrayList<MySQLChannel>();
+    private final List<String> branches = new ArrayList<String>();
+    private final AtomicBoolean isBranchFail = new AtomicBoolean(false);
 
     protected Logger getLogger() {
         return LOGGER;
@@ -100,7 +110,7 @@ public class DefaultCommitExecutor extends NodeExecutor {
     }
 
     /**
-     * 提交事务
+     * 提交事务，多个节点上的XA事务以两阶段方式并行提交
      */
     public void commit(final OkPacket packet, final BlockingSession session, final int initCount) {
         // 初始化
@@ -108,8 +118,13 @@ public class DefaultCommitExecutor extends NodeExecutor {
         lock.lock();
         try {
             this.isFail.set(false);
+            this.isBranchFail.set(false);
             this.nodeCount = initCount;
             this.indicatedOK = packet;
+            this.xid = initCount > 1 ? session.getXid() : null;
+            this.prepared = false;
+            this.channels.clear();
+            this.branches.clear();
         } finally {
             lock.unlock();
         }
@@ -135,6 +150,8 @@ public class DefaultCommitExecutor extends NodeExecutor {
             }
             final MySQLChannel mc = (MySQLChannel) target.get(rrn);
             if (mc != null) {
+                channels.add(mc);
+                branches.add(rrn.getName());
                 mc.setRunning(true);
                 executor.execute(new Runnable() {
                     @Override
@@ -168,7 +185,7 @@ public class DefaultCommitExecutor extends NodeExecutor {
         }
 
         try {
-            BinaryPacket bin = mc.commit();
+            BinaryPacket bin = xid == null ? mc.commit() : mc.xaPrepare();
             switch (bin.data[0]) {
             case OkPacket.FIELD_COUNT:
                 mc.setRunning(false);
@@ -177,6 +194,8 @@ public class DefaultCommitExecutor extends NodeExecutor {
                         if (isFail.get()) { // some other tasks failed
                             session.clear();
                             source.writeErrMessage(ErrorCode.ER_YES, getErrorMessage() + " error!");
+                        } else if (xid != null) { // all branches are prepared
+                            xaCommit(session);
                         } else { // all tasks are successful
                             session.release();
                             if (indicatedOK != null) {
@@ -217,6 +236,86 @@ public class DefaultCommitExecutor extends NodeExecutor {
         }
     }
 
+    /**
+     * 记录提交决定后并行提交所有分支
+     */
+    private void xaCommit(final BlockingSession session) {
+        try {
+            XALog.getInstance().commit(xid, new ArrayList<String>(branches));
+        } catch (IOException e) {
+            // 没有提交决定，回滚所有已prepare的分支
+            isFail.set(true);
+            lock.lock();
+            try {
+                nodeCount = 1;
+            } finally {
+                lock.unlock();
+            }
+            handleException(null, session, e);
+            return;
+        }
+        prepared = true;
+        lock.lock();
+        try {
+            nodeCount = channels.size();
+        } finally {
+            lock.unlock();
+        }
+        Executor executor = session.getSource().getProcessor().getExecutor();
+        for (int i = 0; i < channels.size(); ++i) {
+            final MySQLChannel mc = channels.get(i);
+            final String branch = branches.get(i);
+            mc.setRunning(true);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    _xaCommit(mc, branch, session);
+                }
+            });
+        }
+    }
+
+    /**
+     * 提交决定已经生效，分支提交失败时不再通知前端，由{@link XARecovery}重试
+     */
+    private void _xaCommit(MySQLChannel mc, String branch, BlockingSession session) {
+        try {
+            BinaryPacket bin = mc.xaCommit();
+            if (bin.data[0] != OkPacket.FIELD_COUNT) {
+                isBranchFail.set(true);
+                getLogger().warn(mc.getErrLog("XA COMMIT", mc.getErrMessage(bin), session.getSource()));
+                mc.setRunning(false);
+                mc.close();
+            } else {
+                mc.setRunning(false);
+            }
+        } catch (Exception e) {
+            isBranchFail.set(true);
+            getLogger().warn("XA COMMIT of " + xid + " on " + branch + " failed: " + mc, e);
+            mc.setRunning(false);
+            mc.close();
+        }
+        if (decrementCountBy(1)) {
+            ServerConnection source = session.getSource();
+            try {
+                if (isBranchFail.get()) {
+                    XALog.getInstance().fail(xid);
+                } else {
+                    XALog.getInstance().end(xid);
+                }
+                session.release();
+                if (indicatedOK != null) {
+                    indicatedOK.write(source);
+                } else {
+                    ByteBuffer buffer = source.allocate();
+                    source.write(source.writeToBuffer(OkPacket.OK, buffer));
+                }
+            } catch (Exception e) {
+                getLogger().warn("exception happens in success notification: " + source, e);
+            }
+        }
+    }
+
     private void handleException(Channel mc, BlockingSession session, Exception e) {
         isFail.set(true);
         if (decrementCountBy(1)) {
@@ -19,8 +19,11 @@ import static com.alibaba.cobar.route.RouteResultsetNode.DEFAULT_REPLICA_INDEX;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -33,6 +36,10 @@ import com.alibaba.cobar.CobarConfig;
 import com.alibaba.cobar.CobarServer;
 import com.alibaba.cobar.config.ErrorCode;
 import com.alibaba.cobar.exception.UnknownDataNodeException;
+import com.alibaba.cobar.merge.AggregateMerger;
+import com.alibaba.cobar.merge.GroupByMerger;
+import com.alibaba.cobar.merge.OrderByMerger;
+import com.alibaba.cobar.merge.RowLimit;
 import com.alibaba.cobar.mysql.MySQLDataNode;
 import com.alibaba.cobar.mysql.PacketUtil;
 import com.alibaba.cobar.mysql.bio.Channel;
@@ -43,6 +50,8 @@ import com.alibaba.cobar.net.mysql.ErrorPacket;
 import com.alibaba.cobar.net.mysql.FieldPacket;
 import com.alibaba.cobar.net.mysql.MySQLPacket;
 import com.alibaba.cobar.net.mysql.OkPacket;
+import com.alibaba.cobar.net.mysql.ResultSetHeaderPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
 import com.alibaba.cobar.route.RouteResultset;
 import com.alibaba.cobar.route.RouteResultsetNode;
 import com.alibaba.cobar.server.ServerConnection;
@@ -68,6 +77,15 @@ public final class MultiNodeExecutor extends NodeExecutor {
     private long affectedRows;
     private long insertId;
     private ByteBuffer buffer;
+    private RouteResultset rrs;
+    private Map<RouteResultsetNode, Integer> nodeIndex;
+    private AggregateMerger aggregateMerger;
+    private GroupByMerger groupByMerger;
+    private OrderByMerger merger;
+    private final List<byte[]> mergedRows = new ArrayList<byte[]>();
+    /** reading tasks of nodes whose merge cursor is full, indexed by node */
+    private Runnable[] paused;
+    private RowLimit rowLimit;
     private final ReentrantLock lock = new ReentrantLock();
     private final Condition taskFinished = lock.newCondition();
     private final DefaultCommitExecutor icExecutor = new DefaultCommitExecutor() {
@@ -123,9 +141,11 @@ public final class MultiNodeExecutor extends NodeExecutor {
     /**
      * 多数据节点执行
      * 
-     * @param nodes never null
+     * @param rrs nodes never null
      */
-    public void execute(RouteResultsetNode[] nodes, final boolean autocommit, final BlockingSession ss, final int flag) {
+    public void execute(RouteResultset rrs, final boolean autocommit, final BlockingSession ss) {
+        final RouteResultsetNode[] nodes = rrs.getNodes();
+        final int flag = rrs.getFlag();
         // 初始化
         final ReentrantLock lock = this.lock;
         lock.lock();
@@ -139,6 +159,17 @@ public final class MultiNodeExecutor extends NodeExecutor {
             this.affectedRows = 0L;
             this.insertId = 0L;
             this.buffer = ss.getSource().allocate();
+            this.rrs = rrs;
+            this.nodeIndex = new HashMap<RouteResultsetNode, Integer>(nodes.length, 1);
+            for (int i = 0; i < nodes.length; ++i) {
+                nodeIndex.put(nodes[i], i);
+            }
+            this.aggregateMerger = null;
+            this.groupByMerger = null;
+            this.merger = null;
+            this.mergedRows.clear();
+            this.paused = new Runnable[nodes.length];
+            this.rowLimit = new RowLimit(rrs.getLimitOffset(), rrs.getLimitSize());
         } finally {
             lock.unlock();
         }
@@ -199,7 +230,13 @@ public final class MultiNodeExecutor extends NodeExecutor {
                 int i = rrn.getReplicaIndex();
                 Channel c = null;
                 try {
-                    c = (i == DEFAULT_REPLICA_INDEX) ? dn.getChannel() : dn.getChannel(i);
+                    if (i != DEFAULT_REPLICA_INDEX) {
+                        c = dn.getChannel(i);
+                    } else if (ss.isReadSplit() && dn.isReadSplit()) {
+                        c = dn.getReadChannel();
+                    } else {
+                        c = dn.getChannel();
+                    }
                 } catch (final Exception e) {
                     handleFailure(ss, rrn, new SimpleErrInfo(e, ErrorCode.ER_BAD_DB_ERROR, sc, rrn));
                     return;
@@ -244,7 +281,11 @@ public final class MultiNodeExecutor extends NodeExecutor {
                 case OkPacket.FIELD_COUNT:
                     OkPacket ok = new OkPacket();
                     ok.read(bin);
-                    affectedRows += ok.affectedRows;
+                    if (rrs.isGlobalTable()) {
+                        affectedRows = Math.max(affectedRows, ok.affectedRows);
+                    } else {
+                        affectedRows += ok.affectedRows;
+                    }
                     // set lastInsertId
                     if (ok.insertId > 0) {
                         insertId = (insertId == 0) ? ok.insertId : Math.min(insertId, ok.insertId);
@@ -281,6 +322,10 @@ public final class MultiNodeExecutor extends NodeExecutor {
                                 handleFailure(ss, rrn, new BinaryErrInfo(mc, bin, sc, rrn));
                                 return;
                             case EOFPacket.FIELD_COUNT:
+                                createMerger(flag, headerList);
+                                if (groupByMerger != null) {
+                                    headerList = groupByHeader();
+                                }
                                 bin.packetId = ++packetId;// FIELD_EOF
                                 for (MySQLPacket packet : headerList) {
                                     buffer = packet.write(buffer, sc);
@@ -323,52 +368,205 @@ public final class MultiNodeExecutor extends NodeExecutor {
      */
     private void handleRowData(final RouteResultsetNode rrn, Channel c, BlockingSession ss) throws IOException {
         final ServerConnection source = ss.getSource();
+        final MySQLChannel mc = (MySQLChannel) c;
         BinaryPacket bin = null;
         int size = 0;
         for (;;) {
-            bin = ((MySQLChannel) c).receive();
-            switch (bin.data[0]) {
-            case ErrorPacket.FIELD_COUNT:
-                c.setRunning(false);
-                handleFailure(ss, rrn, new BinaryErrInfo(((MySQLChannel) c), bin, source, rrn));
-                return;
-            case EOFPacket.FIELD_COUNT:
-                c.setRunning(false);
-                if (source.isAutocommit()) {
-                    c = ss.getTarget().remove(rrn);
-                    if (c != null) {
-                        if (isFail.get() || source.isClosed()) {
-                            /**
-                             * this {@link Channel} might be closed by other
-                             * thread in this condition, so that do not release
-                             * this channel
-                             */
-                            c.close();
-                        } else {
-                            c.release();
+            if (!mc.receiveHeader()) {
+                bin = mc.receiveRest();
+                switch (bin.data[0]) {
+                case ErrorPacket.FIELD_COUNT:
+                    c.setRunning(false);
+                    handleFailure(ss, rrn, new BinaryErrInfo(mc, bin, source, rrn));
+                    return;
+                default:
+                    c.setRunning(false);
+                    if (merger != null) {
+                        merger.nodeFinished(nodeIndex.get(rrn), mergedRows);
+                        writeMergedRows(source);
+                    }
+                    if (source.isAutocommit()) {
+                        c = ss.getTarget().remove(rrn);
+                        if (c != null) {
+                            if (isFail.get() || source.isClosed()) {
+                                /**
+                                 * this {@link Channel} might be closed by other
+                                 * thread in this condition, so that do not
+                                 * release this channel
+                                 */
+                                c.close();
+                            } else {
+                                c.release();
+                            }
                         }
                     }
+                    handleSuccessEOF(ss, bin);
+                    return;
                 }
-                handleSuccessEOF(ss, bin);
-                return;
-            default:
-                bin.packetId = ++packetId;// ROWS
-                buffer = bin.write(buffer, source);
-                size += bin.packetLength;
-                if (size > RECEIVE_CHUNK_SIZE) {
-                    handleNext(rrn, c, ss);
+            }
+            size += mc.getPacketLength();
+            if (mc.isContinuation()) {
+                // 已转发的16M行数据包的后续部分
+                buffer = mc.relay(buffer, source, ++packetId);
+            } else if (rowLimit.isReached()) {
+                if (source.isAutocommit()) {
+                    cancel(rrn, c, ss);
                     return;
                 }
+                // 事务中的连接不能被KILL，读取并丢弃剩余的行
+                mc.receiveRest();
+            } else if (groupByMerger != null) {
+                groupByMerger.addRow(mc.receiveRest().data);
+            } else if (aggregateMerger != null) {
+                aggregateMerger.addRow(mc.receiveRest().data, 0);
+            } else if (merger != null) {
+                int index = nodeIndex.get(rrn);
+                merger.addRow(index, mc.receiveRest().data, mergedRows);
+                writeMergedRows(source);
+                if (merger.isFull(index) && !isFail.get() && !rowLimit.isReached()) {
+                    // 其他节点返回数据前不再读取该节点，避免行在游标中无限堆积
+                    paused[index] = nextTask(rrn, c, ss);
+                    return;
+                }
+            } else if (rowLimit.accept()) {
+                // 不需要合并的行直接转发，只改写包序号
+                buffer = mc.relay(buffer, source, ++packetId);// ROWS
+            } else {
+                mc.receiveRest();
+            }
+            if (size > RECEIVE_CHUNK_SIZE) {
+                handleNext(rrn, c, ss);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param headerList HEADER followed by FIELDS
+     */
+    private void createMerger(int flag, List<MySQLPacket> headerList) {
+        if (!AggregateMerger.isAggregate(flag) && rrs.getOrderBy() == null && rrs.getGroupByMerge() == null) {
+            return;
+        }
+        FieldPacket[] fields = new FieldPacket[headerList.size() - 1];
+        int i = 0;
+        for (MySQLPacket packet : headerList.subList(1, headerList.size())) {
+            if (packet instanceof FieldPacket) {
+                fields[i++] = (FieldPacket) packet;
+            } else {
+                FieldPacket field = new FieldPacket();
+                field.read((BinaryPacket) packet);
+                fields[i++] = field;
             }
         }
+        if (rrs.getGroupByMerge() != null) {
+            groupByMerger = GroupByMerger.create(rrs.getGroupByMerge(), fields, 0);
+            return;
+        }
+        if (AggregateMerger.isAggregate(flag)) {
+            aggregateMerger = AggregateMerger.create(flag, fields);
+            return;
+        }
+        merger = OrderByMerger.create(rrs.getOrderBy(), fields, nodeIndex.size(), 0);
+        if (merger == null) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("order by column not in result set, skip merge: " + rrs);
+            }
+            // 无法归并时截取的行没有意义
+            rowLimit = new RowLimit(-1, -1);
+        }
+    }
+
+    /**
+     * 分组合并后的列数与各节点返回的不同，重新生成列信息
+     */
+    private List<MySQLPacket> groupByHeader() {
+        FieldPacket[] fields = groupByMerger.getFields();
+        List<MySQLPacket> headerList = new ArrayList<MySQLPacket>(fields.length + 1);
+        packetId = 0;
+        ResultSetHeaderPacket header = new ResultSetHeaderPacket();
+        header.fieldCount = fields.length;
+        header.packetId = ++packetId;// HEADER
+        headerList.add(header);
+        for (FieldPacket field : fields) {
+            field.packetId = ++packetId;// FIELDS
+            headerList.add(field);
+        }
+        return headerList;
+    }
+
+    private void writeGroupByRows(ServerConnection source) throws IOException {
+        try {
+            RowDataPacket row;
+            while (!rowLimit.isReached() && (row = groupByMerger.nextRow()) != null) {
+                if (rowLimit.accept()) {
+                    row.packetId = ++packetId;// MERGED_ROW
+                    buffer = row.write(buffer, source);
+                }
+            }
+        } finally {
+            groupByMerger.close();
+        }
+    }
+
+    private void writeRow(BinaryPacket bin, ServerConnection source) {
+        if (rowLimit.accept()) {
+            bin.packetId = ++packetId;// ROWS
+            buffer = bin.write(buffer, source);
+        }
+    }
+
+    private void writeMergedRows(ServerConnection source) {
+        for (int i = 0, len = mergedRows.size(); i < len; ++i) {
+            byte[] data = mergedRows.get(i);
+            BinaryPacket bin = new BinaryPacket();
+            bin.packetLength = data.length;
+            bin.data = data;
+            writeRow(bin, source);
+        }
+        mergedRows.clear();
+        resumePaused(source);
+    }
+
+    /**
+     * 游标中的行被归并输出后，恢复读取被暂停的节点。MUST be called while holding {@link #lock}
+     */
+    private void resumePaused(ServerConnection source) {
+        for (int i = 0; i < paused.length; ++i) {
+            Runnable task = paused[i];
+            if (task != null && (isFail.get() || rowLimit.isReached() || !merger.isFull(i))) {
+                paused[i] = null;
+                source.getProcessor().getExecutor().execute(task);
+            }
+        }
+    }
+
+    /**
+     * 全局LIMIT已满足，KILL该节点仍在返回数据的查询，不再读取其剩余结果
+     */
+    private void cancel(RouteResultsetNode rrn, Channel c, BlockingSession ss) {
+        c.setRunning(false);
+        Channel t = ss.getTarget().remove(rrn);
+        if (t != null && t != c) {
+            t.close();
+        }
+        c.kill();
+        handleSuccessEOF(ss, new EOFPacket());
     }
 
     /**
      * 处理下一个任务
      */
-    private void handleNext(final RouteResultsetNode rrn, final Channel c, final BlockingSession ss) {
+    private void handleNext(RouteResultsetNode rrn, Channel c, BlockingSession ss) {
+        ss.getSource().getProcessor().getExecutor().execute(nextTask(rrn, c, ss));
+    }
+
+    /**
+     * 继续读取该节点剩余数据的任务
+     */
+    private Runnable nextTask(final RouteResultsetNode rrn, final Channel c, final BlockingSession ss) {
         final ServerConnection sc = ss.getSource();
-        sc.getProcessor().getExecutor().execute(new Runnable() {
+        return new Runnable() {
             @Override
             public void run() {
                 final ReentrantLock lock = MultiNodeExecutor.this.lock;
@@ -385,13 +583,13 @@ public final class MultiNodeExecutor extends NodeExecutor {
                     lock.unlock();
                 }
             }
-        });
+        };
     }
 
     /**
      * @throws nothing never throws any exception
      */
-    private void handleSuccessEOF(BlockingSession ss, BinaryPacket bin) {
+    private void handleSuccessEOF(BlockingSession ss, MySQLPacket bin) {
         if (decrementCountAndIsZero()) {
             if (isFail.get()) {
                 notifyFailure(ss);
@@ -403,6 +601,22 @@ public final class MultiNodeExecutor extends NodeExecutor {
                     ss.release();
                 }
 
+                if (groupByMerger != null) {
+                    try {
+                        writeGroupByRows(source);
+                    } catch (IOException e) {
+                        LOGGER.warn("group by merge failed: " + source, e);
+                        errno = ErrorCode.ER_YES;
+                        errMessage = "group by merge failed: " + e.getMessage();
+                        notifyFailure(ss);
+                        return;
+                    }
+                }
+                if (aggregateMerger != null && rowLimit.accept()) {
+                    RowDataPacket row = aggregateMerger.getResult();
+                    row.packetId = ++packetId;// MERGED_ROW
+                    buffer = row.write(buffer, source);
+                }
                 bin.packetId = ++packetId;// LAST_EOF
                 source.write(bin.write(buffer, source));
             } catch (Exception e) {
@@ -422,8 +636,13 @@ public final class MultiNodeExecutor extends NodeExecutor {
             }
             try {
                 ServerConnection source = ss.getSource();
+                ss.updateGlobalIndex();
                 ok.packetId = ++packetId;// OK_PACKET
                 ok.affectedRows = affectedRows;
+                if (ss.getInsertId() > 0) {
+                    // 各节点的自增值会冲突，以全局序列生成的值为准
+                    insertId = ss.getInsertId();
+                }
                 if (insertId > 0) {
                     ok.insertId = insertId;
                     source.setLastInsertId(insertId);
@@ -458,6 +677,16 @@ public final class MultiNodeExecutor extends NodeExecutor {
         } catch (Exception e) {
             LOGGER.warn("handleFailure failed in " + getClass().getSimpleName() + ", source = " + ss.getSource(), e);
         }
+        // 被暂停的节点需要读完剩余的行才能结束
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try {
+            if (merger != null) {
+                resumePaused(ss.getSource());
+            }
+        } finally {
+            lock.unlock();
+        }
         if (decrementCountAndIsZero()) {
             notifyFailure(ss);
         }
@@ -470,6 +699,10 @@ public final class MultiNodeExecutor extends NodeExecutor {
      */
     private void notifyFailure(BlockingSession ss) {
         try {
+            if (groupByMerger != null) {
+                groupByMerger.close();
+            }
+
             // 清理
             ss.clear();
 
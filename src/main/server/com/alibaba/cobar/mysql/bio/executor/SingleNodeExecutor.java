@@ -138,7 +138,13 @@ public final class SingleNodeExecutor extends NodeExecutor {
                 int i = rrn.getReplicaIndex();
                 Channel c = null;
                 try {
-                    c = (i == DEFAULT_REPLICA_INDEX) ? dn.getChannel() : dn.getChannel(i);
+                    if (i != DEFAULT_REPLICA_INDEX) {
+                        c = dn.getChannel(i);
+                    } else if (ss.isReadSplit() && dn.isReadSplit()) {
+                        c = dn.getReadChannel();
+                    } else {
+                        c = dn.getChannel();
+                    }
                 } catch (Exception e) {
                     LOGGER.warn(new StringBuilder().append(sc).append(rrn).toString(), e);
                     String msg = e.getMessage();
@@ -193,7 +199,17 @@ public final class SingleNodeExecutor extends NodeExecutor {
                     ss.clear();
                 }
                 endRunning();
+                ss.updateGlobalIndex();
                 bin.packetId = ++packetId;// OK_PACKET
+                if (ss.getInsertId() > 0) {
+                    // 返回全局序列生成的值
+                    OkPacket ok = new OkPacket();
+                    ok.read(bin);
+                    ok.insertId = ss.getInsertId();
+                    sc.setLastInsertId(ok.insertId);
+                    ok.write(sc);
+                    break;
+                }
                 // set lastInsertId
                 setLastInsertId(bin, sc);
                 sc.write(bin.write(sc.allocate(), sc));
@@ -288,7 +304,17 @@ public final class SingleNodeExecutor extends NodeExecutor {
         int size = 0;
         try {
             for (;;) {
-                bin = mc.receive();
+                if (mc.receiveHeader()) {
+                    // 行数据包直接转发，只改写包序号
+                    size += mc.getPacketLength();
+                    bb = mc.relay(bb, sc, ++packetId);// ROWS
+                    if (size > RECEIVE_CHUNK_SIZE) {
+                        handleNext(rrn, ss, mc, bb, packetId);
+                        return;
+                    }
+                    continue;
+                }
+                bin = mc.receiveRest();
                 switch (bin.data[0]) {
                 case ErrorPacket.FIELD_COUNT:
                     LOGGER.warn(mc.getErrLog(rrn.getStatement(), mc.getErrMessage(bin), sc));
@@ -301,7 +327,7 @@ public final class SingleNodeExecutor extends NodeExecutor {
                     bb = bin.write(bb, sc);
                     sc.write(bb);
                     return;
-                case EOFPacket.FIELD_COUNT:
+                default:
                     mc.setRunning(false);
                     if (mc.isAutocommit()) {
                         ss.clear();
@@ -311,14 +337,6 @@ public final class SingleNodeExecutor extends NodeExecutor {
                     bb = bin.write(bb, sc);
                     sc.write(bb);
                     return;
-                default:
-                    bin.packetId = ++packetId;// ROWS
-                    bb = bin.write(bb, sc);
-                    size += bin.packetLength;
-                    if (size > RECEIVE_CHUNK_SIZE) {
-                        handleNext(rrn, ss, mc, bb, packetId);
-                        return;
-                    }
                 }
             }
         } catch (IOException e) {
@@ -18,6 +18,9 @@ package com.alibaba.cobar.mysql.nio;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.SocketChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
@@ -251,97 +254,86 @@ public class MySQLConnection extends BackendConnection {
         return isClosed() || isQuit.get();
     }
 
+    /**
+     * 状态设置命令和语句一起发出，不再逐条等待响应；设置命令的响应按发出顺序先于语句的响应返回，依次消费。
+     */
     private static class StatusSync {
         private final RouteResultsetNode rrn;
         private final MySQLConnection conn;
-        private CommandPacket charCmd;
-        private CommandPacket isoCmd;
-        private CommandPacket acCmd;
         private final int charIndex;
         private final int txIsolation;
         private final boolean autocommit;
-        private volatile boolean executed;
+        private final List<CommandPacket> cmds;
+        /** 已发出但未收到响应的设置命令，收到OK后更新连接状态 */
+        private final LinkedList<Runnable> updaters;
 
         public StatusSync(MySQLConnection conn, RouteResultsetNode rrn, ServerConnection sc, boolean autocommit) {
             this.conn = conn;
             this.rrn = rrn;
             this.charIndex = sc.getCharsetIndex();
-            this.charCmd = conn.charsetIndex != charIndex ? getCharsetCommand(charIndex) : null;
             this.txIsolation = sc.getTxIsolation();
-            this.isoCmd = conn.txIsolation != txIsolation ? getTxIsolationCommand(txIsolation) : null;
             this.autocommit = autocommit;
-            this.acCmd = conn.autocommit != autocommit ? (autocommit ? _AUTOCOMMIT_ON : _AUTOCOMMIT_OFF) : null;
-        }
-
-        private Runnable updater;
-
-        public boolean isExecuted() {
-            return executed;
-        }
-
-        public boolean isSync() {
-            return charCmd == null && isoCmd == null && acCmd == null;
-        }
-
-        public void update() {
-            Runnable updater = this.updater;
-            if (updater != null) {
-                updater.run();
-            }
-        }
-
-        /**
-         * @return false if sync complete
-         */
-        public boolean sync() {
-            CommandPacket cmd;
-            if (charCmd != null) {
-                updater = new Runnable() {
+            this.cmds = new ArrayList<CommandPacket>(3);
+            this.updaters = new LinkedList<Runnable>();
+            if (conn.charsetIndex != charIndex) {
+                cmds.add(getCharsetCommand(charIndex));
+                updaters.add(new Runnable() {
                     @Override
                     public void run() {
                         int ci = StatusSync.this.charIndex;
-                        conn.charsetIndex = ci;
-                        conn.charset = CharsetUtil.getCharset(ci);
+                        StatusSync.this.conn.charsetIndex = ci;
+                        StatusSync.this.conn.charset = CharsetUtil.getCharset(ci);
                     }
-                };
-                cmd = charCmd;
-                charCmd = null;
-                cmd.write(conn);
-                return true;
+                });
             }
-            if (isoCmd != null) {
-                updater = new Runnable() {
+            if (conn.txIsolation != txIsolation) {
+                cmds.add(getTxIsolationCommand(txIsolation));
+                updaters.add(new Runnable() {
                     @Override
                     public void run() {
-                        conn.txIsolation = StatusSync.this.txIsolation;
+                        StatusSync.this.conn.txIsolation = StatusSync.this.txIsolation;
                     }
-                };
-                cmd = isoCmd;
-                isoCmd = null;
-                cmd.write(conn);
-                return true;
+                });
             }
-            if (acCmd != null) {
-                updater = new Runnable() {
+            if (conn.autocommit != autocommit) {
+                cmds.add(autocommit ? _AUTOCOMMIT_ON : _AUTOCOMMIT_OFF);
+                updaters.add(new Runnable() {
                     @Override
                     public void run() {
-                        conn.autocommit = StatusSync.this.autocommit;
+                        StatusSync.this.conn.autocommit = StatusSync.this.autocommit;
                     }
-                };
-                cmd = acCmd;
-                acCmd = null;
-                cmd.write(conn);
-                return true;
+                });
             }
-            return false;
+        }
+
+        /**
+         * @return true if some sync command is waiting for response
+         */
+        public boolean isPending() {
+            return !updaters.isEmpty();
+        }
+
+        /**
+         * @return false if the response belongs to the statement
+         */
+        public boolean update() {
+            Runnable updater = updaters.poll();
+            if (updater == null) {
+                return false;
+            }
+            updater.run();
+            return true;
         }
 
         public void execute() throws UnsupportedEncodingException {
-            executed = true;
+            for (CommandPacket cmd : cmds) {
+                cmd.write(conn);
+            }
             CommandPacket packet = new CommandPacket();
             packet.packetId = 0;
             packet.command = MySQLPacket.COM_QUERY;
-            packet.arg = rrn.getStatement().getBytes(conn.getCharset());
+            // 语句按同步之后的字符集编码
+            packet.arg = rrn.getStatement().getBytes(CharsetUtil.getCharset(charIndex));
             conn.lastTime = TimeUtil.currentTimeMillis();
             packet.write(conn);
         }
@@ -374,31 +366,29 @@ public class MySQLConnection extends BackendConnection {
     }
 
     /**
-     * @return if synchronization finished and execute-sql has already been sent
-     *         before
+     * @return true if it is the OK response of the statement, false if it is
+     *         of a sync command
      */
     public boolean syncAndExcute() throws UnsupportedEncodingException {
         StatusSync sync = statusSync;
-        if (sync.isExecuted()) {
-            return true;
-        }
-        if (sync.isSync()) {
-            sync.update();
-            sync.execute();
-        } else {
-            sync.update();
-            sync.sync();
-        }
-        return false;
+        return sync == null || !sync.update();
+    }
+
+    /**
+     * 设置命令出错时语句已经发出，连接状态不可知，调用者应关闭连接
+     * 
+     * @return true if some sync command is waiting for response
+     */
+    public boolean isSyncPending() {
+        StatusSync sync = statusSync;
+        return sync != null && sync.isPending();
     }
 
     public void execute(RouteResultsetNode rrn, ServerConnection sc, boolean autocommit)
             throws UnsupportedEncodingException {
         StatusSync sync = new StatusSync(this, rrn, sc, autocommit);
         statusSync = sync;
-        if (sync.isSync() || !sync.sync()) {
-            sync.execute();
-        }
+        sync.execute();
     }
 
     public void quit() {
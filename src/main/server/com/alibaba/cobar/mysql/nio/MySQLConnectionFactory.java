@@ -21,6 +21,7 @@ import java.nio.channels.SocketChannel;
 import com.alibaba.cobar.CobarServer;
 import com.alibaba.cobar.config.model.DataSourceConfig;
 import com.alibaba.cobar.mysql.nio.handler.ResponseHandler;
+import com.alibaba.cobar.net.NIOProcessor;
 import com.alibaba.cobar.net.factory.BackendConnectionFactory;
 
 /**
@@ -28,7 +29,11 @@ import com.alibaba.cobar.net.factory.BackendConnectionFactory;
  */
 public class MySQLConnectionFactory extends BackendConnectionFactory {
 
-    public MySQLConnection make(MySQLConnectionPool pool, ResponseHandler handler) throws IOException {
+    /**
+     * @param processor processor to register the connection on, null for any
+     */
+    public MySQLConnection make(MySQLConnectionPool pool, NIOProcessor processor, ResponseHandler handler)
+            throws IOException {
         SocketChannel channel = openSocketChannel();
         DataSourceConfig dsc = pool.getConfig();
         MySQLConnection c = new MySQLConnection(channel);
@@ -39,6 +44,7 @@ public class MySQLConnectionFactory extends BackendConnectionFactory {
         c.setSchema(dsc.getDatabase());
         c.setHandler(new MySQLConnectionAuthenticator(c, handler));
         c.setPool(pool);
+        c.setPreferredProcessor(processor);
         postConnect(c, CobarServer.getInstance().getConnector());
         return c;
     }
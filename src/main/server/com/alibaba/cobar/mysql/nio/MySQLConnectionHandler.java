@@ -143,6 +143,10 @@ public class MySQLConnectionHandler extends BackendAsyncHandler {
      * ERROR数据包处理
      */
     private void handleErrorPacket(byte[] data) {
+        if (source.isSyncPending()) {
+            // 状态同步失败，丢弃随后到达的语句响应
+            source.close();
+        }
         responseHandler.errorResponse(data, source);
     }
 
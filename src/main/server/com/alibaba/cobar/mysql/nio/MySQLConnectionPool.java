@@ -18,16 +18,25 @@
  */
 package com.alibaba.cobar.mysql.nio;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.config.Alarms;
 import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.exception.PoolExhaustedException;
 import com.alibaba.cobar.mysql.MySQLDataNode;
 import com.alibaba.cobar.mysql.nio.handler.DelegateResponseHandler;
 import com.alibaba.cobar.mysql.nio.handler.ResponseHandler;
+import com.alibaba.cobar.net.NIOProcessor;
 import com.alibaba.cobar.statistic.SQLRecorder;
+import com.alibaba.cobar.util.IdleStack;
 import com.alibaba.cobar.util.TimeUtil;
 
 /**
@@ -35,6 +44,7 @@ import com.alibaba.cobar.util.TimeUtil;
  */
 public class MySQLConnectionPool {
     private static final Logger alarm = Logger.getLogger("alarm");
+    private static final int DEFAULT_PROCESSORS = Runtime.getRuntime().availableProcessors();
 
     private final MySQLDataNode dataNode;
     private final int index;
@@ -44,19 +54,46 @@ public class MySQLConnectionPool {
     private final DataSourceConfig config;
     private final int size;
 
-    private final MySQLConnection[] items;
-    private int activeCount;
-    private int idleCount;
+    /** 按连接所在的NIOProcessor分组的空闲连接 */
+    private final IdleStack<MySQLConnection>[] idles;
+    private final AtomicInteger activeCount;
+    private final AtomicLong stealCount;
     private final SQLRecorder sqlRecorder;
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    private volatile int waitingCount;
+    private long waitCount;
+    private long waitMillis;
+    private long timeoutCount;
+    private long rejectCount;
 
     public MySQLConnectionPool(MySQLDataNode node, int index, DataSourceConfig config, int size) {
+        this(node, index, config, size, DEFAULT_PROCESSORS);
+    }
+
+    /**
+     * @param processors count of NIOProcessor
+     */
+    public MySQLConnectionPool(MySQLDataNode node, int index, DataSourceConfig config, int size, int processors) {
+        this(node, index, config, size, processors, new MySQLConnectionFactory());
+    }
+
+    MySQLConnectionPool(MySQLDataNode node, int index, DataSourceConfig config, int size, int processors,
+                        MySQLConnectionFactory factory) {
         this.dataNode = node;
         this.size = size;
-        this.items = new MySQLConnection[size];
+        int stripes = processors > 0 ? processors : 1;
+        @SuppressWarnings("unchecked")
+        IdleStack<MySQLConnection>[] idles = (IdleStack<MySQLConnection>[]) new IdleStack<?>[stripes];
+        this.idles = idles;
+        for (int i = 0; i < idles.length; ++i) {
+            idles[i] = new IdleStack<MySQLConnection>();
+        }
+        this.activeCount = new AtomicInteger();
+        this.stealCount = new AtomicLong();
         this.config = config;
         this.name = config.getName();
         this.index = index;
-        this.factory = new MySQLConnectionFactory();
+        this.factory = factory;
         this.sqlRecorder = new SQLRecorder(config.getSqlRecordCount());
     }
 
@@ -68,56 +105,170 @@ public class MySQLConnectionPool {
         return name;
     }
 
-    public void getConnection(final ResponseHandler handler, final Object attachment) throws Exception {
+    public void getConnection(ResponseHandler handler, Object attachment) throws Exception {
+        getConnection(null, handler, attachment);
+    }
+
+    /**
+     * 空闲连接保存在无锁栈中，借出和归还不加锁；优先借出与前端连接在同一个NIOProcessor上的连接，没有时再从其它处理器的空闲连接中借，
+     * 新建的连接也注册到该处理器上，使一次查询的前后端读写都在同一个reactor和线程池中完成。
+     * <p>
+     * 池中没有空闲连接且活跃连接已达上限时，请求作为回调排队，由释放的连接直接交给队首的请求。
+     * 
+     * @param processor processor of front-end connection, null if none
+     * @throws PoolExhaustedException if wait queue is full
+     */
+    public void getConnection(NIOProcessor processor, ResponseHandler handler, Object attachment) throws Exception {
+        // get connection from pool
+        MySQLConnection conn = pollIdle(processor);
+        if (conn != null) {
+            conn.setAttachment(attachment);
+            handler.connectionAcquired(conn);
+            return;
+        }
+        if (reserve()) {
+            // create connection
+            make(processor, handler, attachment);
+            return;
+        }
+
+        // too many active connections
+        List<Waiter> expired = null;
+        List<Object[]> grants = null;
         final ReentrantLock lock = this.lock;
         lock.lock();
         try {
-            // too many active connections
-            if (activeCount >= size) {
+            expired = removeExpired();
+            if (waiters.size() >= dataNode.getConfig().getWaitQueueSize()) {
+                ++rejectCount;
                 StringBuilder s = new StringBuilder();
                 s.append(Alarms.DEFAULT).append("[name=").append(name).append(",active=");
-                s.append(activeCount).append(",size=").append(size).append(']');
+                s.append(activeCount.get()).append(",size=").append(size).append(",waiting=");
+                s.append(waiters.size()).append(']');
                 alarm.error(s.toString());
+                throw new PoolExhaustedException("too many requests waiting for connection of " + name);
             }
+            long now = TimeUtil.currentTimeMillis();
+            waiters.addLast(new Waiter(processor, handler, attachment, now, now
+                    + dataNode.getConfig().getWaitTimeout()));
+            waitingCount = waiters.size();
+            ++waitCount;
+
+            // 入队后再检查一次，避免与不加锁的归还错过
+            grants = grantWaiters();
+        } finally {
+            lock.unlock();
+            fail(expired);
+        }
+        dispatch(grants);
+    }
 
-            // get connection from pool
-            final MySQLConnection[] items = this.items;
-            for (int i = 0, len = items.length; idleCount > 0 && i < len; ++i) {
-                if (items[i] != null) {
-                    MySQLConnection conn = items[i];
-                    items[i] = null;
-                    --idleCount;
-                    if (conn.isClosedOrQuit()) {
-                        continue;
-                    } else {
-                        ++activeCount;
-                        conn.setAttachment(attachment);
-                        handler.connectionAcquired(conn);
-                        return;
+    /**
+     * @return null if no idle connection
+     */
+    private MySQLConnection pollIdle(NIOProcessor processor) {
+        final IdleStack<MySQLConnection>[] idles = this.idles;
+        int local = stripe(processor);
+        for (int i = 0; i < idles.length; ++i) {
+            IdleStack<MySQLConnection> idle = idles[(local + i) % idles.length];
+            for (MySQLConnection conn = idle.pop(); conn != null; conn = idle.pop()) {
+                if (!conn.isClosedOrQuit()) {
+                    if (i > 0) {
+                        stealCount.incrementAndGet();
                     }
+                    activeCount.incrementAndGet();
+                    return conn;
                 }
             }
+        }
+        return null;
+    }
 
-            ++activeCount;
-        } finally {
-            lock.unlock();
+    private int stripe(NIOProcessor processor) {
+        return processor == null ? 0 : processor.getIndex() % idles.length;
+    }
+
+    /**
+     * @return false if active count reaches pool size
+     */
+    private boolean reserve() {
+        for (;;) {
+            int active = activeCount.get();
+            if (active >= size) {
+                return false;
+            }
+            if (activeCount.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 把空闲连接或创建新连接的名额分给等待者，MUST be called with lock held
+     * 
+     * @return {waiter, connection or null to create}
+     */
+    private List<Object[]> grantWaiters() {
+        List<Object[]> grants = null;
+        while (!waiters.isEmpty()) {
+            Waiter waiter = waiters.peek();
+            MySQLConnection conn = pollIdle(waiter.processor);
+            if (conn == null && !reserve()) {
+                break;
+            }
+            waiters.poll();
+            waitMillis += TimeUtil.currentTimeMillis() - waiter.startTime;
+            if (grants == null) {
+                grants = new ArrayList<Object[]>(1);
+            }
+            grants.add(new Object[] { waiter, conn });
+        }
+        waitingCount = waiters.size();
+        return grants;
+    }
+
+    private void dispatch(List<Object[]> grants) {
+        if (grants != null) {
+            for (Object[] grant : grants) {
+                dispatch((Waiter) grant[0], (MySQLConnection) grant[1]);
+            }
         }
+    }
 
-        // create connection
-        factory.make(this, new DelegateResponseHandler(handler) {
+    private void dispatch(Waiter waiter, MySQLConnection conn) {
+        if (conn != null) {
+            conn.setAttachment(waiter.attachment);
+            waiter.handler.connectionAcquired(conn);
+            return;
+        }
+        try {
+            make(waiter.processor, waiter.handler, waiter.attachment);
+        } catch (Exception e) {
+            deActive();
+            waiter.handler.connectionError(e, null);
+        }
+    }
+
+    private void make(NIOProcessor processor, final ResponseHandler handler, final Object attachment)
+            throws IOException {
+        factory.make(this, processor, new DelegateResponseHandler(handler) {
             private boolean deactived;
 
             @Override
             public void connectionError(Throwable e, MySQLConnection conn) {
+                boolean deactive = false;
                 lock.lock();
                 try {
                     if (!deactived) {
-                        --activeCount;
                         deactived = true;
+                        deactive = true;
                     }
                 } finally {
                     lock.unlock();
                 }
+                if (deactive) {
+                    deActive();
+                }
                 handler.connectionError(e, conn);
             }
 
@@ -134,35 +285,132 @@ public class MySQLConnectionPool {
             return;
         }
 
-        // release connection
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            final MySQLConnection[] items = this.items;
-            for (int i = 0; i < items.length; i++) {
-                if (items[i] == null) {
-                    ++idleCount;
-                    --activeCount;
-                    c.setLastTime(TimeUtil.currentTimeMillis());
-                    items[i] = c;
-                    return;
+        // 有等待者时直接交给等待者，活跃数不变
+        if (waitingCount > 0) {
+            Waiter waiter = null;
+            List<Waiter> expired = null;
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                expired = removeExpired();
+                waiter = waiters.poll();
+                waitingCount = waiters.size();
+                if (waiter != null) {
+                    waitMillis += TimeUtil.currentTimeMillis() - waiter.startTime;
                 }
+            } finally {
+                lock.unlock();
+                fail(expired);
+            }
+            if (waiter != null) {
+                dispatch(waiter, c);
+                return;
             }
-        } finally {
-            lock.unlock();
         }
 
-        // close excess connection
-        c.quit();
+        // release connection
+        activeCount.decrementAndGet();
+        long now = TimeUtil.currentTimeMillis();
+        c.setLastTime(now);
+        idles[stripe(c.getProcessor())].push(c, now);
+
+        // 归还时恰好有请求开始等待
+        signalWaiters();
     }
 
     public void deActive() {
-        final ReentrantLock lock = this.lock;
-        lock.lock();
-        try {
-            --activeCount;
-        } finally {
-            lock.unlock();
+        activeCount.decrementAndGet();
+        // 把名额交给等待者创建新连接
+        signalWaiters();
+    }
+
+    private void signalWaiters() {
+        if (waitingCount > 0) {
+            List<Object[]> grants = null;
+            List<Waiter> expired = null;
+            final ReentrantLock lock = this.lock;
+            lock.lock();
+            try {
+                expired = removeExpired();
+                grants = grantWaiters();
+            } finally {
+                lock.unlock();
+                fail(expired);
+            }
+            dispatch(grants);
+        }
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (IdleStack<MySQLConnection> idle : idles) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return count of idle connections borrowed from other processors
+     */
+    public long getStealCount() {
+        return stealCount.get();
+    }
+
+    /**
+     * @return count of requests waiting for connection
+     */
+    public int getWaitingCount() {
+        return waitingCount;
+    }
+
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * @return total time in milliseconds spent on waiting for connection
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public long getRejectCount() {
+        return rejectCount;
+    }
+
+    /**
+     * MUST be called with lock held
+     */
+    private List<Waiter> removeExpired() {
+        List<Waiter> expired = null;
+        long now = TimeUtil.currentTimeMillis();
+        for (Waiter w = waiters.peek(); w != null && w.deadline <= now; w = waiters.peek()) {
+            waiters.poll();
+            ++timeoutCount;
+            waitMillis += now - w.startTime;
+            if (expired == null) {
+                expired = new ArrayList<Waiter>();
+            }
+            expired.add(w);
+        }
+        waitingCount = waiters.size();
+        return expired;
+    }
+
+    private void fail(List<Waiter> expired) {
+        if (expired != null) {
+            for (Waiter w : expired) {
+                w.handler.connectionError(new PoolExhaustedException("wait for connection of " + name + " timeout"),
+                                          null);
+            }
         }
     }
 
@@ -174,4 +422,21 @@ public class MySQLConnectionPool {
         return config;
     }
 
+    private static final class Waiter {
+        private final NIOProcessor processor;
+        private final ResponseHandler handler;
+        private final Object attachment;
+        private final long startTime;
+        private final long deadline;
+
+        private Waiter(NIOProcessor processor, ResponseHandler handler, Object attachment, long startTime,
+                       long deadline) {
+            this.processor = processor;
+            this.handler = handler;
+            this.attachment = attachment;
+            this.startTime = startTime;
+            this.deadline = deadline;
+        }
+    }
+
 }
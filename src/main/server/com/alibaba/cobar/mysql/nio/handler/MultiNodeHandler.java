@@ -129,6 +129,25 @@ public abstract class MultiNodeHandler implements ResponseHandler, Terminatable
         }
     }
 
+    /**
+     * 记录错误但不结束节点，错误在最后一个节点结束时返回给前端
+     */
+    protected void setFail(String errMsg) {
+        ErrorPacket err = new ErrorPacket();
+        err.packetId = 1;// ERROR_PACKET
+        err.errno = ErrorCode.ER_YES;
+        err.message = StringUtil.encode(errMsg, session.getSource().getCharset());
+        lock.lock();
+        try {
+            if (error == null) {
+                error = err;
+            }
+        } finally {
+            lock.unlock();
+        }
+        isFail.set(true);
+    }
+
     protected void notifyError() {
         recycleResources();
         byte errPacketId = ++packetId;
@@ -21,18 +21,31 @@ package com.alibaba.cobar.mysql.nio.handler;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.CobarConfig;
 import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.merge.AggregateMerger;
+import com.alibaba.cobar.merge.GroupByMerger;
+import com.alibaba.cobar.merge.OrderByMerger;
+import com.alibaba.cobar.merge.RowLimit;
 import com.alibaba.cobar.mysql.MySQLDataNode;
 import com.alibaba.cobar.mysql.nio.MySQLConnection;
+import com.alibaba.cobar.net.mysql.EOFPacket;
 import com.alibaba.cobar.net.mysql.ErrorPacket;
+import com.alibaba.cobar.net.mysql.FieldPacket;
 import com.alibaba.cobar.net.mysql.OkPacket;
+import com.alibaba.cobar.net.mysql.ResultSetHeaderPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.route.RouteResultset;
 import com.alibaba.cobar.route.RouteResultsetNode;
 import com.alibaba.cobar.server.ServerConnection;
 import com.alibaba.cobar.server.session.NonBlockingSession;
@@ -43,18 +56,25 @@ import com.alibaba.cobar.server.session.NonBlockingSession;
 public class MultiNodeQueryHandler extends MultiNodeHandler {
     private static final Logger LOGGER = Logger.getLogger(MultiNodeQueryHandler.class);
 
+    private final RouteResultset rrs;
     private final RouteResultsetNode[] route;
+    private final Map<RouteResultsetNode, Integer> nodeIndex;
     private final NonBlockingSession session;
     private final boolean autocommit;
     private final CommitNodeHandler icHandler;
 
-    public MultiNodeQueryHandler(RouteResultsetNode[] route, boolean autocommit, NonBlockingSession session) {
+    public MultiNodeQueryHandler(RouteResultset rrs, boolean autocommit, NonBlockingSession session) {
         super(session);
-        if (route == null) {
+        if (rrs == null || rrs.getNodes() == null) {
             throw new IllegalArgumentException("routeNode is null!");
         }
         this.session = session;
-        this.route = route;
+        this.rrs = rrs;
+        this.route = rrs.getNodes();
+        this.nodeIndex = new HashMap<RouteResultsetNode, Integer>(route.length, 1);
+        for (int i = 0; i < route.length; ++i) {
+            nodeIndex.put(route[i], i);
+        }
         this.autocommit = autocommit;
         this.lock = new ReentrantLock();
         this.icHandler = new CommitNodeHandler(session);
@@ -65,6 +85,17 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
     private long insertId;
     private ByteBuffer buffer;
     private boolean fieldsReturned;
+    private OrderByMerger merger;
+    private AggregateMerger aggregateMerger;
+    private GroupByMerger groupByMerger;
+    private final List<byte[]> mergedRows = new ArrayList<byte[]>();
+    private RowLimit rowLimit;
+    /** node whose result is complete */
+    private boolean[] finished;
+    /** node killed after global limit reached, its responses are ignored */
+    private boolean[] cancelled;
+    /** connections whose reading is paused as merge cursor is full */
+    private MySQLConnection[] paused;
 
     public void execute() throws Exception {
         final ReentrantLock lock = this.lock;
@@ -72,6 +103,13 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
         try {
             this.reset(route.length);
             this.fieldsReturned = false;
+            this.merger = null;
+            this.aggregateMerger = null;
+            this.groupByMerger = null;
+            this.rowLimit = new RowLimit(rrs.getLimitOffset(), rrs.getLimitSize());
+            this.finished = new boolean[route.length];
+            this.cancelled = new boolean[route.length];
+            this.paused = new MySQLConnection[route.length];
             this.affectedRows = 0L;
             this.insertId = 0L;
             this.buffer = session.getSource().allocate();
@@ -101,7 +139,7 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             } else {
                 CobarConfig conf = CobarServer.getInstance().getConfig();
                 MySQLDataNode dn = conf.getDataNodes().get(node.getName());
-                dn.getConnection(this, node);
+                dn.getConnection(session.getSource().getProcessor(), this, node);
             }
         }
     }
@@ -130,6 +168,9 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             if (buf != null) {
                 buffer = null;
             }
+            if (groupByMerger != null) {
+                groupByMerger.close();
+            }
         } finally {
             lock.unlock();
         }
@@ -151,6 +192,10 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             return;
         }
         final RouteResultsetNode node = (RouteResultsetNode) attachment;
+        if (isCancelled(conn)) {
+            conn.release();
+            return;
+        }
         conn.setRunning(true);
         session.bindConnection(node, conn);
         session.getSource().getProcessor().getExecutor().execute(new Runnable() {
@@ -163,11 +208,17 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
 
     @Override
     public void connectionError(Throwable e, MySQLConnection conn) {
+        if (isCancelled(conn)) {
+            return;
+        }
         backendConnError(conn, "connection err!");
     }
 
     @Override
     public void errorResponse(byte[] data, MySQLConnection conn) {
+        if (isCancelled(conn)) {
+            return;
+        }
         ErrorPacket err = new ErrorPacket();
         err.read(data);
         backendConnError(conn, err);
@@ -175,6 +226,9 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
 
     @Override
     public void okResponse(byte[] data, MySQLConnection conn) {
+        if (isCancelled(conn)) {
+            return;
+        }
         boolean executeResponse = false;
         try {
             executeResponse = conn.syncAndExcute();
@@ -200,7 +254,11 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             ok.read(data);
             lock.lock();
             try {
-                affectedRows += ok.affectedRows;
+                if (rrs.isGlobalTable()) {
+                    affectedRows = Math.max(affectedRows, ok.affectedRows);
+                } else {
+                    affectedRows += ok.affectedRows;
+                }
                 if (ok.insertId > 0) {
                     insertId = (insertId == 0) ? ok.insertId : Math.min(insertId, ok.insertId);
                 }
@@ -240,6 +298,9 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
 
     @Override
     public void rowEofResponse(byte[] eof, MySQLConnection conn) {
+        if (isCancelled(conn)) {
+            return;
+        }
         conn.setRunning(false);
         ServerConnection source = session.getSource();
         RouteResultsetNode node = null;
@@ -255,6 +316,19 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
                                            .append(", for front-end conn: ")
                                            .append(source));
         }
+        if (node != null) {
+            lock.lock();
+            try {
+                int index = nodeIndex.get(node);
+                finished[index] = true;
+                if (merger != null) {
+                    merger.nodeFinished(index, mergedRows);
+                    writeMergedRows();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
         if (source.isAutocommit()) {
             if (node != null) {
                 conn = session.removeTarget(node);
@@ -268,21 +342,74 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             }
         }
         if (decrementCountBy(1)) {
-            if (isFail.get()) {
-                notifyError();
-                recycleResources();
-                return;
+            writeLastEof(eof);
+        }
+    }
+
+    /**
+     * @param eof null if the last node is cancelled
+     */
+    private void writeLastEof(byte[] eof) {
+        if (groupByMerger != null && !isFail.get()) {
+            lock.lock();
+            try {
+                writeGroupByRows();
+            } catch (IOException e) {
+                LOGGER.warn("group by merge failed: " + session.getSource(), e);
+                setFail("group by merge failed: " + e.getMessage());
+            } finally {
+                lock.unlock();
             }
+        }
+        if (isFail.get()) {
+            notifyError();
+            recycleResources();
+            return;
+        }
+        ServerConnection source = session.getSource();
+        try {
+            if (source.isAutocommit()) {
+                session.releaseConnections();
+            }
+            lock.lock();
             try {
-                if (source.isAutocommit()) {
-                    session.releaseConnections();
+                if (aggregateMerger != null && rowLimit.accept()) {
+                    RowDataPacket row = aggregateMerger.getResult();
+                    row.packetId = ++packetId;
+                    buffer = row.write(buffer, source);
                 }
-                eof[3] = ++packetId;
+                if (eof != null) {
+                    eof[3] = ++packetId;
+                    buffer = source.writeToBuffer(eof, buffer);
+                } else {
+                    EOFPacket packet = new EOFPacket();
+                    packet.packetId = ++packetId;
+                    buffer = packet.write(buffer, source);
+                }
+            } finally {
+                lock.unlock();
+            }
+            source.write(buffer);
+        } catch (Exception e) {
+            LOGGER.warn("exception happens in success notification: " + session.getSource(), e);
+        }
+    }
 
-                source.write(source.writeToBuffer(eof, buffer));
-            } catch (Exception e) {
-                LOGGER.warn("exception happens in success notification: " + session.getSource(), e);
+    /**
+     * MUST be called while holding {@link #lock}
+     */
+    private void writeGroupByRows() throws IOException {
+        try {
+            ServerConnection source = session.getSource();
+            RowDataPacket row;
+            while (!rowLimit.isReached() && (row = groupByMerger.nextRow()) != null) {
+                if (rowLimit.accept()) {
+                    row.packetId = ++packetId;
+                    buffer = row.write(buffer, source);
+                }
             }
+        } finally {
+            groupByMerger.close();
         }
     }
 
@@ -294,8 +421,13 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
                 return;
             }
             fieldsReturned = true;
-            header[3] = ++packetId;
             ServerConnection source = session.getSource();
+            if (rrs.getGroupByMerge() != null) {
+                groupByMerger = GroupByMerger.create(rrs.getGroupByMerge(), readFields(fields), 4);
+                writeGroupByFields(eof);
+                return;
+            }
+            header[3] = ++packetId;
             buffer = source.writeToBuffer(header, buffer);
             for (int i = 0, len = fields.size(); i < len; ++i) {
                 byte[] field = fields.get(i);
@@ -304,20 +436,201 @@ public class MultiNodeQueryHandler extends MultiNodeHandler {
             }
             eof[3] = ++packetId;
             buffer = source.writeToBuffer(eof, buffer);
+            if (AggregateMerger.isAggregate(rrs.getFlag())) {
+                aggregateMerger = AggregateMerger.create(rrs.getFlag(), readFields(fields));
+            } else if (rrs.getOrderBy() != null) {
+                merger = OrderByMerger.create(rrs.getOrderBy(), readFields(fields), route.length, 4);
+                if (merger == null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("order by column not in result set, skip merge: " + rrs);
+                    }
+                    // 无法归并时截取的行没有意义
+                    rowLimit = new RowLimit(-1, -1);
+                }
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * 分组合并后的列数与各节点返回的不同，重新生成列信息。MUST be called while holding
+     * {@link #lock}
+     */
+    private void writeGroupByFields(byte[] eof) {
+        ServerConnection source = session.getSource();
+        FieldPacket[] fields = groupByMerger.getFields();
+        ResultSetHeaderPacket header = new ResultSetHeaderPacket();
+        header.fieldCount = fields.length;
+        header.packetId = ++packetId;
+        buffer = header.write(buffer, source);
+        for (FieldPacket field : fields) {
+            field.packetId = ++packetId;
+            buffer = field.write(buffer, source);
+        }
+        eof[3] = ++packetId;
+        buffer = source.writeToBuffer(eof, buffer);
+    }
+
     @Override
     public void rowResponse(byte[] row, MySQLConnection conn) {
+        boolean limitReached = false;
         lock.lock();
         try {
+            if (rowLimit.isReached()) {
+                return;
+            }
+            if (groupByMerger != null) {
+                if (!isFail.get()) {
+                    try {
+                        groupByMerger.addRow(row);
+                    } catch (IOException e) {
+                        LOGGER.warn("group by merge failed: " + session.getSource(), e);
+                        setFail("group by merge failed: " + e.getMessage());
+                    }
+                }
+            } else if (aggregateMerger != null) {
+                aggregateMerger.addRow(row, 4);
+            } else if (merger != null) {
+                int index = nodeIndex.get(conn.getAttachment());
+                merger.addRow(index, row, mergedRows);
+                writeMergedRows();
+                if (merger.isFull(index) && paused[index] == null && !isFail.get() && !rowLimit.isReached()) {
+                    // 其他节点返回数据前不再读取该节点，避免行在游标中无限堆积
+                    paused[index] = conn;
+                    conn.disableRead();
+                }
+            } else {
+                writeRow(row);
+            }
+            limitReached = rowLimit.isReached();
+        } finally {
+            lock.unlock();
+        }
+        if (limitReached) {
+            cancelUnfinished();
+        }
+    }
+
+    /**
+     * MUST be called while holding {@link #lock}
+     */
+    private void writeRow(byte[] row) {
+        if (rowLimit.accept()) {
             row[3] = ++packetId;
             buffer = session.getSource().writeToBuffer(row, buffer);
+        }
+    }
+
+    /**
+     * MUST be called while holding {@link #lock}
+     */
+    private void writeMergedRows() {
+        for (int i = 0, len = mergedRows.size(); i < len; ++i) {
+            writeRow(mergedRows.get(i));
+        }
+        mergedRows.clear();
+        resumePaused();
+    }
+
+    /**
+     * 游标中的行被归并输出后，恢复读取被暂停的连接。MUST be called while holding {@link #lock}
+     */
+    private void resumePaused() {
+        for (int i = 0; i < paused.length; ++i) {
+            MySQLConnection conn = paused[i];
+            if (conn != null && (isFail.get() || rowLimit.isReached() || !merger.isFull(i))) {
+                paused[i] = null;
+                conn.enableRead();
+            }
+        }
+    }
+
+    @Override
+    protected void backendConnError(MySQLConnection conn, ErrorPacket err) {
+        super.backendConnError(conn, err);
+        // 被暂停的连接需要读完剩余的行才能结束
+        lock.lock();
+        try {
+            if (merger != null) {
+                resumePaused();
+            }
         } finally {
             lock.unlock();
         }
     }
 
+    private boolean isCancelled(MySQLConnection conn) {
+        Integer index = nodeIndex.get(conn.getAttachment());
+        if (index == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return cancelled[index];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 全局LIMIT已满足，KILL仍在返回数据的后端连接，不再等待其结果。事务中的连接不能被KILL，
+     * 其剩余的行只读取并丢弃。
+     */
+    private void cancelUnfinished() {
+        if (!session.getSource().isAutocommit()) {
+            return;
+        }
+        List<RouteResultsetNode> killees = new ArrayList<RouteResultsetNode>(route.length);
+        lock.lock();
+        try {
+            for (int i = 0; i < route.length; ++i) {
+                if (!finished[i] && !cancelled[i]) {
+                    cancelled[i] = true;
+                    killees.add(route[i]);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (killees.isEmpty()) {
+            return;
+        }
+        Runnable finishHook = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        AtomicInteger counter = new AtomicInteger(killees.size());
+        CobarConfig conf = CobarServer.getInstance().getConfig();
+        for (RouteResultsetNode node : killees) {
+            MySQLConnection conn = session.removeTarget(node);
+            if (conn != null) {
+                KillConnectionHandler kill = new KillConnectionHandler(conn, session, finishHook, counter);
+                try {
+                    conf.getDataNodes().get(node.getName()).getConnection(kill, node);
+                } catch (Exception e) {
+                    LOGGER.warn("get killer connection failed for " + node, e);
+                    kill.connectionError(e, null);
+                }
+            } else {
+                counter.decrementAndGet();
+            }
+        }
+        for (int i = killees.size(); i > 0; --i) {
+            if (decrementCountBy(1)) {
+                writeLastEof(null);
+            }
+        }
+    }
+
+    private static FieldPacket[] readFields(List<byte[]> fields) {
+        FieldPacket[] packets = new FieldPacket[fields.size()];
+        for (int i = 0; i < packets.length; ++i) {
+            packets[i] = new FieldPacket();
+            packets[i].read(fields.get(i));
+        }
+        return packets;
+    }
+
 }
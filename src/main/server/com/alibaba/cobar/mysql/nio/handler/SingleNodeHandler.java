@@ -106,7 +106,7 @@ public class SingleNodeHandler implements ResponseHandler, Terminatable {
         if (conn == null) {
             CobarConfig conf = CobarServer.getInstance().getConfig();
             MySQLDataNode dn = conf.getDataNodes().get(route.getName());
-            dn.getConnection(this, null);
+            dn.getConnection(session.getSource().getProcessor(), this, null);
         } else {
             conn.setRunning(true);
             session.getSource().getProcessor().getExecutor().execute(new Runnable() {
@@ -0,0 +1,91 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.sequence;
+
+import java.io.IOException;
+
+import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.mysql.MySQLDataNode;
+import com.alibaba.cobar.mysql.bio.Channel;
+import com.alibaba.cobar.mysql.bio.MySQLChannel;
+import com.alibaba.cobar.net.mysql.BinaryPacket;
+import com.alibaba.cobar.net.mysql.ErrorPacket;
+import com.alibaba.cobar.net.mysql.OkPacket;
+
+/**
+ * 序列的当前值保存在数据节点的表中：
+ * 
+ * <pre>
+ * CREATE TABLE cobar_sequence (
+ *   name VARCHAR(64) NOT NULL PRIMARY KEY,
+ *   current_value BIGINT NOT NULL
+ * );
+ * </pre>
+ * 
+ * 用<code>LAST_INSERT_ID(expr)</code>在一条UPDATE中完成取值和递增，新值由OK包的insertId返回。
+ */
+public final class MySQLSequenceStore implements SequenceStore {
+    private static final String TABLE = "cobar_sequence";
+
+    private final String dataNode;
+
+    public MySQLSequenceStore(String dataNode) {
+        this.dataNode = dataNode;
+    }
+
+    @Override
+    public long allocate(String name, int size) throws IOException {
+        MySQLDataNode node = CobarServer.getInstance().getConfig().getDataNodes().get(dataNode);
+        if (node == null) {
+            throw new IOException("sequence dataNode " + dataNode + " not found");
+        }
+        Channel channel;
+        try {
+            channel = node.getChannel();
+        } catch (Exception e) {
+            throw new IOException("no available channel of sequence dataNode " + dataNode, e);
+        }
+        MySQLChannel c = (MySQLChannel) channel;
+        StringBuilder s = new StringBuilder();
+        s.append("UPDATE ").append(TABLE).append(" SET current_value = LAST_INSERT_ID(current_value + ");
+        s.append(size).append(") WHERE name = '").append(name.replace("'", "''")).append('\'');
+        BinaryPacket bin;
+        try {
+            bin = c.execute(s.toString());
+        } catch (IOException e) {
+            c.close();
+            throw e;
+        }
+        try {
+            switch (bin.data[0]) {
+            case OkPacket.FIELD_COUNT:
+                OkPacket ok = new OkPacket();
+                ok.read(bin);
+                if (ok.affectedRows != 1) {
+                    throw new IOException("sequence " + name + " not found in " + TABLE);
+                }
+                return ok.insertId;
+            case ErrorPacket.FIELD_COUNT:
+                throw new IOException(c.getErrMessage(bin));
+            default:
+                throw new IOException("unexpected response of " + s);
+            }
+        } finally {
+            c.release();
+        }
+    }
+
+}
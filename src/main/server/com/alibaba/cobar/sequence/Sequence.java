@@ -0,0 +1,100 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.sequence;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局序列：从存储中按段取值缓存在本地，段内取值只需一次原子递增，段用完时才加锁取下一段。
+ */
+public final class Sequence {
+    private final String name;
+    private final SequenceStore store;
+    private final int blockSize;
+    private volatile Segment segment;
+    private volatile long fetchCount;
+
+    public Sequence(String name, SequenceStore store, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("invalid block size: " + blockSize);
+        }
+        this.name = name;
+        this.store = store;
+        this.blockSize = blockSize;
+        this.segment = new Segment(1L, 0L);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * @return next value to be allocated in local segment
+     */
+    public long getCurrentValue() {
+        Segment seg = segment;
+        return Math.min(seg.next.get(), seg.max + 1);
+    }
+
+    /**
+     * @return max value of local segment
+     */
+    public long getMaxValue() {
+        return segment.max;
+    }
+
+    public long next() throws IOException {
+        Segment seg = segment;
+        long value = seg.next.getAndIncrement();
+        if (value <= seg.max) {
+            return value;
+        }
+        return nextSlow();
+    }
+
+    private synchronized long nextSlow() throws IOException {
+        for (;;) {
+            Segment seg = segment;
+            long value = seg.next.getAndIncrement();
+            if (value <= seg.max) {
+                return value;
+            }
+            long max = store.allocate(name, blockSize);
+            segment = new Segment(max - blockSize + 1, max);
+            ++fetchCount;
+        }
+    }
+
+    private static final class Segment {
+        private final AtomicLong next;
+        private final long max;
+
+        private Segment(long first, long max) {
+            this.next = new AtomicLong(first);
+            this.max = max;
+        }
+    }
+
+}
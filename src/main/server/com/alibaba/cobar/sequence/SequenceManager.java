@@ -0,0 +1,148 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.sequence;
+
+import java.io.IOException;
+import java.sql.SQLNonTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.cobar.config.model.SchemaConfig;
+import com.alibaba.cobar.config.model.TableConfig;
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.Identifier;
+import com.alibaba.cobar.parser.ast.expression.primary.RowExpression;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.LiteralNumber;
+import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLInsertReplaceStatement;
+import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
+import com.alibaba.cobar.parser.recognizer.mysql.syntax.MySQLParser;
+import com.alibaba.cobar.route.RouteResultset;
+import com.alibaba.cobar.route.ServerRouter;
+import com.alibaba.cobar.route.hint.CobarHint;
+
+/**
+ * 全局序列的管理：表的序列以小写表名命名，插入语句没有给出序列列时由cobar生成并补全到语句中。
+ */
+public final class SequenceManager {
+    private static final int DEFAULT_BLOCK_SIZE = 1000;
+    private static final SequenceManager INSTANCE = new SequenceManager();
+
+    public static SequenceManager getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Sequence> sequences;
+    private volatile SequenceStore store;
+    private volatile int blockSize;
+
+    private SequenceManager() {
+        this.sequences = new ConcurrentHashMap<String, Sequence>();
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * @param store null if global sequence is not used
+     */
+    public void init(SequenceStore store, int blockSize) {
+        this.store = store;
+        this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+        sequences.clear();
+    }
+
+    public List<Sequence> getSequences() {
+        return new ArrayList<Sequence>(sequences.values());
+    }
+
+    public Sequence getSequence(String name) throws IOException {
+        Sequence seq = sequences.get(name);
+        if (seq != null) {
+            return seq;
+        }
+        SequenceStore store = this.store;
+        if (store == null) {
+            throw new IOException("sequenceDataNode is not configured for sequence " + name);
+        }
+        seq = new Sequence(name, store, blockSize);
+        Sequence old = sequences.putIfAbsent(name, seq);
+        return old == null ? seq : old;
+    }
+
+    /**
+     * 路由插入语句，需要时先用序列补全序列列
+     * 
+     * @param info front-end connection
+     */
+    public RouteResultset route(SchemaConfig schema, String stmt, String charset, Object info)
+            throws SQLNonTransientException, IOException {
+        if (stmt.indexOf(CobarHint.COBAR_HINT_PREFIX) >= 0) {
+            return ServerRouter.route(schema, stmt, charset, info);
+        }
+        SQLStatement ast = SQLParserDelegate.parse(stmt, charset == null ? MySQLParser.DEFAULT_CHARSET : charset);
+        long insertId = 0L;
+        if (ast instanceof DMLInsertReplaceStatement) {
+            insertId = fill(schema, (DMLInsertReplaceStatement) ast);
+        }
+        if (insertId <= 0L) {
+            return ServerRouter.route(schema, ast, stmt, null);
+        }
+        // 非null的参数表使语句按补全后的AST重新生成
+        RouteResultset rrs = ServerRouter.route(schema, ast, stmt, Collections.<Integer, Object> emptyMap());
+        rrs.setInsertId(insertId);
+        return rrs;
+    }
+
+    /**
+     * @return first generated value, 0 if sequence column needs not be filled
+     */
+    private long fill(SchemaConfig schema, DMLInsertReplaceStatement insert) throws IOException {
+        TableConfig table = schema.getTables().get(insert.getTable().getIdTextUpUnescape());
+        if (table == null || table.getSequenceColumn() == null) {
+            return 0L;
+        }
+        List<Identifier> columns = insert.getColumnNameList();
+        List<RowExpression> rows = insert.getRowList();
+        if (columns == null || columns.isEmpty() || rows == null || rows.isEmpty()) {
+            return 0L;
+        }
+        String column = table.getSequenceColumn();
+        for (Identifier col : columns) {
+            if (column.equals(col.getIdTextUpUnescape())) {
+                return 0L;
+            }
+        }
+        Sequence seq = getSequence(table.getName().toLowerCase());
+        long first = 0L;
+        for (RowExpression row : rows) {
+            List<Expression> exprs = row.getRowExprList();
+            if (exprs.size() != columns.size()) {
+                return 0L;
+            }
+        }
+        columns.add(new Identifier(null, column));
+        for (RowExpression row : rows) {
+            long value = seq.next();
+            if (first == 0L) {
+                first = value;
+            }
+            row.getRowExprList().add(new LiteralNumber(value));
+        }
+        return first;
+    }
+
+}
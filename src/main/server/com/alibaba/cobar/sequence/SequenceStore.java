@@ -0,0 +1,32 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.sequence;
+
+import java.io.IOException;
+
+/**
+ * 序列当前值的持久化存储，每次分配一段连续的值
+ */
+public interface SequenceStore {
+
+    /**
+     * @param size count of values to allocate
+     * @return max value of allocated segment, the segment is
+     *         <code>(max - size, max]</code>
+     */
+    long allocate(String name, int size) throws IOException;
+
+}
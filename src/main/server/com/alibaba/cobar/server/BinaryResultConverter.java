@@ -0,0 +1,343 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.merge.RowDataUtil;
+import com.alibaba.cobar.mysql.ByteUtil;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+
+/**
+ * 预处理语句的结果集要以二进制协议返回，而数据节点返回的是文本协议。在写往前端的数据流上逐个包转换：
+ * OK、ERROR、字段和EOF包原样输出，行数据包转为二进制行数据包。
+ */
+public final class BinaryResultConverter {
+    private static final int HEADER = 0;
+    private static final int FIELDS = 1;
+    private static final int ROWS = 2;
+    private static final int FINISHED = 3;
+
+    private final ServerConnection source;
+    private byte[] pending;
+    private int pendingSize;
+    private int state;
+    private int[] types;
+    private int fieldIndex;
+
+    public BinaryResultConverter(ServerConnection source) {
+        this.source = source;
+        this.pending = new byte[0];
+        this.state = HEADER;
+    }
+
+    /**
+     * @param buffer data written to front end, recycled after converted
+     * @return true if the whole response is converted
+     */
+    public boolean convert(ByteBuffer buffer) {
+        buffer.flip();
+        append(buffer);
+        source.recycle(buffer);
+
+        ByteBuffer out = source.allocate();
+        int offset = 0;
+        while (state != FINISHED && pendingSize - offset >= 4) {
+            int end = offset + 4 + ByteUtil.readUB3(pending, offset);
+            if (end > pendingSize) {
+                break;
+            }
+            if (state == ROWS && isRow(pending, offset, end)) {
+                byte[] row = toBinaryRow(pending, offset, end, types);
+                out = write(row, 0, row.length, out);
+            } else {
+                nextState(offset, end);
+                out = write(pending, offset, end - offset, out);
+            }
+            offset = end;
+        }
+        if (state == FINISHED) {
+            out = write(pending, offset, pendingSize - offset, out);
+            offset = pendingSize;
+        }
+        System.arraycopy(pending, offset, pending, 0, pendingSize - offset);
+        pendingSize -= offset;
+
+        if (out.position() > 0) {
+            source.writeDirect(out);
+        } else {
+            source.recycle(out);
+        }
+        return state == FINISHED;
+    }
+
+    private void append(ByteBuffer buffer) {
+        int size = buffer.remaining();
+        if (pendingSize + size > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length << 1, pendingSize + size));
+        }
+        buffer.get(pending, pendingSize, size);
+        pendingSize += size;
+    }
+
+    private void nextState(int offset, int end) {
+        int fieldCount = pending[offset + 4] & 0xff;
+        if (fieldCount == 0xff) {
+            // ERROR
+            state = FINISHED;
+            return;
+        }
+        switch (state) {
+        case HEADER:
+            if (fieldCount == 0x00) {
+                // OK
+                state = FINISHED;
+            } else {
+                types = new int[(int) ByteUtil.readLength(pending, offset + 4)];
+                fieldIndex = 0;
+                state = FIELDS;
+            }
+            break;
+        case FIELDS:
+            if (fieldIndex < types.length) {
+                FieldPacket field = new FieldPacket();
+                field.read(Arrays.copyOfRange(pending, offset, end));
+                types[fieldIndex++] = field.type;
+            } else {
+                // FIELD_EOF
+                state = ROWS;
+            }
+            break;
+        default:
+            // LAST_EOF
+            state = FINISHED;
+        }
+    }
+
+    private ByteBuffer write(byte[] src, int offset, int length, ByteBuffer out) {
+        while (length > 0) {
+            int size = Math.min(length, out.remaining());
+            out.put(src, offset, size);
+            offset += size;
+            length -= size;
+            if (length > 0) {
+                source.writeDirect(out);
+                out = source.allocate();
+            }
+        }
+        return out;
+    }
+
+    private static boolean isRow(byte[] b, int offset, int end) {
+        int first = b[offset + 4] & 0xff;
+        return first != 0xff && !(first == 0xfe && end - offset < 9 + 4);
+    }
+
+    /**
+     * @param b contains a text row data packet in [offset, end), with packet
+     *            header
+     * @param types field types of result set
+     * @return binary row data packet with the same packet id
+     */
+    static byte[] toBinaryRow(byte[] b, int offset, int end, int[] types) {
+        int nullBitmapSize = (types.length + 7 + 2) / 8;
+        byte[] dst = new byte[end - offset + 1 + nullBitmapSize + 13 * types.length];
+        int pos = 4;
+        dst[pos++] = 0;
+        int nullBitmap = pos;
+        pos += nullBitmapSize;
+        int src = offset + 4;
+        for (int i = 0; i < types.length; ++i) {
+            int len = RowDataUtil.valueLength(b, src);
+            if (len < 0) {
+                dst[nullBitmap + (i + 2) / 8] |= 1 << ((i + 2) & 7);
+                ++src;
+                continue;
+            }
+            int start = RowDataUtil.valueStart(b, src);
+            switch (types[i]) {
+            case Fields.FIELD_TYPE_TINY:
+                dst[pos++] = (byte) parseLong(b, start, len);
+                break;
+            case Fields.FIELD_TYPE_SHORT:
+            case Fields.FIELD_TYPE_YEAR:
+                pos = writeLong(dst, pos, parseLong(b, start, len), 2);
+                break;
+            case Fields.FIELD_TYPE_INT24:
+            case Fields.FIELD_TYPE_LONG:
+                pos = writeLong(dst, pos, parseLong(b, start, len), 4);
+                break;
+            case Fields.FIELD_TYPE_LONGLONG:
+                pos = writeLong(dst, pos, parseLong(b, start, len), 8);
+                break;
+            case Fields.FIELD_TYPE_FLOAT:
+                pos = writeLong(dst, pos, Float.floatToIntBits(Float.parseFloat(new String(b, start, len))), 4);
+                break;
+            case Fields.FIELD_TYPE_DOUBLE:
+                pos = writeLong(dst, pos, Double.doubleToLongBits(Double.parseDouble(new String(b, start, len))), 8);
+                break;
+            case Fields.FIELD_TYPE_DATE:
+            case Fields.FIELD_TYPE_NEWDATE:
+            case Fields.FIELD_TYPE_DATETIME:
+            case Fields.FIELD_TYPE_TIMESTAMP:
+                pos = writeDate(dst, pos, b, start, len, types[i] == Fields.FIELD_TYPE_DATETIME
+                        || types[i] == Fields.FIELD_TYPE_TIMESTAMP);
+                break;
+            case Fields.FIELD_TYPE_TIME:
+                pos = writeTime(dst, pos, b, start, len);
+                break;
+            default:
+                // 其余类型与文本协议相同，都是length coded string
+                System.arraycopy(b, src, dst, pos, start + len - src);
+                pos += start + len - src;
+            }
+            src = start + len;
+        }
+        int length = pos - 4;
+        dst[0] = (byte) length;
+        dst[1] = (byte) (length >>> 8);
+        dst[2] = (byte) (length >>> 16);
+        dst[3] = b[offset + 3];
+        return Arrays.copyOf(dst, pos);
+    }
+
+    /**
+     * 无符号BIGINT超出long范围时按补码溢出，与二进制协议的8字节表示一致
+     */
+    private static long parseLong(byte[] b, int start, int len) {
+        int end = start + len;
+        boolean neg = len > 0 && b[start] == '-';
+        long value = 0;
+        for (int i = neg ? start + 1 : start; i < end; ++i) {
+            value = value * 10 + (b[i] - '0');
+        }
+        return neg ? -value : value;
+    }
+
+    private static int parseInt(byte[] b, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            value = value * 10 + (b[i] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return micro seconds of fraction part such as <code>.5</code>
+     */
+    private static int parseMicros(byte[] b, int start, int end) {
+        int value = 0;
+        for (int i = 0; i < 6; ++i) {
+            int p = start + 1 + i;
+            value = value * 10 + (p < end ? b[p] - '0' : 0);
+        }
+        return value;
+    }
+
+    private static int writeLong(byte[] dst, int pos, long value, int size) {
+        for (int i = 0; i < size; ++i) {
+            dst[pos++] = (byte) (value >>> (i << 3));
+        }
+        return pos;
+    }
+
+    /**
+     * <code>YYYY-MM-DD[ hh:mm:ss[.ffffff]]</code>
+     */
+    private static int writeDate(byte[] dst, int pos, byte[] b, int start, int len, boolean withTime) {
+        int end = start + len;
+        int year = parseInt(b, start, start + 4);
+        int month = parseInt(b, start + 5, start + 7);
+        int day = parseInt(b, start + 8, start + 10);
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int micros = 0;
+        if (withTime && len >= 19) {
+            hour = parseInt(b, start + 11, start + 13);
+            minute = parseInt(b, start + 14, start + 16);
+            second = parseInt(b, start + 17, start + 19);
+            if (len > 19) {
+                micros = parseMicros(b, start + 19, end);
+            }
+        }
+        int length;
+        if (micros != 0) {
+            length = 11;
+        } else if (hour != 0 || minute != 0 || second != 0) {
+            length = 7;
+        } else if (year != 0 || month != 0 || day != 0) {
+            length = 4;
+        } else {
+            length = 0;
+        }
+        dst[pos++] = (byte) length;
+        if (length >= 4) {
+            pos = writeLong(dst, pos, year, 2);
+            dst[pos++] = (byte) month;
+            dst[pos++] = (byte) day;
+        }
+        if (length >= 7) {
+            dst[pos++] = (byte) hour;
+            dst[pos++] = (byte) minute;
+            dst[pos++] = (byte) second;
+        }
+        if (length == 11) {
+            pos = writeLong(dst, pos, micros, 4);
+        }
+        return pos;
+    }
+
+    /**
+     * <code>[-]h+:mm:ss[.ffffff]</code>
+     */
+    private static int writeTime(byte[] dst, int pos, byte[] b, int start, int len) {
+        int end = start + len;
+        boolean neg = b[start] == '-';
+        int p = neg ? start + 1 : start;
+        int colon = p;
+        while (colon < end && b[colon] != ':') {
+            ++colon;
+        }
+        int hours = parseInt(b, p, colon);
+        int minute = parseInt(b, colon + 1, colon + 3);
+        int second = parseInt(b, colon + 4, colon + 6);
+        int micros = colon + 6 < end ? parseMicros(b, colon + 6, end) : 0;
+        int length;
+        if (micros != 0) {
+            length = 12;
+        } else if (hours != 0 || minute != 0 || second != 0) {
+            length = 8;
+        } else {
+            length = 0;
+        }
+        dst[pos++] = (byte) length;
+        if (length > 0) {
+            dst[pos++] = (byte) (neg ? 1 : 0);
+            pos = writeLong(dst, pos, hours / 24, 4);
+            dst[pos++] = (byte) (hours % 24);
+            dst[pos++] = (byte) minute;
+            dst[pos++] = (byte) second;
+        }
+        if (length == 12) {
+            pos = writeLong(dst, pos, micros, 4);
+        }
+        return pos;
+    }
+
+}
@@ -16,17 +16,24 @@
 package com.alibaba.cobar.server;
 
 import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.sql.SQLNonTransientException;
+import java.util.Collections;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.CobarServer;
 import com.alibaba.cobar.config.ErrorCode;
 import com.alibaba.cobar.config.model.SchemaConfig;
+import com.alibaba.cobar.mysql.PreparedStatement;
 import com.alibaba.cobar.net.FrontendConnection;
 import com.alibaba.cobar.route.RouteResultset;
 import com.alibaba.cobar.route.ServerRouter;
+import com.alibaba.cobar.sequence.SequenceManager;
+import com.alibaba.cobar.server.parser.ServerParse;
 import com.alibaba.cobar.server.response.Heartbeat;
 import com.alibaba.cobar.server.response.Ping;
 import com.alibaba.cobar.server.session.BlockingSession;
@@ -46,6 +53,8 @@ public class ServerConnection extends FrontendConnection {
     private long lastInsertId;
     private BlockingSession session;
     private NonBlockingSession session2;
+    private volatile BinaryResultConverter resultConverter;
+    private volatile Map<String, String> variables = Collections.emptyMap();
 
     public ServerConnection(SocketChannel channel) {
         super(channel);
@@ -95,6 +104,18 @@ public class ServerConnection extends FrontendConnection {
         }
     }
 
+    /**
+     * @return session variables replayed on borrowed back-end channels, name
+     *         -&gt; value, never modified
+     */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+
     public BlockingSession getSession() {
         return session;
     }
@@ -122,39 +143,104 @@ public class ServerConnection extends FrontendConnection {
     }
 
     public void execute(String sql, int type) {
-        // 状态检查
-        if (txInterrupted) {
-            writeErrMessage(ErrorCode.ER_YES, "Transaction error, need to rollback.");
+        SchemaConfig schema = getExecuteSchema();
+        if (schema == null) {
             return;
         }
 
-        // 检查当前使用的DB
-        String db = this.schema;
-        if (db == null) {
-            writeErrMessage(ErrorCode.ER_NO_DB_ERROR, "No database selected");
+        // 路由计算
+        RouteResultset rrs = null;
+        try {
+            if ((type == ServerParse.INSERT || type == ServerParse.REPLACE) && schema.isSequenceRequired()) {
+                rrs = SequenceManager.getInstance().route(schema, sql, this.charset, this);
+            } else {
+                rrs = ServerRouter.route(schema, sql, this.charset, this);
+            }
+            LOGGER.debug("路由计算结果:"+rrs.toString());
+        } catch (SQLNonTransientException e) {
+            StringBuilder s = new StringBuilder();
+            LOGGER.warn(s.append(this).append(sql).toString(), e);
+            String msg = e.getMessage();
+            writeErrMessage(ErrorCode.ER_PARSE_ERROR, msg == null ? e.getClass().getSimpleName() : msg);
+            return;
+        } catch (IOException e) {
+            StringBuilder s = new StringBuilder();
+            LOGGER.warn(s.append(this).append(sql).toString(), e);
+            writeErrMessage(ErrorCode.ER_YES, "global sequence error: " + e.getMessage());
             return;
         }
-        SchemaConfig schema = CobarServer.getInstance().getConfig().getSchemas().get(db);
+
+        // session执行
+        session.execute(rrs, type);
+    }
+
+    /**
+     * 执行预处理语句，复用prepare时解析的AST，结果集以二进制协议返回。
+     * 
+     * @param params parameter index (start from 1) -&gt; bound value
+     */
+    public void execute(PreparedStatement pstmt, Map<Integer, Object> params) {
+        SchemaConfig schema = getExecuteSchema();
         if (schema == null) {
-            writeErrMessage(ErrorCode.ER_BAD_DB_ERROR, "Unknown database '" + db + "'");
             return;
         }
 
         // 路由计算
         RouteResultset rrs = null;
         try {
-            rrs = ServerRouter.route(schema, sql, this.charset, this);
-            LOGGER.debug("路由计算结果:"+rrs.toString());
+            rrs = ServerRouter.route(schema, pstmt.getAst(), pstmt.getStatement(), params);
         } catch (SQLNonTransientException e) {
             StringBuilder s = new StringBuilder();
-            LOGGER.warn(s.append(this).append(sql).toString(), e);
+            LOGGER.warn(s.append(this).append(pstmt.getStatement()).toString(), e);
             String msg = e.getMessage();
             writeErrMessage(ErrorCode.ER_PARSE_ERROR, msg == null ? e.getClass().getSimpleName() : msg);
             return;
         }
 
-        // session执行
-        session.execute(rrs, type);
+        // session执行，返回前端的结果集转换为二进制协议
+        resultConverter = new BinaryResultConverter(this);
+        session.execute(rrs, pstmt.getType());
+    }
+
+    /**
+     * @return null if current schema is not available, error is written
+     */
+    private SchemaConfig getExecuteSchema() {
+        // 状态检查
+        if (txInterrupted) {
+            writeErrMessage(ErrorCode.ER_YES, "Transaction error, need to rollback.");
+            return null;
+        }
+
+        // 检查当前使用的DB
+        String db = this.schema;
+        if (db == null) {
+            writeErrMessage(ErrorCode.ER_NO_DB_ERROR, "No database selected");
+            return null;
+        }
+        SchemaConfig schema = CobarServer.getInstance().getConfig().getSchemas().get(db);
+        if (schema == null) {
+            writeErrMessage(ErrorCode.ER_BAD_DB_ERROR, "Unknown database '" + db + "'");
+            return null;
+        }
+        return schema;
+    }
+
+    @Override
+    public void write(ByteBuffer buffer) {
+        BinaryResultConverter converter = this.resultConverter;
+        if (converter == null) {
+            super.write(buffer);
+        } else if (converter.convert(buffer)) {
+            resultConverter = null;
+        }
+    }
+
+    /**
+     * 写出已转换的数据，不再经过{@link BinaryResultConverter}
+     */
+    void writeDirect(ByteBuffer buffer) {
+        super.write(buffer);
     }
 
     /**
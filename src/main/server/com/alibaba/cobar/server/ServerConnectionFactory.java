@@ -22,6 +22,7 @@ import com.alibaba.cobar.CobarServer;
 import com.alibaba.cobar.config.model.SystemConfig;
 import com.alibaba.cobar.net.FrontendConnection;
 import com.alibaba.cobar.net.factory.FrontendConnectionFactory;
+import com.alibaba.cobar.server.handler.ServerPrepareHandler;
 import com.alibaba.cobar.server.session.BlockingSession;
 import com.alibaba.cobar.server.session.NonBlockingSession;
 
@@ -37,7 +38,7 @@ public class ServerConnectionFactory extends FrontendConnectionFactory {
         ServerConnection c = new ServerConnection(channel);
         c.setPrivileges(new CobarPrivileges());
         c.setQueryHandler(new ServerQueryHandler(c));
-        // c.setPrepareHandler(new ServerPrepareHandler(c)); TODO prepare
+        c.setPrepareHandler(new ServerPrepareHandler(c));
         c.setTxIsolation(sys.getTxIsolation());
         c.setSession(new BlockingSession(c));
         c.setSession2(new NonBlockingSession(c));
@@ -16,21 +16,34 @@
 package com.alibaba.cobar.server.handler;
 
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.sql.SQLSyntaxErrorException;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
+
 import com.alibaba.cobar.config.ErrorCode;
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.mysql.BindValue;
 import com.alibaba.cobar.mysql.ByteUtil;
 import com.alibaba.cobar.mysql.PreparedStatement;
 import com.alibaba.cobar.net.handler.FrontendPrepareHandler;
 import com.alibaba.cobar.net.mysql.ExecutePacket;
+import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
+import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
+import com.alibaba.cobar.parser.recognizer.mysql.lexer.MySQLLexer;
 import com.alibaba.cobar.server.ServerConnection;
+import com.alibaba.cobar.server.parser.ServerParse;
 import com.alibaba.cobar.server.response.PreparedStmtResponse;
 
 /**
+ * 语句在prepare时解析一次，AST随预处理语句缓存，execute时绑定的参数直接参与路由计算。
+ * 
  * @author xianmao.hexm 2012-8-28
  */
 public class ServerPrepareHandler implements FrontendPrepareHandler {
+    private static final Logger LOGGER = Logger.getLogger(ServerPrepareHandler.class);
 
     private ServerConnection source;
     private volatile long pstmtId;
@@ -46,12 +59,39 @@ public class ServerPrepareHandler implements FrontendPrepareHandler {
 
     @Override
     public void prepare(String sql) {
-        PreparedStatement pstmt = null;
-        if ((pstmt = pstmtForSql.get(sql)) == null) {
-            pstmt = new PreparedStatement(++pstmtId, sql, 0, 0);
-            pstmtForSql.put(pstmt.getStatement(), pstmt);
-            pstmtForId.put(pstmt.getId(), pstmt);
+        int type = ServerParse.parse(sql) & 0xff;
+        switch (type) {
+        case ServerParse.SELECT:
+        case ServerParse.INSERT:
+        case ServerParse.UPDATE:
+        case ServerParse.DELETE:
+        case ServerParse.REPLACE:
+            break;
+        default:
+            source.writeErrMessage(ErrorCode.ER_UNSUPPORTED_PS,
+                                   "This command is not supported in the prepared statement protocol yet");
+            return;
         }
+
+        // 同一连接上相同的语句共用解析结果，但各自有独立的id，关闭其中一个不影响其它的
+        PreparedStatement pstmt = pstmtForSql.get(sql);
+        if (pstmt == null) {
+            MySQLLexer lexer = null;
+            SQLStatement ast = null;
+            try {
+                lexer = new MySQLLexer(sql);
+                ast = SQLParserDelegate.parse(sql, lexer, source.getCharset(), false);
+            } catch (SQLSyntaxErrorException e) {
+                LOGGER.warn(new StringBuilder().append(source).append(sql).toString(), e);
+                source.writeErrMessage(ErrorCode.ER_PARSE_ERROR, e.getMessage());
+                return;
+            }
+            pstmt = new PreparedStatement(++pstmtId, sql, 0, lexer.paramIndex(), type, ast);
+            pstmtForSql.put(sql, pstmt);
+        } else {
+            pstmt = new PreparedStatement(++pstmtId, sql, 0, pstmt.getParametersNumber(), type, pstmt.getAst());
+        }
+        pstmtForId.put(pstmt.getId(), pstmt);
         PreparedStmtResponse.response(pstmt, source);
     }
 
@@ -59,7 +99,7 @@ public class ServerPrepareHandler implements FrontendPrepareHandler {
     public void execute(byte[] data) {
         long pstmtId = ByteUtil.readUB4(data, 5);
         PreparedStatement pstmt = null;
-        if ((pstmt = pstmtForSql.get(pstmtId)) == null) {
+        if ((pstmt = pstmtForId.get(pstmtId)) == null) {
             source.writeErrMessage(ErrorCode.ER_ERROR_WHEN_EXECUTING_COMMAND, "Unknown pstmtId when executing.");
         } else {
             ExecutePacket packet = new ExecutePacket(pstmt);
@@ -68,15 +108,55 @@ public class ServerPrepareHandler implements FrontendPrepareHandler {
             } catch (UnsupportedEncodingException e) {
                 source.writeErrMessage(ErrorCode.ER_ERROR_WHEN_EXECUTING_COMMAND, e.getMessage());
                 return;
+            } catch (IllegalArgumentException e) {
+                source.writeErrMessage(ErrorCode.ER_ERROR_WHEN_EXECUTING_COMMAND, e.getMessage());
+                return;
+            }
+            BindValue[] values = packet.values;
+            Map<Integer, Object> params = new HashMap<Integer, Object>(values.length << 1);
+            for (int i = 0; i < values.length; ++i) {
+                params.put(i + 1, getValue(values[i]));
             }
-            // TODO ...
+            source.execute(pstmt, params);
         }
     }
 
     @Override
-    public void close() {
-        // TODO Auto-generated method stub
+    public void close(byte[] data) {
+        long pstmtId = ByteUtil.readUB4(data, 5);
+        PreparedStatement pstmt = pstmtForId.remove(pstmtId);
+        if (pstmt != null && pstmtForSql.get(pstmt.getStatement()) == pstmt) {
+            pstmtForSql.remove(pstmt.getStatement());
+        }
+    }
 
+    /**
+     * 转换为与SQL字面量求值结果相同的类型，以便路由计算
+     */
+    private static Object getValue(BindValue bv) {
+        if (bv.isNull) {
+            return null;
+        }
+        boolean unsigned = (bv.type & 0x8000) != 0;
+        switch (bv.type & 0xff) {
+        case Fields.FIELD_TYPE_TINY:
+            return unsigned ? bv.byteBinding & 0xff : (int) bv.byteBinding;
+        case Fields.FIELD_TYPE_SHORT:
+            return unsigned ? bv.shortBinding & 0xffff : (int) bv.shortBinding;
+        case Fields.FIELD_TYPE_LONG:
+            return unsigned ? (Object) (bv.intBinding & 0xffffffffL) : (Object) bv.intBinding;
+        case Fields.FIELD_TYPE_LONGLONG:
+            if (unsigned && bv.longBinding < 0) {
+                return BigInteger.valueOf(bv.longBinding).add(BigInteger.ONE.shiftLeft(64));
+            }
+            return bv.longBinding;
+        case Fields.FIELD_TYPE_FLOAT:
+            return bv.floatBinding;
+        case Fields.FIELD_TYPE_DOUBLE:
+            return bv.doubleBinding;
+        default:
+            return bv.value;
+        }
     }
 
 }
@@ -26,6 +26,8 @@ import static com.alibaba.cobar.server.parser.ServerParseSet.TX_READ_UNCOMMITTED
 import static com.alibaba.cobar.server.parser.ServerParseSet.TX_REPEATED_READ;
 import static com.alibaba.cobar.server.parser.ServerParseSet.TX_SERIALIZABLE;
 
+import java.util.Map;
+
 import org.apache.log4j.Logger;
 
 import com.alibaba.cobar.config.ErrorCode;
@@ -34,6 +36,7 @@ import com.alibaba.cobar.net.mysql.OkPacket;
 import com.alibaba.cobar.server.ServerConnection;
 import com.alibaba.cobar.server.parser.ServerParseSet;
 import com.alibaba.cobar.server.response.CharacterSet;
+import com.alibaba.cobar.server.session.SessionVariables;
 
 /**
  * SET 语句处理
@@ -97,8 +100,14 @@ public final class SetHandler {
             CharacterSet.response(stmt, c, rs);
             break;
         default:
-            StringBuilder s = new StringBuilder();
-            logger.warn(s.append(c).append(stmt).append(" is not executed").toString());
+            // 会话变量在执行语句借到后端通道时补发
+            Map<String, String> variables = SessionVariables.assign(stmt, c.getCharset(), c.getVariables());
+            if (variables != null) {
+                c.setVariables(variables);
+            } else {
+                StringBuilder s = new StringBuilder();
+                logger.warn(s.append(c).append(stmt).append(" is not executed").toString());
+            }
             c.write(c.writeToBuffer(OkPacket.OK, c.allocate()));
         }
     }
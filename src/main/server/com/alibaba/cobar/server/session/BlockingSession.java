@@ -17,6 +17,7 @@ package com.alibaba.cobar.server.session;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
@@ -34,10 +35,12 @@ import com.alibaba.cobar.net.FrontendConnection;
 import com.alibaba.cobar.net.mysql.BinaryPacket;
 import com.alibaba.cobar.net.mysql.ErrorPacket;
 import com.alibaba.cobar.net.mysql.OkPacket;
+import com.alibaba.cobar.route.GlobalIndex;
 import com.alibaba.cobar.route.RouteResultset;
 import com.alibaba.cobar.route.RouteResultsetNode;
 import com.alibaba.cobar.server.ServerConnection;
 import com.alibaba.cobar.server.parser.ServerParse;
+import com.alibaba.cobar.xa.XALog;
 
 /**
  * 由前后端参与的一次执行会话过程
@@ -53,6 +56,10 @@ public class BlockingSession implements Session {
     private final MultiNodeExecutor multiNodeExecutor;
     private final DefaultCommitExecutor commitExecutor;
     private final RollbackExecutor rollbackExecutor;
+    private volatile List<GlobalIndex.Entry> indexEntries;
+    private volatile long insertId;
+    private volatile String xid;
+    private volatile boolean readSplit;
 
     public BlockingSession(ServerConnection source) {
         this.source = source;
@@ -92,6 +99,9 @@ public class BlockingSession implements Session {
         }
 
         // 选择执行方式
+        readSplit = type == ServerParse.SELECT && source.isAutocommit() && target.isEmpty();
+        indexEntries = rrs.getIndexEntries();
+        insertId = rrs.getInsertId();
         if (nodes.length == 1) {
             singleNodeExecutor.execute(nodes[0], this, rrs.getFlag());
         } else {
@@ -100,10 +110,56 @@ public class BlockingSession implements Session {
             if (autocommit && isModifySQL(type)) {
                 autocommit = false;
             }
-            multiNodeExecutor.execute(nodes, autocommit, this, rrs.getFlag());
+            multiNodeExecutor.execute(rrs, autocommit, this);
         }
     }
 
+    /**
+     * @return true if current statement is a read outside transaction, which
+     *         can be executed on replicas
+     */
+    public boolean isReadSplit() {
+        return readSplit;
+    }
+
+    /**
+     * 写语句执行成功后调用，把语句给索引列赋的新值记入全局索引
+     */
+    public void updateGlobalIndex() {
+        List<GlobalIndex.Entry> entries = indexEntries;
+        if (entries != null) {
+            indexEntries = null;
+            GlobalIndex.getInstance().putAll(entries);
+        }
+    }
+
+    /**
+     * @return first value generated by global sequence for current statement,
+     *         0 if none
+     */
+    public long getInsertId() {
+        return insertId;
+    }
+
+    /**
+     * 事务中的语句第一次在数据节点上执行时调用，开启XA时为当前事务分配全局事务号
+     * 
+     * @return null if XA is disabled
+     */
+    public synchronized String startXid() {
+        if (xid == null && XALog.getInstance().isEnabled()) {
+            xid = XALog.getInstance().nextXid();
+        }
+        return xid;
+    }
+
+    /**
+     * @return global transaction id of current XA transaction, null if none
+     */
+    public String getXid() {
+        return xid;
+    }
+
     @Override
     public void commit() {
         final int initCount = target.size();
@@ -163,6 +219,7 @@ public class BlockingSession implements Session {
      * 释放session关联的资源
      */
     public void release() {
+        xid = null;
         for (RouteResultsetNode rrn : target.keySet()) {
             Channel c = target.remove(rrn);
             if (c != null) {
@@ -195,6 +252,7 @@ public class BlockingSession implements Session {
      *            concurrently with {@link #kill()}
      */
     private void clear(boolean pessimisticRelease) {
+        xid = null;
         for (RouteResultsetNode rrn : target.keySet()) {
             Channel c = target.remove(rrn);
 
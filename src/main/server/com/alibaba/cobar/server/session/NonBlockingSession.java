@@ -114,7 +114,7 @@ public class NonBlockingSession implements Session {
             if (autocommit && isModifySQL(type)) {
                 autocommit = false;
             }
-            multiNodeHandler = new MultiNodeQueryHandler(nodes, autocommit, this);
+            multiNodeHandler = new MultiNodeQueryHandler(rrs, autocommit, this);
             // multiNodeHandler.execute();
         }
     }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.server.session;
+
+import java.sql.SQLSyntaxErrorException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.arithmeic.MinusExpression;
+import com.alibaba.cobar.parser.ast.expression.primary.DefaultValue;
+import com.alibaba.cobar.parser.ast.expression.primary.Identifier;
+import com.alibaba.cobar.parser.ast.expression.primary.SysVarPrimary;
+import com.alibaba.cobar.parser.ast.expression.primary.UsrDefVarPrimary;
+import com.alibaba.cobar.parser.ast.expression.primary.VariableExpression;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.Literal;
+import com.alibaba.cobar.parser.ast.expression.primary.literal.LiteralNumber;
+import com.alibaba.cobar.parser.ast.fragment.VariableScope;
+import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
+import com.alibaba.cobar.parser.ast.stmt.dal.DALSetStatement;
+import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
+import com.alibaba.cobar.parser.recognizer.mysql.syntax.MySQLParser;
+import com.alibaba.cobar.parser.util.Pair;
+import com.alibaba.cobar.parser.visitor.MySQLOutputASTVisitor;
+
+/**
+ * 前端会话设置的变量。后端通道只在执行语句时借用，变量记录在前端连接上，借到通道后与通道上已设置的变量比较，
+ * 只补发有差异的部分。
+ */
+public final class SessionVariables {
+
+    /**
+     * 由cobar自己维护的变量
+     */
+    private static final String[] LOCAL_VARIABLES = { "AUTOCOMMIT", "TX_ISOLATION", "TRANSACTION_ISOLATION",
+            "CHARACTER_SET_CLIENT", "CHARACTER_SET_CONNECTION", "CHARACTER_SET_RESULTS", "COLLATION_CONNECTION",
+            "NAMES", "LAST_INSERT_ID", "INSERT_ID", "IDENTITY" };
+
+    /**
+     * @param variables current variables of front-end session, name -&gt;
+     *            value
+     * @return variables after <code>stmt</code> is applied, null if
+     *         <code>stmt</code> is not a SET of session or user-defined
+     *         variables, or any value is not a constant
+     */
+    public static Map<String, String> assign(String stmt, String charset, Map<String, String> variables) {
+        SQLStatement ast;
+        try {
+            ast = SQLParserDelegate.parse(stmt, charset == null ? MySQLParser.DEFAULT_CHARSET : charset);
+        } catch (SQLSyntaxErrorException e) {
+            return null;
+        }
+        if (!(ast instanceof DALSetStatement)) {
+            return null;
+        }
+        Map<String, String> vars = new LinkedHashMap<String, String>(variables);
+        for (Pair<VariableExpression, Expression> p : ((DALSetStatement) ast).getAssignmentList()) {
+            String name;
+            if (p.getKey() instanceof SysVarPrimary) {
+                SysVarPrimary sys = (SysVarPrimary) p.getKey();
+                if (sys.getScope() == VariableScope.GLOBAL || isLocal(sys.getVarTextUp())) {
+                    return null;
+                }
+                name = "@@" + sys.getVarText().toLowerCase();
+            } else if (p.getKey() instanceof UsrDefVarPrimary) {
+                name = ((UsrDefVarPrimary) p.getKey()).getVarText().toLowerCase();
+            } else {
+                return null;
+            }
+            if (!isConstant(p.getValue(), p.getKey() instanceof SysVarPrimary)) {
+                // 每次借用通道都会重新执行，表达式（函数、变量、子查询）的值可能每次不同
+                return null;
+            }
+            vars.remove(name);
+            if (!(p.getValue() instanceof DefaultValue)) {
+                StringBuilder s = new StringBuilder();
+                p.getValue().accept(new MySQLOutputASTVisitor(s));
+                vars.put(name, s.toString());
+            }
+        }
+        return Collections.unmodifiableMap(vars);
+    }
+
+    /**
+     * @param from variables set on back-end channel
+     * @param to variables of front-end session
+     * @param sqlMode <code>sql_mode</code> of data source, null for default
+     * @return assignments to turn <code>from</code> into <code>to</code>,
+     *         null if none
+     */
+    public static String getSyncStatement(Map<String, String> from, Map<String, String> to, String sqlMode) {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<String, String> en : from.entrySet()) {
+            String name = en.getKey();
+            if (!to.containsKey(name)) {
+                s.append(s.length() == 0 ? "SET " : ", ").append(name).append(" = ");
+                if (!name.startsWith("@@")) {
+                    s.append("NULL");
+                } else if (sqlMode != null && "@@sql_mode".equals(name)) {
+                    s.append('\'').append(sqlMode).append('\'');
+                } else {
+                    s.append("DEFAULT");
+                }
+            }
+        }
+        for (Map.Entry<String, String> en : to.entrySet()) {
+            if (!en.getValue().equals(from.get(en.getKey()))) {
+                s.append(s.length() == 0 ? "SET " : ", ").append(en.getKey()).append(" = ").append(en.getValue());
+            }
+        }
+        return s.length() == 0 ? null : s.toString();
+    }
+
+    /**
+     * @param sys 系统变量可以直接写取值的名字，例如<code>sql_mode = ANSI</code>
+     */
+    private static boolean isConstant(Expression value, boolean sys) {
+        if (value instanceof MinusExpression) {
+            return ((MinusExpression) value).getOperand() instanceof LiteralNumber;
+        }
+        if (value instanceof Identifier) {
+            return sys && ((Identifier) value).getParent() == null;
+        }
+        return value instanceof Literal || value instanceof DefaultValue;
+    }
+
+    private static boolean isLocal(String nameUp) {
+        for (String name : LOCAL_VARIABLES) {
+            if (name.equals(nameUp)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 无锁的空闲资源栈：后进先出，借出和归还都是常数时间。最近归还的资源最先被借出，长期不用的资源沉在栈底，由
+ * {@link #removeIdle(long)}回收。
+ * <p>
+ * 每次压栈都创建新节点，节点不复用，因此不存在ABA问题。
+ */
+public final class IdleStack<E> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Node, Object> ITEM = AtomicReferenceFieldUpdater.newUpdater(
+            Node.class,
+            Object.class,
+            "item");
+
+    private final AtomicReference<Node<E>> top = new AtomicReference<Node<E>>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param time last active time of <code>e</code>
+     */
+    public void push(E e, long time) {
+        Node<E> node = new Node<E>(e, time);
+        size.incrementAndGet();
+        for (;;) {
+            Node<E> t = top.get();
+            node.next = t;
+            if (top.compareAndSet(t, node)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return null if empty
+     */
+    public E pop() {
+        for (;;) {
+            Node<E> t = top.get();
+            if (t == null) {
+                return null;
+            }
+            if (top.compareAndSet(t, t.next)) {
+                E e = claim(t);
+                if (e != null) {
+                    return e;
+                }
+                // 已被removeIdle取走
+            }
+        }
+    }
+
+    /**
+     * 取走最后活跃时间早于<code>time</code>的资源
+     */
+    public synchronized List<E> removeIdle(long time) {
+        List<E> list = new ArrayList<E>();
+        Node<E> prev = null;
+        for (Node<E> node = top.get(); node != null; node = node.next) {
+            if (node.time < time) {
+                E e = claim(node);
+                if (e != null) {
+                    list.add(e);
+                }
+            }
+            if (node.item != null || prev == null) {
+                prev = node;
+            } else {
+                // 摘除栈中间的空节点，栈顶的空节点留给pop
+                prev.next = node.next;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 取走所有资源
+     */
+    public List<E> removeAll() {
+        return removeIdle(Long.MAX_VALUE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E claim(Node<E> node) {
+        Object e = node.item;
+        if (e != null && ITEM.compareAndSet(node, e, null)) {
+            size.decrementAndGet();
+            return (E) e;
+        }
+        return null;
+    }
+
+    static final class Node<E> {
+        // 不能是private，否则JDK 8及以前的ITEM在初始化时抛出IllegalAccessException
+        volatile Object item;
+        private final long time;
+        private volatile Node<E> next;
+
+        private Node(E item, long time) {
+            this.item = item;
+            this.time = time;
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.xa;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.cobar.util.SplitUtil;
+
+/**
+ * XA事务的提交决定日志。所有分支prepare成功后先把提交决定写入本地磁盘，再向各分支发出提交；
+ * 全部分支提交完成后追加结束记录（不强制刷盘）。cobar崩溃重启后，日志中有提交决定而没有结束记录的事务
+ * 继续提交，其他属于本实例的已prepare分支一律回滚。
+ * 
+ * <pre>
+ * C gtrid dataNode1,dataNode2
+ * E gtrid
+ * </pre>
+ */
+public final class XALog {
+    private static final Logger LOGGER = Logger.getLogger(XALog.class);
+    private static final String FILE_NAME = "xa.log";
+    private static final long COMPACT_SIZE = 16 * 1024 * 1024L;
+    private static final byte[] LINE_SEPARATOR = { '\n' };
+    private static final XALog INSTANCE = new XALog();
+
+    public static XALog getInstance() {
+        return INSTANCE;
+    }
+
+    /** gtrid -&gt; dataNodes, committed but not ended */
+    private final Map<String, List<String>> pending;
+    /** gtrids whose commit failed or was interrupted by crash */
+    private final Set<String> failed;
+    private final AtomicLong sequence;
+    private File file;
+    private FileOutputStream out;
+    private long size;
+    private volatile String prefix;
+    private volatile String instancePrefix;
+
+    private XALog() {
+        this.pending = new LinkedHashMap<String, List<String>>();
+        this.failed = new LinkedHashSet<String>();
+        this.sequence = new AtomicLong();
+    }
+
+    /**
+     * 读取已有的日志，之后开启XA
+     * 
+     * @param instancePrefix prefix of gtrid of this cobar instance, which must
+     *            be unique among cobar instances sharing data nodes
+     */
+    public synchronized void init(String dir, String instancePrefix) throws IOException {
+        File d = new File(dir);
+        if (!d.isDirectory() && !d.mkdirs()) {
+            throw new IOException("can not create XA log directory: " + dir);
+        }
+        this.file = new File(d, FILE_NAME);
+        pending.clear();
+        failed.clear();
+        File tmp = getTempFile();
+        if (file.exists()) {
+            load(file);
+        } else if (tmp.exists()) {
+            // 不能原子覆盖的平台上，删除旧日志之后、改名之前崩溃
+            load(tmp);
+        }
+        failed.addAll(pending.keySet());
+        this.instancePrefix = instancePrefix;
+        this.prefix = instancePrefix + Long.toHexString(System.currentTimeMillis()) + '-';
+        rewrite();
+    }
+
+    /**
+     * 关闭日志并停止XA，之后可以重新{@link #init(String, String)}
+     */
+    public synchronized void close() {
+        prefix = null;
+        instancePrefix = null;
+        pending.clear();
+        failed.clear();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("failed to close XA log: " + file, e);
+            }
+            out = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return prefix != null;
+    }
+
+    /**
+     * @return prefix shared by gtrids of this cobar instance, including those
+     *         of previous runs
+     */
+    public String getInstancePrefix() {
+        return instancePrefix;
+    }
+
+    public String nextXid() {
+        return prefix + sequence.incrementAndGet();
+    }
+
+    /**
+     * 记录提交决定，返回前已刷盘
+     */
+    public void commit(String xid, List<String> dataNodes) throws IOException {
+        StringBuilder s = new StringBuilder();
+        s.append("C ").append(xid).append(' ');
+        for (int i = 0; i < dataNodes.size(); ++i) {
+            if (i > 0) {
+                s.append(',');
+            }
+            s.append(dataNodes.get(i));
+        }
+        synchronized (this) {
+            if (out == null) {
+                throw new IOException("XA log is not open");
+            }
+            append(s.toString());
+            out.getChannel().force(false);
+            pending.put(xid, dataNodes);
+        }
+    }
+
+    /**
+     * 事务的所有分支都已提交
+     */
+    public synchronized void end(String xid) {
+        failed.remove(xid);
+        if (pending.remove(xid) == null || out == null) {
+            return;
+        }
+        try {
+            if (size >= COMPACT_SIZE) {
+                rewrite();
+            } else {
+                append("E " + xid);
+            }
+        } catch (IOException e) {
+            // 丢失结束记录只会使重启后多做一次提交
+            LOGGER.warn("failed to write XA log: " + file, e);
+        }
+    }
+
+    /**
+     * 有分支提交失败，交由{@link XARecovery}重试
+     */
+    public synchronized void fail(String xid) {
+        if (pending.containsKey(xid)) {
+            failed.add(xid);
+        }
+    }
+
+    /**
+     * @return gtrid -&gt; dataNodes, committed but not ended
+     */
+    public synchronized Map<String, List<String>> getPending() {
+        return new LinkedHashMap<String, List<String>>(pending);
+    }
+
+    /**
+     * @return gtrid -&gt; dataNodes, whose commit is to be retried
+     */
+    public synchronized Map<String, List<String>> getFailed() {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        for (String xid : failed) {
+            map.put(xid, pending.get(xid));
+        }
+        return map;
+    }
+
+    private void append(String line) throws IOException {
+        byte[] data = line.getBytes();
+        out.write(data);
+        out.write(LINE_SEPARATOR);
+        size += data.length + LINE_SEPARATOR.length;
+    }
+
+    private File getTempFile() {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private void load(File source) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source)));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] items = SplitUtil.split(line, ' ', true);
+                if (items.length == 3 && "C".equals(items[0])) {
+                    String[] nodes = SplitUtil.split(items[2], ',', true);
+                    pending.put(items[1], new ArrayList<String>(Arrays.asList(nodes)));
+                } else if (items.length == 2 && "E".equals(items[0])) {
+                    pending.remove(items[1]);
+                } else if (line.length() > 0) {
+                    // 崩溃时写了一半的记录，对应的提交决定没有生效
+                    LOGGER.warn("broken XA log record is ignored: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 只保留未结束的提交决定
+     */
+    private void rewrite() throws IOException {
+        File tmp = getTempFile();
+        FileOutputStream o = new FileOutputStream(tmp);
+        long n = 0;
+        try {
+            for (Map.Entry<String, List<String>> en : pending.entrySet()) {
+                StringBuilder s = new StringBuilder();
+                s.append("C ").append(en.getKey()).append(' ');
+                List<String> nodes = en.getValue();
+                for (int i = 0; i < nodes.size(); ++i) {
+                    if (i > 0) {
+                        s.append(',');
+                    }
+                    s.append(nodes.get(i));
+                }
+                byte[] data = s.toString().getBytes();
+                o.write(data);
+                o.write(LINE_SEPARATOR);
+                n += data.length + LINE_SEPARATOR.length;
+            }
+            o.getChannel().force(true);
+        } finally {
+            o.close();
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        // POSIX上rename原子地覆盖旧日志；Windows上只能先删除，此时崩溃由init()读取tmp文件
+        if (!tmp.renameTo(file) && (!file.delete() || !tmp.renameTo(file))) {
+            throw new IOException("can not rename XA log: " + tmp);
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+        out = new FileOutputStream(file, true);
+        size = n;
+    }
+
+    /**
+     * 目录刷盘后rename才能在掉电后保留
+     */
+    private static void syncDirectory(File dir) {
+        try {
+            DirectorySync.force(dir);
+        } catch (IOException e) {
+            // 部分平台不能打开目录
+            LOGGER.debug("can not sync XA log directory: " + dir, e);
+        } catch (LinkageError e) {
+            // Java 6没有java.nio.file，只能依赖文件系统的提交
+        }
+    }
+
+    /**
+     * 单独的类，Java 6上只在调用时才因缺少java.nio.file失败
+     */
+    private static final class DirectorySync {
+        static void force(File dir) throws IOException {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.xa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.alibaba.cobar.CobarServer;
+import com.alibaba.cobar.config.ErrorCode;
+import com.alibaba.cobar.mysql.MySQLDataNode;
+import com.alibaba.cobar.mysql.bio.MySQLChannel;
+import com.alibaba.cobar.net.mysql.BinaryPacket;
+import com.alibaba.cobar.net.mysql.EOFPacket;
+import com.alibaba.cobar.net.mysql.ErrorPacket;
+import com.alibaba.cobar.net.mysql.OkPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+
+/**
+ * XA事务的恢复
+ */
+public final class XARecovery {
+    private static final Logger LOGGER = Logger.getLogger(XARecovery.class);
+
+    /**
+     * 启动时调用，必须在接受前端连接之前：回滚本实例遗留的、没有提交决定的已prepare分支，再提交有提交决定的事务
+     */
+    public static void recover() {
+        XALog log = XALog.getInstance();
+        Map<String, List<String>> pending = log.getPending();
+        String prefix = log.getInstancePrefix();
+        for (MySQLDataNode node : CobarServer.getInstance().getConfig().getDataNodes().values()) {
+            MySQLChannel c = null;
+            try {
+                c = (MySQLChannel) node.getChannel();
+                for (String[] xid : recoverList(c)) {
+                    if (!node.getName().equals(xid[1]) || !xid[0].startsWith(prefix) || pending.containsKey(xid[0])) {
+                        continue;
+                    }
+                    String stmt = "XA ROLLBACK " + MySQLChannel.toXid(xid[0], xid[1]);
+                    LOGGER.warn("rollback prepared XA branch without commit decision: " + stmt);
+                    check(c, stmt, c.execute(stmt));
+                }
+                c.release();
+            } catch (Exception e) {
+                if (c != null) {
+                    c.close();
+                }
+                LOGGER.warn("failed to recover XA transactions of dataNode " + node.getName(), e);
+            }
+        }
+        retry();
+    }
+
+    /**
+     * 重试提交分支提交失败的事务
+     */
+    public static void retry() {
+        XALog log = XALog.getInstance();
+        Map<String, MySQLDataNode> nodes = CobarServer.getInstance().getConfig().getDataNodes();
+        for (Map.Entry<String, List<String>> en : log.getFailed().entrySet()) {
+            String gtrid = en.getKey();
+            boolean done = true;
+            for (String dataNode : en.getValue()) {
+                MySQLDataNode node = nodes.get(dataNode);
+                if (node == null) {
+                    LOGGER.error("dataNode " + dataNode + " of XA transaction " + gtrid + " not found");
+                    done = false;
+                    continue;
+                }
+                MySQLChannel c = null;
+                try {
+                    c = (MySQLChannel) node.getChannel();
+                    String stmt = "XA COMMIT " + MySQLChannel.toXid(gtrid, dataNode);
+                    BinaryPacket bin = c.execute(stmt);
+                    // 分支已经提交
+                    if (bin.data[0] == ErrorPacket.FIELD_COUNT) {
+                        ErrorPacket err = new ErrorPacket();
+                        err.read(bin);
+                        if (err.errno != ErrorCode.ER_XAER_NOTA) {
+                            check(c, stmt, bin);
+                        }
+                    } else {
+                        check(c, stmt, bin);
+                    }
+                    c.release();
+                } catch (Exception e) {
+                    if (c != null) {
+                        c.close();
+                    }
+                    done = false;
+                    LOGGER.warn("failed to commit XA transaction " + gtrid + " on dataNode " + dataNode, e);
+                }
+            }
+            if (done) {
+                log.end(gtrid);
+                LOGGER.warn("XA transaction " + gtrid + " is recovered");
+            }
+        }
+    }
+
+    /**
+     * @return {gtrid, bqual} of prepared branches
+     */
+    private static List<String[]> recoverList(MySQLChannel c) throws IOException {
+        BinaryPacket bin = c.execute("XA RECOVER");
+        if (bin.data[0] == ErrorPacket.FIELD_COUNT) {
+            throw new IOException(c.getErrMessage(bin) + ": XA RECOVER");
+        }
+        int fieldCount = 0;
+        for (;;) {
+            bin = c.receive();
+            if (bin.data[0] == EOFPacket.FIELD_COUNT) {
+                break;
+            }
+            ++fieldCount;
+        }
+        List<String[]> list = new ArrayList<String[]>();
+        for (;;) {
+            bin = c.receive();
+            if (bin.data[0] == ErrorPacket.FIELD_COUNT) {
+                throw new IOException(c.getErrMessage(bin) + ": XA RECOVER");
+            }
+            if (bin.data[0] == EOFPacket.FIELD_COUNT && bin.packetLength < 9) {
+                break;
+            }
+            // formatID, gtrid_length, bqual_length, data
+            RowDataPacket row = new RowDataPacket(fieldCount);
+            row.read(bin.data);
+            int gtridLength = Integer.parseInt(new String(row.fieldValues.get(1)));
+            String data = new String(row.fieldValues.get(3));
+            list.add(new String[] { data.substring(0, gtridLength), data.substring(gtridLength) });
+        }
+        return list;
+    }
+
+    private static void check(MySQLChannel c, String stmt, BinaryPacket bin) throws IOException {
+        switch (bin.data[0]) {
+        case OkPacket.FIELD_COUNT:
+            return;
+        case ErrorPacket.FIELD_COUNT:
+            throw new IOException(c.getErrMessage(bin) + ": " + stmt);
+        default:
+            throw new IOException("unexpected response of " + stmt);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import static com.alibaba.cobar.merge.OrderByMergerTest.row;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.route.RouteResultset;
+
+public class AggregateMergerTest extends TestCase {
+
+    private static FieldPacket field(int type, int decimals) {
+        FieldPacket field = new FieldPacket();
+        field.type = type;
+        field.decimals = (byte) decimals;
+        return field;
+    }
+
+    private static String value(RowDataPacket row, int i) {
+        byte[] v = row.fieldValues.get(i);
+        return v == null ? null : new String(v);
+    }
+
+    public void testSum() throws Exception {
+        AggregateMerger merger = AggregateMerger.create(RouteResultset.SUM_FLAG, new FieldPacket[] {
+                field(Fields.FIELD_TYPE_LONGLONG, 0), field(Fields.FIELD_TYPE_NEW_DECIMAL, 2),
+                field(Fields.FIELD_TYPE_DOUBLE, 31), field(Fields.FIELD_TYPE_NEW_DECIMAL, 0) });
+        merger.addRow(row("3", "1.5", "0.5", null), 4);
+        merger.addRow(row("9223372036854775807", "-0.25", "1", null), 4);
+        merger.addRow(row("-1", null, "2.5", null), 4);
+        RowDataPacket result = merger.getResult();
+        Assert.assertEquals("9223372036854775809", value(result, 0));
+        Assert.assertEquals("1.25", value(result, 1));
+        Assert.assertEquals("4.0", value(result, 2));
+        Assert.assertNull(value(result, 3));
+    }
+
+    public void testDoubleSumPlain() throws Exception {
+        AggregateMerger merger = AggregateMerger.create(RouteResultset.SUM_FLAG,
+                                                        new FieldPacket[] { field(Fields.FIELD_TYPE_DOUBLE, 31),
+                                                                field(Fields.FIELD_TYPE_DOUBLE, 31) });
+        merger.addRow(row("1e20", "0.00001"), 4);
+        merger.addRow(row("1.5e20", "0.00002"), 4);
+        RowDataPacket result = merger.getResult();
+        Assert.assertEquals("250000000000000000000", value(result, 0));
+        Assert.assertEquals("0.000030000000000000004", value(result, 1));
+    }
+
+    public void testMinMax() throws Exception {
+        FieldPacket[] fields = { field(Fields.FIELD_TYPE_LONG, 0), field(Fields.FIELD_TYPE_VAR_STRING, 0) };
+        AggregateMerger min = AggregateMerger.create(RouteResultset.MIN_FLAG, fields);
+        AggregateMerger max = AggregateMerger.create(RouteResultset.MAX_FLAG, fields);
+        String[][] rows = { { "10", "b" }, { null, "C" }, { "-7", null }, { "9", "a" } };
+        for (String[] r : rows) {
+            min.addRow(row(r), 4);
+            max.addRow(row(r), 4);
+        }
+        Assert.assertEquals("-7", value(min.getResult(), 0));
+        Assert.assertEquals("a", value(min.getResult(), 1));
+        Assert.assertEquals("10", value(max.getResult(), 0));
+        Assert.assertEquals("C", value(max.getResult(), 1));
+    }
+
+    public void testNotAggregate() throws Exception {
+        Assert.assertNull(AggregateMerger.create(RouteResultset.REWRITE_FIELD,
+                                                 new FieldPacket[] { field(Fields.FIELD_TYPE_LONG, 0) }));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import static com.alibaba.cobar.merge.OrderByMergerTest.row;
+
+import java.io.File;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.net.mysql.RowDataPacket;
+import com.alibaba.cobar.parser.ast.stmt.dml.DMLSelectStatement;
+import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
+import com.alibaba.cobar.route.GroupByMerge;
+
+public class GroupByMergerTest extends TestCase {
+
+    private static GroupByMerge merge(String sql) throws Exception {
+        return GroupByMerge.rewrite((DMLSelectStatement) SQLParserDelegate.parse(sql));
+    }
+
+    private static FieldPacket field(int type, int decimals) {
+        FieldPacket field = new FieldPacket();
+        field.type = type;
+        field.decimals = (byte) decimals;
+        return field;
+    }
+
+    private static String value(RowDataPacket row, int i) {
+        byte[] v = row.fieldValues.get(i);
+        return v == null ? null : new String(v);
+    }
+
+    public void testMerge() throws Exception {
+        GroupByMerge merge = merge("select name, count(*), sum(v), avg(v), max(v), avg(d) from t group by name");
+        FieldPacket[] fields = { field(Fields.FIELD_TYPE_VAR_STRING, 0), field(Fields.FIELD_TYPE_LONGLONG, 0),
+                field(Fields.FIELD_TYPE_NEW_DECIMAL, 0), field(Fields.FIELD_TYPE_NEW_DECIMAL, 0),
+                field(Fields.FIELD_TYPE_LONG, 0), field(Fields.FIELD_TYPE_DOUBLE, 31),
+                field(Fields.FIELD_TYPE_LONGLONG, 0), field(Fields.FIELD_TYPE_LONGLONG, 0) };
+        GroupByMerger merger = new GroupByMerger(merge, fields, 4, 1024 * 1024, null);
+        Assert.assertEquals(6, merger.getFields().length);
+        Assert.assertEquals(4, merger.getFields()[3].decimals);
+
+        merger.addRow(row("a", "2", "10", "10", "7", "1.5", "2", "2"));
+        merger.addRow(row("B", "1", "3", "3", "3", null, "1", "0"));
+        merger.addRow(row("A", "1", "6", "6", "6", "1.5", "1", "1"));
+        RowDataPacket row = merger.nextRow();
+        Assert.assertEquals("a", value(row, 0));
+        Assert.assertEquals("3", value(row, 1));
+        Assert.assertEquals("16", value(row, 2));
+        Assert.assertEquals("5.3333", value(row, 3));
+        Assert.assertEquals("7", value(row, 4));
+        Assert.assertEquals("1.0", value(row, 5));
+        row = merger.nextRow();
+        Assert.assertEquals("B", value(row, 0));
+        Assert.assertEquals("3.0000", value(row, 3));
+        Assert.assertNull(value(row, 5));
+        Assert.assertNull(merger.nextRow());
+        merger.close();
+    }
+
+    public void testSpill() throws Exception {
+        File dir = File.createTempFile("groupby", "");
+        dir.delete();
+        dir.mkdir();
+        try {
+            GroupByMerge merge = merge("select count(*), k from t group by k desc");
+            FieldPacket[] fields = { field(Fields.FIELD_TYPE_LONGLONG, 0), field(Fields.FIELD_TYPE_LONG, 0) };
+            GroupByMerger merger = new GroupByMerger(merge, fields, 4, 0, dir);
+            final int groups = 1000;
+            for (int node = 0; node < 3; ++node) {
+                for (int k = node; k < groups; k += node + 1) {
+                    merger.addRow(row("1", String.valueOf(k)));
+                }
+            }
+            Assert.assertTrue(merger.isSpilled());
+            Assert.assertTrue(dir.list().length > 0);
+            for (int k = groups - 1; k >= 0; --k) {
+                int count = 1 + (k >= 1 && (k - 1) % 2 == 0 ? 1 : 0) + (k >= 2 && (k - 2) % 3 == 0 ? 1 : 0);
+                RowDataPacket row = merger.nextRow();
+                Assert.assertEquals(String.valueOf(k), value(row, 1));
+                Assert.assertEquals(String.valueOf(count), value(row, 0));
+            }
+            Assert.assertNull(merger.nextRow());
+            merger.close();
+            Assert.assertEquals(0, dir.list().length);
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+}
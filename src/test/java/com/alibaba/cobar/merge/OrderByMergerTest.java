@@ -0,0 +1,168 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.Fields;
+import com.alibaba.cobar.net.mysql.FieldPacket;
+import com.alibaba.cobar.parser.ast.fragment.SortOrder;
+import com.alibaba.cobar.parser.util.Pair;
+
+public class OrderByMergerTest extends TestCase {
+
+    /**
+     * @param values null for NULL
+     */
+    static byte[] row(String... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(1);
+        for (String v : values) {
+            if (v == null) {
+                out.write(251);
+            } else {
+                byte[] b = v.getBytes();
+                out.write(b.length);
+                out.write(b, 0, b.length);
+            }
+        }
+        byte[] data = out.toByteArray();
+        int len = data.length - 4;
+        data[0] = (byte) len;
+        data[1] = (byte) (len >>> 8);
+        data[2] = (byte) (len >>> 16);
+        return data;
+    }
+
+    static String column(byte[] row, int column) {
+        int offset = RowDataUtil.columnOffset(row, column);
+        int len = RowDataUtil.valueLength(row, offset);
+        return len < 0 ? null : new String(row, RowDataUtil.valueStart(row, offset), len);
+    }
+
+    public void testCompareDecimal() throws Exception {
+        RowDataComparator cmp = new RowDataComparator(new int[] { 0 },
+                                                      new int[] { RowDataComparator.TYPE_DECIMAL },
+                                                      new boolean[] { false });
+        Assert.assertTrue(cmp.compare(row("9"), row("10")) < 0);
+        Assert.assertTrue(cmp.compare(row("-10"), row("-9")) < 0);
+        Assert.assertTrue(cmp.compare(row("-1"), row("0")) < 0);
+        Assert.assertTrue(cmp.compare(row("1.5"), row("1.45")) > 0);
+        Assert.assertTrue(cmp.compare(row("007"), row("7.00")) == 0);
+        Assert.assertTrue(cmp.compare(row("-0.0"), row("0")) == 0);
+        Assert.assertTrue(cmp.compare(row((String) null), row("-100")) < 0);
+    }
+
+    public void testCompareText() throws Exception {
+        RowDataComparator cmp = new RowDataComparator(new int[] { 1, 0 }, new int[] {
+                RowDataComparator.TYPE_TEXT, RowDataComparator.TYPE_DECIMAL }, new boolean[] { false, true });
+        Assert.assertTrue(cmp.compare(row("1", "abc"), row("2", "ABD")) < 0);
+        Assert.assertTrue(cmp.compare(row("1", "abc"), row("2", "ABC")) > 0);
+        Assert.assertTrue(cmp.compare(row("1", "ab"), row("1", "abc")) < 0);
+    }
+
+    public void testMerge() throws Exception {
+        RowDataComparator cmp = new RowDataComparator(new int[] { 0 },
+                                                      new int[] { RowDataComparator.TYPE_DECIMAL },
+                                                      new boolean[] { false });
+        OrderByMerger merger = new OrderByMerger(3, cmp);
+        List<byte[]> out = new ArrayList<byte[]>();
+        merger.addRow(0, row("1"), out);
+        merger.addRow(0, row("4"), out);
+        merger.addRow(1, row("2"), out);
+        Assert.assertTrue(out.isEmpty());
+        merger.addRow(2, row("3"), out);
+        Assert.assertEquals(2, out.size());
+        Assert.assertEquals("1", column(out.get(0), 0));
+        Assert.assertEquals("2", column(out.get(1), 0));
+        Assert.assertEquals(2, merger.getBufferedCount());
+
+        merger.nodeFinished(1, out);
+        Assert.assertEquals(3, out.size());
+        Assert.assertEquals("3", column(out.get(2), 0));
+        merger.addRow(2, row("5"), out);
+        Assert.assertEquals("4", column(out.get(3), 0));
+        merger.nodeFinished(0, out);
+        merger.nodeFinished(2, out);
+        Assert.assertEquals(5, out.size());
+        Assert.assertEquals("5", column(out.get(4), 0));
+        Assert.assertEquals(0, merger.getBufferedCount());
+    }
+
+    public void testCursorCapacity() throws Exception {
+        RowDataComparator cmp = new RowDataComparator(new int[] { 0 },
+                                                      new int[] { RowDataComparator.TYPE_DECIMAL },
+                                                      new boolean[] { false });
+        OrderByMerger merger = new OrderByMerger(2, cmp, 2);
+        List<byte[]> out = new ArrayList<byte[]>();
+        merger.addRow(0, row("1"), out);
+        Assert.assertFalse(merger.isFull(0));
+        merger.addRow(0, row("2"), out);
+        Assert.assertTrue(merger.isFull(0));
+        Assert.assertFalse(merger.isFull(1));
+        Assert.assertTrue(out.isEmpty());
+
+        // 慢节点返回数据后游标被消费
+        merger.addRow(1, row("3"), out);
+        Assert.assertEquals(2, out.size());
+        Assert.assertFalse(merger.isFull(0));
+        merger.nodeFinished(0, out);
+        Assert.assertEquals(3, out.size());
+        Assert.assertFalse(merger.isFull(1));
+    }
+
+    private static FieldPacket field(String name, String orgName) {
+        FieldPacket field = new FieldPacket();
+        field.name = name.getBytes();
+        field.orgName = orgName.getBytes();
+        field.type = Fields.FIELD_TYPE_LONG;
+        return field;
+    }
+
+    public void testCreateByOrgName() throws Exception {
+        FieldPacket[] fields = { field("x", "id"), field("id", "name") };
+        List<Pair<String, SortOrder>> orderBy = new ArrayList<Pair<String, SortOrder>>();
+        orderBy.add(new Pair<String, SortOrder>("ID", SortOrder.ASC));
+
+        // 别名优先
+        OrderByMerger merger = OrderByMerger.create(orderBy, fields, 2, 4);
+        List<byte[]> out = new ArrayList<byte[]>();
+        merger.addRow(0, row("1", "9"), out);
+        merger.addRow(1, row("2", "3"), out);
+        Assert.assertEquals(1, out.size());
+        Assert.assertEquals("2", column(out.get(0), 0));
+
+        fields = new FieldPacket[] { field("y", "name"), field("x", "id") };
+        merger = OrderByMerger.create(orderBy, fields, 2, 4);
+        out.clear();
+        merger.addRow(0, row("1", "9"), out);
+        merger.addRow(1, row("2", "3"), out);
+        Assert.assertEquals(1, out.size());
+        Assert.assertEquals("2", column(out.get(0), 0));
+
+        orderBy.set(0, new Pair<String, SortOrder>("GMT", SortOrder.ASC));
+        Assert.assertNull(OrderByMerger.create(orderBy, fields, 2, 4));
+    }
+
+}
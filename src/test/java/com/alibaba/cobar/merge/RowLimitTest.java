@@ -0,0 +1,47 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.merge;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class RowLimitTest extends TestCase {
+
+    public void testLimit() throws Exception {
+        RowLimit limit = new RowLimit(2, 3);
+        Assert.assertFalse(limit.accept());
+        Assert.assertFalse(limit.accept());
+        Assert.assertTrue(limit.accept());
+        Assert.assertTrue(limit.accept());
+        Assert.assertFalse(limit.isReached());
+        Assert.assertTrue(limit.accept());
+        Assert.assertTrue(limit.isReached());
+        Assert.assertFalse(limit.accept());
+
+        limit = new RowLimit(-1, 0);
+        Assert.assertTrue(limit.isReached());
+        Assert.assertFalse(limit.accept());
+    }
+
+    public void testNoLimit() throws Exception {
+        RowLimit limit = new RowLimit(-1, -1);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(limit.accept());
+        }
+        Assert.assertFalse(limit.isReached());
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.mysql;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.model.DataNodeConfig;
+import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.config.util.ConfigException;
+
+public class MySQLDataNodeTest extends TestCase {
+
+    private static MySQLDataNode createNode(String readWeights, String heartbeatSQL, int sourceCount) {
+        DataNodeConfig conf = new DataNodeConfig();
+        conf.setName("dn");
+        conf.setReadWeights(readWeights);
+        conf.setHeartbeatSQL(heartbeatSQL);
+        MySQLDataNode node = new MySQLDataNode(conf);
+        MySQLDataSource[] sources = new MySQLDataSource[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            DataSourceConfig dsc = new DataSourceConfig();
+            dsc.setName("ds" + i);
+            sources[i] = new MySQLDataSource(node, i, dsc, 1);
+        }
+        node.setSources(sources);
+        return node;
+    }
+
+    public void testNoReadSplit() {
+        Assert.assertFalse(createNode(null, null, 2).isReadSplit());
+        Assert.assertFalse(createNode("0, 0", null, 2).isReadSplit());
+        Assert.assertTrue(createNode("0, 1", null, 2).isReadSplit());
+    }
+
+    public void testWeighted() {
+        MySQLDataNode node = createNode("1,2,0", null, 3);
+        int[] counts = new int[3];
+        for (int i = 0; i < 300; i++) {
+            ++counts[node.nextReadIndex()];
+        }
+        Assert.assertEquals(100, counts[0]);
+        Assert.assertEquals(200, counts[1]);
+        Assert.assertEquals(0, counts[2]);
+    }
+
+    public void testWeightsMismatch() {
+        // 多出的权重忽略，缺少权重的数据源不分担读请求
+        MySQLDataNode node = createNode("1,1,5", null, 2);
+        int[] counts = new int[2];
+        for (int i = 0; i < 10; i++) {
+            ++counts[node.nextReadIndex()];
+        }
+        Assert.assertEquals(5, counts[0]);
+        Assert.assertEquals(5, counts[1]);
+        node = createNode("0,3", null, 3);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(1, node.nextReadIndex());
+        }
+    }
+
+    public void testBadWeights() {
+        try {
+            createNode("1,a", null, 2);
+            Assert.fail();
+        } catch (ConfigException e) {
+        }
+        try {
+            createNode("1,-1", null, 2);
+            Assert.fail();
+        } catch (ConfigException e) {
+        }
+    }
+
+    public void testUnhealthyReplica() {
+        // 配置了心跳但备库还没有心跳成功，只有当前数据源可读
+        MySQLDataNode node = createNode("1,2", "select 1", 2);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(0, node.nextReadIndex());
+        }
+        node = createNode("0,2", "select 1", 2);
+        Assert.assertEquals(-1, node.nextReadIndex());
+    }
+
+}
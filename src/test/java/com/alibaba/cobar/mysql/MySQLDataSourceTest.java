@@ -0,0 +1,223 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.mysql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.model.DataNodeConfig;
+import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.exception.PoolExhaustedException;
+import com.alibaba.cobar.mysql.bio.Channel;
+import com.alibaba.cobar.mysql.bio.ChannelFactory;
+
+public class MySQLDataSourceTest extends TestCase {
+    private final List<MockChannel> made = new ArrayList<MockChannel>();
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        made.clear();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private MySQLDataSource createSource(int size, int waitQueueSize, long waitTimeout) {
+        DataNodeConfig dnc = new DataNodeConfig();
+        dnc.setName("dn");
+        dnc.setWaitQueueSize(waitQueueSize);
+        dnc.setWaitTimeout(waitTimeout);
+        DataSourceConfig dsc = new DataSourceConfig();
+        dsc.setName("ds");
+        return new MySQLDataSource(new MySQLDataNode(dnc), 0, dsc, size, new ChannelFactory() {
+            @Override
+            public Channel make(MySQLDataSource dataSource) {
+                MockChannel c = new MockChannel(dataSource);
+                made.add(c);
+                return c;
+            }
+        });
+    }
+
+    private Future<Channel> borrow(final MySQLDataSource ds) throws Exception {
+        int waiting = ds.getWaitingCount();
+        Future<Channel> f = executor.submit(new Callable<Channel>() {
+            @Override
+            public Channel call() throws Exception {
+                return ds.getChannel();
+            }
+        });
+        // 等到请求进入等待队列
+        for (int i = 0; i < 500 && ds.getWaitingCount() == waiting; ++i) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(waiting + 1, ds.getWaitingCount());
+        return f;
+    }
+
+    public void testQueueFull() throws Exception {
+        MySQLDataSource ds = createSource(1, 1, 5000L);
+        Channel c = ds.getChannel();
+        Future<Channel> waiter = borrow(ds);
+        try {
+            ds.getChannel();
+            Assert.fail();
+        } catch (PoolExhaustedException e) {
+        }
+        Assert.assertEquals(1L, ds.getRejectCount());
+        Assert.assertEquals(1, ds.getWaitingCount());
+
+        c.release();
+        Assert.assertSame(c, waiter.get(5L, TimeUnit.SECONDS));
+        Assert.assertEquals(0, ds.getWaitingCount());
+        Assert.assertEquals(1L, ds.getWaitCount());
+    }
+
+    public void testTimeout() throws Exception {
+        MySQLDataSource ds = createSource(1, 4, 50L);
+        Channel c = ds.getChannel();
+        long start = System.currentTimeMillis();
+        try {
+            ds.getChannel();
+            Assert.fail();
+        } catch (PoolExhaustedException e) {
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 40L);
+        Assert.assertEquals(1L, ds.getTimeoutCount());
+        // 超时的等待者已从队列中移除，归还的通道回到池中
+        Assert.assertEquals(0, ds.getWaitingCount());
+        c.release();
+        Assert.assertEquals(0, ds.getActiveCount());
+        Assert.assertEquals(1, ds.getIdleCount());
+        Assert.assertSame(c, ds.getChannel());
+        Assert.assertEquals(1, made.size());
+    }
+
+    public void testReleaseHandOff() throws Exception {
+        MySQLDataSource ds = createSource(2, 4, 5000L);
+        Channel c1 = ds.getChannel();
+        Channel c2 = ds.getChannel();
+        Future<Channel> w1 = borrow(ds);
+        Future<Channel> w2 = borrow(ds);
+
+        // 按等待顺序直接交给等待者，不经过空闲栈，活跃数不变
+        c2.release();
+        Assert.assertSame(c2, w1.get(5L, TimeUnit.SECONDS));
+        Assert.assertEquals(2, ds.getActiveCount());
+        Assert.assertEquals(0, ds.getIdleCount());
+        c1.release();
+        Assert.assertSame(c1, w2.get(5L, TimeUnit.SECONDS));
+        Assert.assertEquals(2, ds.getActiveCount());
+        Assert.assertEquals(0, ds.getIdleCount());
+        Assert.assertEquals(2, made.size());
+    }
+
+    public void testDeActive() throws Exception {
+        MySQLDataSource ds = createSource(1, 4, 5000L);
+        Channel c = ds.getChannel();
+        Future<Channel> waiter = borrow(ds);
+
+        // 关闭的通道把名额交给等待者创建新连接
+        c.close();
+        Channel created = waiter.get(5L, TimeUnit.SECONDS);
+        Assert.assertNotSame(c, created);
+        Assert.assertSame(made.get(1), created);
+        Assert.assertTrue(made.get(1).connected);
+        Assert.assertEquals(1, ds.getActiveCount());
+        Assert.assertEquals(0, ds.getWaitingCount());
+    }
+
+    private static final class MockChannel implements Channel {
+        private final MySQLDataSource dataSource;
+        private volatile boolean connected;
+        private volatile boolean closed;
+        private long lastActiveTime;
+        private boolean running;
+
+        private MockChannel(MySQLDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public long getLastAcitveTime() {
+            return lastActiveTime;
+        }
+
+        @Override
+        public void setLastActiveTime(long time) {
+            this.lastActiveTime = time;
+        }
+
+        @Override
+        public void connect(long timeout) throws Exception {
+            connected = true;
+        }
+
+        @Override
+        public boolean isAutocommit() {
+            return true;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return running;
+        }
+
+        @Override
+        public void setRunning(boolean running) {
+            this.running = running;
+        }
+
+        @Override
+        public void release() {
+            dataSource.releaseChannel(this);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void kill() {
+            close();
+        }
+
+        @Override
+        public void close() {
+            closeNoActive();
+            dataSource.deActive();
+        }
+
+        @Override
+        public void closeNoActive() {
+            closed = true;
+        }
+    }
+
+}
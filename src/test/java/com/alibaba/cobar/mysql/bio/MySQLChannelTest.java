@@ -0,0 +1,219 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.mysql.bio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.Isolations;
+import com.alibaba.cobar.config.model.DataNodeConfig;
+import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.exception.ErrorPacketException;
+import com.alibaba.cobar.mysql.CharsetUtil;
+import com.alibaba.cobar.mysql.MySQLDataNode;
+import com.alibaba.cobar.mysql.MySQLDataSource;
+import com.alibaba.cobar.net.mysql.BinaryPacket;
+import com.alibaba.cobar.route.RouteResultsetNode;
+import com.alibaba.cobar.server.ServerConnection;
+import com.alibaba.cobar.server.session.BlockingSession;
+import com.alibaba.cobar.xa.XALog;
+
+/**
+ * 状态同步命令与语句一起发出时的发送顺序和响应消费顺序
+ */
+public class MySQLChannelTest extends TestCase {
+    private static final byte[] OK = new byte[] { 0, 0, 0, 2, 0, 0, 0 };
+    private static final byte[] RESULT = new byte[] { 0, 7, 0, 2, 0, 0, 0 };
+    private static final byte[] ERROR = new byte[] { (byte) 0xff, 0x28, 0x04, '#', 'H', 'Y', '0', '0', '0', 'e' };
+
+    private ServerSocket server;
+    private SocketChannel client;
+    private ServerConnection sc;
+    private MySQLChannel channel;
+    private ByteArrayOutputStream out;
+
+    @Override
+    protected void setUp() throws Exception {
+        // XA开启时事务中的语句之前还有XA START
+        XALog.getInstance().close();
+        server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        client = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+        sc = new ServerConnection(client);
+        sc.setSession(new BlockingSession(sc));
+        sc.setCharset("gbk");
+        sc.setTxIsolation(Isolations.READ_COMMITTED);
+
+        DataNodeConfig dnc = new DataNodeConfig();
+        dnc.setName("dn");
+        DataSourceConfig dsc = new DataSourceConfig();
+        dsc.setName("ds");
+        channel = new MySQLChannel(new MySQLDataSource(new MySQLDataNode(dnc), 0, dsc, 1));
+        out = new ByteArrayOutputStream();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        XALog.getInstance().close();
+        client.close();
+        server.close();
+    }
+
+    private void attach(byte[]... responses) throws IOException {
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        for (byte[] data : responses) {
+            in.write(data.length & 0xff);
+            in.write((data.length >>> 8) & 0xff);
+            in.write((data.length >>> 16) & 0xff);
+            in.write(1);
+            in.write(data);
+        }
+        int ci = channel.getCharsetIndex() == 0 ? CharsetUtil.getIndex("utf8") : channel.getCharsetIndex();
+        channel.attach(new ByteArrayInputStream(in.toByteArray()), out, ci);
+    }
+
+    /**
+     * @return 按发送顺序排列的语句
+     */
+    private List<String> sent() throws IOException {
+        List<String> list = new ArrayList<String>();
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        while (in.available() > 0) {
+            BinaryPacket bin = new BinaryPacket();
+            bin.read(in);
+            list.add(new String(bin.data, 1, bin.data.length - 1, "gbk"));
+        }
+        return list;
+    }
+
+    public void testPipelined() throws Exception {
+        attach(OK, OK, RESULT);
+        BinaryPacket bin = channel.execute(new RouteResultsetNode("dn", "select 1"), sc, true);
+        Assert.assertEquals(0, bin.data[0]);
+        Assert.assertEquals(7, bin.data[1]);
+        Assert.assertEquals(CharsetUtil.getIndex("gbk"), channel.getCharsetIndex());
+        Assert.assertEquals(Isolations.READ_COMMITTED, channel.getTxIsolation());
+        Assert.assertTrue(channel.isAutocommit());
+
+        List<String> sent = sent();
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals("SET names gbk", sent.get(0));
+        Assert.assertEquals("SET SESSION TRANSACTION ISOLATION LEVEL READ COMMITTED", sent.get(1));
+        Assert.assertEquals("select 1", sent.get(2));
+
+        // 状态一致时只发语句
+        out.reset();
+        attach(RESULT);
+        channel.execute(new RouteResultsetNode("dn", "select 2"), sc, true);
+        Assert.assertEquals(Collections.singletonList("select 2"), sent());
+    }
+
+    public void testSyncBeforeVariables() throws Exception {
+        sc.setVariables(Collections.singletonMap("@a", "1"));
+        attach(OK, OK, OK, OK, RESULT);
+        BinaryPacket bin = channel.execute(new RouteResultsetNode("dn", "update t set c = @a"), sc, false);
+        Assert.assertEquals(7, bin.data[1]);
+        Assert.assertFalse(channel.isAutocommit());
+
+        // 变量单独同步，且排在字符集、隔离级别和提交模式之后
+        List<String> sent = sent();
+        Assert.assertEquals(5, sent.size());
+        Assert.assertEquals("SET names gbk", sent.get(0));
+        Assert.assertEquals("SET SESSION TRANSACTION ISOLATION LEVEL READ COMMITTED", sent.get(1));
+        Assert.assertEquals("SET autocommit=0", sent.get(2));
+        Assert.assertEquals("SET @a = 1", sent.get(3));
+        Assert.assertEquals("update t set c = @a", sent.get(4));
+    }
+
+    public void testSyncBeforeXaStart() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "cobar-xa-" + System.nanoTime());
+        XALog.getInstance().init(dir.getPath(), "cobar-test-");
+        try {
+            attach(OK, OK, OK, OK, RESULT);
+            BinaryPacket bin = channel.execute(new RouteResultsetNode("dn", "update t set c = 1"), sc, false);
+            Assert.assertEquals(7, bin.data[1]);
+
+            List<String> sent = sent();
+            Assert.assertEquals(5, sent.size());
+            Assert.assertEquals("SET names gbk", sent.get(0));
+            Assert.assertEquals("SET SESSION TRANSACTION ISOLATION LEVEL READ COMMITTED", sent.get(1));
+            Assert.assertEquals("SET autocommit=0", sent.get(2));
+            Assert.assertEquals("XA START " + MySQLChannel.toXid(sc.getSession().getXid(), "dn"), sent.get(3));
+            Assert.assertEquals("update t set c = 1", sent.get(4));
+        } finally {
+            XALog.getInstance().close();
+            new File(dir, "xa.log").delete();
+            dir.delete();
+        }
+    }
+
+    public void testSyncError() throws Exception {
+        attach(OK, ERROR, RESULT);
+        try {
+            channel.execute(new RouteResultsetNode("dn", "select 1"), sc, true);
+            Assert.fail();
+        } catch (ErrorPacketException e) {
+        }
+        Assert.assertEquals("select 1", sent().get(2));
+        Assert.assertEquals(CharsetUtil.getIndex("gbk"), channel.getCharsetIndex());
+        Assert.assertFalse(Isolations.READ_COMMITTED == channel.getTxIsolation());
+    }
+
+    public void testEmptyContinuation() throws Exception {
+        // 恰好16M的行数据包之后是空的后续包，首字节和EOF相同
+        byte[] row = new byte[0xffffff];
+        row[0] = (byte) 0xfe;
+        row[row.length - 1] = 7;
+        byte[] eof = new byte[] { (byte) 0xfe, 0, 0, 2, 0 };
+        attach(row, new byte[0], eof, row, new byte[0], eof);
+
+        Assert.assertTrue(channel.receiveHeader());
+        Assert.assertFalse(channel.isContinuation());
+        ByteBuffer buffer = channel.relay(ByteBuffer.allocate(row.length + 16), sc, (byte) 2);
+        Assert.assertTrue(channel.receiveHeader());
+        Assert.assertTrue(channel.isContinuation());
+        Assert.assertEquals(0, channel.getPacketLength());
+        buffer = channel.relay(buffer, sc, (byte) 3);
+        Assert.assertEquals(row.length + 8, buffer.position());
+        Assert.assertEquals(0, buffer.get(row.length + 4));
+        Assert.assertEquals(3, buffer.get(row.length + 7));
+        Assert.assertFalse(channel.receiveHeader());
+        Assert.assertEquals((byte) 0xfe, channel.receiveRest().data[0]);
+
+        // 需要检查内容时合成一个逻辑包
+        Assert.assertTrue(channel.receiveHeader());
+        BinaryPacket bin = channel.receiveRest();
+        Assert.assertEquals(row.length, bin.data.length);
+        Assert.assertEquals(7, bin.data[row.length - 1]);
+        Assert.assertFalse(channel.receiveHeader());
+        Assert.assertFalse(channel.isContinuation());
+        Assert.assertEquals((byte) 0xfe, channel.receiveRest().data[0]);
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.mysql.nio;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.model.DataNodeConfig;
+import com.alibaba.cobar.config.model.DataSourceConfig;
+import com.alibaba.cobar.exception.PoolExhaustedException;
+import com.alibaba.cobar.mysql.MySQLDataNode;
+import com.alibaba.cobar.mysql.nio.handler.ResponseHandler;
+import com.alibaba.cobar.net.NIOProcessor;
+
+public class MySQLConnectionPoolTest extends TestCase {
+    private DataNodeConfig dnc;
+    private NIOProcessor[] processors;
+    private List<MySQLConnection> made;
+
+    @Override
+    protected void setUp() throws Exception {
+        dnc = new DataNodeConfig();
+        dnc.setName("dn");
+        processors = new NIOProcessor[2];
+        for (int i = 0; i < processors.length; ++i) {
+            processors[i] = new NIOProcessor("Processor" + i);
+            processors[i].setIndex(i);
+        }
+        made = new ArrayList<MySQLConnection>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (MySQLConnection c : made) {
+            c.getChannel().close();
+        }
+    }
+
+    private MySQLConnectionPool createPool(int size) {
+        DataSourceConfig dsc = new DataSourceConfig();
+        dsc.setName("ds");
+        return new MySQLConnectionPool(new MySQLDataNode(dnc), 0, dsc, size, processors.length,
+                                       new MySQLConnectionFactory() {
+                                           @Override
+                                           public MySQLConnection make(MySQLConnectionPool pool,
+                                                                       NIOProcessor processor,
+                                                                       ResponseHandler handler) throws IOException {
+                                               // 不建立网络连接，直接认为已注册到指定的处理器上
+                                               MySQLConnection c = new MySQLConnection(SocketChannel.open());
+                                               c.setPool(pool);
+                                               c.setProcessor(processor);
+                                               made.add(c);
+                                               handler.connectionAcquired(c);
+                                               return c;
+                                           }
+                                       });
+    }
+
+    public void testStealFromOtherProcessor() throws Exception {
+        MySQLConnectionPool pool = createPool(2);
+        Handler handler = new Handler();
+        pool.getConnection(processors[1], handler, "a");
+        MySQLConnection c = handler.acquired.get(0);
+        Assert.assertSame(processors[1], c.getProcessor());
+        Assert.assertEquals("a", c.getAttachment());
+        pool.releaseChannel(c);
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // 同一个处理器上的连接不算借用
+        pool.getConnection(processors[1], handler, "b");
+        Assert.assertSame(c, handler.acquired.get(1));
+        Assert.assertEquals(0, pool.getStealCount());
+        pool.releaseChannel(c);
+
+        // 本处理器没有空闲连接时从其它处理器借
+        pool.getConnection(processors[0], handler, "c");
+        Assert.assertSame(c, handler.acquired.get(2));
+        Assert.assertEquals("c", c.getAttachment());
+        Assert.assertEquals(1, pool.getStealCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(1, made.size());
+    }
+
+    public void testWaitQueue() throws Exception {
+        dnc.setWaitQueueSize(1);
+        MySQLConnectionPool pool = createPool(1);
+        Handler h1 = new Handler();
+        pool.getConnection(processors[0], h1, "a");
+        MySQLConnection c = h1.acquired.get(0);
+
+        Handler h2 = new Handler();
+        pool.getConnection(processors[0], h2, "b");
+        Assert.assertEquals(1, pool.getWaitingCount());
+        Assert.assertTrue(h2.acquired.isEmpty());
+        try {
+            pool.getConnection(processors[0], new Handler(), "c");
+            Assert.fail();
+        } catch (PoolExhaustedException e) {
+        }
+        Assert.assertEquals(1L, pool.getRejectCount());
+
+        // 归还的连接直接交给等待者，活跃数不变
+        pool.releaseChannel(c);
+        Assert.assertSame(c, h2.acquired.get(0));
+        Assert.assertEquals("b", c.getAttachment());
+        Assert.assertEquals(0, pool.getWaitingCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    public void testDeActive() throws Exception {
+        MySQLConnectionPool pool = createPool(1);
+        Handler h1 = new Handler();
+        pool.getConnection(processors[0], h1, "a");
+        Handler h2 = new Handler();
+        pool.getConnection(processors[1], h2, "b");
+        Assert.assertEquals(1, pool.getWaitingCount());
+
+        // 关闭连接后名额交给等待者，在等待者的处理器上创建新连接
+        pool.deActive();
+        Assert.assertEquals(2, made.size());
+        MySQLConnection c = h2.acquired.get(0);
+        Assert.assertSame(made.get(1), c);
+        Assert.assertSame(processors[1], c.getProcessor());
+        Assert.assertEquals(0, pool.getWaitingCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+    }
+
+    public void testTimeout() throws Exception {
+        dnc.setWaitTimeout(0L);
+        MySQLConnectionPool pool = createPool(1);
+        Handler h1 = new Handler();
+        pool.getConnection(processors[0], h1, "a");
+        MySQLConnection c = h1.acquired.get(0);
+        Handler h2 = new Handler();
+        pool.getConnection(processors[0], h2, "b");
+        Assert.assertEquals(1, pool.getWaitingCount());
+
+        // 超时的等待者被移出队列并收到错误，归还的连接回到池中
+        pool.releaseChannel(c);
+        Assert.assertTrue(h2.acquired.isEmpty());
+        Assert.assertEquals(1, h2.errors.size());
+        Assert.assertTrue(h2.errors.get(0) instanceof PoolExhaustedException);
+        Assert.assertEquals(1L, pool.getTimeoutCount());
+        Assert.assertEquals(0, pool.getWaitingCount());
+        Assert.assertEquals(0, pool.getActiveCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    static class Handler implements ResponseHandler {
+        final List<MySQLConnection> acquired = new ArrayList<MySQLConnection>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+
+        @Override
+        public void connectionAcquired(MySQLConnection conn) {
+            acquired.add(conn);
+        }
+
+        @Override
+        public void connectionError(Throwable e, MySQLConnection conn) {
+            errors.add(e);
+        }
+
+        @Override
+        public void errorResponse(byte[] err, MySQLConnection conn) {
+        }
+
+        @Override
+        public void okResponse(byte[] ok, MySQLConnection conn) {
+        }
+
+        @Override
+        public void fieldEofResponse(byte[] header, List<byte[]> fields, byte[] eof, MySQLConnection conn) {
+        }
+
+        @Override
+        public void rowResponse(byte[] row, MySQLConnection conn) {
+        }
+
+        @Override
+        public void rowEofResponse(byte[] eof, MySQLConnection conn) {
+        }
+    }
+
+}
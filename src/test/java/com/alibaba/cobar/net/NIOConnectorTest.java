@@ -0,0 +1,51 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.net;
+
+import java.nio.channels.SocketChannel;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.mysql.nio.MySQLConnection;
+
+public class NIOConnectorTest extends TestCase {
+
+    public void testSelectProcessor() throws Exception {
+        NIOProcessor[] processors = new NIOProcessor[] { new NIOProcessor("Processor0"),
+                new NIOProcessor("Processor1") };
+        NIOConnector connector = new NIOConnector("Connector");
+        connector.setProcessors(processors);
+        SocketChannel channel = SocketChannel.open();
+        try {
+            MySQLConnection c = new MySQLConnection(channel);
+
+            // 未指定时轮流分配
+            Assert.assertSame(processors[1], connector.selectProcessor(c));
+            Assert.assertSame(processors[0], connector.selectProcessor(c));
+
+            // 指定时注册到前端连接所在的处理器，不影响轮流分配的顺序
+            c.setPreferredProcessor(processors[0]);
+            Assert.assertSame(processors[0], connector.selectProcessor(c));
+            Assert.assertSame(processors[0], connector.selectProcessor(c));
+            c.setPreferredProcessor(null);
+            Assert.assertSame(processors[1], connector.selectProcessor(c));
+        } finally {
+            channel.close();
+        }
+    }
+
+}
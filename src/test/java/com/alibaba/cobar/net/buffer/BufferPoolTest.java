@@ -0,0 +1,109 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.net.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BufferPoolTest extends TestCase {
+
+    public void testAllocateAndRecycle() {
+        BufferPool pool = new BufferPool(100 * 16, 16);
+        Assert.assertEquals(100, pool.capacity());
+        Assert.assertEquals(100, pool.size());
+
+        List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 110; ++i) {
+            list.add(pool.allocate());
+        }
+        Assert.assertEquals(0, pool.size());
+        Assert.assertEquals(10, pool.getNewCount());
+
+        for (ByteBuffer buffer : list) {
+            buffer.put((byte) 1);
+            pool.recycle(buffer);
+        }
+        pool.recycle(ByteBuffer.allocate(32));
+        Assert.assertTrue(pool.size() <= 110);
+        Assert.assertTrue(pool.size() >= 100);
+        ByteBuffer buffer = pool.allocate();
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(16, buffer.limit());
+
+        // 弹匣内的分配不访问仓库
+        for (int i = 0; i < 1000; ++i) {
+            pool.recycle(pool.allocate());
+        }
+        double rate = pool.getHitRates().get(Thread.currentThread().getName());
+        Assert.assertTrue(String.valueOf(rate), rate > 0.9);
+    }
+
+    public void testReclaimDeadThread() throws Exception {
+        final BufferPool pool = new BufferPool(64 * 16, 16);
+        Thread t = new Thread("buffer-test") {
+            @Override
+            public void run() {
+                List<ByteBuffer> list = new ArrayList<ByteBuffer>();
+                for (int i = 0; i < 64; ++i) {
+                    list.add(pool.allocate());
+                }
+                for (ByteBuffer buffer : list) {
+                    pool.recycle(buffer);
+                }
+            }
+        };
+        t.start();
+        t.join();
+        Assert.assertEquals(64, pool.size());
+        Assert.assertTrue(pool.getHitRates().isEmpty());
+        for (int i = 0; i < 64; ++i) {
+            pool.allocate();
+        }
+        Assert.assertEquals(0, pool.getNewCount());
+    }
+
+    public void testDirect() throws Exception {
+        BufferPool pool = new BufferPool(8 * 1024, 1024, true);
+        Assert.assertTrue(pool.isDirect());
+        Assert.assertEquals(8, pool.size());
+        ByteBuffer buffer = pool.allocate();
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertEquals(1024, buffer.capacity());
+        pool.recycle(ByteBuffer.allocate(1024));
+        pool.recycle(buffer);
+        Assert.assertEquals(8, pool.size());
+
+        // 不归还的切片在GC后被检测到并重新放回池中
+        for (int i = 0; i < 8; ++i) {
+            buffer = pool.allocate();
+        }
+        buffer = null;
+        Assert.assertFalse(pool.allocate().isDirect());
+        for (int i = 0; i < 50 && pool.getLeakCount() < 8; ++i) {
+            System.gc();
+            Thread.sleep(10);
+            pool.checkLeak();
+        }
+        Assert.assertEquals(8, pool.getLeakCount());
+        Assert.assertEquals(8, pool.size());
+        Assert.assertTrue(pool.allocate().isDirect());
+    }
+
+}
@@ -20,6 +20,7 @@ import org.junit.Test;
 
 import com.alibaba.cobar.manager.parser.ManagerParse;
 import com.alibaba.cobar.manager.parser.ManagerParseClear;
+import com.alibaba.cobar.manager.parser.ManagerParseMigrate;
 import com.alibaba.cobar.manager.parser.ManagerParseReload;
 import com.alibaba.cobar.manager.parser.ManagerParseRollback;
 import com.alibaba.cobar.manager.parser.ManagerParseShow;
@@ -149,6 +150,16 @@ public class ManagerParserTest {
         Assert.assertEquals(ManagerParseShow.ROUTER, ManagerParseShow.parse("show @@router", 5));
         Assert.assertEquals(ManagerParseShow.ROUTER, ManagerParseShow.parse("SHOW @@ROUTER", 5));
         Assert.assertEquals(ManagerParseShow.ROUTER, ManagerParseShow.parse("show @@ROUTER", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@routerx", 5));
+    }
+
+    @Test
+    public void testShowRouteCache() {
+        Assert.assertEquals(ManagerParseShow.ROUTE_CACHE, ManagerParseShow.parse("show @@route_cache", 5));
+        Assert.assertEquals(ManagerParseShow.ROUTE_CACHE, ManagerParseShow.parse("SHOW @@ROUTE_CACHE", 5));
+        Assert.assertEquals(ManagerParseShow.ROUTE_CACHE, ManagerParseShow.parse("show @@Route_Cache ", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@route_cachex", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@route", 5));
     }
 
     @Test
@@ -289,6 +300,43 @@ public class ManagerParserTest {
         Assert.assertEquals(ManagerParseStop.HEARTBEAT, ManagerParseStop.parse(" STOP  @@heartbeat ds:1000", 5));
     }
 
+    @Test
+    public void testStopMigration() {
+        Assert.assertEquals(ManagerParseStop.MIGRATION, ManagerParseStop.parse("stop @@migration func:12", 4));
+        Assert.assertEquals(ManagerParseStop.MIGRATION, ManagerParseStop.parse(" STOP  @@MIGRATION func:12", 5));
+        Assert.assertEquals(ManagerParseStop.OTHER, ManagerParseStop.parse("stop @@migrations func:12", 4));
+    }
+
+    @Test
+    public void testMigrate() {
+        Assert.assertEquals(ManagerParse.MIGRATE, 0xff & ManagerParse.parse("migrate @@bucket func:1:2"));
+        Assert.assertEquals(ManagerParse.MIGRATE, 0xff & ManagerParse.parse(" MIGRATE @@rate 100"));
+        Assert.assertEquals(ManagerParse.OTHER, ManagerParse.parse("migrates @@rate 100"));
+        Assert.assertEquals(ManagerParseMigrate.BUCKET, ManagerParseMigrate.parse("migrate @@bucket func:1:2", 7));
+        Assert.assertEquals(ManagerParseMigrate.BUCKET, ManagerParseMigrate.parse("MIGRATE  @@BUCKET func:1:2", 7));
+        Assert.assertEquals(ManagerParseMigrate.RATE, ManagerParseMigrate.parse("migrate @@rate 100", 7));
+        Assert.assertEquals(ManagerParseMigrate.OTHER, ManagerParseMigrate.parse("migrate @@rates 100", 7));
+        Assert.assertArrayEquals(new String[] { "func", "1", "2" },
+                                 ManagerParseMigrate.getArgs("migrate @@bucket func : 1:2"));
+        Assert.assertArrayEquals(new String[] { "100" }, ManagerParseMigrate.getArgs("migrate @@RATE 100 "));
+    }
+
+    @Test
+    public void testShowMigration() {
+        Assert.assertEquals(ManagerParseShow.MIGRATION, ManagerParseShow.parse("show @@migration", 5));
+        Assert.assertEquals(ManagerParseShow.MIGRATION, ManagerParseShow.parse("SHOW @@MIGRATION ", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@migrationx", 5));
+    }
+
+    @Test
+    public void testShowSequence() {
+        Assert.assertEquals(ManagerParseShow.SEQUENCE, ManagerParseShow.parse("show @@sequence", 5));
+        Assert.assertEquals(ManagerParseShow.SEQUENCE, ManagerParseShow.parse("SHOW @@SEQUENCE ", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@sequences", 5));
+        Assert.assertEquals(ManagerParseShow.SERVER, ManagerParseShow.parse("show @@server", 5));
+        Assert.assertEquals(ManagerParseShow.OTHER, ManagerParseShow.parse("show @@serverx", 5));
+    }
+
     @Test
     public void testReload() {
         Assert.assertEquals(ManagerParse.RELOAD, 0xff & ManagerParse.parse("reload @@"));
@@ -18,6 +18,7 @@
  */
 package com.alibaba.cobar.route;
 
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLSyntaxErrorException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,10 +36,14 @@ import com.alibaba.cobar.config.loader.xml.XMLSchemaLoader;
 import com.alibaba.cobar.config.model.SchemaConfig;
 import com.alibaba.cobar.config.util.ConfigException;
 import com.alibaba.cobar.parser.ast.expression.primary.RowExpression;
+import com.alibaba.cobar.parser.ast.fragment.SortOrder;
 import com.alibaba.cobar.parser.ast.stmt.SQLStatement;
 import com.alibaba.cobar.parser.ast.stmt.dml.DMLInsertStatement;
 import com.alibaba.cobar.parser.recognizer.SQLParserDelegate;
+import com.alibaba.cobar.parser.recognizer.mysql.lexer.MySQLLexer;
 import com.alibaba.cobar.route.config.RouteRuleInitializer;
+import com.alibaba.cobar.route.function.BucketMigrationTable;
+import com.alibaba.cobar.route.function.PartitionByBucket;
 import com.alibaba.cobar.route.util.PermutationUtil.PermutationGenerator;
 
 /**
@@ -923,6 +928,15 @@ public class ServerRouteTest extends AbstractAliasConvert {
             asserter.assertNode(node);
         }
 
+        sql = "select count(*) from wp_image where member_id in ('pavarotti17','qaa') group by member_id";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertEquals(0, rrs.getFlag());
+
+        sql = "select sum(id) from wp_image where member_id in ('pavarotti17','qaa') having sum(id) > 1";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(0, rrs.getFlag());
+
         sql = "select min(id) from wp_image where member_id in ('pavarotti17','qaa') limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
         if (rrs.getNodes().length > 1)
@@ -952,13 +966,13 @@ public class ServerRouteTest extends AbstractAliasConvert {
         sqlAsserter = new SimpleSQLAsserter();
         sqlAsserter.addExpectSQL(
                            0,
-                           "SELECT MAX(offer_id) FROM wp_image WHERE member_id IN ('pavarotti17', 'pavarotti17') OR member_id IN ('pavarotti17', 'pavarotti17') OR wp_image.member_id = 'pavarotti17' LIMIT 1, 99")
+                           "SELECT MAX(offer_id) FROM wp_image WHERE member_id IN ('pavarotti17', 'pavarotti17') OR member_id IN ('pavarotti17', 'pavarotti17') OR wp_image.member_id = 'pavarotti17' LIMIT 0, 100")
                    .addExpectSQL(
                            1,
-                           "SELECT MAX(offer_id) FROM wp_image WHERE member_id IN ('qaa') OR FALSE OR FALSE LIMIT 1, 99")
+                           "SELECT MAX(offer_id) FROM wp_image WHERE member_id IN ('qaa') OR FALSE OR FALSE LIMIT 0, 100")
                    .addExpectSQL(
                            2,
-                           "SELECT MAX(offer_id) FROM wp_image WHERE FALSE OR member_id IN ('1qq') OR FALSE LIMIT 1, 99");
+                           "SELECT MAX(offer_id) FROM wp_image WHERE FALSE OR member_id IN ('1qq') OR FALSE LIMIT 0, 100");
         asserter = new RouteNodeAsserter(nameAsserter, sqlAsserter);
         for (RouteResultsetNode node : nodeMap.values()) {
             asserter.assertNode(node);
@@ -991,7 +1005,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
         if (rrs.getNodes().length > 1)
             Assert.assertEquals(RouteResultset.SUM_FLAG, rrs.getFlag());
         if (rrs.getNodes().length > 1)
-            Assert.assertEquals(99L, rrs.getLimitSize());
+            Assert.assertEquals(-1L, rrs.getLimitSize());
         nodeMap = getNodeMap(rrs, 128);
         nameAsserter = new IndexedNodeNameAsserter("offer_dn", 0, 128);
         nameAsserter.assertRouteNodeNames(nodeMap.keySet());
@@ -1010,7 +1024,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
                 + " where o.member_id=w.member_id and o.member_id='pavarotti17' limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
         Assert.assertEquals(RouteResultset.SUM_FLAG, rrs.getFlag());
-        Assert.assertEquals(100L, rrs.getLimitSize());
+        Assert.assertEquals(99L, rrs.getLimitSize());
         nodeMap = getNodeMap(rrs, 2);
         nameAsserter = new NodeNameAsserter("offer_dn[12]", "offer_dn[123]");
         nameAsserter.assertRouteNodeNames(nodeMap.keySet());
@@ -1034,7 +1048,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
         sql = "select count(*) from (select * from(select * from offer_detail where offer_id='123' or offer_id='234' limit 88)offer  where offer.member_id='abc' limit 60) w "
                 + " where w.member_id ='pavarotti17' limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
-        Assert.assertEquals(88L, rrs.getLimitSize());
+        Assert.assertEquals(99L, rrs.getLimitSize());
         Assert.assertEquals(RouteResultset.SUM_FLAG, rrs.getFlag());
         nodeMap = getNodeMap(rrs, 2);
         nameAsserter = new NodeNameAsserter("detail_dn[29]", "detail_dn[15]");
@@ -1057,7 +1071,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
         sql = "select count(*) from (select * from(select max(id) from offer_detail where offer_id='123' or offer_id='234' limit 88)offer  where offer.member_id='abc' limit 60) w "
                 + " where w.member_id ='pavarotti17' limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
-        Assert.assertEquals(88L, rrs.getLimitSize());
+        Assert.assertEquals(99L, rrs.getLimitSize());
         Assert.assertEquals(0, rrs.getFlag());
         nodeMap = getNodeMap(rrs, 2);
         nameAsserter = new NodeNameAsserter("detail_dn[29]", "detail_dn[15]");
@@ -1083,7 +1097,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
         sql = "select * from (select * from(select max(id) from offer_detail where offer_id='123' or offer_id='234' limit 88)offer  where offer.member_id='abc' limit 60) w "
                 + " where w.member_id ='pavarotti17' limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
-        Assert.assertEquals(88L, rrs.getLimitSize());
+        Assert.assertEquals(99L, rrs.getLimitSize());
         Assert.assertEquals(RouteResultset.MAX_FLAG, rrs.getFlag());
         nodeMap = getNodeMap(rrs, 2);
         nameAsserter = new NodeNameAsserter("detail_dn[29]", "detail_dn[15]");
@@ -1106,7 +1120,7 @@ public class ServerRouteTest extends AbstractAliasConvert {
         sql = "select * from (select count(*) from(select * from offer_detail where offer_id='123' or offer_id='234' limit 88)offer  where offer.member_id='abc' limit 60) w "
                 + " where w.member_id ='pavarotti17' limit 99";
         rrs = ServerRouter.route(schema, sql, null, null);
-        Assert.assertEquals(88L, rrs.getLimitSize());
+        Assert.assertEquals(99L, rrs.getLimitSize());
         Assert.assertEquals(RouteResultset.SUM_FLAG, rrs.getFlag());
         nodeMap = getNodeMap(rrs, 2);
         nameAsserter = new NodeNameAsserter("detail_dn[29]", "detail_dn[15]");
@@ -1885,4 +1899,533 @@ public class ServerRouteTest extends AbstractAliasConvert {
         }
     }
 
+    public void testOrderByMerge() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "select member_id, gmt as g from wp_image where member_id in ('pavarotti17','qaa') order by g desc, 1";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertEquals(2, rrs.getOrderBy().size());
+        Assert.assertEquals("G", rrs.getOrderBy().get(0).getKey());
+        Assert.assertEquals(SortOrder.DESC, rrs.getOrderBy().get(0).getValue());
+        Assert.assertEquals("MEMBER_ID", rrs.getOrderBy().get(1).getKey());
+        Assert.assertEquals(SortOrder.ASC, rrs.getOrderBy().get(1).getValue());
+
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') order by 2";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertNull(rrs.getOrderBy());
+
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') order by length(member_id)";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getOrderBy());
+
+        // 按原始列名排序时对应结果集中的别名，不在结果集中的列无法归并
+        sql = "select member_id as m, gmt from wp_image where member_id in ('pavarotti17','qaa') order by member_id";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals("M", rrs.getOrderBy().get(0).getKey());
+        sql = "select * from wp_image where member_id in ('pavarotti17','qaa') order by gmt";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals("GMT", rrs.getOrderBy().get(0).getKey());
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') order by gmt";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getOrderBy());
+    }
+
+    public void testLimitPushDown() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "select member_id, gmt from wp_image where member_id in ('pavarotti17','qaa') order by gmt limit 10, 20";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertEquals(10L, rrs.getLimitOffset());
+        Assert.assertEquals(20L, rrs.getLimitSize());
+        for (RouteResultsetNode node : rrs.getNodes()) {
+            Assert.assertTrue(node.getStatement(), node.getStatement().endsWith("ORDER BY gmt LIMIT 0, 30"));
+        }
+
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') limit 5";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(0L, rrs.getLimitOffset());
+        Assert.assertEquals(5L, rrs.getLimitSize());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 0, 5"));
+
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') order by length(member_id) limit 10, 20";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(-1L, rrs.getLimitSize());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 10, 20"));
+
+        sql = "select distinct member_id from wp_image where member_id in ('pavarotti17','qaa') limit 10, 20";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(-1L, rrs.getLimitSize());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 10, 20"));
+
+        sql = "select member_id as m from wp_image where member_id in ('pavarotti17','qaa') order by member_id limit 10, 5";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(10L, rrs.getLimitOffset());
+        Assert.assertEquals(5L, rrs.getLimitSize());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 0, 15"));
+
+        sql = "select member_id from wp_image where member_id in ('pavarotti17','qaa') order by gmt limit 10, 5";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(-1L, rrs.getLimitSize());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 10, 5"));
+    }
+
+    public void testGroupByMerge() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "select member_id, avg(file_size), count(*) c from wp_image where member_id in ('pavarotti17','qaa') "
+                + "group by member_id order by c desc limit 10, 20";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertEquals(10L, rrs.getLimitOffset());
+        Assert.assertEquals(20L, rrs.getLimitSize());
+        Assert.assertEquals(0, rrs.getFlag());
+        GroupByMerge merge = rrs.getGroupByMerge();
+        Assert.assertNotNull(merge);
+        Assert.assertEquals(3, merge.getColumnCount());
+        Assert.assertEquals(3, merge.getCountColumn(1));
+        Assert.assertEquals(GroupByMerge.AVG, merge.getTypes()[1]);
+        Assert.assertEquals(2, merge.getOrderColumns()[0]);
+        Assert.assertTrue(merge.getOrderDesc()[0]);
+        for (RouteResultsetNode node : rrs.getNodes()) {
+            Assert.assertTrue(node.getStatement(), node.getStatement().startsWith(
+                    "SELECT member_id, SUM(file_size) AS `AVG(file_size)`, COUNT(*) AS C, COUNT(file_size) FROM"));
+            Assert.assertTrue(node.getStatement(), node.getStatement().endsWith("ORDER BY c DESC"));
+        }
+
+        sql = "select count(*) from wp_image where member_id in ('pavarotti17','qaa') group by member_id, gmt desc";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        merge = rrs.getGroupByMerge();
+        Assert.assertEquals(1, merge.getColumnCount());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().startsWith("SELECT COUNT(*), member_id, gmt FROM"));
+        Assert.assertEquals(2, merge.getOrderColumns()[1]);
+        Assert.assertTrue(merge.getOrderDesc()[1]);
+
+        sql = "select member_id, count(distinct id) from wp_image where member_id in ('pavarotti17','qaa') "
+                + "group by member_id limit 3";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getGroupByMerge());
+        Assert.assertTrue(rrs.getNodes()[0].getStatement().endsWith("LIMIT 0, 3"));
+
+        sql = "select member_id, count(*) from wp_image where member_id in ('pavarotti17','qaa') "
+                + "group by member_id having count(*) > 1";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getGroupByMerge());
+    }
+
+    private static RouteResultset routePrepared(SchemaConfig schema, SQLStatement ast, String sql, Object... args)
+            throws Exception {
+        Map<Integer, Object> params = new HashMap<Integer, Object>();
+        for (int i = 0; i < args.length; ++i) {
+            params.put(i + 1, args[i]);
+        }
+        return ServerRouter.route(schema, ast, sql, params);
+    }
+
+    public void testPreparedRoute() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "insert into offer_detail (`offer_id`, gmt) values (?, now())";
+        SQLStatement ast = SQLParserDelegate.parse(sql, new MySQLLexer(sql), null, false);
+        RouteResultset rrs = routePrepared(schema, ast, sql, 123);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("detail_dn[15]", rrs.getNodes()[0].getName());
+        Assert.assertEquals("INSERT INTO offer_detail (`offer_id`, gmt) VALUES (123, NOW())",
+                            rrs.getNodes()[0].getStatement());
+        rrs = routePrepared(schema, ast, sql, 1000000L);
+        String literal = "insert into offer_detail (`offer_id`, gmt) values (1000000, now())";
+        Assert.assertEquals(ServerRouter.route(schema, literal, null, null).getNodes()[0].getName(),
+                            rrs.getNodes()[0].getName());
+        Assert.assertFalse("detail_dn[15]".equals(rrs.getNodes()[0].getName()));
+        Assert.assertEquals("INSERT INTO offer_detail (`offer_id`, gmt) VALUES (1000000, NOW())",
+                            rrs.getNodes()[0].getStatement());
+
+        sql = "select * from wp_image where member_id in (?, ?) and name = ? limit ?, ?";
+        ast = SQLParserDelegate.parse(sql, new MySQLLexer(sql), null, false);
+        rrs = routePrepared(schema, ast, sql, "pavarotti17", "qaa", "it's", 10, 20);
+        Assert.assertEquals(2, rrs.getNodes().length);
+        Assert.assertEquals(10L, rrs.getLimitOffset());
+        Assert.assertEquals(20L, rrs.getLimitSize());
+        for (RouteResultsetNode node : rrs.getNodes()) {
+            Assert.assertTrue(node.getStatement(), node.getStatement().endsWith("AND name = 'it\\'s' LIMIT 0, 30"));
+        }
+        rrs = routePrepared(schema, ast, sql, "pavarotti17", "pavarotti17", null, 0, 5);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("SELECT * FROM wp_image WHERE member_id IN ('pavarotti17', 'pavarotti17') "
+                            + "AND name = NULL LIMIT 0, 5", rrs.getNodes()[0].getStatement());
+    }
+
+    public void testRoutePlanCacheFull() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        RoutePlanCache cache = RoutePlanCache.getInstance();
+        cache.clear();
+        cache.setCapacity(2);
+        try {
+            String hot = "select id from offer_detail where offer_id = 123";
+            ServerRouter.route(schema, hot, null, null);
+            for (int i = 0; i < 10; ++i) {
+                long hit = cache.getHitCount();
+                RouteResultset rrs = ServerRouter.route(schema, hot, null, null);
+                Assert.assertEquals(hit + 1, cache.getHitCount());
+                Assert.assertEquals("detail_dn[15]", rrs.getNodes()[0].getName());
+
+                // 满了以后淘汰未被访问的计划，常用的计划留在缓存中
+                rrs = ServerRouter.route(schema, "select c" + i + " from offer_detail where offer_id = 123", null, null);
+                Assert.assertEquals("detail_dn[15]", rrs.getNodes()[0].getName());
+                Assert.assertTrue(cache.size() <= 2);
+            }
+
+            // 新的语句形态仍然能被缓存
+            long hit = cache.getHitCount();
+            String sql = "select name from offer_detail where offer_id = 123";
+            ServerRouter.route(schema, sql, null, null);
+            RouteResultset rrs = ServerRouter.route(schema, sql.replace("123", "1000000"), null, null);
+            Assert.assertEquals(hit + 1, cache.getHitCount());
+            Assert.assertFalse("detail_dn[15]".equals(rrs.getNodes()[0].getName()));
+            Assert.assertTrue(cache.size() <= 2);
+        } finally {
+            cache.setCapacity(4096);
+        }
+    }
+
+    public void testRoutePlanCache() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        RoutePlanCache cache = RoutePlanCache.getInstance();
+        long hit = cache.getHitCount();
+        String sql = "insert into offer_detail (`offer_id`, gmt) values (123, now())";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals("detail_dn[15]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(hit, cache.getHitCount());
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(hit + 1, cache.getHitCount());
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("detail_dn[15]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(sql, rrs.getNodes()[0].getStatement());
+
+        // 相同形态的语句按各自的字面量计算路由
+        sql = "insert into offer_detail (`offer_id`, gmt) values (1000000, now())";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(hit + 2, cache.getHitCount());
+        Assert.assertFalse("detail_dn[15]".equals(rrs.getNodes()[0].getName()));
+        cache.setCapacity(0);
+        try {
+            Assert.assertEquals(ServerRouter.route(schema, sql, null, null).getNodes()[0].getName(),
+                                rrs.getNodes()[0].getName());
+        } finally {
+            cache.setCapacity(4096);
+        }
+
+        sql = "select * from offer_detail where offer_id = 123 and gmt = 'x'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        rrs = ServerRouter.route(schema, sql.replace("123", "1000000"), null, null);
+        Assert.assertEquals(hit + 3, cache.getHitCount());
+        Assert.assertFalse("detail_dn[15]".equals(rrs.getNodes()[0].getName()));
+
+        // 分区列的值不能唯一对应到字面量时不缓存
+        sql = "select * from offer_detail where offer_id = 123 and gmt = 123";
+        ServerRouter.route(schema, sql, null, null);
+        ServerRouter.route(schema, sql, null, null);
+        sql = "select * from offer_detail where offer_id = 123 and offer_id between 100 and 200";
+        ServerRouter.route(schema, sql, null, null);
+        ServerRouter.route(schema, sql, null, null);
+        sql = "select * from offer_detail where offer_id = 100 + 23";
+        ServerRouter.route(schema, sql, null, null);
+        ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(hit + 3, cache.getHitCount());
+    }
+
+    public void testRangeRoute() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        // offer_detail: 128个分区，每个分区8个连续值
+        String sql = "select * from offer_detail where offer_id between 0 and 20";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(3, rrs.getNodes().length);
+        Map<String, RouteResultsetNode> nodeMap = getNodeMap(rrs, 3);
+        Assert.assertEquals("SELECT * FROM offer_detail WHERE offer_id BETWEEN 0 AND 20",
+                            nodeMap.get("detail_dn[0]").getStatement());
+        Assert.assertTrue(nodeMap.containsKey("detail_dn[1]"));
+        Assert.assertTrue(nodeMap.containsKey("detail_dn[2]"));
+
+        sql = "select * from offer_detail where offer_id >= 8 and gmt = 1 and offer_id < 24";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        nodeMap = getNodeMap(rrs, 2);
+        sql = "SELECT * FROM offer_detail WHERE offer_id >= 8 AND gmt = 1 AND offer_id < 24";
+        Assert.assertEquals(sql, nodeMap.get("detail_dn[1]").getStatement());
+        Assert.assertEquals(sql, nodeMap.get("detail_dn[2]").getStatement());
+
+        sql = "select * from offer_detail where 24 > offer_id and offer_id > 8";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        nodeMap = getNodeMap(rrs, 2);
+        Assert.assertTrue(nodeMap.containsKey("detail_dn[1]"));
+        Assert.assertTrue(nodeMap.containsKey("detail_dn[2]"));
+
+        sql = "select * from offer_detail where offer_id = 3 or offer_id between 100 and 103";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        nodeMap = getNodeMap(rrs, 2);
+        Assert.assertEquals("SELECT * FROM offer_detail WHERE offer_id = 3 OR FALSE",
+                            nodeMap.get("detail_dn[0]").getStatement());
+        Assert.assertEquals("SELECT * FROM offer_detail WHERE FALSE OR offer_id BETWEEN 100 AND 103",
+                            nodeMap.get("detail_dn[12]").getStatement());
+
+        // 单侧无界的范围覆盖全部分区
+        sql = "select * from offer_detail where offer_id > 100";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+        sql = "select * from offer_detail where offer_id between 0 and 2000";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+
+        // 空范围仍由一个节点返回空结果
+        sql = "select * from offer_detail where offer_id > 20 and offer_id < 10";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+
+        // 分区函数不支持范围时路由到全部节点
+        sql = "select * from wp_image where member_id between 'a' and 'b'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+    }
+
+    public void testBucketDualWrite() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        PartitionByBucket func = (PartitionByBucket) schema.getTables().get("BUCKET_ORDER").getRule().getRules()
+                                                           .get(0).getRuleAlgorithm();
+        int bucket = func.bucketOf(7L);
+        int source = func.getRoutePartition(bucket);
+        int target = (source + 1) % 4;
+        long other = 8;
+        while (func.bucketOf(other) == bucket || func.getRoutePartition(func.bucketOf(other)) == target) {
+            ++other;
+        }
+        String otherNode = "offer_dn[" + func.getRoutePartition(func.bucketOf(other)) + "]";
+
+        // 计划缓存中不能留下迁移前的单节点写计划
+        String insert = "insert into bucket_order (order_id, v) values (7, 'a')";
+        ServerRouter.route(schema, insert, null, null);
+        ServerRouter.route(schema, insert, null, null);
+
+        BucketMigrationTable.getInstance().startDualWrite("bucketFunc", bucket, source, target);
+        RouteResultset rrs = ServerRouter.route(schema, insert, null, null);
+        Map<String, RouteResultsetNode> nodeMap = getNodeMap(rrs, 2);
+        Assert.assertEquals("INSERT INTO bucket_order (order_id, v) VALUES (7, 'a')",
+                            nodeMap.get("offer_dn[" + source + "]").getStatement());
+        Assert.assertEquals("INSERT INTO bucket_order (order_id, v) VALUES (7, 'a')",
+                            nodeMap.get("offer_dn[" + target + "]").getStatement());
+
+        // 读操作仍在原分区
+        rrs = ServerRouter.route(schema, "select * from bucket_order where order_id = 7", null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[" + source + "]", rrs.getNodes()[0].getName());
+
+        // 只有迁移中的键写到目标分区
+        String update = "update bucket_order set v = 'b' where order_id in (7, " + other + ")";
+        rrs = ServerRouter.route(schema, update, null, null);
+        nodeMap = getNodeMap(rrs, otherNode.equals("offer_dn[" + source + "]") ? 2 : 3);
+        Assert.assertEquals("UPDATE bucket_order SET v = 'b' WHERE order_id IN (7)",
+                            nodeMap.get("offer_dn[" + target + "]").getStatement());
+
+        BucketMigrationTable.getInstance().cutover("bucketFunc", bucket);
+        rrs = ServerRouter.route(schema, insert, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[" + target + "]", rrs.getNodes()[0].getName());
+        rrs = ServerRouter.route(schema, "delete from bucket_order where order_id = 7", null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[" + target + "]", rrs.getNodes()[0].getName());
+
+        // 迁回原分区后取消，读写都回到原分区
+        BucketMigrationTable.getInstance().startDualWrite("bucketFunc", bucket, target, source);
+        Assert.assertEquals(2, ServerRouter.route(schema, insert, null, null).getNodes().length);
+        BucketMigrationTable.getInstance().cancel("bucketFunc", bucket);
+        rrs = ServerRouter.route(schema, insert, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[" + target + "]", rrs.getNodes()[0].getName());
+        BucketMigrationTable.getInstance().startDualWrite("bucketFunc", bucket, target, source);
+        BucketMigrationTable.getInstance().cutover("bucketFunc", bucket);
+        Assert.assertEquals(source, func.getRoutePartition(bucket));
+    }
+
+    public void testGlobalTable() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "select * from category where id = 1";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertTrue(rrs.getNodes()[0].getName().startsWith("offer_dn["));
+        Assert.assertEquals(sql, rrs.getNodes()[0].getStatement());
+
+        // 读多个全局表时选择节点最少的表
+        sql = "select * from category c, area a where c.area_id = a.id";
+        for (int i = 0; i < 16; ++i) {
+            rrs = ServerRouter.route(schema, sql, null, null);
+            Assert.assertEquals(1, rrs.getNodes().length);
+            String node = rrs.getNodes()[0].getName();
+            int index = Integer.parseInt(node.substring("offer_dn[".length(), node.length() - 1));
+            Assert.assertTrue(index < 4);
+        }
+
+        sql = "update category set name = 'a' where id = 1";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertTrue(rrs.isGlobalTable());
+        Assert.assertEquals(128, rrs.getNodes().length);
+        for (int i = 0; i < 128; ++i) {
+            Assert.assertEquals("offer_dn[" + i + "]", rrs.getNodes()[i].getName());
+            Assert.assertEquals(sql, rrs.getNodes()[i].getStatement());
+        }
+        rrs = ServerRouter.route(schema, "insert into area (id, name) values (1, 'a')", null, null);
+        Assert.assertTrue(rrs.isGlobalTable());
+        Assert.assertEquals(4, rrs.getNodes().length);
+
+        // 关联全局表的查询跟随拆分表路由
+        sql = "select * from offer o join category c on o.category_id = c.id where o.member_id = 'pavarotti17'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertFalse(rrs.isGlobalTable());
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(sql, rrs.getNodes()[0].getStatement());
+        sql = "update offer o, category c set o.name = c.name where o.category_id = c.id and o.member_id = 'pavarotti17'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+
+        try {
+            ServerRouter.route(schema, "select * from offer o join area a on o.area_id = a.id", null, null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            ServerRouter.route(schema, "insert into area (id, name) select id, name from bucket_order", null, null);
+            Assert.fail();
+        } catch (SQLFeatureNotSupportedException e) {
+        }
+        try {
+            ServerRouter.route(schema, "delete from category where id in (select id from category, area)", null, null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testChildTable() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        String sql = "insert into offer_comment (id, offer_member_id, content) values (1, 'pavarotti17', 'a')";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(sql, rrs.getNodes()[0].getStatement());
+
+        sql = "delete from offer_comment where offer_member_id = 'pavarotti17' and id = 1";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+
+        // 父子表关联，条件在任一表的关联列上都路由到父表的分区
+        sql = "select * from offer o join offer_comment c on o.member_id = c.offer_member_id "
+                + "where c.offer_member_id = 'pavarotti17'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        sql = "select * from offer_comment c join offer o on o.member_id = c.offer_member_id "
+                + "where o.member_id = 'pavarotti17'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+
+        sql = "select * from offer_comment where offer_member_id in ('pavarotti17', 'abc')";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Map<String, RouteResultsetNode> nodeMap = getNodeMap(rrs, 2);
+        Assert.assertEquals("SELECT * FROM offer_comment WHERE offer_member_id IN ('pavarotti17')",
+                            nodeMap.get("offer_dn[123]").getStatement());
+
+        // 没有关联列时子表和父表一样分布在所有节点上
+        rrs = ServerRouter.route(schema, "select * from offer_comment where id = 1", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+    }
+
+    public void testGlobalIndex() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        GlobalIndex index = GlobalIndex.getInstance();
+        index.clear();
+        String select = "select * from member where email = 'a@b.com'";
+        RouteResultset rrs = ServerRouter.route(schema, select, null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+
+        // 插入的计划不能被缓存，否则不会维护索引
+        String insert = "insert into member (member_id, email) values ('pavarotti17', 'a@b.com')";
+        for (int i = 0; i < 2; ++i) {
+            rrs = ServerRouter.route(schema, insert, null, null);
+            Assert.assertEquals(1, rrs.getNodes().length);
+            Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+            Assert.assertEquals(1, rrs.getIndexEntries().size());
+        }
+        index.putAll(rrs.getIndexEntries());
+
+        rrs = ServerRouter.route(schema, select, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(select, rrs.getNodes()[0].getStatement());
+        rrs = ServerRouter.route(schema, "select * from member where email = 1", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+        rrs = ServerRouter.route(schema, "select * from member where email in ('a@b.com', 'c@d.com')", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+
+        String update = "update member set email = 'x@y.com' where email = 'a@b.com'";
+        rrs = ServerRouter.route(schema, update, null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        Assert.assertEquals(1, rrs.getIndexEntries().size());
+        index.putAll(rrs.getIndexEntries());
+        rrs = ServerRouter.route(schema, "delete from member where email = 'x@y.com'", null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+        Assert.assertNull(rrs.getIndexEntries());
+        rrs = ServerRouter.route(schema, "select * from member where email = 'x@y.com'", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+
+        rrs = ServerRouter.route(schema, "update member set email = 'z@y.com' where member_id = 'abc'", null, null);
+        index.putAll(rrs.getIndexEntries());
+        rrs = ServerRouter.route(schema, "select * from member where email in ('a@b.com', 'z@y.com')", null, null);
+        Map<String, RouteResultsetNode> nodeMap = getNodeMap(rrs, 2);
+        Assert.assertTrue(nodeMap.containsKey("offer_dn[123]"));
+        index.clear();
+    }
+
+    public void testGlobalIndexEviction() throws Exception {
+        SchemaConfig schema = schemaMap.get("cndb");
+        GlobalIndex index = GlobalIndex.getInstance();
+        index.clear();
+        String[] values = { "'a@b.com'", "'c@d.com'", "'e@f.com'" };
+        for (String value : values) {
+            String insert = "insert into member (member_id, email) values ('pavarotti17', " + value + ")";
+            index.putAll(ServerRouter.route(schema, insert, null, null).getIndexEntries());
+        }
+        Assert.assertEquals(3, index.size());
+
+        // 赋值的记录所在分区不确定时移出该取值
+        String sql = "update member set email = 'a@b.com' where member_id in ('abc', 'pavarotti17')";
+        RouteResultset rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getIndexEntries());
+        Assert.assertEquals(2, index.size());
+        rrs = ServerRouter.route(schema, "select * from member where email = 'a@b.com'", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+        rrs = ServerRouter.route(schema, "update member set email = 'c@d.com' where gmt_create = 1", null, null);
+        Assert.assertEquals(128, rrs.getNodes().length);
+        Assert.assertEquals(1, index.size());
+
+        // 条件中的取值随DELETE移出
+        rrs = ServerRouter.route(schema, "delete from member where email = 'e@f.com'", null, null);
+        Assert.assertEquals(1, rrs.getNodes().length);
+        Assert.assertEquals(0, index.size());
+
+        // 取值无法计算时移出整列
+        for (String value : values) {
+            String insert = "insert into member (member_id, email) values ('pavarotti17', " + value + ")";
+            index.putAll(ServerRouter.route(schema, insert, null, null).getIndexEntries());
+        }
+        sql = "update member set email = concat(member_id, '@b.com') where member_id = 'abc'";
+        rrs = ServerRouter.route(schema, sql, null, null);
+        Assert.assertNull(rrs.getIndexEntries());
+        Assert.assertEquals(0, index.size());
+        index.putAll(ServerRouter.route(schema, "insert into member (member_id, email) values ('abc', 'a@b.com')",
+                                        null, null).getIndexEntries());
+        ServerRouter.route(schema, "insert into member (email) values ('a@b.com')", null, null);
+        Assert.assertEquals(0, index.size());
+        index.clear();
+    }
+
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route.function;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.PlaceHolder;
+import com.alibaba.cobar.parser.util.ListUtil;
+
+public class PartitionByBucketTest extends TestCase {
+
+    @SuppressWarnings("unchecked")
+    private static PartitionByBucket create(int partitionCount, String bucketMapPath) {
+        PartitionByBucket sut = new PartitionByBucket("test", (List<Expression>) ListUtil.createList(new PlaceHolder(
+                "id",
+                "ID").setCacheEvalRst(false)));
+        sut.setCacheEvalRst(false);
+        sut.setPartitionCount(partitionCount);
+        sut.setBucketMapPath(bucketMapPath);
+        sut.init();
+        return sut;
+    }
+
+    private static int execute(PartitionByBucket sut, Object key) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("ID", key);
+        return sut.calculate(map)[0];
+    }
+
+    public void testGrowth() {
+        PartitionByBucket sut8 = create(8, null);
+        PartitionByBucket sut9 = create(9, null);
+        int[] count = new int[9];
+        int moved = 0;
+        for (int i = 0; i < 100000; ++i) {
+            long key = i * 16L;
+            int p8 = execute(sut8, key);
+            int p9 = execute(sut9, key);
+            ++count[p9];
+            if (p8 != p9) {
+                // 只会迁移到新增的分区
+                Assert.assertEquals(8, p9);
+                ++moved;
+            }
+        }
+        Assert.assertTrue(moved > 100000 / 9 * 0.8 && moved < 100000 / 9 * 1.2);
+        for (int c : count) {
+            Assert.assertTrue(c > 100000 / 9 * 0.8 && c < 100000 / 9 * 1.2);
+        }
+        Assert.assertEquals(execute(sut8, 12345L), execute(sut8, "12345"));
+    }
+
+    public void testBucketMap() throws Exception {
+        File file = File.createTempFile("bucket", ".txt");
+        file.deleteOnExit();
+        FileWriter out = new FileWriter(file);
+        out.write("# moved buckets\n0-511=3\n1023 = 2\n");
+        out.close();
+        PartitionByBucket sut = create(4, file.getAbsolutePath());
+        PartitionByBucket origin = create(4, null);
+        for (int i = 0; i < 1000; ++i) {
+            int bucket = sut.bucketOf(i);
+            int expect = bucket < 512 ? 3 : (bucket == 1023 ? 2 : origin.getPartition(bucket));
+            Assert.assertEquals(expect, execute(sut, i));
+        }
+
+        out = new FileWriter(file);
+        out.write("0=4\n");
+        out.close();
+        try {
+            create(4, file.getAbsolutePath());
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.route.function;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Assert;
+
+import com.alibaba.cobar.config.model.rule.RangeValue;
+import com.alibaba.cobar.parser.ast.expression.Expression;
+import com.alibaba.cobar.parser.ast.expression.primary.PlaceHolder;
+import com.alibaba.cobar.parser.util.ListUtil;
+
+public class PartitionByRangeTest extends TestCase {
+
+    @SuppressWarnings("unchecked")
+    private static PartitionByRange create(String keyType, String boundaries, Integer defaultNode) {
+        PartitionByRange sut = new PartitionByRange("test", (List<Expression>) ListUtil.createList(new PlaceHolder(
+                "gmt",
+                "GMT").setCacheEvalRst(false)));
+        sut.setCacheEvalRst(false);
+        sut.setKeyType(keyType);
+        sut.setBoundaries(boundaries);
+        sut.setDefaultNode(defaultNode);
+        sut.init();
+        return sut;
+    }
+
+    private static int execute(PartitionByRange sut, Object key) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("GMT", key);
+        return sut.calculate(map)[0];
+    }
+
+    public void testLong() {
+        PartitionByRange sut = create("long", "0, 100, 1000", null);
+        Assert.assertEquals(0, execute(sut, 0L));
+        Assert.assertEquals(0, execute(sut, 99));
+        Assert.assertEquals(1, execute(sut, "100"));
+        Assert.assertEquals(2, execute(sut, 1000L));
+        Assert.assertEquals(2, execute(sut, Long.MAX_VALUE));
+        try {
+            execute(sut, -1L);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        sut = create("long", "0, 100, 1000", 3);
+        Assert.assertEquals(3, execute(sut, -1L));
+    }
+
+    public void testDate() {
+        PartitionByRange sut = create("date", "2012-01-01,2012-02-01,2012-03-01 00:00:00", null);
+        Assert.assertEquals(0, execute(sut, "2012-01-31 23:59:59.999"));
+        Assert.assertEquals(1, execute(sut, "2012-02-01"));
+        Assert.assertEquals(1, execute(sut, "2012/02/29 12:00:00"));
+        Assert.assertEquals(2, execute(sut, "20120301"));
+        Assert.assertEquals(2, execute(sut, 20130101000000L));
+
+        Assert.assertEquals(Long.valueOf(20120305120001L), PartitionByRange.parseDate("2012-03-05T12:00:01"));
+        Assert.assertNull(PartitionByRange.parseDate("2012-13-01"));
+        Assert.assertNull(PartitionByRange.parseDate("2012-03-05 12"));
+        Assert.assertNull(PartitionByRange.parseDate("abc"));
+    }
+
+    public void testRange() {
+        PartitionByRange sut = create("date", "2012-01-01,2012-02-01,2012-03-01,2012-04-01", null);
+        Assert.assertArrayEquals(new Integer[] { 0 },
+                                 sut.calculateRange("GMT", new RangeValue("2012-01-01", true, "2012-02-01", false)));
+        Assert.assertArrayEquals(new Integer[] { 0, 1 },
+                                 sut.calculateRange("GMT", new RangeValue("2012-01-01", true, "2012-02-01", true)));
+        Assert.assertArrayEquals(new Integer[] { 1, 2, 3 },
+                                 sut.calculateRange("GMT", new RangeValue("2012-02-15", false, null, false)));
+        Assert.assertArrayEquals(new Integer[] { 0, 1 },
+                                 sut.calculateRange("GMT", new RangeValue(null, false, "2012-02-15", false)));
+        Assert.assertArrayEquals(new Integer[] { 2 },
+                                 sut.calculateRange("GMT", new RangeValue("2012-03-10", true, "2012-03-01", true)));
+        Assert.assertNull(sut.calculateRange("GMT", new RangeValue("2012-03-10", true, "x", true)));
+        Assert.assertNull(sut.calculateRange("ID", new RangeValue("2012-01-01", true, "2012-02-01", true)));
+
+        sut = create("long", "0, 100, 1000", 3);
+        Assert.assertArrayEquals(new Integer[] { 3, 0 },
+                                 sut.calculateRange("GMT", new RangeValue(-10L, true, 50L, true)));
+        Assert.assertArrayEquals(new Integer[] { 1, 2 },
+                                 sut.calculateRange("GMT", new RangeValue(100L, true, 1000L, true)));
+    }
+
+    public void testDefaultNodeOverlapsBoundary() {
+        PartitionByRange sut = create("long", "0, 100, 200, 300", 0);
+        Assert.assertEquals(0, execute(sut, 50L));
+        Assert.assertEquals(0, execute(sut, -1L));
+        Assert.assertArrayEquals(new Integer[] { 0, 1, 2 },
+                                 sut.calculateRange("GMT", new RangeValue(50L, true, 250L, true)));
+        Assert.assertArrayEquals(new Integer[] { 0, 1 },
+                                 sut.calculateRange("GMT", new RangeValue(-10L, true, 150L, true)));
+        Assert.assertArrayEquals(new Integer[] { 0 }, sut.calculateRange("GMT", new RangeValue(null, false, 50L, true)));
+    }
+
+}
@@ -49,4 +49,15 @@ public class PartitionUtilTest {
         Assert.assertEquals(2, partNo2);
     }
 
+    @Test
+    public void testPartitionRange() {
+        PartitionUtil pu = new PartitionUtil(new int[] { 2, 1 }, new int[] { 256, 512 });
+        Assert.assertArrayEquals(new int[] { 0 }, pu.partition(10L, 200L));
+        Assert.assertArrayEquals(new int[] { 0, 1, 2 }, pu.partition(200L, 600L));
+        // 跨越1024的边界后回到partition0
+        Assert.assertArrayEquals(new int[] { 0, 2 }, pu.partition(1000L, 1030L));
+        Assert.assertArrayEquals(new int[0], pu.partition(20L, 10L));
+        Assert.assertArrayEquals(new int[] { 0, 1, 2 }, pu.partition(0L, Long.MAX_VALUE));
+    }
+
 }
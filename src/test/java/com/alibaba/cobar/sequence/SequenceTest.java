@@ -0,0 +1,137 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.sequence;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.loader.SchemaLoader;
+import com.alibaba.cobar.config.loader.xml.XMLSchemaLoader;
+import com.alibaba.cobar.config.model.SchemaConfig;
+import com.alibaba.cobar.route.RouteResultset;
+import com.alibaba.cobar.route.config.RouteRuleInitializer;
+
+public class SequenceTest extends TestCase {
+
+    private static final class MemoryStore implements SequenceStore {
+        private final Map<String, Long> values = new ConcurrentHashMap<String, Long>();
+        private final AtomicInteger allocateCount = new AtomicInteger();
+
+        @Override
+        public synchronized long allocate(String name, int size) throws IOException {
+            allocateCount.incrementAndGet();
+            Long v = values.get(name);
+            long max = (v == null ? 0L : v) + size;
+            values.put(name, max);
+            return max;
+        }
+    }
+
+    public void testSegment() throws Exception {
+        MemoryStore store = new MemoryStore();
+        Sequence seq = new Sequence("offer", store, 3);
+        for (int i = 1; i <= 7; ++i) {
+            Assert.assertEquals(i, seq.next());
+        }
+        Assert.assertEquals(3, store.allocateCount.get());
+        Assert.assertEquals(3, seq.getFetchCount());
+        Assert.assertEquals(8, seq.getCurrentValue());
+        Assert.assertEquals(9, seq.getMaxValue());
+
+        // 另一个cobar实例取走了一段
+        store.allocate("offer", 3);
+        Assert.assertEquals(8, seq.next());
+        Assert.assertEquals(9, seq.next());
+        Assert.assertEquals(13, seq.next());
+    }
+
+    public void testConcurrent() throws Exception {
+        final MemoryStore store = new MemoryStore();
+        final Sequence seq = new Sequence("offer", store, 10);
+        final Map<Long, Long> seen = new ConcurrentHashMap<Long, Long>();
+        final int threads = 8;
+        final int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int t = 0; t < threads; ++t) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; ++i) {
+                            long v = seq.next();
+                            if (seen.put(v, v) != null) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        Assert.assertEquals(0, errors.get());
+        Assert.assertEquals(threads * count, seen.size());
+        Assert.assertEquals(threads * count / 10, store.allocateCount.get());
+    }
+
+    public void testFillInsert() throws Exception {
+        SchemaLoader schemaLoader = new XMLSchemaLoader("/route/schema.xml", "/route/rule.xml");
+        RouteRuleInitializer.initRouteRule(schemaLoader);
+        SchemaConfig schema = schemaLoader.getSchemas().get("cndb");
+        Assert.assertTrue(schema.isSequenceRequired());
+
+        MemoryStore store = new MemoryStore();
+        SequenceManager manager = SequenceManager.getInstance();
+        manager.init(store, 100);
+        try {
+            String sql = "insert into member (member_id, email) values ('pavarotti17', 'a@b.com'), ('pavarotti17', 'c@d.com')";
+            RouteResultset rrs = manager.route(schema, sql, null, null);
+            Assert.assertEquals(1L, rrs.getInsertId());
+            Assert.assertEquals(1, rrs.getNodes().length);
+            Assert.assertEquals("offer_dn[123]", rrs.getNodes()[0].getName());
+            Assert.assertEquals("INSERT INTO member (member_id, email, ID) VALUES "
+                                + "('pavarotti17', 'a@b.com', 1), ('pavarotti17', 'c@d.com', 2)",
+                                rrs.getNodes()[0].getStatement());
+
+            // 序列列已给出时不补全
+            sql = "insert into member (member_id, email, id) values ('pavarotti17', 'a@b.com', 5)";
+            rrs = manager.route(schema, sql, null, null);
+            Assert.assertEquals(0L, rrs.getInsertId());
+            Assert.assertEquals(sql, rrs.getNodes()[0].getStatement());
+
+            // 没有序列列的表
+            rrs = manager.route(schema, "insert into offer_detail (offer_id, gmt) values (123, now())", null, null);
+            Assert.assertEquals(0L, rrs.getInsertId());
+
+            Assert.assertEquals(1, manager.getSequences().size());
+            Assert.assertEquals("member", manager.getSequences().get(0).getName());
+            Assert.assertEquals(3, manager.getSequence("member").next());
+        } finally {
+            manager.init(null, 0);
+        }
+    }
+
+}
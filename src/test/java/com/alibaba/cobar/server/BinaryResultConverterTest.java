@@ -0,0 +1,86 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.server;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import com.alibaba.cobar.config.Fields;
+
+public class BinaryResultConverterTest extends TestCase {
+
+    private static byte[] row(String... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        out.write(5);
+        for (String v : values) {
+            if (v == null) {
+                out.write(251);
+            } else {
+                byte[] b = v.getBytes();
+                out.write(b.length);
+                out.write(b, 0, b.length);
+            }
+        }
+        byte[] data = out.toByteArray();
+        data[0] = (byte) (data.length - 4);
+        return data;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            b[i] = (byte) values[i];
+        }
+        return b;
+    }
+
+    public void testToBinaryRow() {
+        int[] types = { Fields.FIELD_TYPE_LONG, Fields.FIELD_TYPE_LONGLONG, Fields.FIELD_TYPE_DOUBLE,
+                Fields.FIELD_TYPE_DATETIME, Fields.FIELD_TYPE_TIME, Fields.FIELD_TYPE_VAR_STRING,
+                Fields.FIELD_TYPE_DATE };
+        byte[] text = row("-2", "18446744073709551615", "1.5", "2012-08-28 10:20:30", "-25:01:02", "ab", null);
+        byte[] bin = BinaryResultConverter.toBinaryRow(text, 0, text.length, types);
+        byte[] expected = bytes(0, 0, 0, 5, 0,
+                                0, 1, // null bitmap, offset 2
+                                0xfe, 0xff, 0xff, 0xff, // LONG
+                                0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, // LONGLONG
+                                0, 0, 0, 0, 0, 0, 0xf8, 0x3f, // DOUBLE
+                                7, 0xdc, 0x07, 8, 28, 10, 20, 30, // DATETIME
+                                8, 1, 1, 0, 0, 0, 1, 1, 2, // TIME
+                                2, 'a', 'b');
+        expected[0] = (byte) (expected.length - 4);
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(bin));
+    }
+
+    public void testDateFraction() {
+        int[] types = { Fields.FIELD_TYPE_TIMESTAMP, Fields.FIELD_TYPE_DATE, Fields.FIELD_TYPE_DATETIME };
+        byte[] text = row("2012-01-02 00:00:00.5", "2012-01-02", "0000-00-00 00:00:00");
+        byte[] bin = BinaryResultConverter.toBinaryRow(text, 0, text.length, types);
+        byte[] expected = bytes(0, 0, 0, 5, 0, 0,
+                                11, 0xdc, 0x07, 1, 2, 0, 0, 0, 0x20, 0xa1, 0x07, 0, // 500000 micros
+                                4, 0xdc, 0x07, 1, 2,
+                                0);
+        expected[0] = (byte) (expected.length - 4);
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(bin));
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.server.session;
+
+import java.util.Collections;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SessionVariablesTest extends TestCase {
+
+    public void testAssign() {
+        Map<String, String> empty = Collections.emptyMap();
+        Map<String, String> vars = SessionVariables.assign("set sql_mode = 'ANSI', @@session.time_zone = '+8:00'",
+                                                           null, empty);
+        Assert.assertEquals(2, vars.size());
+        Assert.assertEquals("'ANSI'", vars.get("@@sql_mode"));
+        Assert.assertEquals("'+8:00'", vars.get("@@time_zone"));
+
+        vars = SessionVariables.assign("SET @A = -3, SQL_MODE = DEFAULT, @B = NULL, time_zone = SYSTEM", null, vars);
+        Assert.assertEquals(3, vars.size());
+        Assert.assertNull(vars.get("@@sql_mode"));
+        Assert.assertEquals("- 3", vars.get("@a"));
+        Assert.assertEquals("NULL", vars.get("@b"));
+        Assert.assertEquals("SYSTEM", vars.get("@@time_zone"));
+
+        // 表达式每次补发的值可能不同，不记录
+        Assert.assertNull(SessionVariables.assign("set @a = 1 + 2", null, vars));
+        Assert.assertNull(SessionVariables.assign("set @a = now()", null, vars));
+        Assert.assertNull(SessionVariables.assign("set @a = @a + 1", null, vars));
+        Assert.assertNull(SessionVariables.assign("set @a = (select max(id) from t)", null, vars));
+        Assert.assertNull(SessionVariables.assign("set @a = id", null, vars));
+        Assert.assertNull(SessionVariables.assign("set sql_mode = @@global.sql_mode", null, vars));
+
+        // 全局变量和cobar自己维护的变量不在后端补发
+        Assert.assertNull(SessionVariables.assign("set global wait_timeout = 10", null, vars));
+        Assert.assertNull(SessionVariables.assign("set @@autocommit = 0", null, vars));
+        Assert.assertNull(SessionVariables.assign("set names utf8", null, vars));
+        Assert.assertNull(SessionVariables.assign("set transaction isolation level serializable", null, vars));
+    }
+
+    public void testSyncStatement() {
+        Map<String, String> empty = Collections.emptyMap();
+        Map<String, String> from = SessionVariables.assign("set sql_mode = 'ANSI', @a = 1, time_zone = 'UTC'",
+                                                           null, empty);
+        Map<String, String> to = SessionVariables.assign("set @b = 2, time_zone = 'UTC'", null, empty);
+        Assert.assertNull(SessionVariables.getSyncStatement(empty, empty, null));
+        Assert.assertNull(SessionVariables.getSyncStatement(to, to, null));
+        Assert.assertEquals("SET @@sql_mode = DEFAULT, @a = NULL, @b = 2",
+                            SessionVariables.getSyncStatement(from, to, null));
+        Assert.assertEquals("SET @@sql_mode = 'STRICT_TRANS_TABLES', @a = NULL, @@time_zone = DEFAULT",
+                            SessionVariables.getSyncStatement(from, empty, "STRICT_TRANS_TABLES"));
+        Assert.assertEquals("SET @@sql_mode = 'ANSI', @a = 1, @@time_zone = 'UTC'",
+                            SessionVariables.getSyncStatement(empty, from, null));
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.util;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class IdleStackTest extends TestCase {
+
+    public void testLifo() {
+        IdleStack<String> stack = new IdleStack<String>();
+        Assert.assertNull(stack.pop());
+        stack.push("a", 1L);
+        stack.push("b", 2L);
+        stack.push("c", 3L);
+        Assert.assertEquals(3, stack.size());
+        Assert.assertEquals("c", stack.pop());
+        Assert.assertEquals("b", stack.pop());
+        Assert.assertEquals(1, stack.size());
+        stack.push("d", 4L);
+        Assert.assertEquals("d", stack.pop());
+        Assert.assertEquals("a", stack.pop());
+        Assert.assertNull(stack.pop());
+        Assert.assertEquals(0, stack.size());
+    }
+
+    public void testRemoveIdle() {
+        IdleStack<String> stack = new IdleStack<String>();
+        stack.push("a", 1L);
+        stack.push("b", 2L);
+        stack.push("c", 3L);
+        stack.push("d", 4L);
+        List<String> removed = stack.removeIdle(3L);
+        Assert.assertEquals(2, removed.size());
+        Assert.assertTrue(removed.contains("a"));
+        Assert.assertTrue(removed.contains("b"));
+        Assert.assertEquals(2, stack.size());
+        Assert.assertEquals("d", stack.pop());
+        Assert.assertEquals("c", stack.pop());
+        Assert.assertNull(stack.pop());
+
+        stack.push("e", 5L);
+        stack.push("f", 6L);
+        Assert.assertEquals(2, stack.removeAll().size());
+        Assert.assertEquals(0, stack.size());
+        Assert.assertNull(stack.pop());
+    }
+
+    public void testConcurrent() throws Exception {
+        final IdleStack<Integer> stack = new IdleStack<Integer>();
+        final int items = 64;
+        for (int i = 0; i < items; ++i) {
+            stack.push(i, 0L);
+        }
+        final int threads = 8;
+        final AtomicInteger missing = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100000; ++i) {
+                            Integer e = stack.pop();
+                            if (e == null) {
+                                missing.incrementAndGet();
+                            } else {
+                                stack.push(e, i);
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        for (int i = 0; i < 100; ++i) {
+            for (Integer e : stack.removeIdle(-1L)) {
+                stack.push(e, 0L);
+            }
+        }
+        latch.await();
+        Assert.assertEquals(0, missing.get());
+        Assert.assertEquals(items, stack.size());
+        Set<Integer> set = new HashSet<Integer>();
+        for (Integer e = stack.pop(); e != null; e = stack.pop()) {
+            set.add(e);
+        }
+        Assert.assertEquals(items, set.size());
+    }
+
+}
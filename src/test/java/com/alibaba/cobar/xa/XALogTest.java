@@ -0,0 +1,111 @@
+/*
+ * Copyright 1999-2012 Alibaba Group.
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.cobar.xa;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class XALogTest extends TestCase {
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "cobar-xa-" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        XALog.getInstance().close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public void testRecoverDecision() throws Exception {
+        XALog log = XALog.getInstance();
+        log.init(dir.getPath(), "cobar-test-");
+        Assert.assertTrue(log.isEnabled());
+        String xid1 = log.nextXid();
+        String xid2 = log.nextXid();
+        Assert.assertTrue(xid1.startsWith("cobar-test-"));
+        Assert.assertFalse(xid1.equals(xid2));
+
+        log.commit(xid1, Arrays.asList("dn1", "dn2"));
+        log.commit(xid2, Arrays.asList("dn2", "dn3"));
+        log.end(xid1);
+        Assert.assertEquals(1, log.getPending().size());
+        Assert.assertTrue(log.getFailed().isEmpty());
+        log.fail(xid2);
+        Assert.assertEquals(Arrays.asList("dn2", "dn3"), log.getFailed().get(xid2));
+
+        // 崩溃时写了一半的记录
+        FileOutputStream out = new FileOutputStream(new File(dir, "xa.log"), true);
+        out.write("C cobar-test-x".getBytes());
+        out.close();
+
+        // 重启后未结束的提交决定都需要重试
+        log.init(dir.getPath(), "cobar-test-");
+        Map<String, List<String>> failed = log.getFailed();
+        Assert.assertEquals(1, failed.size());
+        Assert.assertEquals(Arrays.asList("dn2", "dn3"), failed.get(xid2));
+
+        log.end(xid2);
+        Assert.assertTrue(log.getPending().isEmpty());
+        Assert.assertTrue(log.getFailed().isEmpty());
+        log.init(dir.getPath(), "cobar-test-");
+        Assert.assertTrue(log.getPending().isEmpty());
+
+        log.close();
+        Assert.assertFalse(log.isEnabled());
+    }
+
+    public void testRecoverFromTempFile() throws Exception {
+        XALog log = XALog.getInstance();
+        log.init(dir.getPath(), "cobar-test-");
+        String xid = log.nextXid();
+        log.commit(xid, Arrays.asList("dn1", "dn2"));
+        log.init(dir.getPath(), "cobar-test-");
+
+        // 旧日志已删除、tmp文件尚未改名时崩溃
+        File file = new File(dir, "xa.log");
+        File tmp = new File(dir, "xa.log.tmp");
+        Assert.assertFalse(tmp.exists());
+        Assert.assertTrue(file.renameTo(tmp));
+        log.init(dir.getPath(), "cobar-test-");
+        Assert.assertEquals(Arrays.asList("dn1", "dn2"), log.getFailed().get(xid));
+        Assert.assertTrue(file.exists());
+        Assert.assertFalse(tmp.exists());
+
+        // 写tmp文件时崩溃，旧日志仍然完整
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write("C cobar-test-x".getBytes());
+        out.close();
+        log.init(dir.getPath(), "cobar-test-");
+        Assert.assertEquals(1, log.getPending().size());
+        Assert.assertEquals(Arrays.asList("dn1", "dn2"), log.getFailed().get(xid));
+    }
+
+}